@@ -0,0 +1,48 @@
+package com.sam.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Entry point of benchmarks.jar. Accepts every JMH command line option and defaults
+ * the result to JSON in {@code jmh-result-<productSearch version>.json}, so runs of
+ * different releases can be compared side by side.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cli);
+        if (!cli.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cli.getResult().hasValue()) {
+            options.result("jmh-result-" + version() + ".json");
+        }
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            // Hibernate 5.1 builds its javassist proxies through ClassLoader.defineClass
+            options.jvmArgsAppend("--add-opens=java.base/java.lang=ALL-UNNAMED");
+        }
+        new Runner(options.build()).run();
+    }
+
+    private static String version() throws Exception {
+        Properties properties = new Properties();
+        InputStream in = BenchmarkRunner.class.getResourceAsStream("/benchmark.properties");
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties.getProperty("productSearch.version", "unknown");
+    }
+}
@@ -0,0 +1,73 @@
+package com.sam.bench;
+
+import com.sam.model.Person;
+import com.sam.model.Product;
+import com.sam.model.Seller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic data. Product words are drawn with a skewed distribution so
+ * that a few terms ("phone", "case", ...) match a large part of the catalog, like
+ * real traffic.
+ */
+final class Catalogs {
+
+    static final String[] WORDS = {
+            "phone", "case", "charger", "cable", "usb", "red", "blue", "black", "leather", "wallet",
+            "screen", "protector", "glass", "stand", "wireless", "fast", "galaxy", "iphone", "pixel", "earbuds",
+            "headphones", "bluetooth", "speaker", "portable", "battery", "power", "bank", "magnetic", "car", "mount",
+            "tablet", "keyboard", "mouse", "laptop", "sleeve", "backpack", "waterproof", "rugged", "slim", "clear"
+    };
+
+    private Catalogs() {
+    }
+
+    static List<Product> products(int count, int sellers, long seed) {
+        Random random = new Random(seed);
+        List<Seller> sellerList = new ArrayList<Seller>(sellers);
+        for (int i = 0; i < sellers; i++) {
+            Seller seller = new Seller();
+            seller.setSellerId("s" + i);
+            seller.setSellerName("Seller " + i);
+            sellerList.add(seller);
+        }
+        List<Product> products = new ArrayList<Product>(count);
+        for (int i = 0; i < count; i++) {
+            Product product = new Product();
+            product.setId("p" + i);
+            product.setProductName(phrase(random, 2 + random.nextInt(4)) + " " + i % 997);
+            product.setDescription(phrase(random, 8 + random.nextInt(12)));
+            product.setSeller(sellerList.get(random.nextInt(sellers)));
+            products.add(product);
+        }
+        return products;
+    }
+
+    static Person person(int i) {
+        Person person = new Person();
+        person.setName("name" + i % 1000);
+        person.setEmail(email(i));
+        person.setPhone("555-" + i);
+        return person;
+    }
+
+    static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    private static String phrase(Random random, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            // squaring a uniform value skews the pick towards the first words
+            double u = random.nextDouble();
+            sb.append(WORDS[(int) (u * u * WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
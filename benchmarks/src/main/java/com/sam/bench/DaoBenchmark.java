@@ -0,0 +1,145 @@
+package com.sam.bench;
+
+import com.sam.dao.PersonDaoImpl;
+import com.sam.dao.generic.KeysetCursor;
+import com.sam.dao.generic.KeysetPage;
+import com.sam.model.Person;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GenericDaoHibernate and PersonDaoImpl against an H2 person table of {@code rows} rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DaoBenchmark {
+
+    static final int PAGE_SIZE = 50;
+    static final int MULTI_GET_SIZE = 100;
+
+    @Param({"10000"})
+    int rows;
+
+    private SessionFactory sessionFactory;
+    private PersonDaoImpl dao;
+    private PersonDaoImpl uncachedDao;
+    private final AtomicInteger sequence = new AtomicInteger();
+    private String deepCursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sessionFactory = H2Database.create("dao");
+        dao = new PersonDaoImpl();
+        dao.setSessionFactory(sessionFactory);
+        // a one byte cache never holds an entry, so every lookup goes to the database
+        uncachedDao = new PersonDaoImpl();
+        uncachedDao.setEmailCacheMaxWeight(1);
+        uncachedDao.setSessionFactory(sessionFactory);
+
+        List<Person> persons = new ArrayList<Person>(rows);
+        for (int i = 0; i < rows; i++) {
+            persons.add(Catalogs.person(i));
+        }
+        dao.insertAll(persons);
+        sequence.set(rows);
+        deepCursor = new KeysetCursor(rows - PAGE_SIZE, rows - PAGE_SIZE).encode();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public Person save() {
+        return dao.save(Catalogs.person(sequence.incrementAndGet()));
+    }
+
+    @Benchmark
+    public Object insert() {
+        return dao.insert(Catalogs.person(sequence.incrementAndGet()));
+    }
+
+    @Benchmark
+    public List<Person> getPersonByEmailCached() {
+        return dao.getPersonByEmail(Catalogs.email(ThreadLocalRandom.current().nextInt(1000)));
+    }
+
+    @Benchmark
+    public List<Person> getPersonByEmailUncached() {
+        return uncachedDao.getPersonByEmail(Catalogs.email(ThreadLocalRandom.current().nextInt(rows)));
+    }
+
+    @Benchmark
+    public boolean exists() {
+        return dao.exists(1 + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    @Benchmark
+    public List<Person> findByExample() {
+        Person example = new Person();
+        example.setEmail(Catalogs.email(ThreadLocalRandom.current().nextInt(rows)));
+        return dao.findByExample(example);
+    }
+
+    @Benchmark
+    public List<Person> offsetPageFirst() {
+        return dao.findByDetachedCriteria(byId(), 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Person> offsetPageDeep() {
+        return dao.findByDetachedCriteria(byId(), rows - PAGE_SIZE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public KeysetPage<Person> keysetPageDeep() {
+        return dao.findPageByDetachedCriteria(DetachedCriteria.forClass(Person.class), "id", deepCursor, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Person> criteriaByEmail() {
+        return dao.findByDetachedCriteria(DetachedCriteria.forClass(Person.class)
+                .add(Restrictions.eq("email", Catalogs.email(ThreadLocalRandom.current().nextInt(rows)))));
+    }
+
+    @Benchmark
+    public Map<Integer, Person> getMany() {
+        List<Integer> ids = new ArrayList<Integer>(MULTI_GET_SIZE);
+        int start = 1 + ThreadLocalRandom.current().nextInt(rows - MULTI_GET_SIZE);
+        for (int i = 0; i < MULTI_GET_SIZE; i++) {
+            ids.add(start + i);
+        }
+        return dao.getMany(ids);
+    }
+
+    private static DetachedCriteria byId() {
+        return DetachedCriteria.forClass(Person.class).addOrder(Order.asc("id"));
+    }
+}
@@ -0,0 +1,114 @@
+package com.sam.bench;
+
+import com.sam.dao.routing.ReplicaRoutingDataSource;
+import com.sam.model.Person;
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.jdbc.Work;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * In-memory H2 database in MySQL compatibility mode standing in for the production
+ * MySQL schema, with the same batching settings as applicationContext-beans.xml.
+ * <p/>
+ * <p>Several databases stand in for a primary and its replicas: {@link #create} each
+ * of them for its schema and rows, then {@link #createRouted} the session factory the
+ * DAOs use over {@link #pool pools} of them. Replicas do not replicate, so rows the
+ * replica reads should find are inserted into every database.
+ */
+final class H2Database {
+
+    private H2Database() {
+    }
+
+    static SessionFactory create(String name) {
+        Configuration configuration = configuration()
+                .setProperty("hibernate.connection.driver_class", "org.h2.Driver")
+                .setProperty("hibernate.connection.url", url(name))
+                .setProperty("hibernate.connection.pool_size", "8")
+                .setProperty("hibernate.hbm2ddl.auto", "create");
+        SessionFactory sessionFactory = configuration.buildSessionFactory();
+        createIndexes(sessionFactory);
+        return sessionFactory;
+    }
+
+    /**
+     * @return a connection pool of the database {@link #create} made under this name
+     */
+    static HikariDataSource pool(String name, int size) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setJdbcUrl(url(name));
+        pool.setMaximumPoolSize(size);
+        pool.setPoolName(name);
+        return pool;
+    }
+
+    /**
+     * @return a session factory over a {@link ReplicaRoutingDataSource}, for DAOs wrapped
+     * by a {@link com.sam.dao.routing.ReplicaReadPostProcessor}
+     */
+    static SessionFactory createRouted(DataSource primary, List<DataSource> replicas) {
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource();
+        routing.setPrimary(primary);
+        routing.setReplicas(replicas);
+        routing.afterPropertiesSet();
+        Configuration configuration = configuration();
+        configuration.getProperties().put("hibernate.connection.datasource", routing);
+        return configuration.buildSessionFactory();
+    }
+
+    private static String url(String name) {
+        return "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    }
+
+    private static Configuration configuration() {
+        Configuration configuration = new Configuration()
+                .setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+                .setProperty("hibernate.id.new_generator_mappings", "false")
+                .setProperty("hibernate.jdbc.batch_size", "50")
+                .setProperty("hibernate.order_inserts", "true")
+                .setProperty("hibernate.order_updates", "true")
+                .setProperty("hibernate.show_sql", "false");
+        configuration.addAnnotatedClass(Person.class);
+        configuration.addAnnotatedClass(Seller.class);
+        configuration.addAnnotatedClass(Product.class);
+        return configuration;
+    }
+
+    /**
+     * hbm2ddl only creates primary, foreign and natural id keys (the unique key on
+     * person.email); add the other secondary indexes of src/sql/changes.sql so lookups
+     * are measured against the production access paths, and the database maintained
+     * product.updated_at column.
+     */
+    private static void createIndexes(SessionFactory sessionFactory) {
+        Session session = sessionFactory.openSession();
+        try {
+            session.doWork(new Work() {
+                public void execute(Connection connection) throws SQLException {
+                    Statement statement = connection.createStatement();
+                    try {
+                        statement.execute("CREATE INDEX idx_person_name ON person (name)");
+                        statement.execute("CREATE INDEX idx_product_seller ON product (seller_id)");
+                        statement.execute("ALTER TABLE product ALTER COLUMN updated_at SET DEFAULT CURRENT_TIMESTAMP(3)");
+                        statement.execute("ALTER TABLE product ALTER COLUMN updated_at SET ON UPDATE CURRENT_TIMESTAMP(3)");
+                        statement.execute("CREATE INDEX idx_product_updated_at ON product (updated_at)");
+                    } finally {
+                        statement.close();
+                    }
+                }
+            });
+        } finally {
+            session.close();
+        }
+    }
+}
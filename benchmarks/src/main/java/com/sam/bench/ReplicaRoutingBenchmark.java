@@ -0,0 +1,128 @@
+package com.sam.bench;
+
+import com.sam.dao.PersonDao;
+import com.sam.dao.PersonDaoImpl;
+import com.sam.dao.ProductDao;
+import com.sam.dao.ProductDaoImpl;
+import com.sam.dao.routing.ReplicaReadPostProcessor;
+import com.sam.model.Person;
+import com.sam.model.Product;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Person reads competing with product writes for the connections of an H2 primary,
+ * alone or with {@code replicas} H2 databases the reads are routed to. Every pool has
+ * {@link #POOL_SIZE} connections, fewer than the benchmark's threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplicaRoutingBenchmark {
+
+    static final int POOL_SIZE = 2;
+
+    @Param({"0", "1", "2"})
+    int replicas;
+
+    @Param({"10000"})
+    int rows;
+
+    private final List<SessionFactory> databases = new ArrayList<SessionFactory>();
+    private final List<HikariDataSource> pools = new ArrayList<HikariDataSource>();
+    private SessionFactory sessionFactory;
+    private PersonDao personDao;
+    private ProductDao productDao;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        HikariDataSource primary = database("routing");
+        List<DataSource> replicaPools = new ArrayList<DataSource>();
+        for (int i = 0; i < replicas; i++) {
+            replicaPools.add(database("routing-replica" + i));
+        }
+        sessionFactory = H2Database.createRouted(primary, replicaPools);
+
+        ReplicaReadPostProcessor routing = new ReplicaReadPostProcessor();
+        // a one byte cache never holds an entry, so every read goes to a database
+        PersonDaoImpl uncachedPersonDao = new PersonDaoImpl();
+        uncachedPersonDao.setEmailCacheMaxWeight(1);
+        uncachedPersonDao.setSessionFactory(sessionFactory);
+        personDao = (PersonDao) routing.postProcessAfterInitialization(uncachedPersonDao, "personDao");
+        ProductDaoImpl products = new ProductDaoImpl();
+        products.setSessionFactory(sessionFactory);
+        productDao = (ProductDao) routing.postProcessAfterInitialization(products, "productDao");
+    }
+
+    /**
+     * Creates a database with the persons and returns a pool of it.
+     */
+    private HikariDataSource database(String name) {
+        SessionFactory database = H2Database.create(name);
+        databases.add(database);
+        List<Person> persons = new ArrayList<Person>(rows);
+        for (int i = 0; i < rows; i++) {
+            persons.add(Catalogs.person(i));
+        }
+        PersonDaoImpl dao = new PersonDaoImpl();
+        dao.setSessionFactory(database);
+        dao.insertAll(persons);
+        HikariDataSource pool = H2Database.pool(name, POOL_SIZE);
+        pools.add(pool);
+        return pool;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sessionFactory.close();
+        for (HikariDataSource pool : pools) {
+            pool.close();
+        }
+        for (SessionFactory database : databases) {
+            database.close();
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public List<Person> read() {
+        return personDao.getPersonByEmail(Catalogs.email(ThreadLocalRandom.current().nextInt(rows)));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public Product write() {
+        Product product = new Product();
+        product.setId("bench-" + sequence.incrementAndGet());
+        product.setProductName("benchmark product");
+        return productDao.save(product);
+    }
+}
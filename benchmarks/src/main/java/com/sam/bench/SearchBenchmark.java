@@ -0,0 +1,101 @@
+package com.sam.bench;
+
+import com.sam.model.Product;
+import com.sam.search.IndexSnapshot;
+import com.sam.search.ProductSearcher;
+import com.sam.search.SearchResult;
+import com.sam.search.ShardedIndexBuilder;
+import com.sam.search.SuggestIndex;
+import com.sam.search.SuggestIndexBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency of the in-memory product index and the typeahead trie over a
+ * synthetic catalog of {@code products} products. With more than one shard the index is
+ * split like the service splits it and each query searches the shards in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SearchBenchmark {
+
+    @Param({"100000"})
+    int products;
+
+    @Param({"1", "4"})
+    int shards;
+
+    private ForkJoinPool pool;
+    private ProductSearcher searcher;
+    private SuggestIndex suggestIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Product> catalog = Catalogs.products(products, 200, 42L);
+        ShardedIndexBuilder indexBuilder = new ShardedIndexBuilder(shards);
+        SuggestIndexBuilder suggestBuilder = new SuggestIndexBuilder();
+        for (Product product : catalog) {
+            indexBuilder.add(product);
+            suggestBuilder.add(product.getProductName());
+        }
+        pool = shards > 1 ? new ForkJoinPool(Runtime.getRuntime().availableProcessors()) : null;
+        searcher = new ProductSearcher(IndexSnapshot.of(indexBuilder.build()), pool);
+        suggestIndex = suggestBuilder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public SearchResult searchCommonTerm() {
+        return searcher.search("phone", 0, 20);
+    }
+
+    @Benchmark
+    public SearchResult searchMultiTerm() {
+        return searcher.search("red leather phone case", 0, 20);
+    }
+
+    @Benchmark
+    public SearchResult searchRareTerm() {
+        return searcher.search("rugged waterproof", 0, 20);
+    }
+
+    @Benchmark
+    public SearchResult searchDeepPage() {
+        return searcher.search("phone case", 900, 100);
+    }
+
+    @Benchmark
+    public List<String> suggestShortPrefix() {
+        return suggestIndex.suggest("ph", 10);
+    }
+
+    @Benchmark
+    public List<String> suggestLongPrefix() {
+        return suggestIndex.suggest("phone case blu", 10);
+    }
+}
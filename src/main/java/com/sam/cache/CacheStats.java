@@ -0,0 +1,77 @@
+package com.sam.cache;
+
+import java.io.Serializable;
+
+/**
+ * Point in time snapshot of a cache's counters.
+ */
+public class CacheStats implements Serializable {
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private long size;
+    private long weightedSize;
+    private long maximumWeight;
+
+    public CacheStats() {
+    }
+
+    public CacheStats(long hits, long misses, long evictions, long invalidations, long size, long weightedSize,
+                      long maximumWeight) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.size = size;
+        this.weightedSize = weightedSize;
+        this.maximumWeight = maximumWeight;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getWeightedSize() {
+        return weightedSize;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0d : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", invalidations=" + invalidations +
+                ", size=" + size +
+                ", weightedSize=" + weightedSize +
+                ", maximumWeight=" + maximumWeight +
+                '}';
+    }
+}
@@ -0,0 +1,55 @@
+package com.sam.cache;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.statistics.StatisticsGateway;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the counters of the regions of Hibernate's second-level cache from the Ehcache
+ * manager the region factory created, found by the name {@code ehcache.xml} gives it.
+ * <p/>
+ * <p>Regions are bounded by entry count, so an entry weighs 1: weighted size is the
+ * number of entries and maximum weight the region's {@code maxEntriesLocalHeap}.
+ * Expired entries count as evictions, removals made by writes as invalidations.
+ */
+public class EhcacheRegionStats {
+
+    private String cacheManagerName;
+
+    public void setCacheManagerName(String cacheManagerName) {
+        this.cacheManagerName = cacheManagerName;
+    }
+
+    /**
+     * @return counters per region name, in name order; empty until the session factory
+     * started the cache manager
+     */
+    public Map<String, CacheStats> regionStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<String, CacheStats>();
+        CacheManager manager = CacheManager.getCacheManager(cacheManagerName);
+        if (manager == null) {
+            return stats;
+        }
+        String[] names = manager.getCacheNames();
+        Arrays.sort(names);
+        for (String name : names) {
+            Ehcache cache = manager.getEhcache(name);
+            if (cache != null) {
+                stats.put(name, statsOf(cache));
+            }
+        }
+        return stats;
+    }
+
+    private static CacheStats statsOf(Ehcache cache) {
+        StatisticsGateway statistics = cache.getStatistics();
+        long size = statistics.getSize();
+        return new CacheStats(statistics.cacheHitCount(), statistics.cacheMissCount(),
+                statistics.cacheEvictedCount() + statistics.cacheExpiredCount(), statistics.cacheRemoveCount(),
+                size, size, cache.getCacheConfiguration().getMaxEntriesLocalHeap());
+    }
+}
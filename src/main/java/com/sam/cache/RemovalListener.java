@@ -0,0 +1,10 @@
+package com.sam.cache;
+
+/**
+ * Notified after an entry left a cache, either because it was evicted, invalidated or
+ * replaced. Called outside of the cache lock.
+ */
+public interface RemovalListener<K, V> {
+
+    void onRemoval(K key, V value);
+}
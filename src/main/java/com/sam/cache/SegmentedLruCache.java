@@ -0,0 +1,280 @@
+package com.sam.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Weight bounded, thread safe cache with a segmented LRU eviction policy.
+ * <p/>
+ * <p>New entries go to a probation segment; an entry that is read again is promoted to a
+ * protected segment holding up to 80% of the maximum weight. Evictions take the least
+ * recently used probation entry first, so a burst of one-off keys can not flush the
+ * entries that are actually reused.
+ * <p/>
+ * <p>Lookups go straight to a {@link ConcurrentHashMap}. Reordering the LRU lists on a
+ * hit needs the policy lock, but a reader only tries it and skips the reorder when
+ * another thread holds it, so reads never block. Writes and invalidations take the lock.
+ * <p/>
+ * <p>Every invalidation bumps a generation number. Read-through callers take the
+ * generation before loading and store the result with {@link #putIfCurrent}, which
+ * refuses the value if an invalidation happened meanwhile; a slow load that raced with
+ * a write therefore can never put stale data back into the cache.
+ */
+public class SegmentedLruCache<K, V> {
+
+    private static final double PROTECTED_RATIO = 0.8d;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<K, Node<K, V>>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long maximumWeight;
+    private final long protectedMaximumWeight;
+    private final Weigher<? super K, ? super V> weigher;
+    private final RemovalListener<? super K, ? super V> removalListener;
+
+    // guarded by lock
+    private final Node<K, V> probation = Node.sentinel();
+    private final Node<K, V> protectedSegment = Node.sentinel();
+    private long weightedSize;
+    private long protectedWeight;
+    private volatile long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public SegmentedLruCache(long maximumWeight, Weigher<? super K, ? super V> weigher) {
+        this(maximumWeight, weigher, null);
+    }
+
+    public SegmentedLruCache(long maximumWeight, Weigher<? super K, ? super V> weigher,
+                             RemovalListener<? super K, ? super V> removalListener) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximumWeight must be positive: " + maximumWeight);
+        }
+        this.maximumWeight = maximumWeight;
+        this.protectedMaximumWeight = (long) (maximumWeight * PROTECTED_RATIO);
+        this.weigher = weigher;
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * @return the cached value, or null on a miss
+     */
+    public V getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (lock.tryLock()) {
+            try {
+                if (node.isLinked()) {
+                    onAccess(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #putIfCurrent} after a load
+     */
+    public long generation() {
+        return generation;
+    }
+
+    public void put(K key, V value) {
+        List<Node<K, V>> removed = new ArrayList<Node<K, V>>(2);
+        lock.lock();
+        try {
+            doPut(key, value, removed);
+        } finally {
+            lock.unlock();
+        }
+        notifyRemoved(removed);
+    }
+
+    /**
+     * Stores a loaded value unless the cache was invalidated after {@code expectedGeneration}
+     * was read.
+     *
+     * @return true if the value was stored
+     */
+    public boolean putIfCurrent(K key, V value, long expectedGeneration) {
+        List<Node<K, V>> removed = new ArrayList<Node<K, V>>(2);
+        boolean stored = false;
+        lock.lock();
+        try {
+            if (generation == expectedGeneration) {
+                doPut(key, value, removed);
+                stored = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifyRemoved(removed);
+        return stored;
+    }
+
+    public void invalidate(K key) {
+        Node<K, V> node;
+        lock.lock();
+        try {
+            generation++;
+            node = data.remove(key);
+            if (node != null) {
+                remove(node);
+                invalidations.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (node != null && removalListener != null) {
+            removalListener.onRemoval(node.key, node.value);
+        }
+    }
+
+    public void invalidateAll() {
+        List<Node<K, V>> removed = new ArrayList<Node<K, V>>(data.size());
+        lock.lock();
+        try {
+            generation++;
+            for (Node<K, V> node : data.values()) {
+                remove(node);
+                removed.add(node);
+            }
+            data.clear();
+            invalidations.add(removed.size());
+        } finally {
+            lock.unlock();
+        }
+        notifyRemoved(removed);
+    }
+
+    public long size() {
+        return data.size();
+    }
+
+    public CacheStats stats() {
+        long weight;
+        lock.lock();
+        try {
+            weight = weightedSize;
+        } finally {
+            lock.unlock();
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), data.size(), weight,
+                maximumWeight);
+    }
+
+    private void doPut(K key, V value, List<Node<K, V>> removed) {
+        int weight = weigher.weigh(key, value);
+        Node<K, V> old;
+        if (weight > maximumWeight) {
+            // would evict everything else and then itself
+            old = data.remove(key);
+        } else {
+            Node<K, V> node = new Node<K, V>(key, value, weight);
+            old = data.put(key, node);
+            linkFirst(probation, node);
+            weightedSize += weight;
+        }
+        if (old != null) {
+            remove(old);
+            removed.add(old);
+        }
+        evict(removed);
+    }
+
+    private void evict(List<Node<K, V>> removed) {
+        while (weightedSize > maximumWeight) {
+            Node<K, V> victim = probation.prev != probation ? probation.prev : protectedSegment.prev;
+            remove(victim);
+            data.remove(victim.key, victim);
+            evictions.increment();
+            removed.add(victim);
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        unlink(node);
+        linkFirst(protectedSegment, node);
+        while (protectedWeight > protectedMaximumWeight) {
+            Node<K, V> demoted = protectedSegment.prev;
+            unlink(demoted);
+            linkFirst(probation, demoted);
+        }
+    }
+
+    private void linkFirst(Node<K, V> segment, Node<K, V> node) {
+        node.prev = segment;
+        node.next = segment.next;
+        segment.next.prev = node;
+        segment.next = node;
+        node.inProtected = segment == protectedSegment;
+        if (node.inProtected) {
+            protectedWeight += node.weight;
+        } else if (segment != probation) {
+            throw new IllegalStateException("Unknown segment");
+        }
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (!node.isLinked()) {
+            return;
+        }
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        if (node.inProtected) {
+            protectedWeight -= node.weight;
+        }
+    }
+
+    private void remove(Node<K, V> node) {
+        unlink(node);
+        weightedSize -= node.weight;
+    }
+
+    private void notifyRemoved(List<Node<K, V>> removed) {
+        if (removalListener != null) {
+            for (Node<K, V> node : removed) {
+                removalListener.onRemoval(node.key, node.value);
+            }
+        }
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final int weight;
+        Node<K, V> prev;
+        Node<K, V> next;
+        boolean inProtected;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        static <K, V> Node<K, V> sentinel() {
+            Node<K, V> node = new Node<K, V>(null, null, 0);
+            node.prev = node;
+            node.next = node;
+            return node;
+        }
+
+        boolean isLinked() {
+            return prev != null;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.sam.cache;
+
+/**
+ * Estimates the memory cost of a cache entry, in whatever unit the cache bound is
+ * expressed in (normally bytes).
+ */
+public interface Weigher<K, V> {
+
+    int weigh(K key, V value);
+}
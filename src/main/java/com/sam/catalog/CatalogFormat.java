@@ -0,0 +1,44 @@
+package com.sam.catalog;
+
+/**
+ * Layout of a catalog file, version 1. All numbers are big endian.
+ * <pre>
+ * header   int magic, int version, int productCount, int sellerCount, int regionCount,
+ *          then regionCount times (long offset, long length)
+ * regions  one after the other, in {@code REGION_*} order
+ * </pre>
+ * A string column is two regions. The entry region holds one long per value: bit 63
+ * marks null, bits 24-62 the value's start in the heap region and bits 0-23 its length
+ * in bytes. The heap region holds the UTF-8 bytes; a value never crosses a
+ * {@link #CHUNK_SIZE} boundary of the heap, so the reader can map it in chunks of that
+ * size. The seller column is one int per product, the ordinal of its seller or -1.
+ */
+final class CatalogFormat {
+
+    static final int MAGIC = 0x50534331; // "PSC1"
+    static final int VERSION = 1;
+
+    static final int REGION_PRODUCT_ID = 0;
+    static final int REGION_PRODUCT_NAME = 2;
+    static final int REGION_DESCRIPTION = 4;
+    static final int REGION_SELLER = 6;
+    static final int REGION_SELLER_ID = 7;
+    static final int REGION_SELLER_NAME = 9;
+    static final int REGION_COUNT = 11;
+
+    static final int HEADER_SIZE = 5 * 4 + REGION_COUNT * 2 * 8;
+
+    static final int LENGTH_BITS = 24;
+    static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+    static final int MAX_VALUE_LENGTH = (int) LENGTH_MASK;
+    static final long NULL_ENTRY = Long.MIN_VALUE;
+
+    static final int CHUNK_BITS = 30;
+    static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    static final int NO_SELLER = -1;
+
+    private CatalogFormat() {
+    }
+}
@@ -0,0 +1,90 @@
+package com.sam.catalog;
+
+import com.sam.model.Product;
+import com.sam.model.Seller;
+
+/**
+ * Flyweight view of one product of a {@link MappedCatalog}. It holds nothing but the
+ * catalog and the ordinal; every getter decodes its field from the mapped file.
+ * <p/>
+ * <p>The view is read-only and is not a Hibernate entity, use {@link #toProduct()} to
+ * get a plain Product that can be modified or saved. Serializing it writes such a copy.
+ */
+public final class CatalogProduct extends Product {
+
+    private final transient MappedCatalog catalog;
+    private final int ordinal;
+
+    CatalogProduct(MappedCatalog catalog, int ordinal) {
+        this.catalog = catalog;
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * @return position of the product in its catalog, the order it was indexed in
+     */
+    public int ordinal() {
+        return ordinal;
+    }
+
+    @Override
+    public String getId() {
+        return catalog.productId(ordinal);
+    }
+
+    @Override
+    public String getProductName() {
+        return catalog.productName(ordinal);
+    }
+
+    @Override
+    public String getDescription() {
+        return catalog.description(ordinal);
+    }
+
+    @Override
+    public Seller getSeller() {
+        int seller = catalog.sellerOrdinal(ordinal);
+        return seller < 0 ? null : catalog.seller(seller);
+    }
+
+    @Override
+    public void setId(String id) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setProductName(String productName) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setDescription(String description) {
+        throw readOnly();
+    }
+
+    @Override
+    public void setSeller(Seller seller) {
+        throw readOnly();
+    }
+
+    /**
+     * @return a detached, modifiable copy with every field decoded
+     */
+    public Product toProduct() {
+        Product product = new Product();
+        product.setId(getId());
+        product.setProductName(getProductName());
+        product.setDescription(getDescription());
+        product.setSeller(getSeller());
+        return product;
+    }
+
+    private Object writeReplace() {
+        return toProduct();
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Catalog products are read-only, use toProduct()");
+    }
+}
@@ -0,0 +1,175 @@
+package com.sam.catalog;
+
+import com.sam.model.Product;
+import com.sam.model.Seller;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes products, in one pass, to a catalog file that {@link MappedCatalog} opens.
+ * <p/>
+ * <p>Each column is spooled to its own temporary file next to the target, so the writer
+ * holds no products and only the distinct sellers in memory. {@link #finish()} then
+ * concatenates the columns behind the header into a temporary catalog and renames it
+ * over the target, so readers only ever see complete catalogs; a catalog that is still
+ * mapped keeps its old contents. Product ordinals are the order of {@link #add} calls.
+ * Not thread safe.
+ */
+public class CatalogWriter implements Closeable {
+
+    /**
+     * The entry region of a column has to be mappable in one piece.
+     */
+    static final int MAX_PRODUCTS = Integer.MAX_VALUE / 8;
+
+    private final File target;
+    private final StringColumnWriter productIds;
+    private final StringColumnWriter productNames;
+    private final StringColumnWriter descriptions;
+    private final StringColumnWriter sellerIds;
+    private final StringColumnWriter sellerNames;
+    private final File sellerRefs;
+    private final DataOutputStream sellerRefsOut;
+    private final Map<String, Integer> sellerOrdinals = new HashMap<String, Integer>();
+    private int productCount;
+
+    public CatalogWriter(File target) throws IOException {
+        this.target = target.getAbsoluteFile();
+        File directory = this.target.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create catalog directory " + directory);
+        }
+        this.productIds = new StringColumnWriter(directory, "product-id");
+        this.productNames = new StringColumnWriter(directory, "product-name");
+        this.descriptions = new StringColumnWriter(directory, "description");
+        this.sellerIds = new StringColumnWriter(directory, "seller-id");
+        this.sellerNames = new StringColumnWriter(directory, "seller-name");
+        this.sellerRefs = File.createTempFile("seller", ".refs", directory);
+        this.sellerRefsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sellerRefs)));
+    }
+
+    /**
+     * @return the product's ordinal in the catalog
+     */
+    public int add(Product product) throws IOException {
+        if (productCount == MAX_PRODUCTS) {
+            throw new IllegalStateException("A catalog holds at most " + MAX_PRODUCTS + " products");
+        }
+        productIds.add(product.getId());
+        productNames.add(product.getProductName());
+        descriptions.add(product.getDescription());
+        sellerRefsOut.writeInt(sellerOrdinal(product.getSeller()));
+        return productCount++;
+    }
+
+    public int size() {
+        return productCount;
+    }
+
+    /**
+     * Writes the catalog file and maps it.
+     */
+    public MappedCatalog finish() throws IOException {
+        productIds.finish();
+        productNames.finish();
+        descriptions.finish();
+        sellerIds.finish();
+        sellerNames.finish();
+        sellerRefsOut.close();
+        File[] regions = {
+                productIds.entries, productIds.heap,
+                productNames.entries, productNames.heap,
+                descriptions.entries, descriptions.heap,
+                sellerRefs,
+                sellerIds.entries, sellerIds.heap,
+                sellerNames.entries, sellerNames.heap};
+
+        File temporary = File.createTempFile("catalog", ".tmp", target.getParentFile());
+        try {
+            FileOutputStream out = new FileOutputStream(temporary);
+            try {
+                DataOutputStream header = new DataOutputStream(new BufferedOutputStream(out));
+                header.writeInt(CatalogFormat.MAGIC);
+                header.writeInt(CatalogFormat.VERSION);
+                header.writeInt(productCount);
+                header.writeInt(sellerOrdinals.size());
+                header.writeInt(CatalogFormat.REGION_COUNT);
+                long offset = CatalogFormat.HEADER_SIZE;
+                for (File region : regions) {
+                    header.writeLong(offset);
+                    header.writeLong(region.length());
+                    offset += region.length();
+                }
+                header.flush();
+                FileChannel channel = out.getChannel();
+                for (File region : regions) {
+                    append(channel, region);
+                }
+                channel.force(true);
+            } finally {
+                out.close();
+            }
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temporary.delete();
+        }
+        return MappedCatalog.open(target);
+    }
+
+    /**
+     * Deletes the temporary column files; the target is left as it is unless
+     * {@link #finish()} completed.
+     */
+    public void close() throws IOException {
+        try {
+            sellerRefsOut.close();
+        } finally {
+            sellerRefs.delete();
+            productIds.close();
+            productNames.close();
+            descriptions.close();
+            sellerIds.close();
+            sellerNames.close();
+        }
+    }
+
+    private int sellerOrdinal(Seller seller) throws IOException {
+        if (seller == null || seller.getSellerId() == null) {
+            return CatalogFormat.NO_SELLER;
+        }
+        Integer ordinal = sellerOrdinals.get(seller.getSellerId());
+        if (ordinal == null) {
+            ordinal = sellerOrdinals.size();
+            sellerOrdinals.put(seller.getSellerId(), ordinal);
+            sellerIds.add(seller.getSellerId());
+            sellerNames.add(seller.getSellerName());
+        }
+        return ordinal;
+    }
+
+    private static void append(FileChannel out, File region) throws IOException {
+        FileInputStream in = new FileInputStream(region);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.sam.catalog;
+
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import com.sam.search.ProductStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only product catalog served straight from a memory-mapped file written by
+ * {@link CatalogWriter}.
+ * <p/>
+ * <p>Opening only reads the header and maps the columns, so it takes milliseconds
+ * whatever the catalog's size, and the catalog lives in the page cache instead of the
+ * heap. {@link #get(int)} returns a {@link CatalogProduct} flyweight that decodes a
+ * field each time it is read; only the products a caller holds on to occupy the heap.
+ * Safe to share between threads.
+ */
+public final class MappedCatalog implements ProductStore {
+
+    private final File file;
+    private final int productCount;
+    private final int sellerCount;
+    private final StringColumn productIds;
+    private final StringColumn productNames;
+    private final StringColumn descriptions;
+    private final MappedByteBuffer sellerRefs;
+    private final StringColumn sellerIds;
+    private final StringColumn sellerNames;
+
+    private MappedCatalog(File file, FileChannel channel, ByteBuffer header) throws IOException {
+        this.file = file;
+        this.productCount = header.getInt();
+        this.sellerCount = header.getInt();
+        int regionCount = header.getInt();
+        if (regionCount != CatalogFormat.REGION_COUNT) {
+            throw new IOException("Corrupt catalog " + file + ": " + regionCount + " regions");
+        }
+        long[] offsets = new long[regionCount];
+        long[] lengths = new long[regionCount];
+        long size = channel.size();
+        for (int i = 0; i < regionCount; i++) {
+            offsets[i] = header.getLong();
+            lengths[i] = header.getLong();
+            if (offsets[i] < CatalogFormat.HEADER_SIZE || lengths[i] < 0 || offsets[i] + lengths[i] > size) {
+                throw new IOException("Corrupt catalog " + file + ": region " + i + " is out of bounds");
+            }
+        }
+        checkEntries(offsets, lengths, CatalogFormat.REGION_PRODUCT_ID, productCount);
+        checkEntries(offsets, lengths, CatalogFormat.REGION_PRODUCT_NAME, productCount);
+        checkEntries(offsets, lengths, CatalogFormat.REGION_DESCRIPTION, productCount);
+        checkEntries(offsets, lengths, CatalogFormat.REGION_SELLER_ID, sellerCount);
+        checkEntries(offsets, lengths, CatalogFormat.REGION_SELLER_NAME, sellerCount);
+        if (lengths[CatalogFormat.REGION_SELLER] != 4L * productCount) {
+            throw new IOException("Corrupt catalog " + file + ": seller column does not match the product count");
+        }
+
+        this.productIds = column(channel, offsets, lengths, CatalogFormat.REGION_PRODUCT_ID);
+        this.productNames = column(channel, offsets, lengths, CatalogFormat.REGION_PRODUCT_NAME);
+        this.descriptions = column(channel, offsets, lengths, CatalogFormat.REGION_DESCRIPTION);
+        this.sellerRefs = channel.map(FileChannel.MapMode.READ_ONLY, offsets[CatalogFormat.REGION_SELLER],
+                lengths[CatalogFormat.REGION_SELLER]);
+        this.sellerIds = column(channel, offsets, lengths, CatalogFormat.REGION_SELLER_ID);
+        this.sellerNames = column(channel, offsets, lengths, CatalogFormat.REGION_SELLER_NAME);
+    }
+
+    /**
+     * @throws IOException if the file can not be read or is not a catalog of a known version
+     */
+    public static MappedCatalog open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            // mappings stay valid after the channel is closed
+            ByteBuffer header = ByteBuffer.allocate(CatalogFormat.HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Not a product catalog: " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != CatalogFormat.MAGIC) {
+                throw new IOException("Not a product catalog: " + file);
+            }
+            int version = header.getInt();
+            if (version != CatalogFormat.VERSION) {
+                throw new IOException("Unsupported catalog version " + version + ": " + file);
+            }
+            return new MappedCatalog(file, channel, header);
+        } finally {
+            channel.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int size() {
+        return productCount;
+    }
+
+    public int sellerCount() {
+        return sellerCount;
+    }
+
+    public Product get(int doc) {
+        checkOrdinal(doc);
+        return new CatalogProduct(this, doc);
+    }
+
+    public String productId(int ordinal) {
+        return productIds.get(ordinal);
+    }
+
+    public String productName(int ordinal) {
+        return productNames.get(ordinal);
+    }
+
+    public String description(int ordinal) {
+        return descriptions.get(ordinal);
+    }
+
+    /**
+     * @return the product's seller ordinal, or -1 if it has no seller
+     */
+    public int sellerOrdinal(int ordinal) {
+        return sellerRefs.getInt(ordinal << 2);
+    }
+
+    /**
+     * @return a new Seller with the id and name stored for the ordinal
+     */
+    public Seller seller(int sellerOrdinal) {
+        Seller seller = new Seller();
+        seller.setSellerId(sellerIds.get(sellerOrdinal));
+        seller.setSellerName(sellerNames.get(sellerOrdinal));
+        return seller;
+    }
+
+    private void checkOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= productCount) {
+            throw new IndexOutOfBoundsException("Product " + ordinal + " of " + productCount);
+        }
+    }
+
+    private void checkEntries(long[] offsets, long[] lengths, int region, int count) throws IOException {
+        if (lengths[region] != 8L * count) {
+            throw new IOException("Corrupt catalog " + file + ": region " + region + " does not match its count");
+        }
+    }
+
+    private static StringColumn column(FileChannel channel, long[] offsets, long[] lengths, int region)
+            throws IOException {
+        return new StringColumn(channel, offsets[region], lengths[region], offsets[region + 1], lengths[region + 1]);
+    }
+}
@@ -0,0 +1,46 @@
+package com.sam.catalog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read side of a memory-mapped string column, see {@link CatalogFormat}.
+ */
+final class StringColumn {
+
+    private final MappedByteBuffer entries;
+    private final MappedByteBuffer[] chunks;
+
+    StringColumn(FileChannel channel, long entriesOffset, long entriesLength, long heapOffset, long heapLength)
+            throws IOException {
+        this.entries = channel.map(FileChannel.MapMode.READ_ONLY, entriesOffset, entriesLength);
+        int chunkCount = (int) ((heapLength + CatalogFormat.CHUNK_SIZE - 1) >>> CatalogFormat.CHUNK_BITS);
+        this.chunks = new MappedByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            long start = (long) i << CatalogFormat.CHUNK_BITS;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, heapOffset + start,
+                    Math.min(CatalogFormat.CHUNK_SIZE, heapLength - start));
+        }
+    }
+
+    String get(int index) {
+        long entry = entries.getLong(index << 3);
+        if (entry == CatalogFormat.NULL_ENTRY) {
+            return null;
+        }
+        long start = entry >>> CatalogFormat.LENGTH_BITS;
+        int length = (int) (entry & CatalogFormat.LENGTH_MASK);
+        if (length == 0) {
+            return "";
+        }
+        // a duplicate has its own position, so concurrent readers don't interfere
+        ByteBuffer chunk = chunks[(int) (start >>> CatalogFormat.CHUNK_BITS)].duplicate();
+        chunk.position((int) (start & CatalogFormat.CHUNK_MASK));
+        byte[] bytes = new byte[length];
+        chunk.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,75 @@
+package com.sam.catalog;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Spools a string column to two temporary files, its entries and its UTF-8 heap.
+ */
+final class StringColumnWriter implements Closeable {
+
+    private static final byte[] PADDING = new byte[8192];
+
+    final File entries;
+    final File heap;
+    private final DataOutputStream entriesOut;
+    private final DataOutputStream heapOut;
+    private long heapSize;
+
+    StringColumnWriter(File directory, String name) throws IOException {
+        this.entries = File.createTempFile(name, ".entries", directory);
+        this.heap = File.createTempFile(name, ".heap", directory);
+        this.entriesOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(entries)));
+        this.heapOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(heap)));
+    }
+
+    void add(String value) throws IOException {
+        if (value == null) {
+            entriesOut.writeLong(CatalogFormat.NULL_ENTRY);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > CatalogFormat.MAX_VALUE_LENGTH) {
+            throw new IllegalArgumentException("Value of " + bytes.length + " bytes exceeds the catalog limit of "
+                    + CatalogFormat.MAX_VALUE_LENGTH);
+        }
+        long room = CatalogFormat.CHUNK_SIZE - (heapSize & CatalogFormat.CHUNK_MASK);
+        if (bytes.length > room) {
+            pad(room);
+        }
+        entriesOut.writeLong(heapSize << CatalogFormat.LENGTH_BITS | bytes.length);
+        heapOut.write(bytes);
+        heapSize += bytes.length;
+    }
+
+    /**
+     * Flushes both files, after which their lengths are final.
+     */
+    void finish() throws IOException {
+        entriesOut.close();
+        heapOut.close();
+    }
+
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            entries.delete();
+            heap.delete();
+        }
+    }
+
+    private void pad(long bytes) throws IOException {
+        while (bytes > 0) {
+            int n = (int) Math.min(bytes, PADDING.length);
+            heapOut.write(PADDING, 0, n);
+            heapSize += n;
+            bytes -= n;
+        }
+    }
+}
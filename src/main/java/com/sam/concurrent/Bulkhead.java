@@ -0,0 +1,95 @@
+package com.sam.concurrent;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps how many threads may use a scarce resource at once.
+ * <p/>
+ * <p>Up to {@code permits} callers run concurrently, up to {@code maxWaiting} more wait at
+ * most {@code maxWaitMillis} in a fair queue, and everybody beyond that is rejected
+ * immediately with a {@link BulkheadFullException}. Sized to the connection pool, it
+ * keeps request threads from piling up behind slow queries, so requests that never
+ * touch the database keep being served while it is saturated.
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final Semaphore semaphore;
+    private final int permits;
+    private final int maxWaiting;
+    private final long maxWaitMillis;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public Bulkhead(String name, int permits, int maxWaiting, long maxWaitMillis) {
+        this.name = name;
+        this.permits = permits;
+        this.maxWaiting = maxWaiting;
+        this.maxWaitMillis = maxWaitMillis;
+        this.semaphore = new Semaphore(permits, true);
+    }
+
+    /**
+     * Takes a permit, which must be given back with {@link #release()}.
+     *
+     * @throws BulkheadFullException if the wait queue is full or no permit was freed in time
+     */
+    public void acquire() {
+        if (semaphore.tryAcquire()) {
+            acquired.increment();
+            return;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            throw new BulkheadFullException(String.format("Bulkhead '%s' is full: %d in use, %d waiting",
+                    name, permits, maxWaiting));
+        }
+        try {
+            if (!semaphore.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                throw new BulkheadFullException(String.format("Bulkhead '%s': no permit within %d ms",
+                        name, maxWaitMillis));
+            }
+            acquired.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.increment();
+            throw new BulkheadFullException(String.format("Bulkhead '%s': interrupted while waiting", name));
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        semaphore.release();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public int getInUse() {
+        return permits - semaphore.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,12 @@
+package com.sam.concurrent;
+
+/**
+ * Thrown when a {@link Bulkhead} could not grant a permit in time. Callers should
+ * translate it into a retryable error (HTTP 503) instead of queueing further.
+ */
+public class BulkheadFullException extends RejectedException {
+
+    public BulkheadFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package com.sam.concurrent;
+
+/**
+ * Loads the value of a key for a {@link SingleFlight}.
+ */
+public interface Loader<K, V> {
+
+    V load(K key);
+}
@@ -0,0 +1,13 @@
+package com.sam.concurrent;
+
+/**
+ * Thrown when a bounded queue stayed full for as long as a producer may wait. Like
+ * {@link BulkheadFullException}, callers should translate it into a retryable error
+ * (HTTP 503) rather than buffer the work elsewhere.
+ */
+public class QueueFullException extends RejectedException {
+
+    public QueueFullException(String message) {
+        super(message);
+    }
+}
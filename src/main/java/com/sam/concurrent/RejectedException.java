@@ -0,0 +1,12 @@
+package com.sam.concurrent;
+
+/**
+ * Thrown when work is turned away because a bounded resource is saturated. The work was
+ * not started, so callers should translate it into a retryable error (HTTP 503).
+ */
+public class RejectedException extends RuntimeException {
+
+    public RejectedException(String message) {
+        super(message);
+    }
+}
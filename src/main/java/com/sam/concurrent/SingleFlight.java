@@ -0,0 +1,98 @@
+package com.sam.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses concurrent loads of the same key into one.
+ * <p/>
+ * <p>The first caller for a key runs the {@link Loader}; callers that arrive while it is
+ * running wait for its result (or exception) instead of loading again. Nothing is kept
+ * once the load finishes, the next caller loads afresh, so this never serves a value
+ * older than the request asking for it. A writer that changed a key calls
+ * {@link #forget} so that readers arriving after the write don't attach to a load
+ * that started before it.
+ * <p/>
+ * <p>A loader must not ask the same instance for the key it is loading, it would wait
+ * for itself.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+    private final Loader<? super K, ? extends V> loader;
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public SingleFlight(Loader<? super K, ? extends V> loader) {
+        this.loader = loader;
+    }
+
+    public V get(K key) {
+        CompletableFuture<V> call = new CompletableFuture<V>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, call);
+        if (running != null) {
+            coalesced.increment();
+            return share(await(running));
+        }
+        loads.increment();
+        V value;
+        try {
+            value = loader.load(key);
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, call);
+            call.completeExceptionally(e);
+            throw e;
+        }
+        // unregister first, whoever comes after the load completed has to load again
+        inFlight.remove(key, call);
+        call.complete(value);
+        return value;
+    }
+
+    /**
+     * Detaches the load running for {@code key}, if any. Its current waiters still get
+     * its result, later callers start a new load.
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * @return how many loads were run
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * @return how many calls were served by another caller's load
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Hands a value loaded by another thread to a waiting caller. Returns it as is;
+     * override to give each waiter its own copy of a mutable value.
+     */
+    protected V share(V value) {
+        return value;
+    }
+
+    private static <V> V await(CompletableFuture<V> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
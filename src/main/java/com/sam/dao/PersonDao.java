@@ -1,5 +1,6 @@
 package com.sam.dao;
 
+import com.sam.cache.CacheStats;
 import com.sam.dao.generic.GenericDao;
 import com.sam.model.Person;
 
@@ -8,10 +9,20 @@ import java.util.List;
 /**
  * Created by root on 4/8/17.
  */
-public interface PersonDao extends GenericDao<Person, String> {
+public interface PersonDao extends GenericDao<Person, Integer> {
 
+    /**
+     * Looks up persons by email, served from a bounded near cache that writes through
+     * this DAO invalidate.
+     */
     List<Person> getPersonByEmail(String email);
 
+    /**
+     * Adds the person, or updates the person with its id, like {@link #save}. To update
+     * the person already registered under its email instead, use {@link #upsert}.
+     */
     void add(Person person);
 
+    CacheStats getEmailCacheStats();
+
 }
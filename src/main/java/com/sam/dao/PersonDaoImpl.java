@@ -1,44 +1,103 @@
 package com.sam.dao;
 
+import com.sam.cache.CacheStats;
+import com.sam.cache.RemovalListener;
+import com.sam.cache.SegmentedLruCache;
+import com.sam.cache.Weigher;
+import com.sam.concurrent.Loader;
+import com.sam.concurrent.SingleFlight;
 import com.sam.dao.generic.GenericDaoHibernate;
 import com.sam.model.Person;
 import org.hibernate.Criteria;
-import org.hibernate.SessionFactory;
 import org.hibernate.criterion.DetachedCriteria;
-import org.hibernate.criterion.ProjectionList;
-import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.orm.hibernate3.HibernateTemplate;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by root on 4/8/17.
  */
 
-public class PersonDaoImpl extends GenericDaoHibernate<Person, String> implements PersonDao{
+public class PersonDaoImpl extends GenericDaoHibernate<Person, Integer> implements PersonDao{
 
-    @Autowired
-    SessionFactory sessionFactory;
+    /**
+     * Default bound of the email cache, in estimated bytes.
+     */
+    public static final long DEFAULT_EMAIL_CACHE_MAX_WEIGHT = 32L * 1024 * 1024;
+
+    private SegmentedLruCache<String, List<Person>> emailCache;
+
+    /**
+     * Email each cached person was looked up by. An update can change a person's email,
+     * this lets a write invalidate the entry filed under the old one.
+     */
+    private final ConcurrentHashMap<Integer, String> cachedEmailById = new ConcurrentHashMap<Integer, String>();
+
+    /**
+     * Cache misses for the same email arriving together, e.g. in a traffic spike, share
+     * one query.
+     */
+    private final SingleFlight<String, List<Person>> emailFlight = new SingleFlight<String, List<Person>>(
+            new Loader<String, List<Person>>() {
+                public List<Person> load(String email) {
+                    return loadByEmail(email);
+                }
+            });
 
     public PersonDaoImpl() {
         super(Person.class);
+        setEmailCacheMaxWeight(DEFAULT_EMAIL_CACHE_MAX_WEIGHT);
     }
 
+    public void setEmailCacheMaxWeight(long maxWeight) {
+        this.emailCache = new SegmentedLruCache<String, List<Person>>(maxWeight, new PersonListWeigher(),
+                new RemovalListener<String, List<Person>>() {
+                    public void onRemoval(String email, List<Person> persons) {
+                        for (Person person : persons) {
+                            if (person.getId() != null) {
+                                cachedEmailById.remove(person.getId(), email);
+                            }
+                        }
+                    }
+                });
+    }
 
     public List<Person> getPersonByEmail(String email){
-        final HibernateTemplate hibernateTemplate = new HibernateTemplate(sessionFactory);
-        final ProjectionList projectionListForIncompleteIterations = Projections.projectionList();
-        projectionListForIncompleteIterations.add(Projections.distinct(Projections.property("id")));
+        List<Person> cached = emailCache.getIfPresent(email);
+        if (cached != null) {
+            return copiesOf(cached);
+        }
+        return copiesOf(canCoalesce() ? emailFlight.get(email) : loadByEmail(email));
+    }
 
-        DetachedCriteria criteria = DetachedCriteria.forClass(Person.class)
-                .setProjection(projectionListForIncompleteIterations)
-                .setResultTransformer(Criteria.ROOT_ENTITY)
-                .add(Restrictions.eq("email",email ));
+    /**
+     * The cached persons, also those just loaded, are shared by every caller; each caller
+     * gets copies it may modify without changing what later lookups return.
+     */
+    private List<Person> copiesOf(List<Person> persons) {
+        List<Person> copies = new ArrayList<Person>(persons.size());
+        for (Person person : persons) {
+            copies.add(copyOf(person));
+        }
+        return copies;
+    }
 
+    private List<Person> loadByEmail(String email) {
+        long generation = emailCache.generation();
+        DetachedCriteria criteria = DetachedCriteria.forClass(Person.class)
+                .add(Restrictions.eq("email", email))
+                .setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY);
+        List<Person> list = Collections.unmodifiableList(new ArrayList<Person>(findByDetachedCriteria(criteria)));
 
-        List<Person> list = (List<Person>) hibernateTemplate.findByCriteria(criteria);
+        for (Person person : list) {
+            if (person.getId() != null) {
+                cachedEmailById.put(person.getId(), email);
+            }
+        }
+        emailCache.putIfCurrent(email, list, generation);
         return list;
     }
 
@@ -46,5 +105,42 @@ public class PersonDaoImpl extends GenericDaoHibernate<Person, String> implement
         save(person);
     }
 
+    public CacheStats getEmailCacheStats() {
+        return emailCache.stats();
+    }
+
+    @Override
+    protected void afterWrite(Person person) {
+        if (person.getId() != null) {
+            String previousEmail = cachedEmailById.remove(person.getId());
+            if (previousEmail != null) {
+                emailFlight.forget(previousEmail);
+                emailCache.invalidate(previousEmail);
+            }
+        }
+        if (person.getEmail() != null) {
+            emailFlight.forget(person.getEmail());
+            emailCache.invalidate(person.getEmail());
+        }
+    }
+
+    /**
+     * Rough retained size of the cached list: object headers and fields plus the
+     * characters of every string.
+     */
+    private static final class PersonListWeigher implements Weigher<String, List<Person>> {
+        public int weigh(String email, List<Person> persons) {
+            int weight = 64 + 2 * email.length();
+            for (Person person : persons) {
+                weight += 120 + 2 * (length(person.getName()) + length(person.getEmail()) + length(person.getPhone()));
+            }
+            return weight;
+        }
+
+        private static int length(String value) {
+            return value == null ? 0 : value.length();
+        }
+    }
+
 
 }
@@ -0,0 +1,25 @@
+package com.sam.dao;
+
+import com.sam.dao.generic.GenericDao;
+import com.sam.model.Product;
+
+import java.util.Date;
+import java.util.stream.Stream;
+
+/**
+ * DAO for the product catalog. Full-text lookups are served by the in-memory
+ * index in {@link com.sam.search}, this DAO is only used to load and persist rows.
+ */
+public interface ProductDao extends GenericDao<Product, String> {
+
+    /**
+     * @return the latest {@link Product#getUpdatedAt()} in the table, null if it is empty
+     */
+    Date getLastUpdated();
+
+    /**
+     * Streams, like {@link #streamAll(int)}, the products inserted or changed at or after
+     * {@code since}, oldest change first.
+     */
+    Stream<Product> streamUpdatedSince(Date since, int fetchSize);
+}
@@ -0,0 +1,34 @@
+package com.sam.dao;
+
+import com.sam.dao.generic.GenericDaoHibernate;
+import com.sam.model.Product;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Hibernate backed {@link ProductDao}.
+ */
+public class ProductDaoImpl extends GenericDaoHibernate<Product, String> implements ProductDao {
+
+    public ProductDaoImpl() {
+        super(Product.class);
+    }
+
+    public Date getLastUpdated() {
+        List<?> result = getHibernateTemplate().findByCriteria(DetachedCriteria.forClass(Product.class)
+                .setProjection(Projections.max("updatedAt")));
+        return result.isEmpty() ? null : (Date) result.get(0);
+    }
+
+    public Stream<Product> streamUpdatedSince(Date since, int fetchSize) {
+        return streamByDetachedCriteria(DetachedCriteria.forClass(Product.class)
+                .add(Restrictions.ge("updatedAt", since))
+                .addOrder(Order.asc("updatedAt")), fetchSize);
+    }
+}
@@ -0,0 +1,22 @@
+package com.sam.dao.generic;
+
+/**
+ * The kind of write an {@link EntityChangeListener} is told about.
+ */
+public enum ChangeType {
+
+    /**
+     * {@link GenericDao#insert} or {@link GenericDao#insertAll}, the entity is new.
+     */
+    INSERT,
+
+    /**
+     * {@link GenericDao#save} or {@link GenericDao#saveAll}, the entity may be new or updated.
+     */
+    SAVE,
+
+    /**
+     * One of the {@code remove} methods.
+     */
+    REMOVE
+}
@@ -0,0 +1,17 @@
+package com.sam.dao.generic;
+
+/**
+ * Notified of every entity a {@link GenericDao} wrote, once the write is committed: after
+ * the surrounding transaction commits, or right away when the DAO wrote outside of one.
+ * Rolled back writes are not reported.
+ * <p/>
+ * <p>Called on the writing thread, so implementations should only hand the change off.
+ * An exception thrown by a listener is logged and does not fail the write.
+ */
+public interface EntityChangeListener<T> {
+
+    /**
+     * @param entity the written entity, for a save it is the merged instance
+     */
+    void onChange(ChangeType type, T entity);
+}
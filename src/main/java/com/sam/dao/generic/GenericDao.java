@@ -1,10 +1,13 @@
 package com.sam.dao.generic;
 
+import com.sam.cache.CacheStats;
 import org.hibernate.criterion.DetachedCriteria;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 
 /**
@@ -28,6 +31,29 @@ public interface GenericDao<T, PK extends Serializable> {
      */
     List<T> getAll();
 
+    /**
+     * Streams all objects of a particular type without materializing the table. Rows are
+     * read through a forward-only cursor {@code fetchSize} at a time and the backing
+     * session is cleared after every chunk, so memory use is constant. Objects are
+     * read-only and detached once their chunk has passed.
+     * <p>The stream holds a session and a JDBC connection until it is closed; always use
+     * it in a try-with-resources block.</p>
+     *
+     * @param fetchSize rows fetched per round trip and evicted per chunk
+     * @return a sequential stream of populated objects
+     */
+    Stream<T> streamAll(int fetchSize);
+
+    /**
+     * Streams the objects matching a criteria like {@link #streamAll(int)} streams all of
+     * them. Results bypass the query cache.
+     *
+     * @param detachedCriteria filter, and optionally order, of the objects to stream
+     * @param fetchSize        rows fetched per round trip and evicted per chunk
+     * @return a sequential stream of populated objects
+     */
+    Stream<T> streamByDetachedCriteria(DetachedCriteria detachedCriteria, int fetchSize);
+
     /**
      * Gets all records without duplicates.
      * <p>Note that if you use this method, it is imperative that your model
@@ -48,6 +74,17 @@ public interface GenericDao<T, PK extends Serializable> {
      */
     T get(PK id);
 
+    /**
+     * Gets many objects by identifier in as few round trips as possible. Objects already
+     * in the current session or in the second-level cache are resolved from there, the
+     * rest are fetched with chunked {@code IN (...)} queries. Unlike {@link #get}, missing
+     * identifiers do not throw, they are simply absent from the result.
+     *
+     * @param ids the identifiers (primary keys) of the objects to get, duplicates are ignored
+     * @return the found objects keyed by identifier, in the iteration order of {@code ids}
+     */
+    Map<PK, T> getMany(Collection<PK> ids);
+
     /**
      * Checks for existence of an object of type T using the id arg.
      *
@@ -72,6 +109,55 @@ public interface GenericDao<T, PK extends Serializable> {
      */
     T insert(T object);
 
+    /**
+     * Inserts objects in JDBC batches. The objects are consumed lazily and the session is
+     * flushed, committed and cleared after every batch, so memory use does not grow with
+     * the input size. Each batch is its own transaction: if a batch fails, the batches
+     * before it stay committed. Exceptions, including those of the sequence itself, reach
+     * the caller unwrapped. Entities whose identity the database generates are inserted
+     * by plain JDBC batches outside the session, then get their generated identifiers.
+     *
+     * @param objects the objects to insert, may be a lazily produced sequence
+     * @return the number of inserted objects
+     */
+    int insertAll(Iterable<? extends T> objects);
+
+    /**
+     * @return objects written per JDBC batch and transaction by {@link #insertAll},
+     * {@link #saveAll} and {@link #upsertAll}; no more than this many commit or fail together
+     */
+    int getBatchSize();
+
+    /**
+     * Same as {@link #insertAll(Iterable)} but merges every object, like {@link #save(Object)}.
+     *
+     * @param objects the objects to save, may be a lazily produced sequence
+     * @return the number of saved objects
+     */
+    int saveAll(Iterable<? extends T> objects);
+
+    /**
+     * Inserts the object, or overwrites the row with the same key, with one
+     * {@code INSERT ... ON DUPLICATE KEY UPDATE} statement instead of the read before the
+     * write that {@link #save(Object)} does for detached objects. The key is the entity's
+     * {@code @NaturalId}, or its identifier if that is assigned. A generated identifier is
+     * left to the database and is not set on the object.
+     *
+     * @param object the object to upsert
+     * @throws UnsupportedOperationException if the entity has neither a natural id nor an
+     *                                       assigned identifier
+     */
+    void upsert(T object);
+
+    /**
+     * Same as {@link #insertAll(Iterable)} but upserts every object like
+     * {@link #upsert(Object)}, one statement per batch.
+     *
+     * @param objects the objects to upsert, may be a lazily produced sequence
+     * @return the number of upserted objects
+     */
+    int upsertAll(Iterable<? extends T> objects);
+
     /**
      * Generic method to delete an object based on class and id
      *
@@ -128,11 +214,39 @@ public interface GenericDao<T, PK extends Serializable> {
      */
     List<T> findByDetachedCriteria(final DetachedCriteria detachedCriteria, final int firstResult, final int maxResults);
 
+    /**
+     * Pages through the entities that match the given criteria with a seek predicate
+     * instead of an OFFSET, so every page costs the same no matter how deep it is.
+     * Results are ordered by {@code sortProperty} and then by identifier, and the page
+     * starts right after the row the cursor points at; rows without a sort value come
+     * first. The sort property should be indexed. The criteria itself is left unchanged.
+     *
+     * @param detachedCriteria filter to page through
+     * @param sortProperty     property to sort by, the identifier property when null
+     * @param cursor           {@link KeysetPage#getNextCursor()} of the previous page, null for the first page
+     * @param maxResults       page size
+     * @return the page and the cursor of the following one
+     * @throws IllegalArgumentException if the cursor is malformed or does not fit the sort property
+     */
+    KeysetPage<T> findPageByDetachedCriteria(final DetachedCriteria detachedCriteria, final String sortProperty,
+                                             final String cursor, final int maxResults);
+
     /**
      * Flushes the current hibernate session objects to the database.
      */
     void flush();
 
+    /**
+     * Registers a listener that is told about every committed write of this DAO.
+     */
+    void addChangeListener(EntityChangeListener<? super T> listener);
+
+    /**
+     * @return counters of the cache of {@link #findByNamedQuery} and
+     * {@link #findByDetachedCriteria} results, or null if it is disabled
+     */
+    CacheStats getQueryCacheStats();
+
     /**
      * Finds all the entities that matches the given example using hibernate template instead of sessionFactory
      *
@@ -1,10 +1,36 @@
 package com.sam.dao.generic;
 
+import com.sam.cache.CacheStats;
+import com.sam.cache.SegmentedLruCache;
+import com.sam.cache.Weigher;
+import com.sam.concurrent.Loader;
+import com.sam.concurrent.RejectedException;
+import com.sam.concurrent.SingleFlight;
+import com.sam.dao.routing.ReadRouting;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.*;
 import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.Assigned;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.internal.CriteriaImpl;
+import org.hibernate.internal.util.SerializationHelper;
+import org.hibernate.loader.criteria.CriteriaQueryTranslator;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.hibernate.metadata.ClassMetadata;
 import org.hibernate.criterion.Example;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,12 +39,37 @@ import org.springframework.orm.ObjectRetrievalFailureException;
 import org.springframework.orm.hibernate5.HibernateCallback;
 import org.springframework.orm.hibernate5.HibernateTemplate;
 import org.springframework.orm.hibernate5.SessionFactoryUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class serves as the Base class for all other DAOs - namely to hold
@@ -31,6 +82,24 @@ import java.util.Map;
  *          &lt;constructor-arg value="com.sam.model.Foo"/&gt;
  *      &lt;/bean&gt;
  * </pre>
+ * <p/>
+ * <p>With a {@code queryCacheMaxWeight} set, {@link #findByNamedQuery} and
+ * {@link #findByDetachedCriteria} results are cached by their normalized query and the
+ * table's generation, a counter every write through a DAO of the entity bumps, once
+ * when it happens and once when it commits. A write thereby makes every cached result
+ * of the table unreachable in constant time. Writes that bypass the DAOs, or change
+ * another table a query joins, are not seen; only enable the cache for queries over the
+ * entity's own table.
+ * <p/>
+ * <p>Entities mapped as cacheable are also kept in Hibernate's second-level cache, which
+ * {@link #get} and {@link #exists} consult before the database. With a
+ * {@code queryCacheRegion} set, {@link #findByNamedQuery} additionally runs as a cacheable
+ * query in that region of the query cache, which Hibernate invalidates whenever any table
+ * the query reads is written, also by other DAOs. Bulk writes bypass the second-level
+ * cache rather than fill it.
+ * <p/>
+ * <p>Writes are also recorded with {@link ReadRouting}, which keeps reads that could
+ * miss them off lagging replicas.
  *
  * @param <T>  a type variable
  * @param <PK> the primary key for that type
@@ -41,9 +110,58 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
      * Log variable for all child classes. Uses LogFactory.getLog(getClass()) from Commons Logging
      */
     protected final Log log = LogFactory.getLog(getClass());
+    /**
+     * Objects written per JDBC batch and transaction by {@link #insertAll} and {@link #saveAll}.
+     * Should match {@code hibernate.jdbc.batch_size}.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    /**
+     * Identifiers per {@code IN (...)} query of {@link #getMany}, lowered further when the
+     * dialect declares a smaller limit.
+     */
+    public static final int DEFAULT_IN_CLAUSE_SIZE = 500;
+
+    /**
+     * Write generation per entity class, shared by all DAOs of the class.
+     */
+    private static final ConcurrentMap<Class<?>, AtomicLong> TABLE_GENERATIONS =
+            new ConcurrentHashMap<Class<?>, AtomicLong>();
+
     protected Class<T> persistentClass;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int inClauseSize = DEFAULT_IN_CLAUSE_SIZE;
+    private boolean coalesceReads = true;
     private HibernateTemplate hibernateTemplate;
     private SessionFactory sessionFactory;
+    private final List<EntityChangeListener<? super T>> changeListeners =
+            new CopyOnWriteArrayList<EntityChangeListener<? super T>>();
+    private final AtomicLong tableGeneration;
+    private SegmentedLruCache<QueryKey, List<Object>> queryCache;
+    private String queryCacheRegion;
+    private volatile InsertStatement upsertStatement;
+    private volatile InsertStatement insertStatement;
+
+    /**
+     * Concurrent {@link #get} calls for the same id share one query; every waiter gets
+     * its own shallow copy of the entity, so it can modify and save it independently.
+     */
+    private final SingleFlight<PK, T> getFlight = new SingleFlight<PK, T>(new Loader<PK, T>() {
+        public T load(PK id) {
+            return loadById(id);
+        }
+    }) {
+        @Override
+        protected T share(T entity) {
+            return copyOf(entity);
+        }
+    };
+
+    private final SingleFlight<PK, Boolean> existsFlight = new SingleFlight<PK, Boolean>(new Loader<PK, Boolean>() {
+        public Boolean load(PK id) {
+            return queryExists(id);
+        }
+    });
 
     /**
      * Constructor that takes in a class to see which type of entity to persist.
@@ -53,6 +171,7 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
      */
     public GenericDaoHibernate(final Class<T> persistentClass) {
         this.persistentClass = persistentClass;
+        this.tableGeneration = tableGeneration(persistentClass);
     }
 
     /**
@@ -63,6 +182,7 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
      */
     public GenericDaoHibernate(final Class<T> persistentClass, SessionFactory sessionFactory) {
         this.persistentClass = persistentClass;
+        this.tableGeneration = tableGeneration(persistentClass);
         this.sessionFactory = sessionFactory;
         this.hibernateTemplate = createHibernateTemplate(sessionFactory);
     }
@@ -89,6 +209,41 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
         return sess;
     }
 
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setInClauseSize(int inClauseSize) {
+        this.inClauseSize = inClauseSize;
+    }
+
+    /**
+     * Whether concurrent reads of the same key may share one query, true by default.
+     */
+    public void setCoalesceReads(boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+    }
+
+    /**
+     * Bound of the query result cache in estimated bytes, 0 (the default) disables it.
+     */
+    public void setQueryCacheMaxWeight(long maxWeight) {
+        this.queryCache = maxWeight > 0
+                ? new SegmentedLruCache<QueryKey, List<Object>>(maxWeight, new QueryResultWeigher()) : null;
+    }
+
+    /**
+     * Query cache region of {@link #findByNamedQuery} results, null (the default) to only
+     * cache named queries that are declared cacheable themselves.
+     */
+    public void setQueryCacheRegion(String queryCacheRegion) {
+        this.queryCacheRegion = queryCacheRegion;
+    }
+
     @Autowired(required = true)
     @Required
     public void setSessionFactory(SessionFactory sessionFactory) {
@@ -101,13 +256,57 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
         return hibernateTemplate.loadAll(this.persistentClass);
     }
 
+    public Stream<T> streamAll(int fetchSize) {
+        return streamByDetachedCriteria(DetachedCriteria.forClass(persistentClass), fetchSize);
+    }
+
+    public Stream<T> streamByDetachedCriteria(DetachedCriteria detachedCriteria, int fetchSize) {
+        final Session session = this.getSessionFactory().openSession();
+        try {
+            session.setDefaultReadOnly(true);
+            session.setCacheMode(CacheMode.IGNORE);
+            ScrollableResults results = detachedCriteria.getExecutableCriteria(session)
+                    .setFetchSize(streamingFetchSize(session, fetchSize))
+                    .setReadOnly(true)
+                    .setCacheable(false)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            final ScrollIterator iterator = new ScrollIterator(session, results, fetchSize);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                    Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .onClose(new Runnable() {
+                        public void run() {
+                            iterator.close();
+                        }
+                    });
+        } catch (RuntimeException e) {
+            SessionFactoryUtils.closeSession(session);
+            throw e;
+        }
+    }
+
+    /**
+     * MySQL's driver buffers a whole result set unless the statement's fetch size is
+     * {@link Integer#MIN_VALUE}, which streams it row by row on a connection that then runs
+     * nothing else; the stream's session is its own, so that is all it needs. The driver's
+     * {@code useCursorFetch} would instead turn every statement of the pool into a server-side
+     * prepared one. Other drivers honour the fetch size as it is.
+     */
+    private static int streamingFetchSize(Session session, int fetchSize) {
+        Dialect dialect = ((SessionImplementor) session).getFactory().getDialect();
+        return dialect instanceof MySQLDialect ? Integer.MIN_VALUE : fetchSize;
+    }
+
     @SuppressWarnings("unchecked")
     public List<T> getAllDistinct() {
         return new ArrayList<T>(getAll());
     }
 
-    @SuppressWarnings("unchecked")
     public T get(PK id) {
+        return canCoalesce() ? getFlight.get(id) : loadById(id);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T loadById(PK id) {
         T entity = (T) getHibernateTemplate().get(this.persistentClass, id);
 
         if (entity == null) {
@@ -118,9 +317,68 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
         return entity;
     }
 
+    public Map<PK, T> getMany(final Collection<PK> ids) {
+        final Collection<PK> distinctIds = new LinkedHashSet<PK>(ids);
+        if (distinctIds.isEmpty()) {
+            return new LinkedHashMap<PK, T>();
+        }
+        return getHibernateTemplate().executeWithNativeSession(new HibernateCallback<Map<PK, T>>() {
+            @SuppressWarnings("unchecked")
+            public Map<PK, T> doInHibernate(Session session) throws HibernateException {
+                SessionImplementor sessionImplementor = (SessionImplementor) session;
+                SessionFactoryImplementor factory = sessionImplementor.getFactory();
+                EntityPersister persister = factory.getEntityPersister(persistentClass.getName());
+                Map<PK, T> found = new HashMap<PK, T>(distinctIds.size() * 2);
+                List<PK> remaining = new ArrayList<PK>();
+
+                for (PK id : distinctIds) {
+                    EntityKey key = sessionImplementor.generateEntityKey(id, persister);
+                    Object entity = sessionImplementor.getPersistenceContext().getEntity(key);
+                    if (entity == null && factory.getCache().containsEntity(persistentClass, id)) {
+                        entity = session.get(persistentClass, id);
+                    }
+                    if (entity != null) {
+                        found.put(id, (T) entity);
+                    } else {
+                        remaining.add(id);
+                    }
+                }
+
+                int limit = factory.getDialect().getInExpressionCountLimit();
+                int chunkSize = limit > 0 ? Math.min(inClauseSize, limit) : inClauseSize;
+                String identifierKey = persister.getIdentifierPropertyName();
+                for (int from = 0; from < remaining.size(); from += chunkSize) {
+                    List<PK> chunk = remaining.subList(from, Math.min(from + chunkSize, remaining.size()));
+                    List<T> rows = session.createCriteria(persistentClass)
+                            .add(Restrictions.in(identifierKey, chunk))
+                            .list();
+                    for (T row : rows) {
+                        found.put((PK) persister.getIdentifier(row, sessionImplementor), row);
+                    }
+                }
+
+                Map<PK, T> result = new LinkedHashMap<PK, T>(found.size() * 2);
+                for (PK id : distinctIds) {
+                    T entity = found.get(id);
+                    if (entity != null) {
+                        result.put(id, entity);
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    public boolean exists(PK id) {
+        return canCoalesce() ? existsFlight.get(id) : queryExists(id);
+    }
+
     @SuppressWarnings("unchecked")
-  
-    public boolean exists(final PK id) {
+    private boolean queryExists(final PK id) {
+        // cached entries are evicted when the entity is written, so a cached entity still exists
+        if (getSessionFactory().getCache().containsEntity(this.persistentClass, id)) {
+            return true;
+        }
         final String identifierKey = sessionFactory.getClassMetadata(this.persistentClass).getIdentifierPropertyName();
 
         if(identifierKey!= null && identifierKey.length()>0) {
@@ -141,23 +399,234 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
 
   
     public T insert(T object) {
-        return (T) executeUpdateOperation(object, Operation.SAVE);
+        T inserted = (T) executeUpdateOperation(object, Operation.SAVE);
+        written(object, ChangeType.INSERT, false);
+        return inserted;
     }
 
     @SuppressWarnings("unchecked")
   
     public T save(T object) {
-        return (T) executeUpdateOperation(object, Operation.MERGE);
+        T merged = (T) executeUpdateOperation(object, Operation.MERGE);
+        written(merged, ChangeType.SAVE, false);
+        return merged;
+    }
+
+    public int insertAll(Iterable<? extends T> objects) {
+        return executeBatchOperation(objects, Operation.SAVE);
+    }
+
+    public int saveAll(Iterable<? extends T> objects) {
+        return executeBatchOperation(objects, Operation.MERGE);
+    }
+
+    public void upsert(final T object) {
+        final List<T> rows = Collections.singletonList(object);
+        getHibernateTemplate().executeWithNativeSession(new HibernateCallback<Void>() {
+            public Void doInHibernate(Session session) throws HibernateException {
+                executeUpsert(session, rows);
+                return null;
+            }
+        });
+        written(object, ChangeType.SAVE, false);
+    }
+
+    public int upsertAll(Iterable<? extends T> objects) {
+        return executeBatchOperation(objects, Operation.UPSERT);
     }
 
   
     public void remove(PK id) {
-        executeUpdateOperation(this.get(id), Operation.DELETE);
+        T object = this.get(id);
+        executeUpdateOperation(object, Operation.DELETE);
+        written(object, ChangeType.REMOVE, false);
     }
 
   
     public void remove(T object) {
         executeUpdateOperation(object, Operation.DELETE);
+        written(object, ChangeType.REMOVE, false);
+    }
+
+    /**
+     * Called after {@link #insert}, {@link #save} or {@link #remove} changed an entity.
+     * Subclasses that keep derived state, like a cache, override this to invalidate it.
+     *
+     * @param object the written entity, for save it is the merged instance
+     */
+    protected void afterWrite(T object) {
+    }
+
+    /**
+     * Whether a read may share its query with concurrent readers of the same key. Not
+     * when the caller has a transaction-bound session: it must see its own uncommitted
+     * writes and get entities attached to that session.
+     */
+    protected boolean canCoalesce() {
+        return coalesceReads && !TransactionSynchronizationManager.hasResource(getSessionFactory());
+    }
+
+    public void addChangeListener(EntityChangeListener<? super T> listener) {
+        changeListeners.add(listener);
+    }
+
+    public CacheStats getQueryCacheStats() {
+        return queryCache == null ? null : queryCache.stats();
+    }
+
+    /**
+     * @param committed whether the write is already committed, otherwise it is reported
+     *                  once the transaction bound to the thread, if any, commits
+     */
+    @SuppressWarnings("unchecked")
+    private void written(final T object, final ChangeType type, boolean committed) {
+        Serializable id = getSessionFactory().getClassMetadata(this.persistentClass)
+                .getIdentifier(object, (SessionImplementor) null);
+        if (id != null) {
+            getFlight.forget((PK) id);
+            existsFlight.forget((PK) id);
+        }
+        tableGeneration.incrementAndGet();
+        ReadRouting.written(persistentClass);
+        afterWrite(object);
+        if (!committed && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    // reads between the write and the commit still saw, and may have cached, the old rows
+                    tableGeneration.incrementAndGet();
+                    ReadRouting.written(persistentClass);
+                    fireChange(type, object);
+                }
+            });
+        } else {
+            fireChange(type, object);
+        }
+    }
+
+    private void fireChange(ChangeType type, T object) {
+        for (EntityChangeListener<? super T> listener : changeListeners) {
+            try {
+                listener.onChange(type, object);
+            } catch (RuntimeException e) {
+                log.error("Change listener " + listener + " failed on " + type + " of " + object, e);
+            }
+        }
+    }
+
+    /**
+     * Whether query results may be cached and served from the cache. Not when the caller
+     * has a transaction-bound session, for the same reasons as {@link #canCoalesce()}.
+     */
+    private boolean canCacheQueries() {
+        return queryCache != null && !TransactionSynchronizationManager.hasResource(getSessionFactory());
+    }
+
+    /**
+     * @return copies of the cached rows, or null on a miss or if {@code key} is null
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> cachedResult(QueryKey key) {
+        List<Object> rows = key == null ? null : queryCache.getIfPresent(key);
+        if (rows == null) {
+            return null;
+        }
+        List<T> copies = new ArrayList<T>(rows.size());
+        for (Object row : rows) {
+            copies.add((T) copyOfRow(row));
+        }
+        return copies;
+    }
+
+    /**
+     * Caches copies of the rows unless the table was written since the key was made:
+     * the rows may predate the write, and the key is no longer looked up anyway.
+     *
+     * @return the rows
+     */
+    private List<T> cacheResult(QueryKey key, List<T> rows) {
+        if (key != null && tableGeneration.get() == key.generation) {
+            List<Object> copies = new ArrayList<Object>(rows.size());
+            for (T row : rows) {
+                copies.add(copyOfRow(row));
+            }
+            queryCache.put(key, Collections.unmodifiableList(copies));
+        }
+        return rows;
+    }
+
+    /**
+     * @return a copy of an entity of this DAO, other rows like projections as they are
+     */
+    @SuppressWarnings("unchecked")
+    private Object copyOfRow(Object row) {
+        if (persistentClass.isInstance(row)) {
+            return copyOf((T) row);
+        }
+        return row instanceof Object[] ? ((Object[]) row).clone() : row;
+    }
+
+    /**
+     * Keys a criteria query by what Hibernate renders of it: the where, order by and
+     * select clauses, the joins, and the typed values bound to them. Rendering is the
+     * first step of running the query anyway, and unlike {@code toString()} it includes
+     * the values of SQL restrictions, examples and subqueries.
+     *
+     * @return the key, or null if the criteria can not be rendered; running it will fail
+     */
+    private QueryKey criteriaKey(DetachedCriteria detachedCriteria, int firstResult, int maxResults) {
+        long generation = tableGeneration.get();
+        // the criteria is rendered without a session, the query binds it to its own
+        CriteriaImpl criteria = (CriteriaImpl) detachedCriteria.getExecutableCriteria(null);
+        try {
+            CriteriaQueryTranslator translator = new CriteriaQueryTranslator(
+                    (SessionFactoryImplementor) getSessionFactory(), criteria,
+                    criteria.getEntityOrClassName(), CriteriaQueryTranslator.ROOT_SQL_ALIAS);
+            List<String> joins = new ArrayList<String>();
+            for (Iterator<CriteriaImpl.Subcriteria> it = criteria.iterateSubcriteria(); it.hasNext(); ) {
+                CriteriaImpl.Subcriteria join = it.next();
+                joins.add(join.getPath() + " " + join.getAlias() + " " + join.getJoinType() + " "
+                        + translator.getWithClause(join.getPath()));
+            }
+            QueryParameters parameters = translator.getQueryParameters();
+            Type[] types = parameters.getPositionalParameterTypes();
+            String[] typeNames = new String[types.length];
+            for (int i = 0; i < types.length; i++) {
+                typeNames[i] = types[i].getName();
+            }
+            return new QueryKey(generation, criteria.getEntityOrClassName(), joins.toString(),
+                    translator.getWhereCondition(), translator.getOrderBy(),
+                    translator.hasProjection() ? translator.getSelect() + " group by " + translator.getGroupBy() : null,
+                    criteria.getResultTransformer(),
+                    typeNames, parameters.getPositionalParameterValues(), firstResult, maxResults);
+        } catch (HibernateException e) {
+            log.debug("Not caching a criteria query that can not be rendered", e);
+            return null;
+        }
+    }
+
+    private static AtomicLong tableGeneration(Class<?> persistentClass) {
+        AtomicLong generation = TABLE_GENERATIONS.get(persistentClass);
+        if (generation == null) {
+            AtomicLong created = new AtomicLong();
+            generation = TABLE_GENERATIONS.putIfAbsent(persistentClass, created);
+            if (generation == null) {
+                generation = created;
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Shallow copy of a detached entity: its own property values, shared associations.
+     */
+    @SuppressWarnings("unchecked")
+    protected T copyOf(T entity) {
+        ClassMetadata metadata = getSessionFactory().getClassMetadata(this.persistentClass);
+        Serializable id = metadata.getIdentifier(entity, (SessionImplementor) null);
+        T copy = (T) metadata.instantiate(id, (SessionImplementor) null);
+        metadata.setPropertyValues(copy, metadata.getPropertyValues(entity));
+        return copy;
     }
 
     /**
@@ -166,6 +635,17 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
     @SuppressWarnings("unchecked")
   
     public List<T> findByNamedQuery(String queryName, Map<String, Object> queryParams) {
+        QueryKey key = canCacheQueries()
+                ? new QueryKey(tableGeneration.get(), queryName, new TreeMap<String, Object>(queryParams)) : null;
+        List<T> cached = cachedResult(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (queryCacheRegion != null) {
+            return cacheResult(key, findByCacheableNamedQuery(queryName, queryParams));
+        }
+
         String[] params = new String[queryParams.size()];
         Object[] values = new Object[queryParams.size()];
 
@@ -175,7 +655,29 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
             values[index++] = queryParams.get(s);
         }
 
-        return (List<T>) getHibernateTemplate().findByNamedQueryAndNamedParam(queryName, params, values);
+        return cacheResult(key, (List<T>) getHibernateTemplate().findByNamedQueryAndNamedParam(queryName, params, values));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> findByCacheableNamedQuery(final String queryName, final Map<String, Object> queryParams) {
+        return getHibernateTemplate().executeWithNativeSession(new HibernateCallback<List<T>>() {
+            public List<T> doInHibernate(Session session) throws HibernateException {
+                Query query = session.getNamedQuery(queryName)
+                        .setCacheable(true)
+                        .setCacheRegion(queryCacheRegion);
+                for (Map.Entry<String, Object> param : queryParams.entrySet()) {
+                    Object value = param.getValue();
+                    if (value instanceof Collection) {
+                        query.setParameterList(param.getKey(), (Collection<?>) value);
+                    } else if (value instanceof Object[]) {
+                        query.setParameterList(param.getKey(), (Object[]) value);
+                    } else {
+                        query.setParameter(param.getKey(), value);
+                    }
+                }
+                return query.list();
+            }
+        });
     }
 
     @SuppressWarnings("unchecked")
@@ -212,13 +714,80 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
     @SuppressWarnings("unchecked")
   
     public List<T> findByDetachedCriteria(final DetachedCriteria detachedCriteria) {
-        return new ArrayList<T>((Collection<? extends T>) getHibernateTemplate().findByCriteria(detachedCriteria));
+        return findByDetachedCriteria(detachedCriteria, -1, -1);
     }
 
     @SuppressWarnings("unchecked")
   
     public List<T> findByDetachedCriteria(final DetachedCriteria detachedCriteria, final int firstResult, final int maxResults) {
-        return new ArrayList<T>((Collection<? extends T>) getHibernateTemplate().findByCriteria(detachedCriteria, firstResult, maxResults));
+        QueryKey key = null;
+        if (canCacheQueries()) {
+            key = criteriaKey(detachedCriteria, firstResult, maxResults);
+        }
+        List<T> cached = cachedResult(key);
+        if (cached != null) {
+            return cached;
+        }
+        return cacheResult(key, new ArrayList<T>((Collection<? extends T>) getHibernateTemplate()
+                .findByCriteria(detachedCriteria, firstResult, maxResults)));
+    }
+
+    @SuppressWarnings("unchecked")
+    public KeysetPage<T> findPageByDetachedCriteria(final DetachedCriteria detachedCriteria, final String sortProperty,
+                                                    final String cursor, final int maxResults) {
+        ClassMetadata metadata = getSessionFactory().getClassMetadata(this.persistentClass);
+        final String idProperty = metadata.getIdentifierPropertyName();
+        final boolean sortById = sortProperty == null || sortProperty.equals(idProperty);
+        // the seek restrictions and orders go to a copy, the caller's criteria stays reusable
+        DetachedCriteria criteria = (DetachedCriteria) SerializationHelper.clone(detachedCriteria);
+
+        if (cursor != null && cursor.length() > 0) {
+            KeysetCursor after = KeysetCursor.decode(cursor);
+            checkCursorValue(after.getId(), metadata.getIdentifierType(), idProperty);
+            if (sortById) {
+                criteria.add(Restrictions.gt(idProperty, after.getId()));
+            } else {
+                checkCursorValue(after.getSortValue(), metadata.getPropertyType(sortProperty), sortProperty);
+                if (after.getSortValue() == null) {
+                    // nulls sort first: the rest of the nulls, then every value
+                    criteria.add(Restrictions.or(
+                            Restrictions.and(Restrictions.isNull(sortProperty), Restrictions.gt(idProperty, after.getId())),
+                            Restrictions.isNotNull(sortProperty)));
+                } else {
+                    criteria.add(Restrictions.or(
+                            Restrictions.gt(sortProperty, after.getSortValue()),
+                            Restrictions.and(Restrictions.eq(sortProperty, after.getSortValue()),
+                                    Restrictions.gt(idProperty, after.getId()))));
+                }
+            }
+        }
+        if (!sortById) {
+            criteria.addOrder(Order.asc(sortProperty).nulls(NullPrecedence.FIRST));
+        }
+        criteria.addOrder(Order.asc(idProperty));
+
+        // one extra row tells whether there is a next page
+        List<T> rows = new ArrayList<T>((Collection<? extends T>) getHibernateTemplate()
+                .findByCriteria(criteria, 0, maxResults + 1));
+        String nextCursor = null;
+        if (rows.size() > maxResults) {
+            rows = new ArrayList<T>(rows.subList(0, maxResults));
+            T last = rows.get(maxResults - 1);
+            Object id = metadata.getIdentifier(last, (SessionImplementor) null);
+            Object sortValue = sortById ? id : metadata.getPropertyValue(last, sortProperty);
+            nextCursor = new KeysetCursor(sortValue, id).encode();
+        }
+        return new KeysetPage<T>(rows, nextCursor);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a value of the cursor can not be compared with the property
+     */
+    private static void checkCursorValue(Object value, Type type, String property) {
+        if (value != null && !type.getReturnedClass().isInstance(value)) {
+            throw new IllegalArgumentException(String.format("Invalid cursor: %s is not a %s value",
+                    value, property));
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -279,7 +848,7 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
             }
         } catch (Exception e) {
             log.warn(String.format("Unable to perform: %s on entity: %s, Error: %s ", operation, object, e.getMessage()));
-            throw new RuntimeException(e);
+            throw wrap(e);
         } finally {
             if(isNew) {
                 SessionFactoryUtils.closeSession(session);
@@ -288,7 +857,421 @@ public class GenericDaoHibernate<T, PK extends Serializable> implements GenericD
         return returnObj;
     }
 
+    /**
+     * Writes the objects through a dedicated session, committing and clearing it every
+     * {@link #batchSize} objects so that Hibernate can send each batch as one JDBC batch
+     * and the persistence context never holds more than one batch. Hibernate runs each
+     * insert of an identity-generated entity on its own to read back the key, so those
+     * are written by {@link #executeInsert} instead.
+     */
+    @SuppressWarnings("unchecked")
+    private int executeBatchOperation(Iterable<? extends T> objects, Operation operation) {
+        Session session = this.getSessionFactory().openSession();
+        session.setFlushMode(FlushMode.MANUAL);
+        // a bulk load would evict the entries worth caching, writes still invalidate theirs
+        session.setCacheMode(CacheMode.IGNORE);
+        List<T> written = new ArrayList<T>(batchSize);
+        boolean jdbcInserts = operation == Operation.SAVE && InsertStatement.canInsert(
+                ((SessionImplementor) session).getFactory().getEntityPersister(persistentClass.getName()));
+        Transaction transaction = null;
+        int count = 0;
+        try {
+            for (T object : objects) {
+                if (transaction == null) {
+                    transaction = session.beginTransaction();
+                }
+                if (operation == Operation.MERGE) {
+                    written.add((T) session.merge(object));
+                } else if (operation == Operation.SAVE) {
+                    if (!jdbcInserts) {
+                        session.save(object);
+                    }
+                    written.add(object);
+                } else if (operation == Operation.UPSERT) {
+                    written.add(object);
+                } else {
+                    throw new RuntimeException("Unsupported batch operation:" + operation);
+                }
+                if (written.size() == batchSize) {
+                    count += commitBatch(session, transaction, written, operation, jdbcInserts);
+                    transaction = null;
+                }
+            }
+            if (transaction != null) {
+                count += commitBatch(session, transaction, written, operation, jdbcInserts);
+                transaction = null;
+            }
+        } catch (Exception e) {
+            if (transaction != null && transaction.getStatus().canRollback()) {
+                transaction.rollback();
+            }
+            log.warn(String.format("Unable to perform batch: %s on %s after %d entities, Error: %s ",
+                    operation, this.persistentClass.getSimpleName(), count, e.getMessage()));
+            throw wrap(e);
+        } finally {
+            SessionFactoryUtils.closeSession(session);
+        }
+        return count;
+    }
+
+    /**
+     * Hands a failed write to the caller as it is, so that a {@link RejectedException} can
+     * be answered with a retryable error and an exception of the objects' source, such as
+     * a malformed request body, with its own status. Only checked exceptions are wrapped.
+     */
+    private static RuntimeException wrap(Exception e) {
+        return e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+
+    private int commitBatch(Session session, Transaction transaction, List<T> written, Operation operation,
+                            boolean jdbcInserts) {
+        if (operation == Operation.UPSERT) {
+            executeUpsert(session, written);
+        } else if (jdbcInserts) {
+            executeInsert(session, written);
+        }
+        session.flush();
+        transaction.commit();
+        session.clear();
+        ChangeType type = operation == Operation.SAVE ? ChangeType.INSERT : ChangeType.SAVE;
+        for (T object : written) {
+            written(object, type, true);
+        }
+        int size = written.size();
+        written.clear();
+        return size;
+    }
+
+    /**
+     * Runs the upsert of the rows as one JDBC batch, which the MySQL driver rewrites into a
+     * single multi-row statement, then drops what the second-level and query caches hold
+     * for them. A row located by its natural key may have been an existing one with an
+     * identifier the caller doesn't know, so when any row was (or may have been) updated
+     * the entity's whole cache region goes.
+     */
+    private void executeUpsert(final Session session, final List<T> rows) {
+        final SessionImplementor sessionImplementor = (SessionImplementor) session;
+        final InsertStatement statement = upsertStatement(sessionImplementor.getFactory());
+        final boolean[] updated = new boolean[1];
+        session.doWork(new Work() {
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement insert = connection.prepareStatement(statement.sql);
+                try {
+                    for (T row : rows) {
+                        statement.bind(insert, row, sessionImplementor);
+                        insert.addBatch();
+                    }
+                    for (int count : insert.executeBatch()) {
+                        // MySQL counts an insert as 1 and an update as 2, a rewritten batch reports no counts
+                        updated[0] |= count != 1;
+                    }
+                } finally {
+                    insert.close();
+                }
+            }
+        });
+
+        SessionFactoryImplementor factory = sessionImplementor.getFactory();
+        if (statement.assignedId) {
+            for (T row : rows) {
+                factory.getCache().evictEntity(persistentClass, statement.persister.getIdentifier(row, sessionImplementor));
+            }
+        } else if (updated[0]) {
+            factory.getCache().evictEntityRegion(persistentClass);
+        }
+        if (factory.getSessionFactoryOptions().isQueryCacheEnabled()) {
+            factory.getUpdateTimestampsCache().invalidate(statement.persister.getQuerySpaces(), sessionImplementor);
+        }
+    }
+
+    /**
+     * Inserts the rows of an identity-generated entity as one JDBC batch, which the MySQL
+     * driver rewrites into a single multi-row statement, and sets the generated keys on
+     * them in order. Like a bulk HQL statement it bypasses the session, so rows are not
+     * checked for nulls before the database rejects them.
+     */
+    private void executeInsert(final Session session, final List<T> rows) {
+        final SessionImplementor sessionImplementor = (SessionImplementor) session;
+        final InsertStatement statement = insertStatement(sessionImplementor.getFactory());
+        session.doWork(new Work() {
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement insert = connection.prepareStatement(statement.sql, Statement.RETURN_GENERATED_KEYS);
+                try {
+                    for (T row : rows) {
+                        statement.bind(insert, row, sessionImplementor);
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                    ResultSet keys = insert.getGeneratedKeys();
+                    try {
+                        Class<?> idClass = statement.persister.getIdentifierType().getReturnedClass();
+                        for (T row : rows) {
+                            if (!keys.next()) {
+                                break;
+                            }
+                            statement.persister.setIdentifier(row,
+                                    IdentifierGeneratorHelper.createNumber(keys.getLong(1), idClass), sessionImplementor);
+                        }
+                    } finally {
+                        keys.close();
+                    }
+                } finally {
+                    insert.close();
+                }
+            }
+        });
+
+        SessionFactoryImplementor factory = sessionImplementor.getFactory();
+        if (factory.getSessionFactoryOptions().isQueryCacheEnabled()) {
+            factory.getUpdateTimestampsCache().invalidate(statement.persister.getQuerySpaces(), sessionImplementor);
+        }
+    }
+
+    private InsertStatement upsertStatement(SessionFactoryImplementor factory) {
+        InsertStatement statement = upsertStatement;
+        if (statement == null) {
+            statement = new InsertStatement(factory.getEntityPersister(persistentClass.getName()), factory, true);
+            upsertStatement = statement;
+        }
+        return statement;
+    }
+
+    private InsertStatement insertStatement(SessionFactoryImplementor factory) {
+        InsertStatement statement = insertStatement;
+        if (statement == null) {
+            statement = new InsertStatement(factory.getEntityPersister(persistentClass.getName()), factory, false);
+            insertStatement = statement;
+        }
+        return statement;
+    }
+
+    /**
+     * {@code INSERT} of one row of the entity's table. An upsert adds {@code ON DUPLICATE
+     * KEY UPDATE}: the row is keyed by the natural id, or by an assigned identifier if
+     * there is none, and every other column is overwritten on a duplicate key. A generated
+     * identifier is left to the database.
+     */
+    private static final class InsertStatement {
+        final AbstractEntityPersister persister;
+        final boolean assignedId;
+        final String sql;
+        private final SessionFactoryImplementor factory;
+        private final int[] properties;
+
+        /**
+         * Whether a plain insert of the entity can skip the session: a single table, a key
+         * generated by the insert, and no version or collections that Hibernate maintains.
+         */
+        static boolean canInsert(EntityPersister persister) {
+            return persister instanceof SingleTableEntityPersister && persister.isIdentifierAssignedByInsert()
+                    && !persister.isVersioned() && !persister.hasCollections();
+        }
+
+        InsertStatement(EntityPersister entityPersister, SessionFactoryImplementor factory, boolean upsert) {
+            if (!(entityPersister instanceof SingleTableEntityPersister)) {
+                throw new UnsupportedOperationException("Upsert needs an entity mapped to a single table: "
+                        + entityPersister.getEntityName());
+            }
+            this.persister = (AbstractEntityPersister) entityPersister;
+            this.factory = factory;
+            this.assignedId = persister.getIdentifierGenerator() instanceof Assigned;
+            if (upsert && !assignedId && !persister.hasNaturalIdentifier()) {
+                throw new UnsupportedOperationException("Upsert needs a natural id or an assigned identifier: "
+                        + persister.getEntityName());
+            }
+
+            Set<Integer> naturalId = new HashSet<Integer>();
+            if (persister.hasNaturalIdentifier()) {
+                for (int property : persister.getNaturalIdentifierProperties()) {
+                    naturalId.add(property);
+                }
+            }
+            List<String> columns = new ArrayList<String>();
+            List<String> updates = new ArrayList<String>();
+            if (assignedId) {
+                columns.addAll(Arrays.asList(persister.getIdentifierColumnNames()));
+            }
+            boolean[] insertable = persister.getPropertyInsertability();
+            List<Integer> properties = new ArrayList<Integer>();
+            for (int i = 0; i < insertable.length; i++) {
+                String[] propertyColumns = persister.getPropertyColumnNames(i);
+                if (!insertable[i] || propertyColumns.length == 0 || persister.getPropertyTypes()[i].isCollectionType()) {
+                    continue;
+                }
+                properties.add(i);
+                for (String column : propertyColumns) {
+                    columns.add(column);
+                    if (!naturalId.contains(i)) {
+                        updates.add(column + " = values(" + column + ")");
+                    }
+                }
+            }
+            if (upsert && updates.isEmpty()) {
+                // every column is part of the key, a duplicate is left as it is
+                updates.add(columns.get(0) + " = " + columns.get(0));
+            }
+            this.properties = new int[properties.size()];
+            for (int i = 0; i < this.properties.length; i++) {
+                this.properties[i] = properties.get(i);
+            }
+            StringBuilder sql = new StringBuilder("insert into ").append(persister.getTableName()).append(" (");
+            joinTo(sql, columns).append(") values (");
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(")");
+            if (upsert) {
+                joinTo(sql.append(" on duplicate key update "), updates);
+            }
+            this.sql = sql.toString();
+        }
+
+        void bind(PreparedStatement statement, Object row, SessionImplementor session) throws SQLException {
+            int index = 1;
+            if (assignedId) {
+                Type identifierType = persister.getIdentifierType();
+                identifierType.nullSafeSet(statement, persister.getIdentifier(row, session), index, session);
+                index += identifierType.getColumnSpan(factory);
+            }
+            Object[] values = persister.getPropertyValues(row);
+            Type[] types = persister.getPropertyTypes();
+            for (int property : properties) {
+                Object value = values[property];
+                Type type = types[property];
+                if (type.isEntityType()) {
+                    // bind the foreign key from the associated entity's identifier, which is
+                    // what a many-to-one stores, without asking the session whether it is saved
+                    EntityType entityType = (EntityType) type;
+                    if (value != null) {
+                        value = factory.getEntityPersister(entityType.getAssociatedEntityName())
+                                .getIdentifier(value, session);
+                    }
+                    type = entityType.getIdentifierOrUniqueKeyType(factory);
+                }
+                type.nullSafeSet(statement, value, index, session);
+                index += type.getColumnSpan(factory);
+            }
+        }
+
+        private static StringBuilder joinTo(StringBuilder sql, List<String> parts) {
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(parts.get(i));
+            }
+            return sql;
+        }
+    }
+
+    /**
+     * Walks a forward-only cursor and clears the session every {@code chunkSize} rows so
+     * that the persistence context never holds more than one chunk.
+     */
+    private final class ScrollIterator implements Iterator<T> {
+        private final Session session;
+        private final ScrollableResults results;
+        private final int chunkSize;
+        private int rowsInChunk;
+        private Boolean hasNext;
+
+        ScrollIterator(Session session, ScrollableResults results, int chunkSize) {
+            this.session = session;
+            this.results = results;
+            this.chunkSize = Math.max(1, chunkSize);
+        }
+
+        public boolean hasNext() {
+            if (hasNext == null) {
+                if (++rowsInChunk > chunkSize) {
+                    session.clear();
+                    rowsInChunk = 1;
+                }
+                hasNext = results.next();
+            }
+            return hasNext;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = null;
+            return (T) results.get(0);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        void close() {
+            try {
+                results.close();
+            } finally {
+                SessionFactoryUtils.closeSession(session);
+            }
+        }
+    }
+
+    /**
+     * A normalized query, named query parameters in name order or rendered criteria,
+     * against one generation of the table.
+     */
+    private static final class QueryKey {
+        final long generation;
+        private final Object[] query;
+
+        QueryKey(long generation, Object... query) {
+            this.generation = generation;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof QueryKey && generation == ((QueryKey) o).generation
+                    && Arrays.deepEquals(query, ((QueryKey) o).query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.deepHashCode(query) * 31 + (int) (generation ^ generation >>> 32);
+        }
+
+        int weight() {
+            int weight = 48 + 16 * query.length;
+            for (Object part : query) {
+                weight += part instanceof String ? 2 * ((String) part).length()
+                        : part instanceof Object[] ? 16 * ((Object[]) part).length + 64 : 64;
+            }
+            return weight;
+        }
+    }
+
+    /**
+     * Rough retained size of cached rows: object headers and references, plus the
+     * characters of every string property of an entity.
+     */
+    private final class QueryResultWeigher implements Weigher<QueryKey, List<Object>> {
+        public int weigh(QueryKey key, List<Object> rows) {
+            int weight = key.weight() + 32;
+            ClassMetadata metadata = getSessionFactory().getClassMetadata(persistentClass);
+            for (Object row : rows) {
+                weight += 16;
+                if (persistentClass.isInstance(row)) {
+                    weight += 32;
+                    for (Object value : metadata.getPropertyValues(row)) {
+                        weight += value instanceof String ? 40 + 2 * ((String) value).length() : 16;
+                    }
+                } else {
+                    weight += 32;
+                }
+            }
+            return weight;
+        }
+    }
+
     private static enum Operation{
-        MERGE, SAVE, DELETE
+        MERGE, SAVE, DELETE, UPSERT
     }
 }
@@ -0,0 +1,105 @@
+package com.sam.dao.generic;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Position of the last row of a keyset page: the value of the sort property and the
+ * identifier of that row. It is handed to clients as an opaque URL safe token.
+ * <p/>
+ * <p>Only String, Integer, Long and Date values, and a null sort value, are supported.
+ * Every value is encoded as a one letter type tag followed by its text form, so
+ * decoding never instantiates arbitrary classes from client input.
+ */
+public final class KeysetCursor implements Serializable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char SEPARATOR = '\u0000';
+
+    private final Object sortValue;
+    private final Object id;
+
+    public KeysetCursor(Object sortValue, Object id) {
+        this.sortValue = sortValue;
+        this.id = id;
+    }
+
+    public Object getSortValue() {
+        return sortValue;
+    }
+
+    public Object getId() {
+        return id;
+    }
+
+    public String encode() {
+        String raw = encodeValue(sortValue) + SEPARATOR + encodeValue(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token was not produced by {@link #encode()}
+     */
+    public static KeysetCursor decode(String token) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(token), UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token, e);
+        }
+        int separator = raw.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+        Object id = decodeValue(raw.substring(separator + 1));
+        if (id == null) {
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+        return new KeysetCursor(decodeValue(raw.substring(0, separator)), id);
+    }
+
+    private static String encodeValue(Object value) {
+        if (value == null) {
+            return "n";
+        } else if (value instanceof String) {
+            return "s" + value;
+        } else if (value instanceof Integer) {
+            return "i" + value;
+        } else if (value instanceof Long) {
+            return "l" + value;
+        } else if (value instanceof Date) {
+            return "d" + ((Date) value).getTime();
+        }
+        throw new IllegalArgumentException("Unsupported keyset value: " + value);
+    }
+
+    private static Object decodeValue(String encoded) {
+        if (encoded.isEmpty()) {
+            throw new IllegalArgumentException("Invalid cursor value");
+        }
+        String text = encoded.substring(1);
+        try {
+            switch (encoded.charAt(0)) {
+                case 'n':
+                    if (!text.isEmpty()) {
+                        throw new IllegalArgumentException("Invalid cursor value: " + encoded);
+                    }
+                    return null;
+                case 's':
+                    return text;
+                case 'i':
+                    return Integer.valueOf(text);
+                case 'l':
+                    return Long.valueOf(text);
+                case 'd':
+                    return new Date(Long.parseLong(text));
+                default:
+                    throw new IllegalArgumentException("Invalid cursor value type: " + encoded.charAt(0));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor value: " + text, e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.sam.dao.generic;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One page of a keyset paginated query.
+ *
+ * @param <T> a type variable
+ */
+public class KeysetPage<T> implements Serializable {
+
+    private List<T> items;
+    private String nextCursor;
+
+    public KeysetPage() {
+    }
+
+    public KeysetPage(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    /**
+     * @return token to pass back for the following page, or null on the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
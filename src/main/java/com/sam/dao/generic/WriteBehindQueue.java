@@ -0,0 +1,389 @@
+package com.sam.dao.generic;
+
+import com.sam.concurrent.QueueFullException;
+import com.sam.concurrent.RejectedException;
+import com.sam.concurrent.RingBuffer;
+import com.sam.metrics.Gauge;
+import com.sam.metrics.MetricsRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind in front of a DAO: callers hand entities to a bounded {@link RingBuffer}
+ * and return, a few writer threads drain it and save whatever accumulated with one
+ * {@link GenericDao#saveAll} (or {@link GenericDao#upsertAll}) call, so one transaction
+ * commits a whole group of writes and only the writers hold connections.
+ * <p/>
+ * <p>{@link #submit} completes its future once the entity's group committed. In durable
+ * mode {@link #write} waits for that, otherwise it returns as soon as the entity is
+ * queued and a crash loses what is still queued. When the buffer is full, producers wait
+ * up to {@code offerTimeoutMillis} for room and then get a {@link QueueFullException}.
+ * A group is at most the DAO's batch size, so it commits or rolls back as one
+ * transaction; if it fails, none of it was written and its entities are saved one at a
+ * time, so one bad entity only fails itself.
+ * <p/>
+ * <p>{@link #stop()} stops accepting writes and lets the writers drain the buffer before
+ * it returns; register it as the bean's destroy method.
+ *
+ * @param <T> the entity type
+ */
+public class WriteBehindQueue<T> {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_WRITERS = 2;
+    public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 100;
+    public static final long DEFAULT_COMMIT_TIMEOUT_MILLIS = 5000;
+    public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 30000;
+
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final GenericDao<T, ?> dao;
+    private String name = "writeBehind";
+    private int capacity = DEFAULT_CAPACITY;
+    private int writers = DEFAULT_WRITERS;
+    private int maxBatchSize = GenericDaoHibernate.DEFAULT_BATCH_SIZE;
+    private boolean durable;
+    private boolean upsert;
+    private long offerTimeoutMillis = DEFAULT_OFFER_TIMEOUT_MILLIS;
+    private long commitTimeoutMillis = DEFAULT_COMMIT_TIMEOUT_MILLIS;
+    private long drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MILLIS;
+    private MetricsRegistry metricsRegistry;
+
+    private RingBuffer<Pending<T>> buffer;
+    private Thread[] threads;
+    private volatile boolean stopping;
+    private final AtomicInteger idleWriters = new AtomicInteger();
+    // producers between their running check and their offer
+    private final AtomicInteger offering = new AtomicInteger();
+    // the writer that went idle last, the one a producer wakes
+    private volatile int idleWriter;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder groups = new LongAdder();
+
+    public WriteBehindQueue(GenericDao<T, ?> dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Prefix of the writer thread names and the gauges.
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void setWriters(int writers) {
+        this.writers = writers;
+    }
+
+    /**
+     * Most entities saved as one group, at most the DAO's batch size so that a group is
+     * one transaction.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Whether {@link #write} waits for the commit, false by default.
+     */
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+
+    public boolean isDurable() {
+        return durable;
+    }
+
+    /**
+     * Whether groups are written with {@link GenericDao#upsertAll} instead of
+     * {@link GenericDao#saveAll}, false by default.
+     */
+    public void setUpsert(boolean upsert) {
+        this.upsert = upsert;
+    }
+
+    public void setOfferTimeoutMillis(long offerTimeoutMillis) {
+        this.offerTimeoutMillis = offerTimeoutMillis;
+    }
+
+    public void setCommitTimeoutMillis(long commitTimeoutMillis) {
+        this.commitTimeoutMillis = commitTimeoutMillis;
+    }
+
+    public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public synchronized void start() {
+        if (threads != null) {
+            return;
+        }
+        if (maxBatchSize < 1 || maxBatchSize > dao.getBatchSize()) {
+            throw new IllegalArgumentException(String.format(
+                    "%s: maxBatchSize %d must be between 1 and the DAO's batch size %d, which one transaction commits",
+                    name, maxBatchSize, dao.getBatchSize()));
+        }
+        buffer = new RingBuffer<Pending<T>>(capacity);
+        threads = new Thread[writers];
+        for (int i = 0; i < writers; i++) {
+            final int writer = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    drain(writer);
+                }
+            }, name + "-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        if (metricsRegistry != null) {
+            registerGauges(metricsRegistry);
+        }
+    }
+
+    /**
+     * Stops accepting writes and waits up to {@code drainTimeoutMillis} for the writers
+     * to save what is queued.
+     */
+    public synchronized void stop() {
+        if (threads == null || stopping) {
+            return;
+        }
+        stopping = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                log.error(String.format("%s stopped with %d writes still queued", name, buffer.size()));
+                return;
+            }
+        }
+        // producers that got past the running check just before the stop may have queued since
+        while (offering.get() > 0) {
+            Thread.yield();
+        }
+        List<Pending<T>> group = new ArrayList<Pending<T>>(maxBatchSize);
+        List<T> entities = new ArrayList<T>(maxBatchSize);
+        while (drainGroup(group, entities)) {
+        }
+    }
+
+    /**
+     * Queues the entity, waiting for room while the buffer is full.
+     *
+     * @return a future completed once the entity is committed, or exceptionally if saving it failed
+     * @throws QueueFullException if there was no room within {@code offerTimeoutMillis}
+     */
+    public CompletableFuture<Void> submit(T entity) {
+        Pending<T> pending = new Pending<T>(entity);
+        offering.incrementAndGet();
+        try {
+            if (threads == null || stopping) {
+                throw new IllegalStateException(name + " is not running");
+            }
+            if (!buffer.offer(pending)) {
+                offerWithBackoff(pending);
+            }
+        } finally {
+            offering.decrementAndGet();
+        }
+        if (idleWriters.get() > 0) {
+            LockSupport.unpark(threads[idleWriter]);
+        }
+        return pending.committed;
+    }
+
+    /**
+     * Queues the entity and, in durable mode, waits for its commit.
+     *
+     * @return true if the entity is committed, false if it is only queued
+     */
+    public boolean write(T entity) {
+        CompletableFuture<Void> committed = submit(entity);
+        if (!durable) {
+            return false;
+        }
+        try {
+            committed.get(commitTimeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the commit", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedException) {
+                throw (RejectedException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException(String.format("%s: no commit within %d ms, the write is still queued",
+                    name, commitTimeoutMillis), e);
+        }
+    }
+
+    /**
+     * @return number of queued entities
+     */
+    public int size() {
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    private void offerWithBackoff(Pending<T> pending) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        long backoff = TimeUnit.MICROSECONDS.toNanos(10);
+        do {
+            // the writers may be parked while the buffer is full, make sure one drains it
+            LockSupport.unpark(threads[idleWriter]);
+            LockSupport.parkNanos(this, backoff);
+            if (buffer.offer(pending)) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+        } while (System.nanoTime() < deadline && !stopping);
+        rejected.increment();
+        throw new QueueFullException(String.format("%s is full: %d writes queued", name, buffer.capacity()));
+    }
+
+    private void drain(int writer) {
+        List<Pending<T>> group = new ArrayList<Pending<T>>(maxBatchSize);
+        List<T> entities = new ArrayList<T>(maxBatchSize);
+        while (true) {
+            if (drainGroup(group, entities)) {
+                continue;
+            }
+            if (stopping) {
+                return;
+            }
+            idleWriter = writer;
+            idleWriters.incrementAndGet();
+            // a producer that queued before the increment did not wake anybody. One that
+            // queues after it wakes the writer that went idle last; if that one is busy by
+            // then, it drains the buffer before it looks for work again
+            if (buffer.isEmpty() && !stopping) {
+                LockSupport.park(this);
+            }
+            idleWriters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Saves the next group of queued entities, using the two lists as scratch space.
+     *
+     * @return false if nothing was queued
+     */
+    private boolean drainGroup(List<Pending<T>> group, List<T> entities) {
+        if (buffer.drainTo(group, maxBatchSize) == 0) {
+            return false;
+        }
+        save(group, entities);
+        group.clear();
+        entities.clear();
+        return true;
+    }
+
+    private void save(List<Pending<T>> group, List<T> entities) {
+        for (Pending<T> pending : group) {
+            entities.add(pending.entity);
+        }
+        try {
+            if (upsert) {
+                dao.upsertAll(entities);
+            } else {
+                dao.saveAll(entities);
+            }
+            groups.increment();
+            written.add(group.size());
+            for (Pending<T> pending : group) {
+                pending.committed.complete(null);
+            }
+        } catch (RuntimeException e) {
+            log.warn(String.format("%s: group of %d failed, saving them one at a time", name, group.size()), e);
+            for (Pending<T> pending : group) {
+                saveAlone(pending);
+            }
+        }
+    }
+
+    private void saveAlone(Pending<T> pending) {
+        try {
+            if (upsert) {
+                dao.upsert(pending.entity);
+            } else {
+                dao.save(pending.entity);
+            }
+            written.increment();
+            pending.committed.complete(null);
+        } catch (RuntimeException e) {
+            failed.increment();
+            log.error(String.format("%s: could not save %s", name, pending.entity), e);
+            pending.committed.completeExceptionally(e);
+        }
+    }
+
+    private void registerGauges(MetricsRegistry registry) {
+        String prefix = name + ".";
+        registry.register(prefix + "queued", new Gauge() {
+            public long value() {
+                return size();
+            }
+        });
+        registry.register(prefix + "written", new Gauge() {
+            public long value() {
+                return written.sum();
+            }
+        });
+        registry.register(prefix + "groups", new Gauge() {
+            public long value() {
+                return groups.sum();
+            }
+        });
+        registry.register(prefix + "failed", new Gauge() {
+            public long value() {
+                return failed.sum();
+            }
+        });
+        registry.register(prefix + "rejected", new Gauge() {
+            public long value() {
+                return rejected.sum();
+            }
+        });
+    }
+
+    private static final class Pending<T> {
+        final T entity;
+        final CompletableFuture<Void> committed = new CompletableFuture<Void>();
+
+        Pending(T entity) {
+            this.entity = entity;
+        }
+    }
+}
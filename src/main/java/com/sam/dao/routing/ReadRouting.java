@@ -0,0 +1,95 @@
+package com.sam.dao.routing;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the connections the current thread opens go, and when entities were last
+ * written. {@link ReplicaReadPostProcessor} routes DAO reads with it and
+ * {@link ReplicaRoutingDataSource} follows the route; every write through a
+ * {@link com.sam.dao.generic.GenericDaoHibernate} is recorded here.
+ */
+public final class ReadRouting {
+
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private static final ThreadLocal<Boolean> REPLICA = new ThreadLocal<Boolean>();
+    private static final ThreadLocal<long[]> THREAD_LAST_WRITE = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[]{NEVER};
+        }
+    };
+    /**
+     * {@link System#nanoTime()} of the last write per entity class, shared by all DAOs of the class.
+     */
+    private static final ConcurrentMap<Class<?>, AtomicLong> LAST_WRITES = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+    private ReadRouting() {
+    }
+
+    /**
+     * @return whether connections opened by the current thread may go to a replica
+     */
+    public static boolean isReplicaRead() {
+        return REPLICA.get() == Boolean.TRUE;
+    }
+
+    /**
+     * Routes the current thread's connections to a replica, or to the primary, until
+     * {@link #restore} is called with the returned value.
+     */
+    static Boolean route(boolean replica) {
+        Boolean previous = REPLICA.get();
+        REPLICA.set(replica);
+        return previous;
+    }
+
+    static void restore(Boolean previous) {
+        if (previous == null) {
+            REPLICA.remove();
+        } else {
+            REPLICA.set(previous);
+        }
+    }
+
+    /**
+     * Records a write of the entity by the current thread. Called once when the write
+     * happens and again once it commits, if that is later.
+     */
+    public static void written(Class<?> entityClass) {
+        long now = System.nanoTime();
+        THREAD_LAST_WRITE.get()[0] = now;
+        lastWrite(entityClass).set(now);
+    }
+
+    /**
+     * @return whether the current thread wrote anything, or anyone wrote the entity,
+     * in the last {@code windowNanos}
+     */
+    static boolean writtenWithin(Class<?> entityClass, long windowNanos) {
+        long now = System.nanoTime();
+        if (within(THREAD_LAST_WRITE.get()[0], now, windowNanos)) {
+            return true;
+        }
+        AtomicLong lastWrite = LAST_WRITES.get(entityClass);
+        return lastWrite != null && within(lastWrite.get(), now, windowNanos);
+    }
+
+    private static boolean within(long write, long now, long windowNanos) {
+        return write != NEVER && now - write < windowNanos;
+    }
+
+    private static AtomicLong lastWrite(Class<?> entityClass) {
+        AtomicLong lastWrite = LAST_WRITES.get(entityClass);
+        if (lastWrite == null) {
+            AtomicLong created = new AtomicLong(NEVER);
+            lastWrite = LAST_WRITES.putIfAbsent(entityClass, created);
+            if (lastWrite == null) {
+                lastWrite = created;
+            }
+        }
+        return lastWrite;
+    }
+}
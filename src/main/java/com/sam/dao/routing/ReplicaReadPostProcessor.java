@@ -0,0 +1,87 @@
+package com.sam.dao.routing;
+
+import com.sam.dao.generic.GenericDao;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps every {@link GenericDao} bean in a proxy that routes its read-only methods to
+ * the replicas of a {@link ReplicaRoutingDataSource}, and everything else to the primary.
+ * The reads are {@code get}, {@code getMany}, {@code exists}, {@code getAll},
+ * {@code getAllDistinct}, {@code getPersonByEmail} and the {@code find*} methods; streams
+ * stay on the primary, so an index rebuild never reads older rows than the changes it
+ * already applied.
+ * <p/>
+ * <p>Replicas lag behind. For {@code stickyMillis} after a write, reads of the written
+ * entity, and every read of the thread that wrote, go to the primary: a client reads
+ * its own writes, and the DAO caches, which a write invalidates, are not refilled with
+ * rows the replica has not caught up with. Set it above the replication lag.
+ * <p/>
+ * <p>The stickiness is deliberately coarse. It covers every row of the written entity
+ * class, for all threads, because a cache refill or a read through an association does
+ * not know which rows the write touched; and every entity for the writing thread,
+ * because its next read may join what it just wrote. The price is that an entity
+ * written more often than once per {@code stickyMillis} is always read from the
+ * primary; only the other entities are offloaded then.
+ */
+public class ReplicaReadPostProcessor implements BeanPostProcessor {
+
+    public static final long DEFAULT_STICKY_MILLIS = 5000;
+
+    static final Set<String> READ_METHODS = new HashSet<String>(Arrays.asList(
+            "get", "getMany", "exists", "getAll", "getAllDistinct", "getPersonByEmail"));
+
+    private long stickyNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_STICKY_MILLIS);
+
+    public void setStickyMillis(long stickyMillis) {
+        this.stickyNanos = TimeUnit.MILLISECONDS.toNanos(stickyMillis);
+    }
+
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    public Object postProcessAfterInitialization(final Object bean, String beanName) throws BeansException {
+        if (!(bean instanceof GenericDao)) {
+            return bean;
+        }
+        final Class<?> entityClass = ((GenericDao<?, ?>) bean).getPersistentClass();
+        return Proxy.newProxyInstance(bean.getClass().getClassLoader(), ClassUtils.getAllInterfaces(bean),
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return invokeTarget(method, args);
+                        }
+                        boolean replica = isRead(method) && !ReadRouting.writtenWithin(entityClass, stickyNanos);
+                        Boolean previous = ReadRouting.route(replica);
+                        try {
+                            return invokeTarget(method, args);
+                        } finally {
+                            ReadRouting.restore(previous);
+                        }
+                    }
+
+                    private Object invokeTarget(Method method, Object[] args) throws Throwable {
+                        try {
+                            return method.invoke(bean, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    }
+                });
+    }
+
+    static boolean isRead(Method method) {
+        return READ_METHODS.contains(method.getName()) || method.getName().startsWith("find");
+    }
+}
@@ -0,0 +1,109 @@
+package com.sam.dao.routing;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * DataSource that hands out connections of the primary, or, while the current thread
+ * is routed to a replica by {@link ReadRouting}, of the replicas in turn.
+ * <p/>
+ * <p>A replica that fails to give a connection is skipped for {@code retryIntervalMillis}
+ * and the read goes to the next one, or to the primary once none is left, so a replica
+ * outage slows reads down but never fails them. Without replicas every connection is a
+ * primary one.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements InitializingBean {
+
+    public static final long DEFAULT_RETRY_INTERVAL_MILLIS = 5000;
+
+    private static final long UP = Long.MIN_VALUE;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private DataSource primary;
+    private List<DataSource> replicas = Collections.emptyList();
+    private long retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RETRY_INTERVAL_MILLIS);
+    /**
+     * {@link System#nanoTime()} each replica last failed at, {@link #UP} while it works.
+     */
+    private AtomicLongArray failedAt = new AtomicLongArray(0);
+    private final AtomicInteger next = new AtomicInteger();
+
+    public void setPrimary(DataSource primary) {
+        this.primary = primary;
+    }
+
+    public void setReplicas(List<DataSource> replicas) {
+        this.replicas = new ArrayList<DataSource>(replicas);
+    }
+
+    public void setRetryIntervalMillis(long retryIntervalMillis) {
+        this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public List<DataSource> getReplicas() {
+        return Collections.unmodifiableList(replicas);
+    }
+
+    public void afterPropertiesSet() {
+        if (primary == null) {
+            throw new IllegalArgumentException("A primary DataSource is required");
+        }
+        failedAt = new AtomicLongArray(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            failedAt.set(i, UP);
+        }
+    }
+
+    public Connection getConnection() throws SQLException {
+        return getConnection(null, null);
+    }
+
+    /**
+     * @param username null to connect with the DataSources' own credentials
+     */
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (ReadRouting.isReplicaRead()) {
+            for (int attempt = 0; attempt < replicas.size(); attempt++) {
+                int replica = (next.getAndIncrement() & Integer.MAX_VALUE) % replicas.size();
+                long failed = failedAt.get(replica);
+                if (failed != UP && System.nanoTime() - failed < retryIntervalNanos) {
+                    continue;
+                }
+                try {
+                    Connection connection = connect(replicas.get(replica), username, password);
+                    if (failed != UP && failedAt.compareAndSet(replica, failed, UP)) {
+                        log.info("Replica " + replica + " is back, routing reads to it again");
+                    }
+                    return connection;
+                } catch (SQLException e) {
+                    if (failedAt.getAndSet(replica, System.nanoTime()) == UP) {
+                        log.warn("Replica " + replica + " failed, reading from the other replicas or the primary for "
+                                + TimeUnit.NANOSECONDS.toMillis(retryIntervalNanos) + " ms", e);
+                    }
+                }
+            }
+        }
+        return connect(primary, username, password);
+    }
+
+    private static Connection connect(DataSource dataSource, String username, String password) throws SQLException {
+        return username == null ? dataSource.getConnection() : dataSource.getConnection(username, password);
+    }
+}
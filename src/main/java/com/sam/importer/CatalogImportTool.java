@@ -0,0 +1,53 @@
+package com.sam.importer;
+
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Imports a catalog file from the command line with the application's own context and
+ * its {@code catalogImporter}:
+ * <pre>
+ *     java -Dstage=dev -cp &lt;classpath&gt; com.sam.importer.CatalogImportTool products.csv [name]
+ * </pre>
+ * Files ending in {@code .csv} are read as CSV, any other as NDJSON. The name defaults to
+ * the file name; running the tool again with the same name resumes an import that
+ * failed or was killed. The exit status is 0 once every record was imported.
+ * <p/>
+ * <p>The context also loads the search index, and the rebuild that ends the import
+ * writes the catalog file a server started with {@code openCatalogOnStart} serves.
+ */
+public class CatalogImportTool {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: CatalogImportTool <file.csv|file.ndjson> [name]");
+            System.exit(2);
+        }
+        File file = new File(args[0]);
+        String name = args.length > 1 ? args[1] : file.getName();
+        ImportFormat format = file.getName().toLowerCase().endsWith(".csv") ? ImportFormat.CSV : ImportFormat.NDJSON;
+
+        ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("applicationContext-beans.xml");
+        ImportProgress progress;
+        try {
+            CatalogImporter importer = context.getBean("catalogImporter", CatalogImporter.class);
+            InputStream input = new FileInputStream(file);
+            try {
+                progress = importer.importCatalog(name, format, input);
+            } finally {
+                input.close();
+            }
+        } finally {
+            context.close();
+        }
+        System.out.println(progress);
+        if (progress.getError() != null) {
+            System.out.println(progress.getError());
+        }
+        System.exit(progress.getState() == ImportProgress.State.DONE ? 0 : 1);
+    }
+}
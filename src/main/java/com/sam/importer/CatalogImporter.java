@@ -0,0 +1,726 @@
+package com.sam.importer;
+
+import com.sam.dao.ProductDao;
+import com.sam.dao.generic.GenericDao;
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import com.sam.service.ProductSearchService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Loads seller catalogs of any size into the database and the search index through a
+ * pipeline of stages connected by bounded queues:
+ * <ol>
+ * <li>the caller's thread reads the input into chunks of {@code chunkSize} records,</li>
+ * <li>a pool of {@code parseThreads} parses the chunks into products,</li>
+ * <li>one thread takes the parsed chunks in input order and resolves their sellers: sellers
+ * it has not seen yet are looked up in one query per chunk, and the missing ones are
+ * created, so every seller is written once and its products share one instance,</li>
+ * <li>{@code writers} threads upsert the products, each the ones whose id hashes to it,
+ * so a product's versions are written in input order and writers never lock each
+ * other's rows,</li>
+ * <li>once every record is written, the search index is rebuilt.</li>
+ * </ol>
+ * A full queue blocks the stage before it, so at most a few chunks per stage are in
+ * memory whatever the size of the input, and the slowest stage sets the pace.
+ * <p/>
+ * <p>Products are written through a DAO without change listeners: indexing millions of
+ * products as they commit would pile them into the incremental indexer's small segments
+ * and merge those over and over, one rebuild at the end is far cheaper.
+ * <p/>
+ * <p>Every {@code checkpointIntervalMillis} the number of records up to which everything
+ * is written goes to a checkpoint file named after the import. An import started again
+ * under the same name, with the same input, skips those records; records after the
+ * checkpoint may be written twice, which upserts make harmless. A completed import
+ * deletes its checkpoint.
+ * <p/>
+ * <p>Records that can not be parsed or written are logged and skipped, until more than
+ * {@code maxFailedRecords} failed. A group of products that fails as a whole is retried
+ * one product at a time; if every product of the group fails again, the database rather
+ * than the data is the likely cause and the import stops.
+ */
+public class CatalogImporter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    public static final int DEFAULT_WRITERS = 4;
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+    public static final int DEFAULT_MAX_FAILED_RECORDS = 1000;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_PROGRESS_INTERVAL_MILLIS = 10000;
+
+    static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]{1,100}");
+    private static final int LOGGED_FAILURES = 10;
+    private static final long POLL_MILLIS = 100;
+
+    private static final Chunk END = new Chunk(-1, -1, null);
+    private static final Future<Chunk> END_OF_CHUNKS = CompletableFuture.completedFuture(END);
+    private static final Part END_OF_PARTS = new Part(END, null);
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private ProductDao productDao;
+    private GenericDao<Seller, String> sellerDao;
+    private ProductSearchService productSearchService;
+    private File checkpointDir;
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+    private int writers = DEFAULT_WRITERS;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int maxFailedRecords = DEFAULT_MAX_FAILED_RECORDS;
+    private long checkpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+    private long progressIntervalMillis = DEFAULT_PROGRESS_INTERVAL_MILLIS;
+
+    private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+
+    /**
+     * DAO the products are upserted with; it should have no change listeners, see the
+     * class comment.
+     */
+    public void setProductDao(ProductDao productDao) {
+        this.productDao = productDao;
+    }
+
+    public void setSellerDao(GenericDao<Seller, String> sellerDao) {
+        this.sellerDao = sellerDao;
+    }
+
+    /**
+     * Service whose index is rebuilt once an import completed, null to leave indexing to
+     * the next rebuild.
+     */
+    public void setProductSearchService(ProductSearchService productSearchService) {
+        this.productSearchService = productSearchService;
+    }
+
+    /**
+     * Directory of the checkpoint files, created when needed; null disables resuming.
+     */
+    public void setCheckpointDir(File checkpointDir) {
+        this.checkpointDir = checkpointDir;
+    }
+
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+    }
+
+    public void setWriters(int writers) {
+        this.writers = writers;
+    }
+
+    /**
+     * Records per chunk, the unit of parsing, of seller lookups and of checkpoints.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Chunks each queue between two stages holds, per thread of the stage it feeds.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setMaxFailedRecords(int maxFailedRecords) {
+        this.maxFailedRecords = maxFailedRecords;
+    }
+
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    /**
+     * How often a running import logs its progress.
+     */
+    public void setProgressIntervalMillis(long progressIntervalMillis) {
+        this.progressIntervalMillis = progressIntervalMillis;
+    }
+
+    /**
+     * Imports the catalog on the caller's thread and the pipeline's threads, resuming
+     * from the checkpoint of an earlier run under the same name. The caller keeps
+     * ownership of the input.
+     *
+     * @param name names the import and its checkpoint: letters, digits, '.', '_' and '-'
+     * @return the progress once the import completed or failed
+     * @throws IllegalArgumentException if the name is not valid
+     * @throws IllegalStateException    if an import of that name is already running
+     */
+    public ImportProgress importCatalog(String name, ImportFormat format, InputStream input) {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("An import name is 1 to 100 letters, digits, '.', '_' or '-': " + name);
+        }
+        Job job = new Job(name);
+        synchronized (jobs) {
+            Job previous = jobs.get(name);
+            if (previous != null && previous.isRunning()) {
+                throw new IllegalStateException("Import " + name + " is already running");
+            }
+            jobs.put(name, job);
+        }
+        return job.run(format, input);
+    }
+
+    /**
+     * @return the progress of the last import of that name since startup, or null
+     */
+    public ImportProgress progress(String name) {
+        Job job = jobs.get(name);
+        return job == null ? null : job.progress();
+    }
+
+    /**
+     * @return the progress of the last import of every name since startup, by name
+     */
+    public Map<String, ImportProgress> progress() {
+        Map<String, ImportProgress> progress = new TreeMap<String, ImportProgress>();
+        for (Job job : jobs.values()) {
+            progress.put(job.name, job.progress());
+        }
+        return progress;
+    }
+
+    private static ThreadFactory threadFactory(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + "-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Records of the input, from {@code firstRecord} (counted from 0), and what became of
+     * them.
+     */
+    private static final class Chunk {
+        final long seq;
+        final long firstRecord;
+        final int recordCount;
+        // the raw records until parsed, then the products
+        List<String> records;
+        List<Product> products;
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger pendingParts = new AtomicInteger();
+
+        Chunk(long seq, long firstRecord, List<String> records) {
+            this.seq = seq;
+            this.firstRecord = firstRecord;
+            this.recordCount = records == null ? 0 : records.size();
+            this.records = records;
+        }
+    }
+
+    /**
+     * The products of a chunk one writer upserts.
+     */
+    private static final class Part {
+        final Chunk chunk;
+        final List<Product> products;
+
+        Part(Chunk chunk, List<Product> products) {
+            this.chunk = chunk;
+            this.products = products;
+        }
+    }
+
+    /**
+     * One run of an import.
+     */
+    private final class Job {
+        final String name;
+        final long started = System.currentTimeMillis();
+        volatile ImportProgress.State state = ImportProgress.State.RUNNING;
+        volatile Throwable failure;
+        volatile long recordsRead;
+        boolean checkpointRead;
+        long resumedFrom;
+        long resumedProcessed;
+        final LongAdder written = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final AtomicLong sellersCreated = new AtomicLong();
+        final AtomicInteger loggedFailures = new AtomicInteger();
+        volatile long finished;
+
+        // committed prefix of the input, guarded by this
+        final Map<Long, Chunk> done = new HashMap<Long, Chunk>();
+        long nextSeq;
+        volatile long committedRecords;
+        long committedWritten;
+        long committedFailed;
+        long lastCheckpoint = System.currentTimeMillis();
+        long lastReport = System.currentTimeMillis();
+
+        ImportFormat.Parser parser;
+        ExecutorService parsePool;
+        BlockingQueue<Future<Chunk>> parsed;
+        List<BlockingQueue<Part>> writeQueues;
+        List<Thread> threads;
+
+        Job(String name) {
+            this.name = name;
+        }
+
+        boolean isRunning() {
+            return state == ImportProgress.State.RUNNING || state == ImportProgress.State.INDEXING;
+        }
+
+        ImportProgress run(ImportFormat format, InputStream input) {
+            try {
+                resume();
+                BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16);
+                parser = format.open(in);
+                long record = 0;
+                while (record < resumedFrom && format.readRecord(in) != null) {
+                    record++;
+                }
+                recordsRead = record;
+                if (record > 0) {
+                    log.info(String.format("Import %s resumes after record %d", name, record));
+                }
+                startStages();
+                readChunks(format, in, record);
+                awaitStages();
+                if (failure == null) {
+                    saveCheckpoint();
+                    index();
+                    deleteCheckpoint();
+                    state = ImportProgress.State.DONE;
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(e);
+            } finally {
+                if (parsePool != null) {
+                    parsePool.shutdownNow();
+                }
+                finished = System.currentTimeMillis();
+                if (failure != null) {
+                    state = ImportProgress.State.FAILED;
+                    log.error("Import " + name + " failed, " + progress(), failure);
+                    if (checkpointRead) {
+                        saveCheckpoint();
+                    }
+                } else {
+                    log.info("Import " + name + " completed, " + progress());
+                }
+            }
+            return progress();
+        }
+
+        private void startStages() {
+            parsePool = Executors.newFixedThreadPool(parseThreads, threadFactory("import-" + name + "-parse"));
+            parsed = new ArrayBlockingQueue<Future<Chunk>>(queueCapacity * parseThreads);
+            writeQueues = new ArrayList<BlockingQueue<Part>>(writers);
+            threads = new ArrayList<Thread>(writers + 1);
+            ThreadFactory resolverThreads = threadFactory("import-" + name + "-resolve");
+            threads.add(resolverThreads.newThread(new Runnable() {
+                public void run() {
+                    try {
+                        resolve();
+                        for (BlockingQueue<Part> queue : writeQueues) {
+                            put(queue, END_OF_PARTS);
+                        }
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }
+            }));
+            ThreadFactory writerThreads = threadFactory("import-" + name + "-write");
+            for (int i = 0; i < writers; i++) {
+                final BlockingQueue<Part> queue = new ArrayBlockingQueue<Part>(queueCapacity + 1);
+                writeQueues.add(queue);
+                threads.add(writerThreads.newThread(new Runnable() {
+                    public void run() {
+                        try {
+                            Part part;
+                            while ((part = take(queue)) != END_OF_PARTS) {
+                                checkFailure();
+                                write(part);
+                            }
+                        } catch (Throwable e) {
+                            fail(e);
+                        }
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+        }
+
+        /**
+         * Feeds the parse pool until the input ends or a stage failed; the stages stop
+         * waiting for chunks once this failed.
+         */
+        private void readChunks(ImportFormat format, BufferedReader in, long record) {
+            try {
+                long seq = 0;
+                List<String> records = new ArrayList<String>(chunkSize);
+                String line;
+                while (failure == null && (line = format.readRecord(in)) != null) {
+                    records.add(line);
+                    recordsRead = ++record;
+                    if (records.size() == chunkSize) {
+                        put(parsed, parse(new Chunk(seq++, record - records.size(), records)));
+                        records = new ArrayList<String>(chunkSize);
+                    }
+                }
+                if (!records.isEmpty()) {
+                    put(parsed, parse(new Chunk(seq, record - records.size(), records)));
+                }
+                put(parsed, END_OF_CHUNKS);
+            } catch (CancellationException e) {
+                // a stage failed, the failure is reported
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void awaitStages() {
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail(e);
+                    return;
+                }
+            }
+        }
+
+        private Future<Chunk> parse(final Chunk chunk) {
+            return parsePool.submit(new Callable<Chunk>() {
+                public Chunk call() {
+                    List<Product> products = new ArrayList<Product>(chunk.recordCount);
+                    for (int i = 0; i < chunk.recordCount; i++) {
+                        try {
+                            products.add(parser.parse(chunk.records.get(i)));
+                        } catch (RuntimeException e) {
+                            failed(chunk, chunk.firstRecord + i, e);
+                        }
+                    }
+                    chunk.records = null;
+                    chunk.products = products;
+                    return chunk;
+                }
+            });
+        }
+
+        /**
+         * Takes the parsed chunks in input order, resolves their sellers and hands their
+         * products to the writers.
+         */
+        private void resolve() throws InterruptedException, ExecutionException {
+            Map<String, Seller> sellers = new HashMap<String, Seller>();
+            Chunk chunk;
+            while ((chunk = take(parsed).get()) != END) {
+                resolveSellers(chunk.products, sellers);
+                List<List<Product>> parts = new ArrayList<List<Product>>(writers);
+                for (int i = 0; i < writers; i++) {
+                    parts.add(new ArrayList<Product>());
+                }
+                for (Product product : chunk.products) {
+                    parts.get((product.getId().hashCode() & Integer.MAX_VALUE) % writers).add(product);
+                }
+                chunk.products = null;
+                int pending = 0;
+                for (List<Product> part : parts) {
+                    if (!part.isEmpty()) {
+                        pending++;
+                    }
+                }
+                if (pending == 0) {
+                    committed(chunk);
+                    continue;
+                }
+                chunk.pendingParts.set(pending);
+                for (int i = 0; i < writers; i++) {
+                    if (!parts.get(i).isEmpty()) {
+                        put(writeQueues.get(i), new Part(chunk, parts.get(i)));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Replaces the sellers of the products by the ones already known, looks up those
+         * seen for the first time and creates the ones that do not exist.
+         */
+        private void resolveSellers(List<Product> products, Map<String, Seller> known) {
+            Map<String, Seller> unknown = new LinkedHashMap<String, Seller>();
+            for (Product product : products) {
+                Seller seller = product.getSeller();
+                if (seller != null && !known.containsKey(seller.getSellerId())
+                        && !unknown.containsKey(seller.getSellerId())) {
+                    unknown.put(seller.getSellerId(), seller);
+                }
+            }
+            if (!unknown.isEmpty()) {
+                Map<String, Seller> existing = sellerDao.getMany(unknown.keySet());
+                known.putAll(existing);
+                List<Seller> created = new ArrayList<Seller>();
+                for (Seller seller : unknown.values()) {
+                    if (!existing.containsKey(seller.getSellerId())) {
+                        created.add(seller);
+                        known.put(seller.getSellerId(), seller);
+                    }
+                }
+                if (!created.isEmpty()) {
+                    // an upsert, in case a concurrent write created one of them since the lookup
+                    sellerDao.upsertAll(created);
+                    sellersCreated.addAndGet(created.size());
+                }
+            }
+            for (Product product : products) {
+                if (product.getSeller() != null) {
+                    product.setSeller(known.get(product.getSeller().getSellerId()));
+                }
+            }
+        }
+
+        private void write(Part part) {
+            try {
+                productDao.upsertAll(part.products);
+                written(part.chunk, part.products.size());
+            } catch (RuntimeException e) {
+                if (part.products.size() == 1) {
+                    failed(part.chunk, -1, e);
+                } else {
+                    log.warn(String.format("Import %s: group of %d products failed, writing them one at a time",
+                            name, part.products.size()), e);
+                    writeAlone(part);
+                }
+            }
+            if (part.chunk.pendingParts.decrementAndGet() == 0) {
+                committed(part.chunk);
+            }
+        }
+
+        private void writeAlone(Part part) {
+            List<RuntimeException> failures = new ArrayList<RuntimeException>();
+            for (Product product : part.products) {
+                try {
+                    productDao.upsert(product);
+                    written(part.chunk, 1);
+                } catch (RuntimeException e) {
+                    failures.add(e);
+                }
+            }
+            if (failures.size() == part.products.size()) {
+                throw new IllegalStateException("Every product of a group of " + failures.size() + " failed",
+                        failures.get(0));
+            }
+            for (RuntimeException e : failures) {
+                failed(part.chunk, -1, e);
+            }
+        }
+
+        private void written(Chunk chunk, int count) {
+            chunk.written.addAndGet(count);
+            written.add(count);
+        }
+
+        /**
+         * Counts a skipped record, and stops the import once too many were.
+         *
+         * @param record the record's number, or -1 if not known
+         */
+        private void failed(Chunk chunk, long record, RuntimeException e) {
+            chunk.failed.incrementAndGet();
+            failed.increment();
+            if (loggedFailures.incrementAndGet() <= LOGGED_FAILURES) {
+                log.warn(String.format("Import %s: skipped %s: %s", name,
+                        record < 0 ? "a product" : "record " + (record + 1), e.getMessage()));
+            }
+            if (failed.sum() > maxFailedRecords) {
+                throw new IllegalStateException("More than " + maxFailedRecords + " records failed", e);
+            }
+        }
+
+        /**
+         * Advances the committed prefix past the chunk, if the chunks before it are
+         * committed too, and checkpoints or reports the progress when it is time to.
+         */
+        private synchronized void committed(Chunk chunk) {
+            done.put(chunk.seq, chunk);
+            Chunk next;
+            while ((next = done.remove(nextSeq)) != null) {
+                nextSeq++;
+                committedRecords = next.firstRecord + next.recordCount;
+                committedWritten += next.written.get();
+                committedFailed += next.failed.get();
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastCheckpoint >= checkpointIntervalMillis) {
+                lastCheckpoint = now;
+                saveCheckpoint();
+            }
+            if (now - lastReport >= progressIntervalMillis) {
+                lastReport = now;
+                log.info("Import " + progress());
+            }
+        }
+
+        private void index() {
+            if (productSearchService == null || written.sum() == 0) {
+                return;
+            }
+            state = ImportProgress.State.INDEXING;
+            productSearchService.rebuildIndex();
+        }
+
+        private <E> void put(BlockingQueue<E> queue, E element) throws InterruptedException {
+            while (!queue.offer(element, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        }
+
+        private <E> E take(BlockingQueue<E> queue) throws InterruptedException {
+            E element;
+            while ((element = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                checkFailure();
+            }
+            return element;
+        }
+
+        private void checkFailure() {
+            if (failure != null) {
+                throw new CancellationException();
+            }
+        }
+
+        private synchronized void fail(Throwable e) {
+            if (failure == null && !(e instanceof CancellationException)) {
+                failure = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            }
+        }
+
+        private File checkpointFile() {
+            return checkpointDir == null ? null : new File(checkpointDir, name + CHECKPOINT_SUFFIX);
+        }
+
+        private void resume() throws IOException {
+            File file = checkpointFile();
+            if (file == null || !file.isFile()) {
+                checkpointRead = true;
+                return;
+            }
+            Properties checkpoint = new Properties();
+            InputStream in = new FileInputStream(file);
+            try {
+                checkpoint.load(in);
+            } finally {
+                in.close();
+            }
+            resumedFrom = Long.parseLong(checkpoint.getProperty("records", "0"));
+            committedRecords = resumedFrom;
+            committedWritten = Long.parseLong(checkpoint.getProperty("written", "0"));
+            committedFailed = Long.parseLong(checkpoint.getProperty("failed", "0"));
+            sellersCreated.set(Long.parseLong(checkpoint.getProperty("sellersCreated", "0")));
+            written.add(committedWritten);
+            failed.add(committedFailed);
+            resumedProcessed = committedWritten + committedFailed;
+            checkpointRead = true;
+        }
+
+        /**
+         * Writes the committed prefix to the checkpoint file, through a temporary file
+         * renamed over it so a crash never leaves a partial checkpoint.
+         */
+        private synchronized void saveCheckpoint() {
+            File file = checkpointFile();
+            if (file == null) {
+                return;
+            }
+            Properties checkpoint = new Properties();
+            checkpoint.setProperty("records", Long.toString(committedRecords));
+            checkpoint.setProperty("written", Long.toString(committedWritten));
+            checkpoint.setProperty("failed", Long.toString(committedFailed));
+            checkpoint.setProperty("sellersCreated", Long.toString(sellersCreated.get()));
+            try {
+                if (!checkpointDir.isDirectory() && !checkpointDir.mkdirs()) {
+                    throw new IOException("Can not create checkpoint directory " + checkpointDir);
+                }
+                File temp = File.createTempFile(name + CHECKPOINT_SUFFIX, ".tmp", checkpointDir);
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    checkpoint.store(out, "Import " + name);
+                } finally {
+                    out.close();
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("Could not save the checkpoint of import " + name, e);
+            }
+        }
+
+        private void deleteCheckpoint() {
+            File file = checkpointFile();
+            if (file != null && file.exists() && !file.delete()) {
+                log.warn("Could not delete the checkpoint " + file);
+            }
+        }
+
+        ImportProgress progress() {
+            long end = finished == 0 ? System.currentTimeMillis() : finished;
+            long elapsed = end - started;
+            long writtenCount = written.sum();
+            long failedCount = failed.sum();
+            double rate = elapsed == 0 ? 0.0 : (writtenCount + failedCount - resumedProcessed) * 1000.0 / elapsed;
+            Throwable error = failure;
+            return new ImportProgress(name, state, recordsRead, committedRecords, writtenCount, failedCount,
+                    sellersCreated.get(), resumedFrom, elapsed, rate, error == null ? null : String.valueOf(error));
+        }
+    }
+}
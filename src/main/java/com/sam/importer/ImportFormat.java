@@ -0,0 +1,244 @@
+package com.sam.importer;
+
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formats {@link CatalogImporter} reads. Reading splits the input into records on one
+ * thread, parsing a record into a product is independent of every other record, so it can
+ * run on a pool.
+ */
+public enum ImportFormat {
+
+    /**
+     * Comma separated values with a header naming the columns {@code id},
+     * {@code productName}, {@code description}, {@code sellerId} and {@code sellerName}, in
+     * any order and case; other columns are ignored. Values may be quoted, and quoted
+     * values may hold commas, doubled quotes and line breaks.
+     */
+    CSV {
+        @Override
+        public String readRecord(BufferedReader in) throws IOException {
+            String line = in.readLine();
+            while (line != null && line.isEmpty()) {
+                line = in.readLine();
+            }
+            if (line == null || !hasOpenQuote(line)) {
+                return line;
+            }
+            StringBuilder record = new StringBuilder(line);
+            do {
+                line = in.readLine();
+                if (line == null) {
+                    throw new IOException("Unterminated quoted value in record starting with: " + abbreviate(record));
+                }
+                record.append('\n').append(line);
+            } while (hasOpenQuote(record));
+            return record.toString();
+        }
+
+        @Override
+        public Parser open(BufferedReader in) throws IOException {
+            String header = readRecord(in);
+            if (header == null) {
+                return new CsvParser(new HashMap<String, Integer>());
+            }
+            Map<String, Integer> columns = new HashMap<String, Integer>();
+            List<String> names = split(header);
+            for (int i = 0; i < names.size(); i++) {
+                columns.put(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+            }
+            if (!columns.containsKey(ID) || !columns.containsKey(PRODUCT_NAME)) {
+                throw new IOException("The CSV header needs an id and a productName column: " + header);
+            }
+            return new CsvParser(columns);
+        }
+    },
+
+    /**
+     * One JSON object per line, shaped like the products the search endpoints return:
+     * {@code {"id":..,"productName":..,"description":..,"seller":{"sellerId":..,"sellerName":..}}}.
+     */
+    NDJSON {
+        @Override
+        public String readRecord(BufferedReader in) throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+            } while (line != null && line.trim().isEmpty());
+            return line;
+        }
+
+        @Override
+        public Parser open(BufferedReader in) {
+            return new Parser() {
+                public Product parse(String record) {
+                    Product product;
+                    try {
+                        product = MAPPER.readValue(record, Product.class);
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Malformed JSON: " + e.getMessage(), e);
+                    }
+                    return validate(product);
+                }
+            };
+        }
+    };
+
+    private static final String ID = "id";
+    private static final String PRODUCT_NAME = "productname";
+    private static final String DESCRIPTION = "description";
+    private static final String SELLER_ID = "sellerid";
+    private static final String SELLER_NAME = "sellername";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Turns a record into a product whose seller, if any, only has the fields the record
+     * gave. Thread safe.
+     */
+    public interface Parser {
+        /**
+         * @throws IllegalArgumentException if the record is malformed or lacks an id or name
+         */
+        Product parse(String record);
+    }
+
+    /**
+     * @return the next record, or null at the end of the input
+     */
+    public abstract String readRecord(BufferedReader in) throws IOException;
+
+    /**
+     * Reads what precedes the records, such as a header, and returns the parser for them.
+     */
+    public abstract Parser open(BufferedReader in) throws IOException;
+
+    /**
+     * @return the format named, case insensitively
+     * @throws IllegalArgumentException for an unknown name
+     */
+    public static ImportFormat of(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Unknown import format " + name + ", expected csv or ndjson");
+        }
+    }
+
+    private static Product validate(Product product) {
+        if (isEmpty(product.getId()) || isEmpty(product.getProductName())) {
+            throw new IllegalArgumentException("A product needs an id and a productName");
+        }
+        Seller seller = product.getSeller();
+        if (seller != null && isEmpty(seller.getSellerId())) {
+            product.setSeller(null);
+        }
+        return product;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static boolean hasOpenQuote(CharSequence record) {
+        boolean open = false;
+        for (int i = 0; i < record.length(); i++) {
+            if (record.charAt(i) == '"') {
+                open = !open;
+            }
+        }
+        return open;
+    }
+
+    private static String abbreviate(CharSequence record) {
+        return record.length() <= 80 ? record.toString() : record.subSequence(0, 80) + "...";
+    }
+
+    /**
+     * Splits a CSV record into its unquoted values.
+     */
+    private static List<String> split(String record) {
+        List<String> values = new ArrayList<String>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private static final class CsvParser implements Parser {
+        private final int id;
+        private final int productName;
+        private final int description;
+        private final int sellerId;
+        private final int sellerName;
+
+        CsvParser(Map<String, Integer> columns) {
+            this.id = column(columns, ID);
+            this.productName = column(columns, PRODUCT_NAME);
+            this.description = column(columns, DESCRIPTION);
+            this.sellerId = column(columns, SELLER_ID);
+            this.sellerName = column(columns, SELLER_NAME);
+        }
+
+        public Product parse(String record) {
+            List<String> values = split(record);
+            Product product = new Product();
+            product.setId(value(values, id));
+            product.setProductName(value(values, productName));
+            product.setDescription(value(values, description));
+            String seller = value(values, sellerId);
+            if (seller != null) {
+                product.setSeller(new Seller());
+                product.getSeller().setSellerId(seller);
+                product.getSeller().setSellerName(value(values, sellerName));
+            }
+            return validate(product);
+        }
+
+        private static int column(Map<String, Integer> columns, String name) {
+            Integer column = columns.get(name);
+            return column == null ? -1 : column;
+        }
+
+        /**
+         * @return the value, null if the column is missing or the value empty
+         */
+        private static String value(List<String> values, int column) {
+            if (column < 0 || column >= values.size()) {
+                return null;
+            }
+            String value = values.get(column).trim();
+            return value.isEmpty() ? null : value;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.sam.importer;
+
+import java.io.Serializable;
+
+/**
+ * Point in time snapshot of a catalog import. Record counts include what earlier runs of
+ * a resumed import committed.
+ */
+public class ImportProgress implements Serializable {
+
+    public enum State {
+        RUNNING, INDEXING, DONE, FAILED
+    }
+
+    private String name;
+    private State state;
+    private long recordsRead;
+    private long recordsCommitted;
+    private long productsWritten;
+    private long recordsFailed;
+    private long sellersCreated;
+    private long resumedFrom;
+    private long elapsedMillis;
+    private double recordsPerSecond;
+    private String error;
+
+    public ImportProgress() {
+    }
+
+    public ImportProgress(String name, State state, long recordsRead, long recordsCommitted, long productsWritten,
+                          long recordsFailed, long sellersCreated, long resumedFrom, long elapsedMillis,
+                          double recordsPerSecond, String error) {
+        this.name = name;
+        this.state = state;
+        this.recordsRead = recordsRead;
+        this.recordsCommitted = recordsCommitted;
+        this.productsWritten = productsWritten;
+        this.recordsFailed = recordsFailed;
+        this.sellersCreated = sellersCreated;
+        this.resumedFrom = resumedFrom;
+        this.elapsedMillis = elapsedMillis;
+        this.recordsPerSecond = recordsPerSecond;
+        this.error = error;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return records read from the input, skipped ones included
+     */
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    /**
+     * @return records up to which every record is written or failed, where a resumed
+     * import starts
+     */
+    public long getRecordsCommitted() {
+        return recordsCommitted;
+    }
+
+    public long getProductsWritten() {
+        return productsWritten;
+    }
+
+    /**
+     * @return records that could not be parsed or written and were skipped
+     */
+    public long getRecordsFailed() {
+        return recordsFailed;
+    }
+
+    public long getSellersCreated() {
+        return sellersCreated;
+    }
+
+    /**
+     * @return records an earlier run committed and this one skipped
+     */
+    public long getResumedFrom() {
+        return resumedFrom;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return records written or failed per second by this run
+     */
+    public double getRecordsPerSecond() {
+        return recordsPerSecond;
+    }
+
+    /**
+     * @return why the import failed, null unless it did
+     */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s: %d records read, %d committed, %d products written, %d failed, %d sellers created,"
+                        + " %.0f records/s", name, state, recordsRead, recordsCommitted, productsWritten, recordsFailed,
+                sellersCreated, recordsPerSecond);
+    }
+}
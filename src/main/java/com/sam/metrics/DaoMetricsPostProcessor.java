@@ -0,0 +1,66 @@
+package com.sam.metrics;
+
+import com.sam.dao.generic.GenericDao;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wraps every {@link GenericDao} bean in a proxy that records the latency of each call
+ * in a {@code dao.<beanName>.<method>} histogram, failed calls included. Overloads of a
+ * method share one histogram. DAOs are injected by interface, so the proxy is a drop-in.
+ * <p/>
+ * <p>Calls a DAO makes on itself bypass the proxy and are counted in the calling method.
+ */
+public class DaoMetricsPostProcessor implements BeanPostProcessor {
+
+    private final MetricsRegistry registry;
+
+    public DaoMetricsPostProcessor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    public Object postProcessAfterInitialization(final Object bean, final String beanName) throws BeansException {
+        if (!(bean instanceof GenericDao)) {
+            return bean;
+        }
+        final ConcurrentHashMap<Method, LatencyHistogram> histograms = new ConcurrentHashMap<Method, LatencyHistogram>();
+        return Proxy.newProxyInstance(bean.getClass().getClassLoader(), ClassUtils.getAllInterfaces(bean),
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return invokeTarget(method, args);
+                        }
+                        LatencyHistogram histogram = histograms.get(method);
+                        if (histogram == null) {
+                            histogram = registry.histogram("dao." + beanName + "." + method.getName());
+                            histograms.put(method, histogram);
+                        }
+                        long start = System.nanoTime();
+                        try {
+                            return invokeTarget(method, args);
+                        } finally {
+                            histogram.recordSince(start);
+                        }
+                    }
+
+                    private Object invokeTarget(Method method, Object[] args) throws Throwable {
+                        try {
+                            return method.invoke(bean, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,9 @@
+package com.sam.metrics;
+
+/**
+ * Current value of something that is sampled rather than recorded, e.g. pool usage.
+ */
+public interface Gauge {
+
+    long value();
+}
@@ -0,0 +1,72 @@
+package com.sam.metrics;
+
+import com.zaxxer.hikari.metrics.MetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Feeds HikariCP's pool events into a {@link MetricsRegistry}: how long threads waited
+ * for a connection ({@code pool.<name>.acquire}), how long connections were held
+ * ({@code pool.<name>.usage}) and gauges for active, idle, total and pending.
+ */
+public class HikariMetricsTrackerFactory implements MetricsTrackerFactory {
+
+    private final MetricsRegistry registry;
+
+    public HikariMetricsTrackerFactory(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    public MetricsTracker create(String poolName, final PoolStats poolStats) {
+        String prefix = "pool." + poolName + ".";
+        final LatencyHistogram acquire = registry.histogram(prefix + "acquire");
+        final LatencyHistogram usage = registry.histogram(prefix + "usage");
+        final LongAdder timeouts = new LongAdder();
+
+        registry.register(prefix + "active", new Gauge() {
+            public long value() {
+                return poolStats.getActiveConnections();
+            }
+        });
+        registry.register(prefix + "idle", new Gauge() {
+            public long value() {
+                return poolStats.getIdleConnections();
+            }
+        });
+        registry.register(prefix + "total", new Gauge() {
+            public long value() {
+                return poolStats.getTotalConnections();
+            }
+        });
+        registry.register(prefix + "pending", new Gauge() {
+            public long value() {
+                return poolStats.getPendingThreads();
+            }
+        });
+        registry.register(prefix + "timeouts", new Gauge() {
+            public long value() {
+                return timeouts.sum();
+            }
+        });
+
+        return new MetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquire.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usage.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+}
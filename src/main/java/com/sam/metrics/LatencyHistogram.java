@@ -0,0 +1,99 @@
+package com.sam.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free latency recorder with HdrHistogram style log-linear buckets.
+ * <p/>
+ * <p>Values below 128 ns get a bucket each; above that every power of two is split into
+ * 64 equal sub-buckets, so any recorded value is reported within 1/64 (about 1.6%) of
+ * its real value, from nanoseconds up to {@link #MAX_VALUE} (about 18 minutes) in 2240
+ * counters. Recording is one atomic increment plus two {@link LongAdder} adds and never
+ * allocates; snapshots copy the counters without stopping writers, so a snapshot taken
+ * under load may be off by the few values recorded while it was being copied.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+
+    /**
+     * Largest recordable value in nanoseconds, larger ones are recorded as this.
+     */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    public void record(long nanos) {
+        long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        total.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, a value of {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public LatencyStats snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        long maxValue = max.get();
+        double seconds = (System.nanoTime() - startNanos) / 1e9d;
+        return new LatencyStats(count,
+                seconds > 0 ? count / seconds : 0d,
+                count > 0 ? total.sum() / (double) count : 0d,
+                percentile(copy, count, 0.5d, maxValue),
+                percentile(copy, count, 0.99d, maxValue),
+                percentile(copy, count, 0.999d, maxValue),
+                maxValue);
+    }
+
+    private static long percentile(long[] counts, long count, double quantile, long max) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_HALF_BITS;
+        return (shift << SUB_BUCKET_HALF_BITS) + (int) (value >>> shift);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_HALF_BITS) - 1;
+        long subBucket = (index & ((1 << SUB_BUCKET_HALF_BITS) - 1)) + (1 << SUB_BUCKET_HALF_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
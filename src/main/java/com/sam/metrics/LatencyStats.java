@@ -0,0 +1,68 @@
+package com.sam.metrics;
+
+import java.io.Serializable;
+
+/**
+ * Point in time snapshot of a {@link LatencyHistogram}. Latencies are in microseconds,
+ * throughput is the mean rate in calls per second since the histogram was created.
+ */
+public class LatencyStats implements Serializable {
+
+    private static final double NANOS_PER_MICRO = 1000d;
+
+    private long count;
+    private double throughput;
+    private double mean;
+    private double p50;
+    private double p99;
+    private double p999;
+    private double max;
+
+    public LatencyStats() {
+    }
+
+    public LatencyStats(long count, double throughput, double meanNanos, long p50Nanos, long p99Nanos,
+                        long p999Nanos, long maxNanos) {
+        this.count = count;
+        this.throughput = throughput;
+        this.mean = meanNanos / NANOS_PER_MICRO;
+        this.p50 = p50Nanos / NANOS_PER_MICRO;
+        this.p99 = p99Nanos / NANOS_PER_MICRO;
+        this.p999 = p999Nanos / NANOS_PER_MICRO;
+        this.max = maxNanos / NANOS_PER_MICRO;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public double getP99() {
+        return p99;
+    }
+
+    public double getP999() {
+        return p999;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStats{count=" + count + ", throughput=" + throughput + ", mean=" + mean + ", p50=" + p50
+                + ", p99=" + p99 + ", p999=" + p999 + ", max=" + max + '}';
+    }
+}
@@ -0,0 +1,56 @@
+package com.sam.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named latency histograms and gauges of the application. Instrumentation looks its
+ * histograms up once and keeps the reference, so recording never goes through the map.
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    /**
+     * @return the histogram registered under {@code name}, created on first use
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    public void register(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return a snapshot of every histogram, sorted by name
+     */
+    public Map<String, LatencyStats> latencies() {
+        Map<String, LatencyStats> snapshot = new TreeMap<String, LatencyStats>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the current value of every gauge, sorted by name
+     */
+    public Map<String, Long> gauges() {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().value());
+        }
+        return snapshot;
+    }
+}
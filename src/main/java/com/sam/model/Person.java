@@ -2,6 +2,10 @@ package com.sam.model;
 
 import com.sam.Description;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+
 import javax.persistence.*;
 import java.io.Serializable;
 
@@ -10,6 +14,8 @@ import java.io.Serializable;
  */
 @Entity
 @Table(name="person")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @Description(description =" This is to be deleted")
 public class Person implements Serializable{
     @Id
@@ -19,6 +25,8 @@ public class Person implements Serializable{
     @Column(name = "name", nullable = false)
     String name;
 
+    // the key upserts are matched on; persons may change their email
+    @NaturalId(mutable = true)
     @Column(name = "email", nullable = false)
     private String email;
 
@@ -64,19 +72,19 @@ public class Person implements Serializable{
 
         Person person = (Person) o;
 
-        if (!id.equals(person.id)) return false;
-        if (!name.equals(person.name)) return false;
-        if (!email.equals(person.email)) return false;
-        return phone.equals(person.phone);
+        if (id != null ? !id.equals(person.id) : person.id != null) return false;
+        if (name != null ? !name.equals(person.name) : person.name != null) return false;
+        if (email != null ? !email.equals(person.email) : person.email != null) return false;
+        return phone != null ? phone.equals(person.phone) : person.phone == null;
 
     }
 
     @Override
     public int hashCode() {
-        int result = id.hashCode();
-        result = 31 * result + name.hashCode();
-        result = 31 * result + email.hashCode();
-        result = 31 * result + phone.hashCode();
+        int result = id != null ? id.hashCode() : 0;
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + (email != null ? email.hashCode() : 0);
+        result = 31 * result + (phone != null ? phone.hashCode() : 0);
         return result;
     }
 
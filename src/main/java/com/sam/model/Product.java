@@ -1,17 +1,40 @@
 package com.sam.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.*;
 import java.io.Serializable;
+import java.util.Date;
 
 /**
  * Created by root on 3/8/17.
  */
+@Entity
+@Table(name="product")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 public class Product implements Serializable{
 
+    @Id
+    @Column(name = "id")
     private String id;
+
+    @Column(name = "product_name", nullable = false)
     private String productName;
+
+    @Column(name = "description", length = 4000)
     private String description;
+
+    @ManyToOne(fetch = FetchType.EAGER)
+    @JoinColumn(name = "seller_id")
     private Seller seller;
 
+    // maintained by the database, see changes.sql
+    @Column(name = "updated_at", insertable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date updatedAt;
+
     public String getId() {
         return id;
     }
@@ -44,22 +67,30 @@ public class Product implements Serializable{
         this.seller = seller;
     }
 
+    /**
+     * @return when the row was last inserted or changed, null for products not read from the database
+     */
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Product)) return false;
 
+        // getters rather than fields, subclasses like the catalog view keep no field values
         Product product = (Product) o;
 
-        if (!id.equals(product.id)) return false;
-        if (!productName.equals(product.productName)) return false;
-        if (description != null ? !description.equals(product.description) : product.description != null) return false;
-        return seller.equals(product.seller);
+        if (getId() != null ? !getId().equals(product.getId()) : product.getId() != null) return false;
+        if (getProductName() != null ? !getProductName().equals(product.getProductName()) : product.getProductName() != null) return false;
+        if (getDescription() != null ? !getDescription().equals(product.getDescription()) : product.getDescription() != null) return false;
+        return getSeller() != null ? getSeller().equals(product.getSeller()) : product.getSeller() == null;
 
     }
 
     @Override
     public int hashCode() {
-        return id.hashCode();
+        return getId() != null ? getId().hashCode() : 0;
     }
 }
@@ -1,14 +1,28 @@
 package com.sam.model;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.*;
 import java.io.Serializable;
 
 /**
  * Created by root on 3/8/17.
  */
+@Entity
+@Table(name="seller")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 public class Seller implements Serializable {
 
+    @Id
+    @Column(name = "seller_id")
     private String sellerId;
+
+    @Column(name = "seller_name")
     private String sellerName;
+
+    @Transient
     private ContactDetails contactDetails;
 
     public String getSellerId() {
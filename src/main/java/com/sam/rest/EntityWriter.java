@@ -0,0 +1,180 @@
+package com.sam.rest;
+
+import com.sam.model.Person;
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import com.sam.search.FacetCount;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.io.SerializedString;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes one kind of entity as a JSON object straight to a {@link JsonGenerator}, with
+ * the same properties bean serialization produces but without introspecting it. Field
+ * names are {@link SerializedString}s, which keep their quoted UTF-8 bytes after the
+ * first use, so writing a name is an array copy into the generator's buffer.
+ *
+ * @param <T> the entity type
+ */
+public abstract class EntityWriter<T> {
+
+    public static final EntityWriter<Person> PERSON = new EntityWriter<Person>() {
+        @Override
+        protected void writeFields(JsonGenerator json, Person person) throws IOException {
+            json.writeFieldName(Names.ID);
+            writeNumber(json, person.getId());
+            json.writeFieldName(Names.NAME);
+            json.writeString(person.getName());
+            json.writeFieldName(Names.EMAIL);
+            json.writeString(person.getEmail());
+            json.writeFieldName(Names.PHONE);
+            json.writeString(person.getPhone());
+        }
+    };
+
+    public static final EntityWriter<Seller> SELLER = new EntityWriter<Seller>() {
+        @Override
+        protected void writeFields(JsonGenerator json, Seller seller) throws IOException {
+            json.writeFieldName(Names.SELLER_ID);
+            json.writeString(seller.getSellerId());
+            json.writeFieldName(Names.SELLER_NAME);
+            json.writeString(seller.getSellerName());
+            json.writeFieldName(Names.CONTACT_DETAILS);
+            // contact details have no properties yet
+            if (seller.getContactDetails() == null) {
+                json.writeNull();
+            } else {
+                json.writeStartObject();
+                json.writeEndObject();
+            }
+        }
+    };
+
+    public static final EntityWriter<Product> PRODUCT = new EntityWriter<Product>() {
+        @Override
+        protected void writeFields(JsonGenerator json, Product product) throws IOException {
+            json.writeFieldName(Names.ID);
+            json.writeString(product.getId());
+            json.writeFieldName(Names.PRODUCT_NAME);
+            json.writeString(product.getProductName());
+            json.writeFieldName(Names.DESCRIPTION);
+            json.writeString(product.getDescription());
+            json.writeFieldName(Names.SELLER);
+            SELLER.write(json, product.getSeller());
+        }
+    };
+
+    public static final EntityWriter<FacetCount> FACET_COUNT = new EntityWriter<FacetCount>() {
+        @Override
+        protected void writeFields(JsonGenerator json, FacetCount facetCount) throws IOException {
+            json.writeFieldName(Names.VALUE);
+            json.writeString(facetCount.getValue());
+            json.writeFieldName(Names.LABEL);
+            json.writeString(facetCount.getLabel());
+            json.writeFieldName(Names.COUNT);
+            json.writeNumber(facetCount.getCount());
+        }
+    };
+
+    private static final Map<Class<?>, EntityWriter<?>> WRITERS = new LinkedHashMap<Class<?>, EntityWriter<?>>();
+
+    static {
+        WRITERS.put(Person.class, PERSON);
+        WRITERS.put(Product.class, PRODUCT);
+        WRITERS.put(Seller.class, SELLER);
+        WRITERS.put(FacetCount.class, FACET_COUNT);
+    }
+
+    /**
+     * @return the writer for instances of {@code type}, which may be a subclass of an
+     * entity such as a Hibernate proxy, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityWriter<? super T> forClass(Class<T> type) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            EntityWriter<?> writer = WRITERS.get(c);
+            if (writer != null) {
+                return (EntityWriter<? super T>) writer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the entity as an object, or {@code null}.
+     */
+    public final void write(JsonGenerator json, T value) throws IOException {
+        if (value == null) {
+            json.writeNull();
+            return;
+        }
+        json.writeStartObject();
+        writeFields(json, value);
+        json.writeEndObject();
+    }
+
+    /**
+     * Writes the entities as an array, or {@code null}.
+     */
+    public final void writeAll(JsonGenerator json, Collection<? extends T> values) throws IOException {
+        if (values == null) {
+            json.writeNull();
+            return;
+        }
+        json.writeStartArray();
+        for (T value : values) {
+            write(json, value);
+        }
+        json.writeEndArray();
+    }
+
+    /**
+     * Writes a map of entity lists, such as facets, as an object of arrays, or {@code null}.
+     */
+    public final void writeAll(JsonGenerator json, Map<String, ? extends List<? extends T>> values) throws IOException {
+        if (values == null) {
+            json.writeNull();
+            return;
+        }
+        json.writeStartObject();
+        for (Map.Entry<String, ? extends List<? extends T>> entry : values.entrySet()) {
+            json.writeFieldName(entry.getKey());
+            writeAll(json, entry.getValue());
+        }
+        json.writeEndObject();
+    }
+
+    protected abstract void writeFields(JsonGenerator json, T value) throws IOException;
+
+    static void writeNumber(JsonGenerator json, Integer value) throws IOException {
+        if (value == null) {
+            json.writeNull();
+        } else {
+            json.writeNumber(value);
+        }
+    }
+
+    /**
+     * Field names, in a holder of their own so they don't clash with the writers.
+     */
+    private static final class Names {
+        static final SerializedString ID = new SerializedString("id");
+        static final SerializedString NAME = new SerializedString("name");
+        static final SerializedString EMAIL = new SerializedString("email");
+        static final SerializedString PHONE = new SerializedString("phone");
+        static final SerializedString PRODUCT_NAME = new SerializedString("productName");
+        static final SerializedString DESCRIPTION = new SerializedString("description");
+        static final SerializedString SELLER = new SerializedString("seller");
+        static final SerializedString SELLER_ID = new SerializedString("sellerId");
+        static final SerializedString SELLER_NAME = new SerializedString("sellerName");
+        static final SerializedString CONTACT_DETAILS = new SerializedString("contactDetails");
+        static final SerializedString VALUE = new SerializedString("value");
+        static final SerializedString LABEL = new SerializedString("label");
+        static final SerializedString COUNT = new SerializedString("count");
+    }
+}
@@ -0,0 +1,97 @@
+package com.sam.rest;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a request body of JSON records one record at a time, so a bulk upload is never
+ * materialized in memory. Accepts either a JSON array of objects or newline delimited
+ * JSON (one object per line). The sequence can be iterated once.
+ */
+public class JsonRecords<T> implements Iterable<T> {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final InputStream body;
+    private final Class<T> type;
+
+    public JsonRecords(InputStream body, Class<T> type) {
+        this.body = body;
+        this.type = type;
+    }
+
+    public Iterator<T> iterator() {
+        try {
+            return new RecordIterator(MAPPER.getJsonFactory().createJsonParser(body));
+        } catch (IOException e) {
+            throw badRequest(e);
+        }
+    }
+
+    private static WebApplicationException badRequest(Exception e) {
+        return new WebApplicationException(e, Response.status(Response.Status.BAD_REQUEST)
+                .entity("Malformed JSON records: " + e.getMessage()).build());
+    }
+
+    private final class RecordIterator implements Iterator<T> {
+        private final JsonParser parser;
+        private boolean inArray;
+        private boolean started;
+        private JsonToken current;
+
+        RecordIterator(JsonParser parser) {
+            this.parser = parser;
+        }
+
+        public boolean hasNext() {
+            try {
+                if (current == null) {
+                    current = parser.nextToken();
+                    if (!started) {
+                        started = true;
+                        if (current == JsonToken.START_ARRAY) {
+                            inArray = true;
+                            current = parser.nextToken();
+                        }
+                    }
+                }
+                if (current == null || (inArray && current == JsonToken.END_ARRAY)) {
+                    return false;
+                }
+                if (current != JsonToken.START_OBJECT) {
+                    throw new IOException("Expected a JSON object but found " + current);
+                }
+                return true;
+            } catch (IOException e) {
+                throw badRequest(e);
+            }
+        }
+
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                T record = MAPPER.readValue(parser, type);
+                current = null;
+                return record;
+            } catch (IOException e) {
+                throw badRequest(e);
+            }
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.sam.rest;
+
+import com.sam.dao.generic.GenericDao;
+import org.codehaus.jackson.JsonGenerator;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes every entity of a DAO as newline delimited JSON, reading them through
+ * {@link GenericDao#streamAll(int)} and writing them with an {@link EntityWriter} through
+ * one generator for the whole export. The response has no content length and is sent
+ * chunked while the cursor is being read.
+ */
+public class NdjsonOutput<T> implements StreamingOutput {
+
+    private final GenericDao<T, ?> dao;
+    private final EntityWriter<? super T> writer;
+    private final int fetchSize;
+
+    public NdjsonOutput(GenericDao<T, ?> dao, EntityWriter<? super T> writer, int fetchSize) {
+        this.dao = dao;
+        this.writer = writer;
+        this.fetchSize = fetchSize;
+    }
+
+    public void write(OutputStream output) throws IOException {
+        JsonGenerator json = StreamingJsonProvider.createGenerator(output, true);
+        try (Stream<T> entities = dao.streamAll(fetchSize)) {
+            Iterator<T> iterator = entities.iterator();
+            while (iterator.hasNext()) {
+                StreamingJsonProvider.writeLine(json, writer, iterator.next());
+            }
+        } finally {
+            json.close();
+        }
+        output.flush();
+    }
+}
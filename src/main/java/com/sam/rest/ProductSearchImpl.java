@@ -4,22 +4,59 @@ package com.sam.rest;
  * Created by root on 3/8/17.
  */
 
+import com.sam.cache.CacheStats;
+import com.sam.cache.EhcacheRegionStats;
+import com.sam.concurrent.RejectedException;
+import com.sam.dao.PersonDao;
+import com.sam.dao.generic.KeysetPage;
+import com.sam.importer.CatalogImporter;
+import com.sam.importer.ImportFormat;
+import com.sam.importer.ImportProgress;
+import com.sam.metrics.MetricsRegistry;
 import com.sam.model.Person;
+import com.sam.search.SearchResult;
 import com.sam.service.PersonService;
+import com.sam.service.ProductSearchService;
+import org.hibernate.criterion.DetachedCriteria;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Controller
 @Path("/productSearch")
 public class ProductSearchImpl {
 
+    static final int EXPORT_FETCH_SIZE = 1000;
+    static final int MAX_PAGE_SIZE = 500;
+    static final Set<String> USER_SORT_PROPERTIES = new HashSet<String>(Arrays.asList("id", "name", "email"));
+
     //Clean up
     @Autowired
     PersonService personServices;
 
+    @Autowired
+    ProductSearchService productSearchService;
+
+    @Autowired
+    MetricsRegistry metricsRegistry;
+
+    @Autowired
+    EhcacheRegionStats regionStats;
+
+    @Autowired
+    CatalogImporter catalogImporter;
 
     @GET
     @Path("/ping")
@@ -27,17 +64,245 @@ public class ProductSearchImpl {
         return "Ping";
     }
 
+    @GET
+    @Path("/suggest")
+    @Produces("application/json")
+    public List<String> suggest(@QueryParam("prefix") String prefix,
+                                @QueryParam("limit") @DefaultValue("10") int limit) {
+        return productSearchService.suggest(prefix, limit);
+    }
+
+    /**
+     * Answers "Queued" instead of "Done!!!" when a non-durable write-behind queue accepted
+     * the person, and 503 when the queue is full.
+     */
     @POST
     @Path("/addUser")
     public String addUser(Person person) {
-        personServices.getPersonDao().add(person);
-        return "Done!!!";
+        return personServices.addPerson(person) ? "Done!!!" : "Queued";
+    }
+
+    /**
+     * Bulk variant of addUser, the body is either a JSON array of persons or NDJSON.
+     * Records are parsed while they are being inserted in JDBC batches, each its own
+     * transaction. When a record is malformed or a batch fails, the batches before it
+     * stay inserted and the error answer starts with "Inserted N, then failed".
+     */
+    @POST
+    @Path("/addUsers")
+    @Consumes({"application/json", JsonRecords.NDJSON})
+    public String addUsers(InputStream body) {
+        PersonDao personDao = personServices.getPersonDao();
+        Iterator<Person> records = new JsonRecords<Person>(body, Person.class).iterator();
+        List<Person> batch = new ArrayList<Person>(personDao.getBatchSize());
+        int inserted = 0;
+        while (true) {
+            try {
+                if (!records.hasNext()) {
+                    break;
+                }
+                batch.add(records.next());
+            } catch (WebApplicationException e) {
+                throw addUsersFailed(e, inserted, "at record " + (inserted + batch.size() + 1));
+            }
+            if (batch.size() == personDao.getBatchSize()) {
+                inserted += insertBatch(personDao, batch, inserted);
+            }
+        }
+        if (!batch.isEmpty()) {
+            inserted += insertBatch(personDao, batch, inserted);
+        }
+        return "Inserted " + inserted;
+    }
+
+    private static int insertBatch(PersonDao personDao, List<Person> batch, int inserted) {
+        try {
+            return personDao.insertAll(batch);
+        } catch (RuntimeException e) {
+            throw addUsersFailed(e, inserted, String.format("in records %d to %d", inserted + 1,
+                    inserted + batch.size()));
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Answers a failed bulk insert with the status the failure calls for and a message
+     * telling the client how many persons were inserted before it.
+     */
+    private static WebApplicationException addUsersFailed(RuntimeException e, int inserted, String where) {
+        Response.ResponseBuilder response;
+        String message;
+        if (e instanceof WebApplicationException) {
+            Response failed = ((WebApplicationException) e).getResponse();
+            response = Response.status(failed.getStatus());
+            message = String.valueOf(failed.getEntity());
+        } else if (e instanceof RejectedException) {
+            response = Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", "1");
+            message = e.getMessage();
+        } else {
+            response = Response.status(Response.Status.INTERNAL_SERVER_ERROR);
+            message = e.getMessage();
+        }
+        return new WebApplicationException(e, response
+                .entity(String.format("Inserted %d, then failed %s: %s", inserted, where, message)).build());
+    }
+
+    /**
+     * Imports a seller catalog, CSV with a header when sent as text/csv, NDJSON products
+     * otherwise, and answers with the import's final progress: 200 once every record is
+     * imported, 500 if it failed. Posting the same catalog again under the same name
+     * resumes a failed import where it stopped.
+     */
+    @POST
+    @Path("/importCatalog")
+    @Consumes({"text/csv", JsonRecords.NDJSON})
+    @Produces("application/json")
+    public Response importCatalog(@QueryParam("name") String name, @HeaderParam("Content-Type") String contentType,
+                                  InputStream body) {
+        ImportFormat format = contentType != null && contentType.startsWith("text/csv")
+                ? ImportFormat.CSV : ImportFormat.NDJSON;
+        ImportProgress progress;
+        try {
+            progress = catalogImporter.importCatalog(name, format, body);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage()).build());
+        } catch (IllegalStateException e) {
+            throw new WebApplicationException(e, Response.status(Response.Status.CONFLICT)
+                    .entity(e.getMessage()).build());
+        }
+        Response.Status status = progress.getState() == ImportProgress.State.DONE
+                ? Response.Status.OK : Response.Status.INTERNAL_SERVER_ERROR;
+        return Response.status(status).entity(progress).build();
     }
 
+    /**
+     * Progress of the imports since startup, running ones included, by name.
+     */
     @GET
-    @Path("/getUserByEmail")
+    @Path("/imports")
+    @Produces("application/json")
+    public Map<String, ImportProgress> imports() {
+        return catalogImporter.progress();
+    }
+
+    @GET
+    @Path("/imports/{name}")
     @Produces("application/json")
+    public ImportProgress importProgress(@PathParam("name") String name) {
+        ImportProgress progress = catalogImporter.progress(name);
+        if (progress == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        return progress;
+    }
+
+    @GET
+    @Path("/getUserByEmail")
+    @Produces({"application/json", JsonRecords.NDJSON})
     public List<Person> getUser(@QueryParam("email") String emailId) {
         return personServices.getPersonDao().getPersonByEmail(emailId);
     }
+
+    /**
+     * Lists persons a page at a time. Pass the returned nextCursor as cursor to get the
+     * following page; deep pages are as cheap as the first one.
+     */
+    @GET
+    @Path("/users")
+    @Produces({"application/json", JsonRecords.NDJSON})
+    public KeysetPage<Person> listUsers(@QueryParam("cursor") String cursor,
+                                        @QueryParam("sortBy") @DefaultValue("id") String sortBy,
+                                        @QueryParam("limit") @DefaultValue("50") int limit) {
+        if (!USER_SORT_PROPERTIES.contains(sortBy)) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("sortBy must be one of " + USER_SORT_PROPERTIES).build());
+        }
+        try {
+            return personServices.getPersonDao().findPageByDetachedCriteria(DetachedCriteria.forClass(Person.class),
+                    sortBy, cursor, Math.min(Math.max(limit, 1), MAX_PAGE_SIZE));
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage()).build());
+        }
+    }
+
+    /**
+     * Exports every person as NDJSON. Rows are streamed from a database cursor straight
+     * to the response, so the export runs in constant memory.
+     */
+    @GET
+    @Path("/exportUsers")
+    @Produces(JsonRecords.NDJSON)
+    public StreamingOutput exportUsers() {
+        return new NdjsonOutput<Person>(personServices.getPersonDao(), EntityWriter.PERSON, EXPORT_FETCH_SIZE);
+    }
+
+    /**
+     * Ranks products against {@code q}. Repeat {@code seller} to only return products of
+     * those sellers; {@code facets} is the number of seller counts returned along, 0 for none.
+     * With {@code fuzzy=true} misspelt words still match product names.
+     * Accepting NDJSON returns the products one per line, with the totals in headers.
+     * A page ending beyond the 1000th hit is answered with 400.
+     */
+    @GET
+    @Path("/search")
+    @Produces({"application/json", JsonRecords.NDJSON})
+    public SearchResult search(@QueryParam("q") String query,
+                               @QueryParam("seller") List<String> sellerIds,
+                               @QueryParam("fuzzy") @DefaultValue("false") boolean fuzzy,
+                               @QueryParam("facets") @DefaultValue("10") int facets,
+                               @QueryParam("offset") @DefaultValue("0") int offset,
+                               @QueryParam("limit") @DefaultValue("20") int limit) {
+        try {
+            return productSearchService.search(query, sellerIds, fuzzy, facets, offset, limit);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage()).build());
+        }
+    }
+
+    @GET
+    @Path("/cacheStats")
+    @Produces("application/json")
+    public Map<String, CacheStats> cacheStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<String, CacheStats>();
+        stats.put("personByEmail", personServices.getPersonDao().getEmailCacheStats());
+        stats.put("productSearch", productSearchService.getSearchCacheStats());
+        putIfEnabled(stats, "personQueries", personServices.getPersonDao().getQueryCacheStats());
+        putIfEnabled(stats, "productQueries", productSearchService.getProductDao().getQueryCacheStats());
+        return stats;
+    }
+
+    /**
+     * Hits, misses and sizes of every region of Hibernate's second-level cache, entity
+     * regions are named after the entity class.
+     */
+    @GET
+    @Path("/cacheStats/regions")
+    @Produces("application/json")
+    public Map<String, CacheStats> regionCacheStats() {
+        return regionStats.regionStats();
+    }
+
+    private static void putIfEnabled(Map<String, CacheStats> stats, String name, CacheStats cacheStats) {
+        if (cacheStats != null) {
+            stats.put(name, cacheStats);
+        }
+    }
+
+    /**
+     * Latency percentiles (in microseconds), call counts and throughput of every DAO and
+     * resource method and of the connection pool, plus the pool gauges.
+     */
+    @GET
+    @Path("/metrics")
+    @Produces("application/json")
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("latency", metricsRegistry.latencies());
+        metrics.put("gauges", metricsRegistry.gauges());
+        return metrics;
+    }
 }
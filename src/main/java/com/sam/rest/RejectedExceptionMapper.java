@@ -0,0 +1,25 @@
+package com.sam.rest;
+
+import com.sam.concurrent.RejectedException;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Turns a saturated database bulkhead or a full write-behind queue into
+ * {@code 503 Service Unavailable} with a Retry-After hint. Other exceptions are not
+ * mapped and keep their usual outcome.
+ */
+@Provider
+public class RejectedExceptionMapper implements ExceptionMapper<RejectedException> {
+
+    static final String RETRY_AFTER_SECONDS = "1";
+
+    public Response toResponse(RejectedException exception) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", RETRY_AFTER_SECONDS)
+                .entity(exception.getMessage())
+                .build();
+    }
+}
@@ -0,0 +1,82 @@
+package com.sam.rest;
+
+import com.sam.metrics.LatencyHistogram;
+import com.sam.metrics.MetricsRegistry;
+import com.sun.jersey.api.model.AbstractMethod;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ResourceFilter;
+import com.sun.jersey.spi.container.ResourceFilterFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the latency of every resource method in a {@code rest.<class>.<method>} histogram.
+ * <p/>
+ * <p>Registered twice in web.xml: as a resource filter factory it gives each resource
+ * method a request filter that starts the clock, and as a container response filter it
+ * stops it. Container response filters also run after an exception was mapped, so
+ * failed requests are timed too. The clock stops once the response entity is ready;
+ * for a {@link javax.ws.rs.core.StreamingOutput} that is before the body is written.
+ */
+@Component
+public class RequestMetricsFilter implements ResourceFilterFactory, ContainerResponseFilter {
+
+    private static final ThreadLocal<Timing> TIMING = new ThreadLocal<Timing>() {
+        @Override
+        protected Timing initialValue() {
+            return new Timing();
+        }
+    };
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    public List<ResourceFilter> create(AbstractMethod method) {
+        if (!(method instanceof AbstractResourceMethod)) {
+            return null;
+        }
+        final LatencyHistogram histogram = metricsRegistry.histogram("rest."
+                + method.getResource().getResourceClass().getSimpleName() + "." + method.getMethod().getName());
+        final ContainerRequestFilter start = new ContainerRequestFilter() {
+            public ContainerRequest filter(ContainerRequest request) {
+                Timing timing = TIMING.get();
+                timing.histogram = histogram;
+                timing.start = System.nanoTime();
+                return request;
+            }
+        };
+        return Collections.<ResourceFilter>singletonList(new ResourceFilter() {
+            public ContainerRequestFilter getRequestFilter() {
+                return start;
+            }
+
+            public ContainerResponseFilter getResponseFilter() {
+                return null;
+            }
+        });
+    }
+
+    public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+        Timing timing = TIMING.get();
+        if (timing.histogram != null) {
+            timing.histogram.recordSince(timing.start);
+            timing.histogram = null;
+        }
+        return response;
+    }
+
+    /**
+     * Per thread and reused, so timing a request allocates nothing.
+     */
+    private static final class Timing {
+        LatencyHistogram histogram;
+        long start;
+    }
+}
@@ -0,0 +1,190 @@
+package com.sam.rest;
+
+import com.sam.dao.generic.KeysetPage;
+import com.sam.search.SearchResult;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.io.SerializedString;
+import org.codehaus.jackson.util.MinimalPrettyPrinter;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+
+/**
+ * Writes entities, collections of entities, search results and keyset pages with their
+ * {@link EntityWriter}s straight to the response, instead of the bean serialization of
+ * the POJO mapping feature, which keeps handling every other type.
+ * <p/>
+ * <p>Asked for {@value JsonRecords#NDJSON}, a collection is written one entity per line
+ * and so are the products of a search result and the items of a page, with the totals or
+ * the next cursor moved to response headers. Clients can then process records as they
+ * arrive rather than parsing one large document.
+ * <p/>
+ * <p>Every response gets a fresh generator, but its output and encoding buffers come from
+ * the factory's per thread recycler and go back to it when the generator is closed, so
+ * serializing allocates little beyond the entities' own strings.
+ */
+@Provider
+@Produces({MediaType.APPLICATION_JSON, JsonRecords.NDJSON})
+public class StreamingJsonProvider implements MessageBodyWriter<Object> {
+
+    static final String TOTAL_HITS_HEADER = "X-Total-Hits";
+    static final String TOTAL_HITS_EXACT_HEADER = "X-Total-Hits-Exact";
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final SerializedString QUERY = new SerializedString("query");
+    private static final SerializedString TOTAL_HITS = new SerializedString("totalHits");
+    private static final SerializedString TOTAL_HITS_EXACT = new SerializedString("totalHitsExact");
+    private static final SerializedString PRODUCTS = new SerializedString("products");
+    private static final SerializedString FACETS = new SerializedString("facets");
+    private static final SerializedString ITEMS = new SerializedString("items");
+    private static final SerializedString NEXT_CURSOR = new SerializedString("nextCursor");
+
+    // keeps the generator from separating root values by a space, lines end in a newline instead
+    private static final MinimalPrettyPrinter LINES = new MinimalPrettyPrinter();
+
+    static {
+        LINES.setRootValueSeparator("");
+    }
+
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        if (SearchResult.class.isAssignableFrom(type)) {
+            return true;
+        }
+        if (Collection.class.isAssignableFrom(type) || KeysetPage.class.isAssignableFrom(type)) {
+            return elementWriter(genericType) != null;
+        }
+        return EntityWriter.forClass(type) != null;
+    }
+
+    public long getSize(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        boolean lines = isNdjson(mediaType);
+        // headers have to be set before the first byte reaches the stream
+        if (lines && entity instanceof SearchResult) {
+            SearchResult result = (SearchResult) entity;
+            httpHeaders.putSingle(TOTAL_HITS_HEADER, result.getTotalHits());
+            httpHeaders.putSingle(TOTAL_HITS_EXACT_HEADER, result.isTotalHitsExact());
+        } else if (lines && entity instanceof KeysetPage && ((KeysetPage<?>) entity).getNextCursor() != null) {
+            httpHeaders.putSingle(NEXT_CURSOR_HEADER, ((KeysetPage<?>) entity).getNextCursor());
+        }
+        JsonGenerator json = createGenerator(entityStream, lines);
+        try {
+            if (entity instanceof SearchResult) {
+                writeSearchResult(json, (SearchResult) entity, lines);
+            } else if (entity instanceof KeysetPage) {
+                writeKeysetPage(json, (KeysetPage<Object>) entity, (EntityWriter<Object>) elementWriter(genericType), lines);
+            } else if (entity instanceof Collection) {
+                writeAll(json, (EntityWriter<Object>) elementWriter(genericType), (Collection<Object>) entity, lines);
+            } else {
+                EntityWriter<Object> writer = (EntityWriter<Object>) EntityWriter.forClass(type);
+                if (lines) {
+                    writeLine(json, writer, entity);
+                } else {
+                    writer.write(json, entity);
+                }
+            }
+        } finally {
+            json.close();
+        }
+    }
+
+    /**
+     * @param lines true to write values as newline delimited JSON with {@link #writeLine}
+     * @return a UTF-8 generator over the stream that leaves it open when closed, close it
+     * to hand its buffers back
+     */
+    static JsonGenerator createGenerator(OutputStream output, boolean lines) throws IOException {
+        JsonGenerator json = JsonRecords.MAPPER.getJsonFactory().createJsonGenerator(output, JsonEncoding.UTF8);
+        json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (lines) {
+            json.setPrettyPrinter(LINES);
+        }
+        return json;
+    }
+
+    /**
+     * Writes the value as one line of a generator created for lines.
+     */
+    static <T> void writeLine(JsonGenerator json, EntityWriter<? super T> writer, T value) throws IOException {
+        writer.write(json, value);
+        json.writeRaw('\n');
+    }
+
+    static boolean isNdjson(MediaType mediaType) {
+        return mediaType != null && JsonRecords.NDJSON.equalsIgnoreCase(mediaType.getType() + '/' + mediaType.getSubtype());
+    }
+
+    private static void writeSearchResult(JsonGenerator json, SearchResult result, boolean lines) throws IOException {
+        if (lines) {
+            writeAll(json, EntityWriter.PRODUCT, result.getProducts(), true);
+            return;
+        }
+        json.writeStartObject();
+        json.writeFieldName(QUERY);
+        json.writeString(result.getQuery());
+        json.writeFieldName(TOTAL_HITS);
+        json.writeNumber(result.getTotalHits());
+        json.writeFieldName(TOTAL_HITS_EXACT);
+        json.writeBoolean(result.isTotalHitsExact());
+        json.writeFieldName(PRODUCTS);
+        EntityWriter.PRODUCT.writeAll(json, result.getProducts());
+        json.writeFieldName(FACETS);
+        EntityWriter.FACET_COUNT.writeAll(json, result.getFacets());
+        json.writeEndObject();
+    }
+
+    private static <T> void writeKeysetPage(JsonGenerator json, KeysetPage<T> page, EntityWriter<? super T> writer,
+                                            boolean lines) throws IOException {
+        if (lines) {
+            writeAll(json, writer, page.getItems(), true);
+            return;
+        }
+        json.writeStartObject();
+        json.writeFieldName(ITEMS);
+        writer.writeAll(json, page.getItems());
+        json.writeFieldName(NEXT_CURSOR);
+        json.writeString(page.getNextCursor());
+        json.writeEndObject();
+    }
+
+    private static <T> void writeAll(JsonGenerator json, EntityWriter<? super T> writer, Collection<? extends T> values,
+                                     boolean lines) throws IOException {
+        if (!lines) {
+            writer.writeAll(json, values);
+        } else if (values != null) {
+            for (T value : values) {
+                writeLine(json, writer, value);
+            }
+        }
+    }
+
+    /**
+     * @return the writer for the element type of a generic collection or page, or null if
+     * the type is raw or its elements have none
+     */
+    private static EntityWriter<?> elementWriter(Type genericType) {
+        if (!(genericType instanceof ParameterizedType)) {
+            return null;
+        }
+        Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+        if (arguments.length != 1 || !(arguments[0] instanceof Class)) {
+            return null;
+        }
+        return EntityWriter.forClass((Class<?>) arguments[0]);
+    }
+}
@@ -0,0 +1,23 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+
+/**
+ * Keeps the documents on the heap.
+ */
+final class ArrayProductStore implements ProductStore {
+
+    private final Product[] products;
+
+    ArrayProductStore(Product[] products) {
+        this.products = products;
+    }
+
+    public int size() {
+        return products.length;
+    }
+
+    public Product get(int doc) {
+        return products[doc];
+    }
+}
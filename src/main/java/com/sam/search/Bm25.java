@@ -0,0 +1,41 @@
+package com.sam.search;
+
+/**
+ * Okapi BM25 with the usual {@code k1 = 1.2}, {@code b = 0.75} parameters.
+ * <p/>
+ * <p>Product name and description are scored as a single weighted field (a simplified
+ * BM25F): a term occurrence in the name counts {@link #NAME_WEIGHT} times, and the
+ * name length is weighted the same way when computing the document length.
+ */
+public final class Bm25 {
+
+    public static final float K1 = 1.2f;
+    public static final float B = 0.75f;
+    public static final int NAME_WEIGHT = 3;
+
+    private Bm25() {
+    }
+
+    /**
+     * @return the BM25 inverse document frequency, always positive
+     */
+    public static float idf(int docFreq, int docCount) {
+        return (float) Math.log(1 + (docCount - docFreq + 0.5d) / (docFreq + 0.5d));
+    }
+
+    /**
+     * Per-document part of the length normalisation, precomputed at index time.
+     */
+    public static float lengthNorm(int docLength, float avgDocLength) {
+        return K1 * (1 - B + B * docLength / avgDocLength);
+    }
+
+    /**
+     * @param freq       weighted term frequency in the document
+     * @param lengthNorm value of {@link #lengthNorm(int, float)} for the document
+     * @return the term frequency part of the score, to be multiplied by {@link #idf(int, int)}
+     */
+    public static float tf(int freq, float lengthNorm) {
+        return freq * (K1 + 1) / (freq + lengthNorm);
+    }
+}
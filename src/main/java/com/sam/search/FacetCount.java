@@ -0,0 +1,52 @@
+package com.sam.search;
+
+import java.io.Serializable;
+
+/**
+ * Number of matching products that share one value of a facet, like a seller.
+ */
+public class FacetCount implements Serializable {
+
+    private String value;
+    private String label;
+    private int count;
+
+    public FacetCount() {
+    }
+
+    public FacetCount(String value, String label, int count) {
+        this.value = value;
+        this.label = label;
+        this.count = count;
+    }
+
+    /**
+     * @return the value to filter on, for a seller its id
+     */
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    /**
+     * @return the value for display, for a seller its name
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,227 @@
+package com.sam.search;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * Finds the terms of a sorted dictionary within a few edits of a misspelt query term,
+ * by running the query term's Levenshtein automaton over the dictionary.
+ * <p/>
+ * <p>The sorted array is walked as an implicit trie: consecutive terms share their
+ * common prefix, so only the characters after it are fed to the automaton, whose
+ * state is the dynamic programming row of the edit distance between the query term and
+ * the current prefix. Once no cell of a row is within {@code maxEdits}, no term with
+ * that prefix can match and a galloping search skips past all of them. A prefix whose
+ * best cell is exactly {@code maxEdits} has only a few characters left that keep it
+ * alive, so the walk seeks straight to the terms continuing with one of them, like a
+ * Lucene automaton intersection. The work done therefore grows with the number of
+ * prefixes within reach of the query term, not with the vocabulary.
+ * <p/>
+ * <p>Distances are optimal string alignment distances: insertions, deletions,
+ * substitutions and swaps of two adjacent characters, the most common typo, each count
+ * as one edit.
+ */
+final class FuzzyTerms {
+
+    private FuzzyTerms() {
+    }
+
+    /**
+     * Adds every term within {@code maxEdits} of {@code query} to {@code distances},
+     * keeping the smaller distance of a term that is already there.
+     *
+     * @param terms   sorted dictionary
+     * @param allowed ordinals of the terms that may be returned, or null for all
+     */
+    static void collect(String[] terms, BitSet allowed, String query, int maxEdits, Map<String, Integer> distances) {
+        int n = query.length();
+        int maxDepth = n + maxEdits;
+        int[][] rows = new int[maxDepth + 1][n + 1];
+        for (int[] row : rows) {
+            Arrays.fill(row, maxEdits + 1);
+        }
+        for (int j = 0; j <= Math.min(n, maxEdits); j++) {
+            rows[0][j] = j;
+        }
+        int[] mins = new int[maxDepth + 1];
+        // rows[0..depth] are the automaton states for the first depth characters of previous
+        String previous = "";
+        int depth = 0;
+
+        int i = 0;
+        terms:
+        while (i < terms.length) {
+            String term = terms[i];
+            depth = Math.min(depth, commonPrefix(previous, term));
+            previous = term;
+            int end = Math.min(term.length(), maxDepth);
+            boolean dead = false;
+            while (depth < end && !dead) {
+                char c = term.charAt(depth);
+                if (mins[depth] == maxEdits) {
+                    int next = nextLiveChar(rows, depth, term, query, maxEdits, c);
+                    if (next != c) {
+                        i = next < 0 ? skip(terms, i + 1, term, depth)
+                                : seek(terms, i + 1, term, depth, (char) next);
+                        continue terms;
+                    }
+                }
+                depth++;
+                mins[depth] = step(rows, depth, term, query, maxEdits);
+                dead = mins[depth] > maxEdits;
+            }
+            if (dead || term.length() > maxDepth) {
+                // no term with this prefix can match
+                i = skip(terms, i + 1, term, depth);
+                continue;
+            }
+            int distance = rows[depth][n];
+            if (distance <= maxEdits && (allowed == null || allowed.get(i))) {
+                Integer known = distances.get(term);
+                if (known == null || distance < known) {
+                    distances.put(term, distance);
+                }
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Computes the row for the prefix {@code term[0..depth)}. Only the cells within
+     * {@code maxEdits} of the diagonal can hold a distance up to {@code maxEdits}, the
+     * others keep {@code maxEdits + 1}.
+     *
+     * @return the smallest value of the row
+     */
+    private static int step(int[][] rows, int depth, String term, String query, int maxEdits) {
+        int[] previous = rows[depth - 1];
+        int[] row = rows[depth];
+        char c = term.charAt(depth - 1);
+        int from = Math.max(1, depth - maxEdits);
+        int to = Math.min(row.length - 1, depth + maxEdits);
+        int min = maxEdits + 1;
+        if (depth <= maxEdits) {
+            row[0] = depth;
+            min = depth;
+        } else {
+            // the cell left of the band, stale from a longer prefix of an earlier term
+            row[from - 1] = maxEdits + 1;
+        }
+        for (int j = from; j <= to; j++) {
+            char q = query.charAt(j - 1);
+            int d = Math.min(Math.min(previous[j] + 1, row[j - 1] + 1), previous[j - 1] + (c == q ? 0 : 1));
+            if (depth > 1 && j > 1 && c == query.charAt(j - 2) && term.charAt(depth - 2) == q) {
+                d = Math.min(d, rows[depth - 2][j - 2] + 1);
+            }
+            row[j] = Math.min(d, maxEdits + 1);
+            min = Math.min(min, d);
+        }
+        if (to + 1 < row.length) {
+            row[to + 1] = maxEdits + 1;
+        }
+        return min;
+    }
+
+    /**
+     * For a prefix {@code term[0..depth)} whose best cell is {@code maxEdits}, a next
+     * character keeps some cell within {@code maxEdits} only if it matches the query at a
+     * cell holding {@code maxEdits}, or completes a swap from a cell of the row before.
+     *
+     * @return the smallest such character not smaller than {@code from}, or -1 if there is none
+     */
+    private static int nextLiveChar(int[][] rows, int depth, String term, String query, int maxEdits, char from) {
+        int[] row = rows[depth];
+        int n = query.length();
+        int best = -1;
+        for (int j = Math.max(1, depth + 1 - maxEdits); j <= Math.min(n, depth + 1 + maxEdits); j++) {
+            char q = query.charAt(j - 1);
+            if (row[j - 1] == maxEdits && q >= from && (best < 0 || q < best)) {
+                best = q;
+            }
+            if (depth > 0 && j > 1 && term.charAt(depth - 1) == q && rows[depth - 1][j - 2] < maxEdits) {
+                char swapped = query.charAt(j - 2);
+                if (swapped >= from && (best < 0 || swapped < best)) {
+                    best = swapped;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the first position at or after {@code from} whose term is not smaller than
+     * the first {@code length} characters of {@code prefix} followed by {@code next}
+     */
+    private static int seek(String[] terms, int from, String prefix, int length, char next) {
+        int below = from - 1;
+        int probe = from;
+        int step = 1;
+        while (probe < terms.length && isBefore(terms[probe], prefix, length, next)) {
+            below = probe;
+            probe = from + step;
+            step <<= 1;
+        }
+        int above = Math.min(probe, terms.length);
+        while (above - below > 1) {
+            int mid = (below + above) >>> 1;
+            if (isBefore(terms[mid], prefix, length, next)) {
+                below = mid;
+            } else {
+                above = mid;
+            }
+        }
+        return above;
+    }
+
+    private static boolean isBefore(String term, String prefix, int length, char next) {
+        int common = Math.min(term.length(), length);
+        for (int i = 0; i < common; i++) {
+            char c = term.charAt(i);
+            if (c != prefix.charAt(i)) {
+                return c < prefix.charAt(i);
+            }
+        }
+        return term.length() <= length || term.charAt(length) < next;
+    }
+
+    /**
+     * Gallops over the terms sharing the first {@code length} characters of {@code prefix}:
+     * they are contiguous, and near the leaves, where most prefixes die, there are few.
+     *
+     * @return the first position at or after {@code from} whose term does not start with the prefix
+     */
+    private static int skip(String[] terms, int from, String prefix, int length) {
+        int inside = from - 1;
+        int probe = from;
+        int step = 1;
+        while (probe < terms.length && hasPrefix(terms[probe], prefix, length)) {
+            inside = probe;
+            probe = from + step;
+            step <<= 1;
+        }
+        int outside = Math.min(probe, terms.length);
+        while (outside - inside > 1) {
+            int mid = (inside + outside) >>> 1;
+            if (hasPrefix(terms[mid], prefix, length)) {
+                inside = mid;
+            } else {
+                outside = mid;
+            }
+        }
+        return outside;
+    }
+
+    private static boolean hasPrefix(String term, String prefix, int length) {
+        return term.length() >= length && term.regionMatches(0, prefix, 0, length);
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,347 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an {@link IndexSnapshot} near real time: product updates and deletions are
+ * queued, and every refresh interval the queued changes become a new small segment plus
+ * deletions in the segments that held the old versions.
+ * <p/>
+ * <p>{@link #update} and {@link #delete} only append to a lock-free queue. Everything
+ * else runs on one background thread, which is therefore the only writer of the
+ * snapshot: it applies the queue, merges the small segments into one once there are
+ * more than {@code maxSegments} of them, and publishes each new snapshot through a
+ * volatile reference. Readers take {@link #snapshot()} and never wait.
+ * <p/>
+ * <p>A full rebuild loads the base segments, one per shard, elsewhere and
+ * {@link #install installs} them.
+ * Changes applied between {@link #beginRebuild()} and the install are replayed on top of
+ * the new base, because the rebuild may have read those products before they changed.
+ * Updates and deletions are idempotent, so replaying one the rebuild already saw is
+ * harmless. Base segments are never merged; small segments are scored against their
+ * average document length so their scores stay comparable until the next rebuild.
+ */
+public class IncrementalIndexer {
+
+    public static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 1000;
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final Queue<Change> pending = new ConcurrentLinkedQueue<Change>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "product-indexer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private long refreshIntervalMillis = DEFAULT_REFRESH_INTERVAL_MILLIS;
+    private int maxSegments = DEFAULT_MAX_SEGMENTS;
+    private volatile IndexSnapshot snapshot = IndexSnapshot.EMPTY;
+
+    // confined to the indexer thread
+    private int baseSegments;
+    private float avgDocLength;
+    private List<Change> replay;
+
+    public void setRefreshIntervalMillis(long refreshIntervalMillis) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * @param maxSegments number of small segments that triggers merging them into one
+     */
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Starts refreshing the snapshot every refresh interval.
+     */
+    public void start() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    applyPending();
+                } catch (RuntimeException e) {
+                    log.error("Index refresh failed", e);
+                }
+            }
+        }, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the indexer thread; changes still queued are not applied.
+     */
+    public void stop() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public IndexSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Queues a new or changed product, it replaces any product with the same id. The
+     * indexer holds on to the instance, so it must not be modified afterwards.
+     */
+    public void update(Product product) {
+        if (product.getId() == null) {
+            throw new IllegalArgumentException("Can not index a product without an id: " + product);
+        }
+        pending.add(new Change(product.getId(), product));
+    }
+
+    public void delete(String productId) {
+        if (productId == null) {
+            throw new IllegalArgumentException("Can not delete a product without an id");
+        }
+        pending.add(new Change(productId, null));
+    }
+
+    /**
+     * @return number of changes waiting for the next refresh
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Applies the queued changes now instead of at the next refresh and waits for the
+     * new snapshot to be published.
+     */
+    public IndexSnapshot refresh() {
+        return call(new Callable<IndexSnapshot>() {
+            public IndexSnapshot call() {
+                applyPending();
+                return snapshot;
+            }
+        });
+    }
+
+    /**
+     * Marks the start of a full rebuild, from now on applied changes are kept for
+     * {@link #install}.
+     */
+    public void beginRebuild() {
+        call(new Callable<Void>() {
+            public Void call() {
+                replay = new ArrayList<Change>();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Drops the changes kept since {@link #beginRebuild()}, for a rebuild that failed.
+     */
+    public void cancelRebuild() {
+        call(new Callable<Void>() {
+            public Void call() {
+                replay = null;
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Replaces every segment with freshly built base segments, then applies the changes
+     * made since {@link #beginRebuild()} and the queued ones.
+     *
+     * @param base the shards of the index, built with a common average document length
+     */
+    public IndexSnapshot install(final ProductIndex... base) {
+        return call(new Callable<IndexSnapshot>() {
+            public IndexSnapshot call() {
+                List<Change> changes = replay == null ? new ArrayList<Change>() : replay;
+                replay = null;
+                drainTo(changes);
+                baseSegments = base.length;
+                avgDocLength = 0f;
+                for (ProductIndex shard : base) {
+                    if (shard.maxDoc() > 0) {
+                        avgDocLength = shard.avgDocLength();
+                    }
+                }
+                snapshot = snapshot.next(IndexSnapshot.segmentsOf(base));
+                apply(changes);
+                return snapshot;
+            }
+        });
+    }
+
+    private void applyPending() {
+        List<Change> changes = new ArrayList<Change>();
+        drainTo(changes);
+        if (replay != null) {
+            replay.addAll(changes);
+        }
+        apply(changes);
+        if (snapshot.segmentCount() - firstMergeable() > maxSegments) {
+            merge();
+        }
+    }
+
+    private void drainTo(Collection<Change> changes) {
+        Change change;
+        while ((change = pending.poll()) != null) {
+            changes.add(change);
+        }
+    }
+
+    /**
+     * Deletes the current version of every changed product and indexes the new versions
+     * in one new segment.
+     */
+    private void apply(List<Change> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Map<String, Change> latest = new LinkedHashMap<String, Change>();
+        for (Change change : changes) {
+            // re-insert so the products keep the order of their last change
+            latest.remove(change.productId);
+            latest.put(change.productId, change);
+        }
+
+        IndexSnapshot current = snapshot;
+        int segmentCount = current.segmentCount();
+        long[][] deleted = new long[segmentCount][];
+        int[] deleteCounts = new int[segmentCount];
+        ProductIndexBuilder builder = newBuilder();
+        for (Change change : latest.values()) {
+            for (int s = 0; s < segmentCount; s++) {
+                IndexSnapshot.Segment segment = current.segment(s);
+                int doc = segment.index.docOf(change.productId);
+                if (doc < 0 || !segment.isLive(doc)) {
+                    continue;
+                }
+                if (deleted[s] == null) {
+                    deleted[s] = segment.copyDeleted();
+                    deleteCounts[s] = segment.deleteCount();
+                }
+                long mask = 1L << doc;
+                if ((deleted[s][doc >>> 6] & mask) == 0) {
+                    deleted[s][doc >>> 6] |= mask;
+                    deleteCounts[s]++;
+                }
+            }
+            if (change.product != null) {
+                builder.add(change.product);
+            }
+        }
+
+        List<IndexSnapshot.Segment> segments = new ArrayList<IndexSnapshot.Segment>(segmentCount + 1);
+        for (int s = 0; s < segmentCount; s++) {
+            IndexSnapshot.Segment segment = current.segment(s);
+            if (deleted[s] != null) {
+                segment = new IndexSnapshot.Segment(segment.index, deleted[s], deleteCounts[s]);
+            }
+            if (segment.numDocs() > 0 || s < firstMergeable()) {
+                segments.add(segment);
+            }
+        }
+        if (builder.size() > 0) {
+            segments.add(new IndexSnapshot.Segment(builder.build(), null, 0));
+        }
+        snapshot = current.next(segments.toArray(new IndexSnapshot.Segment[segments.size()]));
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Applied %d product changes, %d segments, %d products",
+                    latest.size(), snapshot.segmentCount(), snapshot.numDocs()));
+        }
+    }
+
+    /**
+     * Rewrites the small segments as one, dropping their deleted documents.
+     */
+    private void merge() {
+        long start = System.currentTimeMillis();
+        IndexSnapshot current = snapshot;
+        int from = firstMergeable();
+        List<IndexSnapshot.Segment> segments = new ArrayList<IndexSnapshot.Segment>(from + 1);
+        ProductIndexBuilder builder = newBuilder();
+        for (int s = 0; s < current.segmentCount(); s++) {
+            IndexSnapshot.Segment segment = current.segment(s);
+            if (s < from) {
+                segments.add(segment);
+                continue;
+            }
+            for (int doc = 0; doc < segment.index.maxDoc(); doc++) {
+                if (segment.isLive(doc)) {
+                    builder.add(segment.index.document(doc));
+                }
+            }
+        }
+        if (builder.size() > 0) {
+            segments.add(new IndexSnapshot.Segment(builder.build(), null, 0));
+        }
+        snapshot = current.next(segments.toArray(new IndexSnapshot.Segment[segments.size()]));
+        log.info(String.format("Merged %d segments of %d products in %d ms", current.segmentCount() - from,
+                builder.size(), System.currentTimeMillis() - start));
+    }
+
+    /**
+     * @return the first segment that may be merged or dropped, every one but the base ones
+     */
+    private int firstMergeable() {
+        return baseSegments;
+    }
+
+    private ProductIndexBuilder newBuilder() {
+        ProductIndexBuilder builder = new ProductIndexBuilder();
+        if (avgDocLength > 0f) {
+            builder.useAvgDocLength(avgDocLength);
+        }
+        return builder;
+    }
+
+    private <V> V call(Callable<V> task) {
+        try {
+            return executor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the indexer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static final class Change {
+        final String productId;
+        /**
+         * The new version, or null for a deletion.
+         */
+        final Product product;
+
+        Change(String productId, Product product) {
+            this.productId = productId;
+            this.product = product;
+        }
+    }
+}
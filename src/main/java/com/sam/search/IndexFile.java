@@ -0,0 +1,330 @@
+package com.sam.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * An index loaded from a file written by {@link IndexFileWriter}.
+ * <p/>
+ * <p>The file is memory-mapped, in windows of {@link IndexFileFormat#WINDOW_SIZE}, and
+ * its checksums are verified before anything is decoded. Postings, norms and the
+ * dictionaries are then copied out with bulk reads into the heap arrays the searcher
+ * works on, which is a sequential read of the file instead of tokenizing the catalog
+ * again; the documents stay in the store they were mapped from.
+ * <p/>
+ * <p>Opening fails with an {@link IOException} unless the file is complete, of the
+ * current version, and was written for exactly the given documents file. Callers fall
+ * back to a rebuild then.
+ */
+public final class IndexFile {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final Date created;
+    private final Date highWaterMark;
+    private final ProductIndex[] shards;
+    private final SuggestIndex suggestions;
+
+    private IndexFile(File file, Date created, Date highWaterMark, ProductIndex[] shards, SuggestIndex suggestions) {
+        this.file = file;
+        this.created = created;
+        this.highWaterMark = highWaterMark;
+        this.shards = shards;
+        this.suggestions = suggestions;
+    }
+
+    /**
+     * @param documents     the store the shards' doc ids refer to
+     * @param documentsFile the file {@code documents} is mapped from, it must be the one
+     *                      the index was written for
+     */
+    public static IndexFile open(File file, ProductStore documents, File documentsFile) throws IOException {
+        return open(file, documents, documentsFile, IndexFileFormat.WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize bytes mapped at a time, at least 8; small ones put values across
+     *                   the edges of windows in tests
+     */
+    static IndexFile open(File file, ProductStore documents, File documentsFile, int windowSize) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(IndexFileFormat.HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Truncated index file " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != IndexFileFormat.MAGIC) {
+                throw new IOException(file + " is not an index file");
+            }
+            int version = header.getInt();
+            if (version != IndexFileFormat.VERSION) {
+                throw new IOException("Unsupported index file version " + version + " of " + file);
+            }
+            long created = header.getLong();
+            long highWaterMark = header.getLong();
+            long documentsLength = header.getLong();
+            long documentsModified = header.getLong();
+            int documentCount = header.getInt();
+            int shardCount = header.getInt();
+            long bodyLength = header.getLong();
+            long bodyChecksum = header.getLong();
+            CRC32 headerChecksum = new CRC32();
+            headerChecksum.update(header.array(), 0, IndexFileFormat.CHECKED_HEADER_SIZE);
+            if (header.getLong() != headerChecksum.getValue()) {
+                throw new IOException("Corrupt index file " + file + ": header checksum mismatch");
+            }
+            if (bodyLength != channel.size() - IndexFileFormat.HEADER_SIZE) {
+                throw new IOException("Corrupt index file " + file + ": " + (channel.size() - IndexFileFormat.HEADER_SIZE)
+                        + " body bytes, " + bodyLength + " expected");
+            }
+            if (documentsLength != documentsFile.length() || documentsModified != documentsFile.lastModified()
+                    || documentCount != documents.size()) {
+                throw new IOException("Index file " + file + " was not written for " + documentsFile);
+            }
+            if (shardCount < 1) {
+                throw new IOException("Corrupt index file " + file + ": " + shardCount + " shards");
+            }
+            if (checksum(channel, IndexFileFormat.HEADER_SIZE, bodyLength, windowSize) != bodyChecksum) {
+                throw new IOException("Corrupt index file " + file + ": body checksum mismatch");
+            }
+
+            Input in = new Input(channel, IndexFileFormat.HEADER_SIZE, channel.size(), windowSize);
+            ProductIndex[] shards = new ProductIndex[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                ProductStore shardDocuments = new ShardedIndexBuilder.ShardStore(documents, i, shardCount);
+                shards[i] = readShard(in, shardDocuments, file);
+            }
+            SuggestIndex suggestions = readSuggestions(in);
+            if (!in.atEnd()) {
+                throw new IOException("Corrupt index file " + file + ": trailing bytes");
+            }
+            return new IndexFile(file, new Date(created),
+                    highWaterMark == IndexFileFormat.NO_HIGH_WATER_MARK ? null : new Date(highWaterMark),
+                    shards, suggestions);
+        } catch (RuntimeException e) {
+            // a checksummed file only gets here if it was written wrong
+            throw new IOException("Corrupt index file " + file, e);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static long checksum(FileChannel channel, long position, long length, int windowSize) throws IOException {
+        CRC32 checksum = new CRC32();
+        long end = position + length;
+        for (long start = position; start < end; start += windowSize) {
+            checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, end - start)));
+        }
+        return checksum.getValue();
+    }
+
+    private static ProductIndex readShard(Input in, ProductStore documents, File file) throws IOException {
+        int maxDoc = in.readInt();
+        if (maxDoc != documents.size()) {
+            throw new IOException("Corrupt index file " + file + ": shard of " + maxDoc + " documents, "
+                    + documents.size() + " expected");
+        }
+        float avgDocLength = in.readFloat();
+        int termCount = in.readInt();
+        String[] terms = new String[termCount];
+        for (int i = 0; i < termCount; i++) {
+            terms[i] = in.readString();
+        }
+        long[] nameTermWords = new long[in.readInt()];
+        for (int i = 0; i < nameTermWords.length; i++) {
+            nameTermWords[i] = in.readLong();
+        }
+        int[][] postings = new int[termCount][];
+        int[][] frequencies = new int[termCount][];
+        for (int i = 0; i < termCount; i++) {
+            int docFreq = in.readInt();
+            postings[i] = new int[docFreq];
+            frequencies[i] = new int[docFreq];
+        }
+        for (int i = 0; i < termCount; i++) {
+            in.readInts(postings[i]);
+        }
+        for (int i = 0; i < termCount; i++) {
+            in.readInts(frequencies[i]);
+        }
+        float[] lengthNorms = new float[maxDoc];
+        in.readFloats(lengthNorms);
+        float[] maxTermScores = new float[termCount];
+        in.readFloats(maxTermScores);
+        int[] docsById = new int[in.readInt()];
+        in.readInts(docsById);
+
+        int sellerCount = in.readInt();
+        String[] sellerIds = new String[sellerCount];
+        for (int i = 0; i < sellerCount; i++) {
+            sellerIds[i] = in.readString();
+        }
+        String[] sellerNames = new String[sellerCount];
+        for (int i = 0; i < sellerCount; i++) {
+            sellerNames[i] = in.readString();
+        }
+        RoaringDocSet[] sellerDocs = new RoaringDocSet[sellerCount];
+        int[] docs = new int[0];
+        for (int i = 0; i < sellerCount; i++) {
+            int cardinality = in.readInt();
+            if (docs.length < cardinality) {
+                docs = new int[cardinality];
+            }
+            in.readInts(docs, cardinality);
+            sellerDocs[i] = RoaringDocSet.of(docs, cardinality);
+        }
+        return new ProductIndex(documents, terms, postings, frequencies, lengthNorms, maxTermScores, avgDocLength,
+                docsById, sellerIds, sellerNames, sellerDocs, BitSet.valueOf(nameTermWords));
+    }
+
+    private static SuggestIndex readSuggestions(Input in) throws IOException {
+        int root = in.readInt();
+        byte[] trie = new byte[in.readInt()];
+        in.readBytes(trie, trie.length);
+        byte[] names = new byte[in.readInt()];
+        in.readBytes(names, names.length);
+        int[] nameOffsets = new int[in.readInt()];
+        in.readInts(nameOffsets);
+        return new SuggestIndex(trie, root, names, nameOffsets);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    /**
+     * @return latest modification time of the indexed products, null if it was not known;
+     * changes made since have to be replayed on top of the index
+     */
+    public Date getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public ProductIndex[] getShards() {
+        return shards;
+    }
+
+    public SuggestIndex getSuggestions() {
+        return suggestions;
+    }
+
+    /**
+     * Sequential big endian reads over a file mapped one window at a time.
+     */
+    private static final class Input {
+        private final FileChannel channel;
+        private final long end;
+        private final int windowSize;
+        private long windowStart;
+        private MappedByteBuffer window;
+        private byte[] scratch = new byte[256];
+
+        Input(FileChannel channel, long start, long end, int windowSize) throws IOException {
+            this.channel = channel;
+            this.end = end;
+            this.windowSize = windowSize;
+            map(start);
+        }
+
+        private void map(long start) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, end - start));
+        }
+
+        /**
+         * Makes sure the window holds the next {@code bytes} bytes, which must be at most 8.
+         */
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                long position = windowStart + window.position();
+                if (end - position < bytes) {
+                    throw new IOException("Unexpected end of index file");
+                }
+                map(position);
+            }
+        }
+
+        boolean atEnd() {
+            return windowStart + window.position() == end;
+        }
+
+        int readInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        long readLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        float readFloat() throws IOException {
+            ensure(4);
+            return window.getFloat();
+        }
+
+        void readInts(int[] values) throws IOException {
+            readInts(values, values.length);
+        }
+
+        void readInts(int[] values, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                ensure(4);
+                int count = Math.min(length - offset, window.remaining() / 4);
+                window.asIntBuffer().get(values, offset, count);
+                window.position(window.position() + 4 * count);
+                offset += count;
+            }
+        }
+
+        void readFloats(float[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                ensure(4);
+                int count = Math.min(values.length - offset, window.remaining() / 4);
+                window.asFloatBuffer().get(values, offset, count);
+                window.position(window.position() + 4 * count);
+                offset += count;
+            }
+        }
+
+        void readBytes(byte[] values, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                ensure(1);
+                int count = Math.min(length - offset, window.remaining());
+                window.get(values, offset, count);
+                offset += count;
+            }
+        }
+
+        String readString() throws IOException {
+            int length = readInt();
+            if (length == IndexFileFormat.NULL_STRING) {
+                return null;
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, 2 * scratch.length)];
+            }
+            readBytes(scratch, length);
+            return new String(scratch, 0, length, UTF_8);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.sam.search;
+
+/**
+ * Layout of an index file, version 1. All numbers are big endian.
+ * <pre>
+ * header   int magic, int version, long createdMillis, long highWaterMark,
+ *          long documentsLength, long documentsModified, int documentCount, int shardCount,
+ *          long bodyLength, long bodyChecksum, long headerChecksum
+ * body     shardCount shards, then the suggest index
+ * shard    int maxDoc, float avgDocLength, int termCount, strings terms, longs nameTerms,
+ *          termCount x int docFreq, the postings of every term, then their frequencies,
+ *          maxDoc x float lengthNorm, termCount x float maxTermScore, ints docsById,
+ *          int sellerCount, strings sellerIds, strings sellerNames, sellerCount x ints docs
+ * suggest  int root, bytes trie, bytes names, ints nameOffsets
+ * </pre>
+ * {@code ints}, {@code longs} and {@code bytes} are an int count followed by the values;
+ * {@code strings} are count times an int byte length, -1 for null, and the UTF-8 bytes.
+ * <p/>
+ * <p>The documents are not part of the file: the shards index the products of a store
+ * mapped from another file, every {@code shardCount}-th one per shard, and the header
+ * records that file's length, modification time and product count so an index is never
+ * opened over a different store. The checksums are CRC-32s, of the body and of the
+ * header bytes before {@code headerChecksum}.
+ */
+final class IndexFileFormat {
+
+    static final int MAGIC = 0x50534931; // "PSI1"
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 8 + 4 + 4 + 8 + 8 + 8;
+    static final int CHECKED_HEADER_SIZE = HEADER_SIZE - 8;
+
+    static final int NULL_STRING = -1;
+
+    /**
+     * High-water mark of an index built when no product had a modification time.
+     */
+    static final long NO_HIGH_WATER_MARK = Long.MIN_VALUE;
+
+    /**
+     * Size of the windows the file is mapped in, a mapping can not exceed 2 GB.
+     */
+    static final int WINDOW_SIZE = 1 << 28;
+
+    private IndexFileFormat() {
+    }
+}
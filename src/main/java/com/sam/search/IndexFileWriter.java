@@ -0,0 +1,225 @@
+package com.sam.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the shards of an index and its suggest index to an index file that
+ * {@link IndexFile} opens, see {@link IndexFileFormat} for the layout.
+ * <p/>
+ * <p>Like a catalog, the file is written to a temporary file next to the target and
+ * renamed over it once complete, so a crash while writing leaves the previous index
+ * file in place.
+ */
+public final class IndexFileWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private IndexFileWriter() {
+    }
+
+    /**
+     * @param shards        shards built over a view of {@code documents} with
+     *                      {@link ShardedIndexBuilder#build(ProductStore)}
+     * @param highWaterMark latest modification time of the indexed products, null if unknown
+     * @param documentsFile the file the shards' documents are mapped from
+     */
+    public static void write(File target, ProductIndex[] shards, SuggestIndex suggestions, Date highWaterMark,
+                             File documentsFile) throws IOException {
+        target = target.getAbsoluteFile();
+        File directory = target.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create index directory " + directory);
+        }
+        int documentCount = 0;
+        for (ProductIndex shard : shards) {
+            documentCount += shard.maxDoc();
+        }
+
+        File temporary = File.createTempFile("index", ".tmp", directory);
+        try {
+            FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE);
+            try {
+                channel.position(IndexFileFormat.HEADER_SIZE);
+                Output body = new Output(channel);
+                for (ProductIndex shard : shards) {
+                    writeShard(body, shard);
+                }
+                writeSuggestions(body, suggestions);
+                body.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(IndexFileFormat.HEADER_SIZE);
+                header.putInt(IndexFileFormat.MAGIC);
+                header.putInt(IndexFileFormat.VERSION);
+                header.putLong(System.currentTimeMillis());
+                header.putLong(highWaterMark == null ? IndexFileFormat.NO_HIGH_WATER_MARK : highWaterMark.getTime());
+                header.putLong(documentsFile.length());
+                header.putLong(documentsFile.lastModified());
+                header.putInt(documentCount);
+                header.putInt(shards.length);
+                header.putLong(body.length);
+                header.putLong(body.checksum.getValue());
+                CRC32 headerChecksum = new CRC32();
+                headerChecksum.update(header.array(), 0, IndexFileFormat.CHECKED_HEADER_SIZE);
+                header.putLong(headerChecksum.getValue());
+                header.flip();
+                channel.position(0);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    private static void writeShard(Output out, ProductIndex shard) throws IOException {
+        int maxDoc = shard.maxDoc();
+        int termCount = shard.termCount();
+        out.putInt(maxDoc);
+        out.putFloat(shard.avgDocLength());
+        out.putInt(termCount);
+        for (int i = 0; i < termCount; i++) {
+            out.putString(shard.term(i));
+        }
+        long[] nameTerms = shard.nameTerms().toLongArray();
+        out.putInt(nameTerms.length);
+        for (long word : nameTerms) {
+            out.putLong(word);
+        }
+        for (int i = 0; i < termCount; i++) {
+            out.putInt(shard.docFreq(i));
+        }
+        for (int i = 0; i < termCount; i++) {
+            out.putInts(shard.postings(i));
+        }
+        for (int i = 0; i < termCount; i++) {
+            out.putInts(shard.frequencies(i));
+        }
+        for (int doc = 0; doc < maxDoc; doc++) {
+            out.putFloat(shard.lengthNorm(doc));
+        }
+        for (int i = 0; i < termCount; i++) {
+            out.putFloat(shard.maxTermScore(i));
+        }
+        int[] docsById = shard.docsById();
+        out.putInt(docsById.length);
+        out.putInts(docsById);
+
+        int sellerCount = shard.sellerCount();
+        out.putInt(sellerCount);
+        for (int i = 0; i < sellerCount; i++) {
+            out.putString(shard.sellerId(i));
+        }
+        for (int i = 0; i < sellerCount; i++) {
+            out.putString(shard.sellerName(i));
+        }
+        for (int i = 0; i < sellerCount; i++) {
+            RoaringDocSet docs = shard.sellerDocs(i);
+            out.putInt(docs.cardinality());
+            for (int doc = docs.nextDoc(0); doc != RoaringDocSet.NO_MORE_DOCS; doc = docs.nextDoc(doc + 1)) {
+                out.putInt(doc);
+            }
+        }
+    }
+
+    private static void writeSuggestions(Output out, SuggestIndex suggestions) throws IOException {
+        out.putInt(suggestions.root());
+        out.putInt(suggestions.trie().length);
+        out.putBytes(suggestions.trie());
+        out.putInt(suggestions.names().length);
+        out.putBytes(suggestions.names());
+        out.putInt(suggestions.nameOffsets().length);
+        out.putInts(suggestions.nameOffsets());
+    }
+
+    /**
+     * Buffers big endian values for a channel and checksums what it writes.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32 checksum = new CRC32();
+        private long length;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putFloat(float value) throws IOException {
+            ensure(4);
+            buffer.putFloat(value);
+        }
+
+        void putInts(int[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                ensure(4);
+                int count = Math.min(values.length - offset, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(values, offset, count);
+                buffer.position(buffer.position() + 4 * count);
+                offset += count;
+            }
+        }
+
+        void putBytes(byte[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                ensure(1);
+                int count = Math.min(values.length - offset, buffer.remaining());
+                buffer.put(values, offset, count);
+                offset += count;
+            }
+        }
+
+        void putString(String value) throws IOException {
+            if (value == null) {
+                putInt(IndexFileFormat.NULL_STRING);
+                return;
+            }
+            byte[] bytes = value.getBytes(UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            checksum.update(buffer.array(), 0, buffer.limit());
+            length += buffer.limit();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
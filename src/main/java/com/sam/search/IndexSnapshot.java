@@ -0,0 +1,183 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+
+import java.util.Arrays;
+
+/**
+ * Point-in-time view of a segmented index: a list of immutable {@link ProductIndex}
+ * segments, each with the set of its documents that were deleted or replaced since it
+ * was built.
+ * <p/>
+ * <p>Doc ids are global: a segment's documents are numbered after those of the segments
+ * before it. A snapshot never changes, the {@link IncrementalIndexer} publishes a new one
+ * for every change, so searches need no locking and see a consistent index while they
+ * run.
+ * <p/>
+ * <p>Each snapshot the indexer publishes carries a generation one higher than the one
+ * it replaces, so a generation identifies a state of the index; results computed from a
+ * snapshot can be cached under its generation and are never served once it changed.
+ */
+public final class IndexSnapshot {
+
+    public static final IndexSnapshot EMPTY = new IndexSnapshot(new Segment[0], 0);
+
+    private final Segment[] segments;
+    private final int[] docBases;
+    private final int maxDoc;
+    private final int numDocs;
+    private final long generation;
+
+    IndexSnapshot(Segment[] segments, long generation) {
+        this.segments = segments;
+        this.generation = generation;
+        this.docBases = new int[segments.length];
+        int maxDoc = 0;
+        int numDocs = 0;
+        for (int i = 0; i < segments.length; i++) {
+            docBases[i] = maxDoc;
+            maxDoc += segments[i].index.maxDoc();
+            numDocs += segments[i].numDocs();
+        }
+        this.maxDoc = maxDoc;
+        this.numDocs = numDocs;
+    }
+
+    /**
+     * @return a snapshot with each index as a segment, like the shards of a
+     * {@link ShardedIndexBuilder}
+     */
+    public static IndexSnapshot of(ProductIndex... indexes) {
+        return new IndexSnapshot(segmentsOf(indexes), 0);
+    }
+
+    static Segment[] segmentsOf(ProductIndex[] indexes) {
+        Segment[] segments = new Segment[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            segments[i] = new Segment(indexes[i], null, 0);
+        }
+        return segments;
+    }
+
+    /**
+     * @return a snapshot with the given segments and the next generation after this one
+     */
+    IndexSnapshot next(Segment[] segments) {
+        return new IndexSnapshot(segments, generation + 1);
+    }
+
+    /**
+     * @return number of snapshots published before this one by the indexer
+     */
+    public long generation() {
+        return generation;
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return number of documents including deleted ones, global doc ids range from 0
+     * (inclusive) to this value (exclusive)
+     */
+    public int maxDoc() {
+        return maxDoc;
+    }
+
+    /**
+     * @return number of live documents
+     */
+    public int numDocs() {
+        return numDocs;
+    }
+
+    /**
+     * @param doc a global doc id
+     */
+    public Product document(int doc) {
+        int segment = segmentOf(doc);
+        return segments[segment].index.document(doc - docBases[segment]);
+    }
+
+    /**
+     * @return number of terms over all segments, a term is counted once per segment
+     */
+    public long termCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.index.termCount();
+        }
+        return count;
+    }
+
+    Segment segment(int i) {
+        return segments[i];
+    }
+
+    int docBase(int i) {
+        return docBases[i];
+    }
+
+    private int segmentOf(int doc) {
+        int i = Arrays.binarySearch(docBases, doc);
+        if (i < 0) {
+            return -i - 2;
+        }
+        // skip empty segments sharing the doc base
+        while (i + 1 < docBases.length && docBases[i + 1] == doc) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * A segment of a snapshot. Its deletions are a bit set that is copied, never
+     * modified, when documents are deleted.
+     */
+    static final class Segment {
+
+        final ProductIndex index;
+        private final long[] deleted;
+        private final int deleteCount;
+
+        /**
+         * @param deleted bit set of deleted doc ids, or null if none are
+         */
+        Segment(ProductIndex index, long[] deleted, int deleteCount) {
+            this.index = index;
+            this.deleted = deleted;
+            this.deleteCount = deleteCount;
+        }
+
+        boolean isLive(int doc) {
+            return deleted == null || (deleted[doc >>> 6] & 1L << doc) == 0;
+        }
+
+        int numDocs() {
+            return index.maxDoc() - deleteCount;
+        }
+
+        int deleteCount() {
+            return deleteCount;
+        }
+
+        /**
+         * Clears the bits of deleted documents in a bit set over the segment's doc ids.
+         */
+        void clearDeleted(long[] bits) {
+            if (deleted != null) {
+                for (int i = 0; i < bits.length; i++) {
+                    bits[i] &= ~deleted[i];
+                }
+            }
+        }
+
+        /**
+         * @return a modifiable copy of the deletions
+         */
+        long[] copyDeleted() {
+            return deleted == null ? new long[(index.maxDoc() + 63) >>> 6] : deleted.clone();
+        }
+    }
+}
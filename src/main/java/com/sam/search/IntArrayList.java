@@ -0,0 +1,52 @@
+package com.sam.search;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints used while building posting lists, so the
+ * builder never boxes doc ids.
+ */
+final class IntArrayList {
+
+    private int[] values;
+    private int size;
+
+    IntArrayList() {
+        this(4);
+    }
+
+    IntArrayList(int initialCapacity) {
+        this.values = new int[Math.max(1, initialCapacity)];
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        }
+        values[size++] = value;
+    }
+
+    void addToLast(int delta) {
+        values[size - 1] += delta;
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int last() {
+        return values[size - 1];
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
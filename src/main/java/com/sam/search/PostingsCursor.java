@@ -0,0 +1,87 @@
+package com.sam.search;
+
+import java.util.Arrays;
+
+/**
+ * Forward-only iterator over one term's postings that also knows how to score the
+ * current document.
+ */
+final class PostingsCursor {
+
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private final int term;
+    private final int[] docs;
+    private final int[] freqs;
+    private final float idf;
+    private final float maxScore;
+    private int pos;
+    private int doc;
+
+    /**
+     * @param term position of the term in the query
+     */
+    PostingsCursor(int term, int[] docs, int[] freqs, float idf, float maxTermScore) {
+        this.term = term;
+        this.docs = docs;
+        this.freqs = freqs;
+        this.idf = idf;
+        this.maxScore = idf * maxTermScore;
+        this.doc = docs.length > 0 ? docs[0] : NO_MORE_DOCS;
+    }
+
+    int doc() {
+        return doc;
+    }
+
+    int term() {
+        return term;
+    }
+
+    /**
+     * @return upper bound of {@link #score(float)} over every document of this cursor
+     */
+    float maxScore() {
+        return maxScore;
+    }
+
+    float score(float lengthNorm) {
+        return idf * Bm25.tf(freqs[pos], lengthNorm);
+    }
+
+    int next() {
+        pos++;
+        doc = pos < docs.length ? docs[pos] : NO_MORE_DOCS;
+        return doc;
+    }
+
+    /**
+     * Moves to the first document that is not smaller than {@code target}.
+     */
+    int advance(int target) {
+        pos = advance(docs, pos, target);
+        doc = pos < docs.length ? docs[pos] : NO_MORE_DOCS;
+        return doc;
+    }
+
+    /**
+     * Galloping search for the first position at or after {@code from} whose doc id is
+     * not smaller than {@code target}.
+     *
+     * @return the position, or {@code postings.length} when the list is exhausted
+     */
+    static int advance(int[] postings, int from, int target) {
+        if (from >= postings.length || postings[from] >= target) {
+            return from;
+        }
+        int bound = 1;
+        int low = from;
+        while (from + bound < postings.length && postings[from + bound] < target) {
+            low = from + bound;
+            bound <<= 1;
+        }
+        int high = Math.min(from + bound, postings.length - 1);
+        int pos = Arrays.binarySearch(postings, low, high + 1, target);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+}
@@ -0,0 +1,207 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * Immutable inverted index over {@link Product#getProductName()} and
+ * {@link Product#getDescription()}.
+ * <p/>
+ * <p>The term dictionary is a sorted array searched with a binary search and every
+ * posting list is a plain {@code int[]} of ascending doc ids with a parallel
+ * {@code int[]} of weighted term frequencies, so a loaded index holds no boxed values.
+ * Doc ids are positions in the {@link ProductStore} the index was built over, which is
+ * either an on-heap array or a memory-mapped catalog. Instances are built with
+ * {@link ProductIndexBuilder} and are safe to share between threads.
+ * <p/>
+ * <p>For {@link Bm25} scoring the index also keeps each document's precomputed length
+ * normalisation and, per term, the highest term frequency part of the score any of
+ * its documents reaches. The latter is the upper bound used to skip documents that
+ * cannot make it into the top hits. Both derive from an average document length that
+ * every segment of an {@link IndexSnapshot} shares, so their scores are comparable.
+ * <p/>
+ * <p>Documents can be looked up by product id through a permutation of the doc ids
+ * sorted by id, which costs four bytes per document and no strings on the heap.
+ * <p/>
+ * <p>Each seller has a {@link RoaringDocSet} of its documents. Seller facets count a
+ * query's hits with intersections, and seller filters skip over documents with them.
+ * The index also knows which terms occur in product names, the ones fuzzy queries
+ * expand to.
+ */
+public final class ProductIndex {
+
+    public static final ProductIndex EMPTY = new ProductIndex(new ArrayProductStore(new Product[0]), new String[0], new int[0][],
+            new int[0][], new float[0], new float[0], 1f, new int[0],
+            new String[0], new String[0], new RoaringDocSet[0], new BitSet());
+
+    private final ProductStore documents;
+    private final String[] terms;
+    private final int[][] postings;
+    private final int[][] frequencies;
+    private final float[] lengthNorms;
+    private final float[] maxTermScores;
+    private final float avgDocLength;
+    private final int[] docsById;
+    private final String[] sellerIds;
+    private final String[] sellerNames;
+    private final RoaringDocSet[] sellerDocs;
+    private final BitSet nameTerms;
+
+    ProductIndex(ProductStore documents, String[] terms, int[][] postings, int[][] frequencies,
+                 float[] lengthNorms, float[] maxTermScores, float avgDocLength, int[] docsById,
+                 String[] sellerIds, String[] sellerNames, RoaringDocSet[] sellerDocs, BitSet nameTerms) {
+        this.documents = documents;
+        this.terms = terms;
+        this.postings = postings;
+        this.frequencies = frequencies;
+        this.lengthNorms = lengthNorms;
+        this.maxTermScores = maxTermScores;
+        this.avgDocLength = avgDocLength;
+        this.docsById = docsById;
+        this.sellerIds = sellerIds;
+        this.sellerNames = sellerNames;
+        this.sellerDocs = sellerDocs;
+        this.nameTerms = nameTerms;
+    }
+
+    /**
+     * @return number of documents, doc ids range from 0 (inclusive) to this value (exclusive)
+     */
+    public int maxDoc() {
+        return documents.size();
+    }
+
+    public Product document(int doc) {
+        return documents.get(doc);
+    }
+
+    /**
+     * @return the doc id of the product, or -1 if the index does not contain it
+     */
+    public int docOf(String productId) {
+        int low = 0;
+        int high = docsById.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = documents.get(docsById[mid]).getId().compareTo(productId);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return docsById[mid];
+            }
+        }
+        return -1;
+    }
+
+    public int termCount() {
+        return terms.length;
+    }
+
+    /**
+     * Looks up a term in the dictionary.
+     *
+     * @param term an already tokenized term
+     * @return the term ordinal, or a negative value if the term is not indexed
+     */
+    public int ordinal(String term) {
+        return Arrays.binarySearch(terms, term);
+    }
+
+    public String term(int ordinal) {
+        return terms[ordinal];
+    }
+
+    /**
+     * Adds the terms of product names within {@code maxEdits} of {@code term} to
+     * {@code distances}, see {@link FuzzyTerms}.
+     */
+    void collectFuzzyNameTerms(String term, int maxEdits, Map<String, Integer> distances) {
+        FuzzyTerms.collect(terms, nameTerms, term, maxEdits, distances);
+    }
+
+    /**
+     * @param ordinal term ordinal as returned by {@link #ordinal(String)}
+     * @return ascending doc ids containing the term. The array is shared and must not be modified.
+     */
+    public int[] postings(int ordinal) {
+        return postings[ordinal];
+    }
+
+    /**
+     * @param ordinal term ordinal as returned by {@link #ordinal(String)}
+     * @return weighted term frequencies, parallel to {@link #postings(int)}. The array is shared and must not be modified.
+     */
+    public int[] frequencies(int ordinal) {
+        return frequencies[ordinal];
+    }
+
+    public int docFreq(int ordinal) {
+        return postings[ordinal].length;
+    }
+
+    /**
+     * @return {@link Bm25#lengthNorm(int, float)} of the document
+     */
+    public float lengthNorm(int doc) {
+        return lengthNorms[doc];
+    }
+
+    /**
+     * @return the average document length the length norms were computed with
+     */
+    public float avgDocLength() {
+        return avgDocLength;
+    }
+
+    /**
+     * @return the largest {@link Bm25#tf(int, float)} of the term over all its documents
+     */
+    public float maxTermScore(int ordinal) {
+        return maxTermScores[ordinal];
+    }
+
+    public int sellerCount() {
+        return sellerIds.length;
+    }
+
+    /**
+     * @return the seller's ordinal, or a negative value if no document of the index has the seller
+     */
+    public int sellerOrdinal(String sellerId) {
+        return Arrays.binarySearch(sellerIds, sellerId);
+    }
+
+    public String sellerId(int sellerOrdinal) {
+        return sellerIds[sellerOrdinal];
+    }
+
+    public String sellerName(int sellerOrdinal) {
+        return sellerNames[sellerOrdinal];
+    }
+
+    /**
+     * @return the documents of the seller
+     */
+    public RoaringDocSet sellerDocs(int sellerOrdinal) {
+        return sellerDocs[sellerOrdinal];
+    }
+
+    /**
+     * @return the doc ids sorted by product id, for {@link IndexFileWriter}. Must not be modified.
+     */
+    int[] docsById() {
+        return docsById;
+    }
+
+    /**
+     * @return the ordinals of terms that occur in product names. Must not be modified.
+     */
+    BitSet nameTerms() {
+        return nameTerms;
+    }
+}
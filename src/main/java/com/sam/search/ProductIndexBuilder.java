@@ -0,0 +1,219 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+import com.sam.model.Seller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects products and turns them into an immutable {@link ProductIndex}.
+ * Not thread safe.
+ * <p/>
+ * <p>By default the added products are kept and become the index's documents. A builder
+ * created with {@code retainDocuments = false} only indexes their text and is built over
+ * a {@link ProductStore} holding the same products in the same order, such as a
+ * memory-mapped catalog, so the heap never holds the whole catalog.
+ * <p/>
+ * <p>Length norms are relative to the built documents' average length, unless
+ * {@link #useAvgDocLength(float)} fixes it so a small segment scores like the index it
+ * is added to.
+ */
+public class ProductIndexBuilder {
+
+    private final List<Product> documents;
+    private final IntArrayList docLengths = new IntArrayList();
+    private final List<String> ids = new ArrayList<String>();
+    private final Map<String, TermPostings> postings = new HashMap<String, TermPostings>();
+    private final Map<String, SellerDocs> sellers = new HashMap<String, SellerDocs>();
+    private long totalLength;
+    private float avgDocLength;
+
+    public ProductIndexBuilder() {
+        this(true);
+    }
+
+    public ProductIndexBuilder(boolean retainDocuments) {
+        this.documents = retainDocuments ? new ArrayList<Product>() : null;
+    }
+
+    public ProductIndexBuilder add(Product product) {
+        int doc = docLengths.size();
+        if (documents != null) {
+            documents.add(product);
+        }
+        ids.add(product.getId());
+        addSeller(doc, product.getSeller());
+        int length = Bm25.NAME_WEIGHT * addTerms(doc, product.getProductName(), Bm25.NAME_WEIGHT, true)
+                + addTerms(doc, product.getDescription(), 1, false);
+        docLengths.add(length);
+        totalLength += length;
+        return this;
+    }
+
+    public ProductIndexBuilder addAll(Iterable<Product> products) {
+        for (Product product : products) {
+            add(product);
+        }
+        return this;
+    }
+
+    /**
+     * @param avgDocLength the average document length of the index this one joins as a segment
+     */
+    public ProductIndexBuilder useAvgDocLength(float avgDocLength) {
+        if (!(avgDocLength > 0f)) {
+            throw new IllegalArgumentException("Average document length must be positive: " + avgDocLength);
+        }
+        this.avgDocLength = avgDocLength;
+        return this;
+    }
+
+    public int size() {
+        return docLengths.size();
+    }
+
+    /**
+     * @return sum of the lengths of the added documents, as used for length norms
+     */
+    long totalLength() {
+        return totalLength;
+    }
+
+    public ProductIndex build() {
+        if (documents == null) {
+            throw new IllegalStateException("Documents were not retained, build over a ProductStore");
+        }
+        return build(new ArrayProductStore(documents.toArray(new Product[documents.size()])));
+    }
+
+    /**
+     * @param store the added products, in the order they were added
+     */
+    public ProductIndex build(ProductStore store) {
+        int maxDoc = docLengths.size();
+        if (store.size() != maxDoc) {
+            throw new IllegalArgumentException("Store holds " + store.size() + " documents, " + maxDoc + " were indexed");
+        }
+        float avgDocLength = this.avgDocLength > 0f ? this.avgDocLength
+                : maxDoc == 0 ? 1f : Math.max(1f, (float) totalLength / maxDoc);
+        float[] lengthNorms = new float[maxDoc];
+        for (int doc = 0; doc < maxDoc; doc++) {
+            lengthNorms[doc] = Bm25.lengthNorm(docLengths.get(doc), avgDocLength);
+        }
+
+        String[] terms = postings.keySet().toArray(new String[postings.size()]);
+        Arrays.sort(terms);
+        int[][] termPostings = new int[terms.length][];
+        int[][] termFrequencies = new int[terms.length][];
+        float[] maxTermScores = new float[terms.length];
+        BitSet nameTerms = new BitSet(terms.length);
+        for (int i = 0; i < terms.length; i++) {
+            TermPostings term = postings.get(terms[i]);
+            if (term.inName) {
+                nameTerms.set(i);
+            }
+            termPostings[i] = term.docs.toArray();
+            termFrequencies[i] = term.freqs.toArray();
+            float max = 0f;
+            for (int j = 0; j < termPostings[i].length; j++) {
+                max = Math.max(max, Bm25.tf(termFrequencies[i][j], lengthNorms[termPostings[i][j]]));
+            }
+            maxTermScores[i] = max;
+        }
+
+        String[] sellerIds = sellers.keySet().toArray(new String[sellers.size()]);
+        Arrays.sort(sellerIds);
+        String[] sellerNames = new String[sellerIds.length];
+        RoaringDocSet[] sellerDocs = new RoaringDocSet[sellerIds.length];
+        for (int i = 0; i < sellerIds.length; i++) {
+            SellerDocs seller = sellers.get(sellerIds[i]);
+            sellerNames[i] = seller.name;
+            sellerDocs[i] = RoaringDocSet.of(seller.docs.toArray(), seller.docs.size());
+        }
+        return new ProductIndex(store, terms, termPostings, termFrequencies,
+                lengthNorms, maxTermScores, avgDocLength, docsById(), sellerIds, sellerNames, sellerDocs, nameTerms);
+    }
+
+    private void addSeller(int doc, Seller seller) {
+        if (seller == null || seller.getSellerId() == null) {
+            return;
+        }
+        SellerDocs docs = sellers.get(seller.getSellerId());
+        if (docs == null) {
+            docs = new SellerDocs(seller.getSellerName());
+            sellers.put(seller.getSellerId(), docs);
+        }
+        docs.docs.add(doc);
+    }
+
+    /**
+     * @return the doc ids of the products that have an id, sorted by that id
+     */
+    private int[] docsById() {
+        Integer[] docs = new Integer[ids.size()];
+        int count = 0;
+        for (int doc = 0; doc < docs.length; doc++) {
+            if (ids.get(doc) != null) {
+                docs[count++] = doc;
+            }
+        }
+        Arrays.sort(docs, 0, count, new Comparator<Integer>() {
+            public int compare(Integer doc1, Integer doc2) {
+                return ids.get(doc1).compareTo(ids.get(doc2));
+            }
+        });
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = docs[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the number of tokens in the text
+     */
+    private int addTerms(int doc, String text, int weight, boolean name) {
+        List<String> tokens = Tokenizer.tokenize(text);
+        for (String token : tokens) {
+            TermPostings term = postings.get(token);
+            if (term == null) {
+                term = new TermPostings();
+                postings.put(token, term);
+            }
+            term.add(doc, weight);
+            term.inName |= name;
+        }
+        return tokens.size();
+    }
+
+    private static final class SellerDocs {
+        final String name;
+        final IntArrayList docs = new IntArrayList();
+
+        SellerDocs(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class TermPostings {
+        final IntArrayList docs = new IntArrayList();
+        final IntArrayList freqs = new IntArrayList();
+        boolean inName;
+
+        void add(int doc, int weight) {
+            // docs are added in ascending order, so a repeated term only needs checking against the tail
+            if (docs.isEmpty() || docs.last() != doc) {
+                docs.add(doc);
+                freqs.add(weight);
+            } else {
+                freqs.addToLast(weight);
+            }
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ranks products against a free text query with {@link Bm25}.
+ * <p/>
+ * <p>A product matches when it contains any query term. Only the best
+ * {@code offset + limit} documents are kept, in a fixed size {@link TopDocsCollector},
+ * and the WAND algorithm uses per-term score upper bounds to skip every document that
+ * could not beat the current worst entry of a full heap, so common terms do not force
+ * scoring the whole catalog.
+ * <p/>
+ * <p>The segments of an {@link IndexSnapshot}, shards of the base index and small
+ * segments of recent changes alike, are searched one after the other, or in parallel
+ * with a {@link ForkJoinPool}. Each segment collects its own top hits; they all
+ * publish the worst score of their full heap to each other, so every segment skips
+ * what can no longer make the overall top, and a k-way merge of their sorted hits
+ * gives the page. Inverse document frequencies are computed over the whole snapshot,
+ * which makes a product score the same whichever segment holds it.
+ * <p/>
+ * <p>A seller filter is pushed down into WAND: a candidate that is not a document of
+ * one of the sellers moves the cursors straight to the next one that is, using the
+ * sellers' {@link RoaringDocSet}s. Seller facets count, per seller, the intersection
+ * of its documents with the bit set of every hit of the query. The counts ignore the
+ * seller filter, so a client filtering on one seller still sees how many hits the
+ * others have.
+ * <p/>
+ * <p>A fuzzy query also matches product name terms within one edit of a query term of
+ * three to five characters, or two edits of a longer one. {@link FuzzyTerms} finds them
+ * in each segment's dictionary, and each becomes one more query term whose score is
+ * discounted by its distance to what was typed.
+ */
+public class ProductSearcher {
+
+    /**
+     * Key of the seller counts in {@link SearchResult#getFacets()}.
+     */
+    public static final String SELLER_FACET = "seller";
+
+    /**
+     * Maximum number of indexed terms one query term expands to in a fuzzy query. Each
+     * becomes a cursor, and WAND slows down with many of them.
+     */
+    static final int MAX_EXPANSIONS = 10;
+
+    private final IndexSnapshot snapshot;
+    private final ForkJoinPool pool;
+
+    public ProductSearcher(ProductIndex index) {
+        this(IndexSnapshot.of(index));
+    }
+
+    public ProductSearcher(IndexSnapshot snapshot) {
+        this(snapshot, null);
+    }
+
+    /**
+     * @param pool runs the segments of a query in parallel, or null to search them in
+     *             the calling thread
+     */
+    public ProductSearcher(IndexSnapshot snapshot, ForkJoinPool pool) {
+        this.snapshot = snapshot;
+        this.pool = pool;
+    }
+
+    /**
+     * @param query  free text query, tokenized with {@link Tokenizer}
+     * @param offset number of top hits to skip
+     * @param limit  maximum number of products to return
+     * @return the requested page of products, best first
+     */
+    public SearchResult search(String query, int offset, int limit) {
+        return search(query, null, false, 0, offset, limit);
+    }
+
+    /**
+     * @param query      free text query, tokenized with {@link Tokenizer}
+     * @param sellerIds  only products of these sellers are returned, null or empty for all
+     * @param fuzzy      whether query terms also match misspelt product name terms
+     * @param facetLimit number of seller facets to return, 0 for none. Counting them makes
+     *                   the total hit count exact.
+     * @param offset     number of top hits to skip
+     * @param limit      maximum number of products to return
+     * @return the requested page of products, best first
+     */
+    public SearchResult search(String query, Collection<String> sellerIds, boolean fuzzy, int facetLimit,
+                               int offset, int limit) {
+        Map<String, Float> boosts = fuzzy ? expand(Tokenizer.tokenize(query)) : exact(Tokenizer.tokenize(query));
+        String[] terms = boosts.keySet().toArray(new String[boosts.size()]);
+        int segmentCount = snapshot.segmentCount();
+        int[][] ordinals = new int[segmentCount][terms.length];
+        float[] idfs = new float[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            int docFreq = 0;
+            for (int s = 0; s < segmentCount; s++) {
+                ProductIndex index = snapshot.segment(s).index;
+                ordinals[s][t] = index.ordinal(terms[t]);
+                if (ordinals[s][t] >= 0) {
+                    docFreq += index.docFreq(ordinals[s][t]);
+                }
+            }
+            idfs[t] = boosts.get(terms[t]) * Bm25.idf(docFreq, snapshot.maxDoc());
+        }
+
+        boolean filtered = sellerIds != null && !sellerIds.isEmpty();
+        Execution execution = new Execution(ordinals, idfs, filtered ? sellerIds : null, facetLimit, offset + limit);
+        Partial[] partials;
+        if (pool != null && segmentCount > 1) {
+            partials = new Partial[segmentCount];
+            pool.invoke(new SegmentTask(execution, partials, 0, segmentCount));
+        } else {
+            partials = new Partial[]{execution.search(0, segmentCount)};
+        }
+
+        Hits hits = new Hits();
+        Map<String, FacetCount> sellerCounts = new HashMap<String, FacetCount>();
+        for (Partial partial : partials) {
+            hits.add(partial.hits);
+            addCounts(sellerCounts, partial.sellerCounts);
+        }
+        Map<String, List<FacetCount>> facets = null;
+        if (facetLimit > 0) {
+            facets = new LinkedHashMap<String, List<FacetCount>>();
+            facets.put(SELLER_FACET, topFacets(sellerCounts, facetLimit));
+            hits.matched = filtered ? countOf(sellerCounts, sellerIds) : hits.total;
+            hits.exact = true;
+        }
+
+        int[] docs = new int[offset + limit];
+        int count = mergeTopDocs(partials, docs);
+        List<Product> products = new ArrayList<Product>(Math.max(0, count - offset));
+        for (int i = offset; i < count; i++) {
+            products.add(snapshot.document(docs[i]));
+        }
+        return new SearchResult(query, hits.matched, hits.exact, products, facets);
+    }
+
+    private static Map<String, Float> exact(List<String> tokens) {
+        Map<String, Float> boosts = new LinkedHashMap<String, Float>();
+        for (String token : tokens) {
+            boosts.put(token, 1f);
+        }
+        return boosts;
+    }
+
+    /**
+     * @return every query term and the terms it expands to, with the factor their scores
+     * are multiplied by: 1 for the query terms and {@code 1 - edits / length} for the
+     * others, where length is that of the shorter of the two terms
+     */
+    private Map<String, Float> expand(List<String> tokens) {
+        Map<String, Float> boosts = new LinkedHashMap<String, Float>();
+        for (String token : tokens) {
+            final Map<String, Integer> distances = new HashMap<String, Integer>();
+            distances.put(token, 0);
+            int maxEdits = maxEdits(token);
+            if (maxEdits > 0) {
+                for (int s = 0; s < snapshot.segmentCount(); s++) {
+                    snapshot.segment(s).index.collectFuzzyNameTerms(token, maxEdits, distances);
+                }
+            }
+            // closest first, then the most common, the likelier meant
+            final Map<String, Integer> docFreqs = new HashMap<String, Integer>();
+            for (String term : distances.keySet()) {
+                docFreqs.put(term, docFreq(term));
+            }
+            List<String> closest = new ArrayList<String>(distances.keySet());
+            Collections.sort(closest, new Comparator<String>() {
+                public int compare(String term1, String term2) {
+                    int cmp = distances.get(term1).compareTo(distances.get(term2));
+                    if (cmp == 0) {
+                        cmp = docFreqs.get(term2).compareTo(docFreqs.get(term1));
+                    }
+                    return cmp != 0 ? cmp : term1.compareTo(term2);
+                }
+            });
+            for (String term : closest.subList(0, Math.min(closest.size(), MAX_EXPANSIONS))) {
+                float boost = 1f - (float) distances.get(term) / Math.min(token.length(), term.length());
+                Float known = boosts.get(term);
+                if (known == null || known < boost) {
+                    boosts.put(term, boost);
+                }
+            }
+        }
+        return boosts;
+    }
+
+    private int docFreq(String term) {
+        int docFreq = 0;
+        for (int s = 0; s < snapshot.segmentCount(); s++) {
+            ProductIndex index = snapshot.segment(s).index;
+            int ordinal = index.ordinal(term);
+            if (ordinal >= 0) {
+                docFreq += index.docFreq(ordinal);
+            }
+        }
+        return docFreq;
+    }
+
+    /**
+     * @return the edits a misspelling of the term may have, short terms leave little room for typos
+     */
+    static int maxEdits(String term) {
+        if (term.length() < 3) {
+            return 0;
+        }
+        return term.length() < 6 ? 1 : 2;
+    }
+
+    private static void searchSegment(IndexSnapshot.Segment segment, int docBase, PostingsCursor[] cursors,
+                                      RoaringDocSet[] filter, TopDocsCollector collector, Hits hits,
+                                      MinCompetitiveScore minScore) {
+        ProductIndex index = segment.index;
+        int count = cursors.length;
+        while (count > 0) {
+            sortByDoc(cursors, count);
+            while (count > 0 && cursors[count - 1].doc() == PostingsCursor.NO_MORE_DOCS) {
+                count--;
+            }
+            if (count == 0) {
+                break;
+            }
+
+            // a later document has to beat this segment's heap, but only match the other
+            // segments' worst: on a tie it may still win by a lower doc id
+            float threshold = collector.threshold();
+            float minCompetitive = minScore.get();
+            int pivot = -1;
+            float upperBound = 0f;
+            for (int i = 0; i < count; i++) {
+                upperBound += cursors[i].maxScore();
+                if (upperBound > threshold && upperBound >= minCompetitive) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                // even a document containing every remaining term cannot enter the heap
+                hits.exact = false;
+                break;
+            }
+
+            int pivotDoc = cursors[pivot].doc();
+            if (filter != null) {
+                int target = nextDoc(filter, pivotDoc);
+                if (target != pivotDoc) {
+                    // no document between the pivot and the target passes the filter
+                    for (int i = 0; i < count && cursors[i].doc() < target; i++) {
+                        cursors[i].advance(target);
+                    }
+                    continue;
+                }
+            }
+            if (cursors[0].doc() == pivotDoc) {
+                boolean live = segment.isLive(pivotDoc);
+                float lengthNorm = index.lengthNorm(pivotDoc);
+                float score = 0f;
+                for (int i = 0; i < count && cursors[i].doc() == pivotDoc; i++) {
+                    if (live) {
+                        score += cursors[i].score(lengthNorm);
+                    }
+                    cursors[i].next();
+                }
+                if (live) {
+                    hits.matched++;
+                    collector.collect(docBase + pivotDoc, score);
+                    if (collector.isFull()) {
+                        minScore.raise(collector.threshold());
+                    }
+                }
+            } else {
+                for (int i = 0; i < pivot; i++) {
+                    if (cursors[i].doc() < pivotDoc) {
+                        cursors[i].advance(pivotDoc);
+                        hits.exact = false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the documents of each of the sellers the segment has
+     */
+    private static RoaringDocSet[] sellerFilter(ProductIndex index, Collection<String> sellerIds) {
+        List<RoaringDocSet> sets = new ArrayList<RoaringDocSet>(sellerIds.size());
+        for (String sellerId : new HashSet<String>(sellerIds)) {
+            int ordinal = sellerId == null ? -1 : index.sellerOrdinal(sellerId);
+            if (ordinal >= 0) {
+                sets.add(index.sellerDocs(ordinal));
+            }
+        }
+        return sets.toArray(new RoaringDocSet[sets.size()]);
+    }
+
+    private static int nextDoc(RoaringDocSet[] filter, int target) {
+        int next = PostingsCursor.NO_MORE_DOCS;
+        for (RoaringDocSet sellerDocs : filter) {
+            next = Math.min(next, sellerDocs.nextDoc(target));
+        }
+        return next;
+    }
+
+    /**
+     * Adds the segment's live hits per seller to the counts. The hits are every document
+     * containing a query term, marked in a bit set straight from the postings.
+     */
+    private static void countSellers(IndexSnapshot.Segment segment, int[] ordinals, Map<String, FacetCount> counts,
+                                     Hits hits) {
+        ProductIndex index = segment.index;
+        long[] bits = new long[(index.maxDoc() + 63) >>> 6];
+        boolean any = false;
+        for (int ordinal : ordinals) {
+            if (ordinal >= 0) {
+                for (int doc : index.postings(ordinal)) {
+                    bits[doc >>> 6] |= 1L << doc;
+                }
+                any = true;
+            }
+        }
+        if (!any) {
+            return;
+        }
+        segment.clearDeleted(bits);
+        for (long word : bits) {
+            hits.total += Long.bitCount(word);
+        }
+        for (int seller = 0; seller < index.sellerCount(); seller++) {
+            int count = index.sellerDocs(seller).andCardinality(bits);
+            if (count > 0) {
+                FacetCount facet = counts.get(index.sellerId(seller));
+                if (facet == null) {
+                    counts.put(index.sellerId(seller), new FacetCount(index.sellerId(seller),
+                            index.sellerName(seller), count));
+                } else {
+                    facet.setCount(facet.getCount() + count);
+                }
+            }
+        }
+    }
+
+    private static void addCounts(Map<String, FacetCount> counts, Map<String, FacetCount> more) {
+        for (FacetCount facet : more.values()) {
+            FacetCount known = counts.get(facet.getValue());
+            if (known == null) {
+                counts.put(facet.getValue(), facet);
+            } else {
+                known.setCount(known.getCount() + facet.getCount());
+            }
+        }
+    }
+
+    /**
+     * Merges the partial results, each sorted best first, with a heap of their heads.
+     *
+     * @param docs receives the best documents, as many as fit
+     * @return the number of documents written
+     */
+    private static int mergeTopDocs(Partial[] partials, int[] docs) {
+        int[] heap = new int[partials.length];
+        int[] next = new int[partials.length];
+        int heapSize = 0;
+        for (int p = 0; p < partials.length; p++) {
+            if (partials[p].count > 0) {
+                heap[heapSize++] = p;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            downHeap(heap, heapSize, i, partials, next);
+        }
+        int count = 0;
+        while (count < docs.length && heapSize > 0) {
+            int best = heap[0];
+            docs[count++] = partials[best].docs[next[best]++];
+            if (next[best] == partials[best].count) {
+                heap[0] = heap[--heapSize];
+            }
+            downHeap(heap, heapSize, 0, partials, next);
+        }
+        return count;
+    }
+
+    private static void downHeap(int[] heap, int size, int i, Partial[] partials, int[] next) {
+        int partial = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && ranksAbove(heap[child + 1], heap[child], partials, next)) {
+                child++;
+            }
+            if (!ranksAbove(heap[child], partial, partials, next)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = partial;
+    }
+
+    private static boolean ranksAbove(int partial1, int partial2, Partial[] partials, int[] next) {
+        Partial first = partials[partial1];
+        Partial second = partials[partial2];
+        return TopDocsCollector.greater(first.docs[next[partial1]], first.scores[next[partial1]],
+                second.docs[next[partial2]], second.scores[next[partial2]]);
+    }
+
+    private static List<FacetCount> topFacets(Map<String, FacetCount> counts, int limit) {
+        List<FacetCount> facets = new ArrayList<FacetCount>(counts.values());
+        Collections.sort(facets, new Comparator<FacetCount>() {
+            public int compare(FacetCount facet1, FacetCount facet2) {
+                if (facet1.getCount() != facet2.getCount()) {
+                    return facet1.getCount() > facet2.getCount() ? -1 : 1;
+                }
+                return facet1.getValue().compareTo(facet2.getValue());
+            }
+        });
+        return facets.size() > limit ? new ArrayList<FacetCount>(facets.subList(0, limit)) : facets;
+    }
+
+    private static int countOf(Map<String, FacetCount> counts, Collection<String> sellerIds) {
+        int count = 0;
+        for (String sellerId : new HashSet<String>(sellerIds)) {
+            FacetCount facet = counts.get(sellerId);
+            if (facet != null) {
+                count += facet.getCount();
+            }
+        }
+        return count;
+    }
+
+    private PostingsCursor[] cursorsFor(int segment, int[] ordinals, float[] idfs) {
+        ProductIndex index = snapshot.segment(segment).index;
+        List<PostingsCursor> cursors = new ArrayList<PostingsCursor>(ordinals.length);
+        for (int t = 0; t < ordinals.length; t++) {
+            int ordinal = ordinals[t];
+            if (ordinal >= 0) {
+                cursors.add(new PostingsCursor(t, index.postings(ordinal), index.frequencies(ordinal),
+                        idfs[t], index.maxTermScore(ordinal)));
+            }
+        }
+        return cursors.toArray(new PostingsCursor[cursors.size()]);
+    }
+
+    /**
+     * Insertion sort: queries have a handful of terms and the cursors are nearly sorted
+     * between iterations. Cursors on the same document are ordered by term, so its score
+     * is summed in the same order, to the same bits, however the segment was searched.
+     */
+    private static void sortByDoc(PostingsCursor[] cursors, int count) {
+        for (int i = 1; i < count; i++) {
+            PostingsCursor cursor = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && (cursors[j].doc() > cursor.doc()
+                    || cursors[j].doc() == cursor.doc() && cursors[j].term() > cursor.term())) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = cursor;
+        }
+    }
+
+    private static final class Hits {
+        int matched;
+        /**
+         * Hits before the seller filter, only counted for facets.
+         */
+        int total;
+        boolean exact = true;
+
+        void add(Hits other) {
+            matched += other.matched;
+            total += other.total;
+            exact &= other.exact;
+        }
+    }
+
+    /**
+     * A query prepared against the snapshot, run over any range of its segments.
+     */
+    private final class Execution {
+        final int[][] ordinals;
+        final float[] idfs;
+        /**
+         * Null when not filtering.
+         */
+        final Collection<String> sellerIds;
+        final int facetLimit;
+        final int size;
+        final MinCompetitiveScore minScore = new MinCompetitiveScore();
+
+        Execution(int[][] ordinals, float[] idfs, Collection<String> sellerIds, int facetLimit, int size) {
+            this.ordinals = ordinals;
+            this.idfs = idfs;
+            this.sellerIds = sellerIds;
+            this.facetLimit = facetLimit;
+            this.size = size;
+        }
+
+        Partial search(int from, int to) {
+            TopDocsCollector collector = new TopDocsCollector(size);
+            Partial partial = new Partial();
+            for (int s = from; s < to; s++) {
+                IndexSnapshot.Segment segment = snapshot.segment(s);
+                RoaringDocSet[] filter = sellerIds != null ? sellerFilter(segment.index, sellerIds) : null;
+                if (filter == null || filter.length > 0) {
+                    searchSegment(segment, snapshot.docBase(s), cursorsFor(s, ordinals[s], idfs), filter, collector,
+                            partial.hits, minScore);
+                }
+                if (facetLimit > 0) {
+                    countSellers(segment, ordinals[s], partial.sellerCounts, partial.hits);
+                }
+            }
+            partial.docs = new int[collector.size()];
+            partial.scores = new float[collector.size()];
+            partial.count = collector.drainSorted(partial.docs, partial.scores);
+            return partial;
+        }
+    }
+
+    /**
+     * Searches a range of segments by splitting it in halves until each task has one.
+     */
+    private static final class SegmentTask extends RecursiveAction {
+        private final Execution execution;
+        private final Partial[] partials;
+        private final int from;
+        private final int to;
+
+        SegmentTask(Execution execution, Partial[] partials, int from, int to) {
+            this.execution = execution;
+            this.partials = partials;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                partials[from] = execution.search(from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SegmentTask(execution, partials, from, middle),
+                        new SegmentTask(execution, partials, middle, to));
+            }
+        }
+    }
+
+    /**
+     * What one run of segments found: its best hits sorted best first, its hit counts
+     * and seller counts.
+     */
+    private static final class Partial {
+        final Hits hits = new Hits();
+        final Map<String, FacetCount> sellerCounts = new HashMap<String, FacetCount>();
+        int[] docs;
+        float[] scores;
+        int count;
+    }
+
+    /**
+     * Highest score the segments of a query found a full heap of hits at or above. No
+     * document scoring less can make the overall top, whichever segment holds it.
+     * Scores are never negative, so their bits order like the floats.
+     */
+    private static final class MinCompetitiveScore {
+        private final AtomicInteger bits = new AtomicInteger();
+
+        float get() {
+            return Float.intBitsToFloat(bits.get());
+        }
+
+        void raise(float score) {
+            int raised = Float.floatToIntBits(score);
+            int current = bits.get();
+            while (raised > current && !bits.compareAndSet(current, raised)) {
+                current = bits.get();
+            }
+        }
+    }
+}
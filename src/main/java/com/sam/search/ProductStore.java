@@ -0,0 +1,16 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+
+/**
+ * The documents of a {@link ProductIndex}, addressed by doc id.
+ */
+public interface ProductStore {
+
+    /**
+     * @return number of documents, doc ids range from 0 (inclusive) to this value (exclusive)
+     */
+    int size();
+
+    Product get(int doc);
+}
@@ -0,0 +1,174 @@
+package com.sam.search;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed set of doc ids, laid out like a Roaring bitmap: ids are grouped
+ * into chunks of 65536 by their high 16 bits, and a chunk is stored as a sorted
+ * {@code char[]} of the low 16 bits while it holds at most {@value #ARRAY_MAX} ids, as a
+ * bitmap of 1024 words once it holds more. A sparse chunk costs two bytes per id and a
+ * dense one never more than 8 KB.
+ * <p/>
+ * <p>Supports what faceting and filtering need: intersection cardinality with a dense
+ * hit bit set, where bitmap chunks are counted 64 ids per instruction, and skipping to
+ * the next member, which lets a filter advance postings cursors past non-members.
+ */
+public final class RoaringDocSet {
+
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    static final int ARRAY_MAX = 4096;
+    private static final int CHUNK_WORDS = 1 << 10;
+
+    private final char[] keys;
+    // per chunk exactly one of the two is set
+    private final char[][] arrays;
+    private final long[][] bitmaps;
+    private final int cardinality;
+
+    private RoaringDocSet(char[] keys, char[][] arrays, long[][] bitmaps, int cardinality) {
+        this.keys = keys;
+        this.arrays = arrays;
+        this.bitmaps = bitmaps;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * @param docs   ascending, distinct doc ids
+     * @param length number of ids to take from the array
+     */
+    public static RoaringDocSet of(int[] docs, int length) {
+        int chunks = 0;
+        for (int i = 0; i < length; i++) {
+            if (i == 0 || docs[i] >>> 16 != docs[i - 1] >>> 16) {
+                chunks++;
+            }
+        }
+        char[] keys = new char[chunks];
+        char[][] arrays = new char[chunks][];
+        long[][] bitmaps = new long[chunks][];
+        int chunk = 0;
+        for (int start = 0; start < length; chunk++) {
+            int key = docs[start] >>> 16;
+            int end = start + 1;
+            while (end < length && docs[end] >>> 16 == key) {
+                end++;
+            }
+            keys[chunk] = (char) key;
+            if (end - start <= ARRAY_MAX) {
+                char[] array = new char[end - start];
+                for (int i = start; i < end; i++) {
+                    array[i - start] = (char) docs[i];
+                }
+                arrays[chunk] = array;
+            } else {
+                long[] bitmap = new long[CHUNK_WORDS];
+                for (int i = start; i < end; i++) {
+                    int low = docs[i] & 0xFFFF;
+                    bitmap[low >>> 6] |= 1L << low;
+                }
+                bitmaps[chunk] = bitmap;
+            }
+            start = end;
+        }
+        return new RoaringDocSet(keys, arrays, bitmaps, length);
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean contains(int doc) {
+        int chunk = Arrays.binarySearch(keys, (char) (doc >>> 16));
+        if (chunk < 0) {
+            return false;
+        }
+        char low = (char) doc;
+        if (arrays[chunk] != null) {
+            return Arrays.binarySearch(arrays[chunk], low) >= 0;
+        }
+        return (bitmaps[chunk][low >>> 6] & 1L << low) != 0;
+    }
+
+    /**
+     * @return the smallest member not smaller than {@code target}, or {@link #NO_MORE_DOCS}
+     */
+    public int nextDoc(int target) {
+        int key = target >>> 16;
+        int chunk = Arrays.binarySearch(keys, (char) key);
+        int low = target & 0xFFFF;
+        if (chunk < 0) {
+            chunk = -chunk - 1;
+            low = 0;
+        }
+        for (; chunk < keys.length; chunk++, low = 0) {
+            int base = keys[chunk] << 16;
+            char[] array = arrays[chunk];
+            if (array != null) {
+                int pos = Arrays.binarySearch(array, (char) low);
+                if (pos < 0) {
+                    pos = -pos - 1;
+                }
+                if (pos < array.length) {
+                    return base | array[pos];
+                }
+            } else {
+                long[] bitmap = bitmaps[chunk];
+                int word = low >>> 6;
+                long bits = bitmap[word] & -1L << low;
+                while (true) {
+                    if (bits != 0) {
+                        return base | word << 6 | Long.numberOfTrailingZeros(bits);
+                    }
+                    if (++word == CHUNK_WORDS) {
+                        break;
+                    }
+                    bits = bitmap[word];
+                }
+            }
+        }
+        return NO_MORE_DOCS;
+    }
+
+    /**
+     * @param bits dense bit set over doc ids, bit {@code doc & 63} of word {@code doc >>> 6};
+     *             it may be shorter than this set's largest member
+     * @return the number of members whose bit is set
+     */
+    public int andCardinality(long[] bits) {
+        int count = 0;
+        for (int chunk = 0; chunk < keys.length; chunk++) {
+            int firstWord = keys[chunk] << 10;
+            if (firstWord >= bits.length) {
+                break;
+            }
+            char[] array = arrays[chunk];
+            if (array != null) {
+                for (char low : array) {
+                    int word = firstWord + (low >>> 6);
+                    if (word < bits.length && (bits[word] & 1L << low) != 0) {
+                        count++;
+                    }
+                }
+            } else {
+                long[] bitmap = bitmaps[chunk];
+                int words = Math.min(CHUNK_WORDS, bits.length - firstWord);
+                for (int i = 0; i < words; i++) {
+                    count += Long.bitCount(bitmap[i] & bits[firstWord + i]);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return approximate heap footprint of the chunks, in bytes
+     */
+    public long sizeInBytes() {
+        long size = 2L * keys.length;
+        for (int chunk = 0; chunk < keys.length; chunk++) {
+            size += arrays[chunk] != null ? 2L * arrays[chunk].length : 8L * CHUNK_WORDS;
+        }
+        return size;
+    }
+}
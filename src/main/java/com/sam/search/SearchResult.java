@@ -0,0 +1,83 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response body of the product search resource.
+ */
+public class SearchResult implements Serializable {
+
+    private String query;
+    private int totalHits;
+    private boolean totalHitsExact;
+    private List<Product> products;
+    private Map<String, List<FacetCount>> facets;
+
+    public SearchResult() {
+    }
+
+    public SearchResult(String query, int totalHits, boolean totalHitsExact, List<Product> products) {
+        this.query = query;
+        this.totalHits = totalHits;
+        this.totalHitsExact = totalHitsExact;
+        this.products = products;
+    }
+
+    public SearchResult(String query, int totalHits, boolean totalHitsExact, List<Product> products,
+                        Map<String, List<FacetCount>> facets) {
+        this(query, totalHits, totalHitsExact, products);
+        this.facets = facets;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public void setTotalHits(int totalHits) {
+        this.totalHits = totalHits;
+    }
+
+    /**
+     * @return false when documents were skipped without being scored, in which case
+     * {@link #getTotalHits()} is a lower bound
+     */
+    public boolean isTotalHitsExact() {
+        return totalHitsExact;
+    }
+
+    public void setTotalHitsExact(boolean totalHitsExact) {
+        this.totalHitsExact = totalHitsExact;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    public void setProducts(List<Product> products) {
+        this.products = products;
+    }
+
+    /**
+     * @return per facet, like {@code "seller"}, the values with the most matching products
+     * first, or null if no facets were requested
+     */
+    public Map<String, List<FacetCount>> getFacets() {
+        return facets;
+    }
+
+    public void setFacets(Map<String, List<FacetCount>> facets) {
+        this.facets = facets;
+    }
+}
@@ -0,0 +1,106 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+
+/**
+ * Collects products into {@code shardCount} {@link ProductIndexBuilder}s, round robin,
+ * and builds one {@link ProductIndex} per shard. Not thread safe.
+ * <p/>
+ * <p>Every shard is built with the average document length of all the products, so a
+ * product scores the same whichever shard holds it and the shards' hits can be merged
+ * by score. Round robin keeps the shards within one product of each other in size.
+ */
+public class ShardedIndexBuilder {
+
+    private final ProductIndexBuilder[] shards;
+    private int size;
+
+    public ShardedIndexBuilder(int shardCount) {
+        this(shardCount, true);
+    }
+
+    /**
+     * @param retainDocuments see {@link ProductIndexBuilder#ProductIndexBuilder(boolean)}
+     */
+    public ShardedIndexBuilder(int shardCount, boolean retainDocuments) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one shard is needed: " + shardCount);
+        }
+        this.shards = new ProductIndexBuilder[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new ProductIndexBuilder(retainDocuments);
+        }
+    }
+
+    public ShardedIndexBuilder add(Product product) {
+        shards[size++ % shards.length].add(product);
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ProductIndex[] build() {
+        useCommonAvgDocLength();
+        ProductIndex[] indexes = new ProductIndex[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            indexes[i] = shards[i].build();
+        }
+        return indexes;
+    }
+
+    /**
+     * @param store the added products, in the order they were added; each shard serves
+     *              its documents from a view of the products it was given
+     */
+    public ProductIndex[] build(ProductStore store) {
+        if (store.size() != size) {
+            throw new IllegalArgumentException("Store holds " + store.size() + " documents, " + size + " were indexed");
+        }
+        useCommonAvgDocLength();
+        ProductIndex[] indexes = new ProductIndex[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            indexes[i] = shards[i].build(new ShardStore(store, i, shards.length));
+        }
+        return indexes;
+    }
+
+    private void useCommonAvgDocLength() {
+        if (size == 0) {
+            return;
+        }
+        long totalLength = 0;
+        for (ProductIndexBuilder shard : shards) {
+            totalLength += shard.totalLength();
+        }
+        float avgDocLength = Math.max(1f, (float) totalLength / size);
+        for (ProductIndexBuilder shard : shards) {
+            shard.useAvgDocLength(avgDocLength);
+        }
+    }
+
+    /**
+     * The products one shard was given out of a store holding all of them: every
+     * {@code shardCount}-th one, starting at the shard's number.
+     */
+    static final class ShardStore implements ProductStore {
+        private final ProductStore store;
+        private final int shard;
+        private final int shardCount;
+
+        ShardStore(ProductStore store, int shard, int shardCount) {
+            this.store = store;
+            this.shard = shard;
+            this.shardCount = shardCount;
+        }
+
+        public int size() {
+            return (store.size() - shard + shardCount - 1) / shardCount;
+        }
+
+        public Product get(int doc) {
+            return store.get(doc * shardCount + shard);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.sam.search;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable prefix completion index over product names.
+ * <p/>
+ * <p>Normalized names are stored as a radix trie (edges labelled with byte strings)
+ * that is serialized into a single {@code byte[]}. Every node carries the ids of the
+ * best {@link SuggestIndexBuilder#TOP_N} names below it, so a lookup is one walk down
+ * the trie followed by decoding at most that many names; it never enumerates a subtree.
+ * Display names live in one UTF-8 heap addressed by an {@code int[]} offset table.
+ * <p/>
+ * <p>Node layout, all integers are unsigned varints unless noted:
+ * <pre>
+ *   labelLength, label bytes,
+ *   topCount, topCount x name id,
+ *   childCount, childCount x first label byte (1 byte), childCount x child offset (4 bytes)
+ * </pre>
+ */
+public final class SuggestIndex {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final SuggestIndex EMPTY = new SuggestIndexBuilder().build();
+
+    private final byte[] trie;
+    private final int root;
+    private final byte[] names;
+    private final int[] nameOffsets;
+
+    SuggestIndex(byte[] trie, int root, byte[] names, int[] nameOffsets) {
+        this.trie = trie;
+        this.root = root;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+    }
+
+    /**
+     * @param prefix what the user typed so far
+     * @param limit  maximum number of completions, at most {@link SuggestIndexBuilder#TOP_N}
+     * @return product names starting with the prefix, best first
+     */
+    public List<String> suggest(String prefix, int limit) {
+        String normalized = normalize(prefix, false);
+        if (normalized.isEmpty() || limit <= 0 || nameOffsets.length == 1) {
+            return Collections.emptyList();
+        }
+        int node = find(normalized.getBytes(UTF_8));
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        int[] pos = {node};
+        skip(pos, readVarInt(trie, pos));
+        int count = Math.min(readVarInt(trie, pos), limit);
+        List<String> suggestions = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            suggestions.add(name(readVarInt(trie, pos)));
+        }
+        return suggestions;
+    }
+
+    /**
+     * @return number of distinct normalized names
+     */
+    public int size() {
+        return nameOffsets.length - 1;
+    }
+
+    /**
+     * @return approximate number of bytes held by this index
+     */
+    public long sizeInBytes() {
+        return trie.length + names.length + 4L * nameOffsets.length;
+    }
+
+    // the serialized form, for IndexFileWriter; the arrays must not be modified
+
+    byte[] trie() {
+        return trie;
+    }
+
+    int root() {
+        return root;
+    }
+
+    byte[] names() {
+        return names;
+    }
+
+    int[] nameOffsets() {
+        return nameOffsets;
+    }
+
+    /**
+     * @return offset of the node that covers {@code key}, or -1 if no name starts with it
+     */
+    private int find(byte[] key) {
+        int node = root;
+        int matched = 0;
+        int[] pos = new int[1];
+        while (true) {
+            pos[0] = node;
+            int labelLength = readVarInt(trie, pos);
+            int labelStart = pos[0];
+            for (int i = 0; i < labelLength; i++) {
+                if (matched == key.length) {
+                    return node;
+                }
+                if (trie[labelStart + i] != key[matched++]) {
+                    return -1;
+                }
+            }
+            if (matched == key.length) {
+                return node;
+            }
+            pos[0] = labelStart + labelLength;
+            for (int top = readVarInt(trie, pos); top > 0; top--) {
+                readVarInt(trie, pos);
+            }
+            int childCount = readVarInt(trie, pos);
+            int child = indexOf(trie, pos[0], childCount, key[matched]);
+            if (child < 0) {
+                return -1;
+            }
+            node = readInt(trie, pos[0] + childCount + 4 * child);
+        }
+    }
+
+    private String name(int id) {
+        return new String(names, nameOffsets[id], nameOffsets[id + 1] - nameOffsets[id], UTF_8);
+    }
+
+    /**
+     * Lower cases with the root locale and collapses whitespace runs into one space.
+     *
+     * @param trim whether trailing whitespace is dropped, prefixes keep it so that
+     *             "red " only completes names that have a word after "red"
+     */
+    static String normalize(String text, boolean trim) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    sb.append(' ');
+                    pendingSpace = false;
+                }
+                sb.append(c);
+            }
+        }
+        if (pendingSpace && !trim) {
+            sb.append(' ');
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static int indexOf(byte[] trie, int from, int count, byte b) {
+        int low = 0;
+        int high = count - 1;
+        int key = b & 0xFF;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = trie[from + mid] & 0xFF;
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static void skip(int[] pos, int bytes) {
+        pos[0] += bytes;
+    }
+
+    static int readVarInt(byte[] bytes, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    static int readInt(byte[] bytes, int at) {
+        return ((bytes[at] & 0xFF) << 24) | ((bytes[at + 1] & 0xFF) << 16)
+                | ((bytes[at + 2] & 0xFF) << 8) | (bytes[at + 3] & 0xFF);
+    }
+}
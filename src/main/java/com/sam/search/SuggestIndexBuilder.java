@@ -0,0 +1,182 @@
+package com.sam.search;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds a {@link SuggestIndex} from product names. Names are normalized with
+ * {@link SuggestIndex#normalize(String, boolean)}; a name added several times (for
+ * example by different sellers) is stored once and ranks by how often it was added,
+ * then alphabetically. Not thread safe.
+ */
+public class SuggestIndexBuilder {
+
+    /**
+     * Completions precomputed per trie node, and therefore the largest supported limit.
+     */
+    public static final int TOP_N = 10;
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    public SuggestIndexBuilder add(String name) {
+        String key = SuggestIndex.normalize(name, true);
+        if (!key.isEmpty()) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key.getBytes(SuggestIndex.UTF_8), name.trim().replaceAll("\\s+", " "));
+                entries.put(key, entry);
+            }
+            entry.weight++;
+        }
+        return this;
+    }
+
+    public SuggestIndex build() {
+        Entry[] sorted = entries.values().toArray(new Entry[entries.size()]);
+        Arrays.sort(sorted, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return compareUnsigned(a.key, b.key);
+            }
+        });
+
+        // name ids are ranks: lower id means better suggestion, so top-N lists are plain int merges
+        Entry[] ranked = sorted.clone();
+        Arrays.sort(ranked, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return a.weight != b.weight ? b.weight - a.weight : compareUnsigned(a.key, b.key);
+            }
+        });
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        int[] nameOffsets = new int[ranked.length + 1];
+        for (int id = 0; id < ranked.length; id++) {
+            ranked[id].id = id;
+            byte[] display = ranked[id].display.getBytes(SuggestIndex.UTF_8);
+            names.write(display, 0, display.length);
+            nameOffsets[id + 1] = names.size();
+        }
+
+        TrieWriter writer = new TrieWriter(sorted);
+        int root = writer.writeNode(0, sorted.length, 0);
+        return new SuggestIndex(writer.out.toByteArray(), root, names.toByteArray(), nameOffsets);
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static final class Entry {
+        final byte[] key;
+        final String display;
+        int weight;
+        int id;
+
+        Entry(byte[] key, String display) {
+            this.key = key;
+            this.display = display;
+        }
+    }
+
+    /**
+     * Serializes the trie children first, so every child offset is known when its
+     * parent is written. The root is therefore the last node in the array.
+     */
+    private static final class TrieWriter {
+        final Entry[] sorted;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int[] lastTop = new int[0];
+
+        TrieWriter(Entry[] sorted) {
+            this.sorted = sorted;
+        }
+
+        /**
+         * Writes the node for the keys in {@code [from, to)}, which all share their first
+         * {@code depth} bytes, and leaves its top-N name ids in {@link #lastTop}.
+         *
+         * @return the node offset
+         */
+        int writeNode(int from, int to, int depth) {
+            int end = depth;
+            if (to > from) {
+                byte[] first = sorted[from].key;
+                byte[] last = sorted[to - 1].key;
+                int max = Math.min(first.length, last.length);
+                while (end < max && first[end] == last[end]) {
+                    end++;
+                }
+            }
+
+            int[] top = new int[0];
+            int start = from;
+            if (start < to && sorted[start].key.length == end) {
+                top = new int[]{sorted[start].id};
+                start++;
+            }
+            ByteArrayOutputStream childBytes = new ByteArrayOutputStream();
+            int[] childOffsets = new int[256];
+            int childCount = 0;
+            while (start < to) {
+                byte b = sorted[start].key[end];
+                int childEnd = start + 1;
+                while (childEnd < to && sorted[childEnd].key[end] == b) {
+                    childEnd++;
+                }
+                childOffsets[childCount++] = writeNode(start, childEnd, end);
+                childBytes.write(b);
+                top = merge(top, lastTop);
+                start = childEnd;
+            }
+
+            int offset = out.size();
+            byte[] label = to > from ? Arrays.copyOfRange(sorted[from].key, depth, end) : new byte[0];
+            writeVarInt(label.length);
+            out.write(label, 0, label.length);
+            writeVarInt(top.length);
+            for (int id : top) {
+                writeVarInt(id);
+            }
+            writeVarInt(childCount);
+            out.write(childBytes.toByteArray(), 0, childCount);
+            for (int i = 0; i < childCount; i++) {
+                writeInt(childOffsets[i]);
+            }
+            lastTop = top;
+            return offset;
+        }
+
+        private static int[] merge(int[] a, int[] b) {
+            int[] merged = new int[Math.min(TOP_N, a.length + b.length)];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < merged.length; k++) {
+                merged[k] = j >= b.length || (i < a.length && a[i] < b[j]) ? a[i++] : b[j++];
+            }
+            return merged;
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private void writeInt(int value) {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+        }
+    }
+}
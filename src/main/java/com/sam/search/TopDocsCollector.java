@@ -0,0 +1,107 @@
+package com.sam.search;
+
+/**
+ * Keeps the {@code size} best scoring documents in a binary min-heap backed by two
+ * primitive arrays, so collecting allocates nothing after construction. Ties are
+ * broken in favour of the lower doc id, which keeps result order deterministic.
+ */
+final class TopDocsCollector {
+
+    private final int[] docs;
+    private final float[] scores;
+    private int size;
+
+    TopDocsCollector(int capacity) {
+        this.docs = new int[capacity];
+        this.scores = new float[capacity];
+    }
+
+    boolean isFull() {
+        return size == docs.length;
+    }
+
+    /**
+     * @return the score a document has to beat to enter the heap, or 0 while the heap has room
+     */
+    float threshold() {
+        return isFull() ? scores[0] : 0f;
+    }
+
+    void collect(int doc, float score) {
+        if (size < docs.length) {
+            docs[size] = doc;
+            scores[size] = score;
+            upHeap(size++);
+        } else if (size > 0 && greater(doc, score, docs[0], scores[0])) {
+            docs[0] = doc;
+            scores[0] = score;
+            downHeap(0);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Empties the heap into {@code outDocs}/{@code outScores} best first.
+     *
+     * @return the number of documents written
+     */
+    int drainSorted(int[] outDocs, float[] outScores) {
+        int count = size;
+        for (int i = count - 1; i >= 0; i--) {
+            outDocs[i] = docs[0];
+            outScores[i] = scores[0];
+            size--;
+            docs[0] = docs[size];
+            scores[0] = scores[size];
+            downHeap(0);
+        }
+        return count;
+    }
+
+    private void upHeap(int i) {
+        int doc = docs[i];
+        float score = scores[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!greater(docs[parent], scores[parent], doc, score)) {
+                break;
+            }
+            docs[i] = docs[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        docs[i] = doc;
+        scores[i] = score;
+    }
+
+    private void downHeap(int i) {
+        int doc = docs[i];
+        float score = scores[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && greater(docs[child], scores[child], docs[right], scores[right])) {
+                child = right;
+            }
+            if (!greater(doc, score, docs[child], scores[child])) {
+                break;
+            }
+            docs[i] = docs[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        docs[i] = doc;
+        scores[i] = score;
+    }
+
+    /**
+     * @return true if (doc1, score1) ranks above (doc2, score2)
+     */
+    static boolean greater(int doc1, float score1, int doc2, float score2) {
+        return score1 > score2 || (score1 == score2 && doc1 < doc2);
+    }
+}
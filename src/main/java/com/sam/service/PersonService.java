@@ -1,6 +1,7 @@
 package com.sam.service;
 
 import com.sam.dao.PersonDao;
+import com.sam.model.Person;
 
 /**
  * Created by root on 4/8/17.
@@ -8,4 +9,11 @@ import com.sam.dao.PersonDao;
 public interface PersonService {
 
     PersonDao getPersonDao();
+
+    /**
+     * Saves the person, directly or through the write-behind queue if one is configured.
+     *
+     * @return true once the person is committed, false if it is only queued
+     */
+    boolean addPerson(Person person);
 }
@@ -1,6 +1,8 @@
 package com.sam.service;
 
 import com.sam.dao.PersonDao;
+import com.sam.dao.generic.WriteBehindQueue;
+import com.sam.model.Person;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
@@ -11,8 +13,25 @@ public class PersonServiceImpl implements PersonService {
     @Autowired
     private PersonDao personDao;
 
+    private WriteBehindQueue<Person> writeBehind;
+
     public PersonDao getPersonDao() {
         return personDao;
     }
 
+    /**
+     * Queue that {@link #addPerson} hands persons to instead of saving them on the
+     * caller's thread, null (the default) to save synchronously.
+     */
+    public void setWriteBehind(WriteBehindQueue<Person> writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public boolean addPerson(Person person) {
+        if (writeBehind == null) {
+            personDao.add(person);
+            return true;
+        }
+        return writeBehind.write(person);
+    }
 }
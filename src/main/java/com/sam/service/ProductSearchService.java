@@ -0,0 +1,64 @@
+package com.sam.service;
+
+import com.sam.cache.CacheStats;
+import com.sam.dao.ProductDao;
+import com.sam.search.SearchResult;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Answers product queries from an in-memory index that is loaded from the
+ * {@link ProductDao}.
+ */
+public interface ProductSearchService {
+
+    ProductDao getProductDao();
+
+    /**
+     * Ranks products against the query.
+     *
+     * @param query  free text query
+     * @param offset number of top hits to skip, the result window ({@code offset + limit}) is bounded
+     * @param limit  page size, clamped to a sane maximum
+     * @return the requested page, best match first
+     * @throws IllegalArgumentException if the page ends beyond the result window
+     */
+    SearchResult search(String query, int offset, int limit);
+
+    /**
+     * Ranks products against the query among the products of some sellers, optionally
+     * tolerating typos, and counts the hits per seller.
+     *
+     * @param query     free text query
+     * @param sellerIds only products of these sellers are returned, null or empty for all
+     * @param fuzzy     whether query terms also match product names with a typo or two
+     * @param facets    number of seller facets to return, most hits first, 0 for none. The
+     *                  counts ignore the seller filter.
+     * @param offset    number of top hits to skip, the result window ({@code offset + limit}) is bounded
+     * @param limit     page size, clamped to a sane maximum
+     * @return the requested page, best match first, with the seller facets
+     * @throws IllegalArgumentException if the page ends beyond the result window
+     */
+    SearchResult search(String query, Collection<String> sellerIds, boolean fuzzy, int facets, int offset, int limit);
+
+    /**
+     * @return counters of the cache of search results
+     */
+    CacheStats getSearchCacheStats();
+
+    /**
+     * Completes a partially typed product name.
+     *
+     * @param prefix what the user typed so far
+     * @param limit  maximum number of completions
+     * @return product names starting with the prefix, most common first
+     */
+    List<String> suggest(String prefix, int limit);
+
+    /**
+     * Reloads every product through the DAO and atomically replaces the served search
+     * and suggestion indexes.
+     */
+    void rebuildIndex();
+}
@@ -0,0 +1,523 @@
+package com.sam.service;
+
+import com.sam.cache.CacheStats;
+import com.sam.cache.SegmentedLruCache;
+import com.sam.cache.Weigher;
+import com.sam.catalog.CatalogWriter;
+import com.sam.catalog.MappedCatalog;
+import com.sam.concurrent.Loader;
+import com.sam.concurrent.SingleFlight;
+import com.sam.dao.ProductDao;
+import com.sam.dao.generic.ChangeType;
+import com.sam.dao.generic.EntityChangeListener;
+import com.sam.model.Product;
+import com.sam.search.FacetCount;
+import com.sam.search.IncrementalIndexer;
+import com.sam.search.IndexFile;
+import com.sam.search.IndexFileWriter;
+import com.sam.search.IndexSnapshot;
+import com.sam.search.ProductIndex;
+import com.sam.search.ProductSearcher;
+import com.sam.search.SearchResult;
+import com.sam.search.ShardedIndexBuilder;
+import com.sam.search.SuggestIndex;
+import com.sam.search.SuggestIndexBuilder;
+import com.sam.search.Tokenizer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.stream.Stream;
+
+/**
+ * Serves searches from an immutable {@link IndexSnapshot}. Queries read the current
+ * snapshot through a volatile reference, so neither a rebuild nor a refresh blocks them.
+ * <p/>
+ * <p>The service listens to the product DAO's committed writes and hands them to an
+ * {@link IncrementalIndexer}, which makes them searchable within
+ * {@code refreshIntervalMillis}. Suggestions only change with a full rebuild.
+ * <p/>
+ * <p>A rebuild splits the index into {@code shards} shards, by default one per core,
+ * and every query searches the shards and the segments of recent changes in parallel
+ * on a fork-join pool sized to the machine, so a single expensive query uses every
+ * core instead of one.
+ * <p/>
+ * <p>With a {@code catalogFile} configured, a rebuild also writes the products to a
+ * {@link MappedCatalog} and the index serves its documents from there instead of the
+ * heap. With {@code openCatalogOnStart} a restart indexes the existing catalog rather
+ * than reloading the database; it then serves the products as of the last rebuild.
+ * <p/>
+ * <p>With an {@code indexSnapshotFile} as well, a rebuild also saves the index, together
+ * with the latest {@link Product#getUpdatedAt()} it covers, and a restart loads that file
+ * over the catalog instead of indexing anything. Only the products changed since, less
+ * {@code replayOverlapMillis} for transactions that committed late, are then read from
+ * the database and applied like any other update. Products deleted while the node was
+ * down stay searchable until the next rebuild.
+ * <p/>
+ * <p>Results are cached by normalized query and the generation of the snapshot they
+ * were computed from. Every published snapshot has a new generation, so a write makes
+ * the entries of older ones unreachable at no cost; they are never served again and
+ * are the first to be evicted.
+ */
+public class ProductSearchServiceImpl implements ProductSearchService, EntityChangeListener<Product> {
+
+    static final int MAX_LIMIT = 100;
+    static final int LOAD_FETCH_SIZE = 1000;
+    public static final long DEFAULT_REPLAY_OVERLAP_MILLIS = 60 * 1000;
+    /**
+     * Deepest hit that can be requested, this bounds the size of the per-query top-k heap.
+     */
+    static final int MAX_WINDOW = 1000;
+    static final int MAX_FACETS = 100;
+    /**
+     * Default bound of the search result cache, in estimated bytes.
+     */
+    public static final long DEFAULT_SEARCH_CACHE_MAX_WEIGHT = 16L * 1024 * 1024;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    @Autowired
+    private ProductDao productDao;
+
+    private File catalogFile;
+    private boolean openCatalogOnStart;
+    private File indexSnapshotFile;
+    private long replayOverlapMillis = DEFAULT_REPLAY_OVERLAP_MILLIS;
+
+    /**
+     * Ids of the products changed while the changes since a snapshot are replayed, null
+     * otherwise. A replayed row is only applied if no newer change of it was, both
+     * happen while holding the set.
+     */
+    private volatile Set<String> changedDuringReplay;
+
+    private int shards = Runtime.getRuntime().availableProcessors();
+
+    private final IncrementalIndexer indexer = new IncrementalIndexer();
+    private final ForkJoinPool searchPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("product-search-" + thread.getPoolIndex());
+                    return thread;
+                }
+            }, null, false);
+    private volatile SuggestIndex suggestIndex = SuggestIndex.EMPTY;
+    private SegmentedLruCache<SearchKey, SearchResult> searchCache;
+
+    /**
+     * Cache misses for the same query against the same snapshot, e.g. a popular query
+     * right after a refresh, are evaluated once.
+     */
+    private final SingleFlight<SearchKey, SearchResult> searchFlight = new SingleFlight<SearchKey, SearchResult>(
+            new Loader<SearchKey, SearchResult>() {
+                public SearchResult load(SearchKey key) {
+                    SearchResult result = new ProductSearcher(key.snapshot, searchPool).search(key.query, key.sellerIds,
+                            key.fuzzy, key.facets, key.offset, key.limit);
+                    searchCache.put(key.withoutSnapshot(), result);
+                    return result;
+                }
+            });
+
+    public ProductSearchServiceImpl() {
+        setSearchCacheMaxWeight(DEFAULT_SEARCH_CACHE_MAX_WEIGHT);
+    }
+
+    public ProductDao getProductDao() {
+        return productDao;
+    }
+
+    public void setCatalogFile(File catalogFile) {
+        this.catalogFile = catalogFile;
+    }
+
+    public void setOpenCatalogOnStart(boolean openCatalogOnStart) {
+        this.openCatalogOnStart = openCatalogOnStart;
+    }
+
+    /**
+     * @param indexSnapshotFile where rebuilds save the index and restarts load it from,
+     *                          requires a {@code catalogFile}
+     */
+    public void setIndexSnapshotFile(File indexSnapshotFile) {
+        this.indexSnapshotFile = indexSnapshotFile;
+    }
+
+    /**
+     * @param replayOverlapMillis how far before a snapshot's latest change the replay of
+     *                            later changes starts, at least the longest transaction
+     */
+    public void setReplayOverlapMillis(long replayOverlapMillis) {
+        this.replayOverlapMillis = replayOverlapMillis;
+    }
+
+    public void setRefreshIntervalMillis(long refreshIntervalMillis) {
+        indexer.setRefreshIntervalMillis(refreshIntervalMillis);
+    }
+
+    public void setMaxSegments(int maxSegments) {
+        indexer.setMaxSegments(maxSegments);
+    }
+
+    /**
+     * @param shards number of shards the next rebuild splits the index into
+     */
+    public void setShards(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("At least one shard is needed: " + shards);
+        }
+        this.shards = shards;
+    }
+
+    public void setSearchCacheMaxWeight(long maxWeight) {
+        this.searchCache = new SegmentedLruCache<SearchKey, SearchResult>(maxWeight, new SearchResultWeigher());
+    }
+
+    /**
+     * Subscribes to product changes and loads the initial index, from the index snapshot
+     * or the catalog file if configured and present, otherwise from the database.
+     */
+    public void start() {
+        if (indexSnapshotFile != null && catalogFile == null) {
+            throw new IllegalStateException("An indexSnapshotFile requires a catalogFile");
+        }
+        // subscribe first, so no write slips between the load and the subscription
+        productDao.addChangeListener(this);
+        indexer.start();
+        if (indexSnapshotFile != null && indexSnapshotFile.isFile() && catalogFile.isFile() && openSnapshot()) {
+            return;
+        }
+        if (openCatalogOnStart && catalogFile != null && catalogFile.isFile()) {
+            try {
+                indexCatalog(MappedCatalog.open(catalogFile));
+                return;
+            } catch (IOException e) {
+                log.warn("Could not open the product catalog " + catalogFile + ", rebuilding from the database", e);
+            }
+        }
+        rebuildIndex();
+    }
+
+    public void stop() {
+        indexer.stop();
+        searchPool.shutdown();
+    }
+
+    public void onChange(ChangeType type, Product product) {
+        Set<String> changed = changedDuringReplay;
+        if (changed == null) {
+            apply(type, product);
+        } else {
+            synchronized (changed) {
+                changed.add(product.getId());
+                apply(type, product);
+            }
+        }
+    }
+
+    private void apply(ChangeType type, Product product) {
+        if (type == ChangeType.REMOVE) {
+            indexer.delete(product.getId());
+        } else {
+            // the caller keeps its instance and may go on modifying it
+            indexer.update(copyOf(product));
+        }
+    }
+
+    public SearchResult search(String query, int offset, int limit) {
+        return search(query, null, false, 0, offset, limit);
+    }
+
+    public SearchResult search(String query, Collection<String> sellerIds, boolean fuzzy, int facets, int offset,
+                               int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_LIMIT);
+        int from = Math.max(offset, 0);
+        if (from > MAX_WINDOW - pageSize) {
+            throw new IllegalArgumentException(String.format(
+                    "offset + limit must not exceed %d, the deepest hit a search returns", MAX_WINDOW));
+        }
+        Set<String> sellers = sellerIds == null || sellerIds.isEmpty()
+                ? Collections.<String>emptySet() : new TreeSet<String>(sellerIds);
+        SearchKey key = new SearchKey(indexer.snapshot(), normalize(query), sellers, fuzzy,
+                Math.min(Math.max(facets, 0), MAX_FACETS), from, pageSize);
+        SearchResult result = searchCache.getIfPresent(key);
+        if (result == null) {
+            result = searchFlight.get(key);
+        }
+        return withQuery(result, query);
+    }
+
+    public CacheStats getSearchCacheStats() {
+        return searchCache.stats();
+    }
+
+    public List<String> suggest(String prefix, int limit) {
+        return suggestIndex.suggest(prefix, Math.min(limit, SuggestIndexBuilder.TOP_N));
+    }
+
+    public void rebuildIndex() {
+        long start = System.currentTimeMillis();
+        ShardedIndexBuilder indexBuilder = new ShardedIndexBuilder(shards, catalogFile == null);
+        SuggestIndexBuilder suggestBuilder = new SuggestIndexBuilder();
+        indexer.beginRebuild();
+        // read before the products, whatever changes later is replayed after a restart
+        Date highWaterMark = indexSnapshotFile == null ? null : productDao.getLastUpdated();
+        boolean published = false;
+        try (Stream<Product> products = productDao.streamAll(LOAD_FETCH_SIZE);
+             CatalogWriter catalog = catalogFile == null ? null : new CatalogWriter(catalogFile)) {
+            // no lambdas or method references in bean classes: Spring 3.1 can not parse invokedynamic
+            Iterator<Product> iterator = products.iterator();
+            while (iterator.hasNext()) {
+                Product product = iterator.next();
+                if (catalog != null) {
+                    catalog.add(product);
+                }
+                indexBuilder.add(product);
+                suggestBuilder.add(product.getProductName());
+            }
+            ProductIndex[] rebuilt = catalog == null ? indexBuilder.build() : indexBuilder.build(catalog.finish());
+            SuggestIndex suggestions = suggestBuilder.build();
+            publish(rebuilt, suggestions, "the database", start);
+            published = true;
+            if (indexSnapshotFile != null) {
+                saveSnapshot(rebuilt, suggestions, highWaterMark);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write the product catalog " + catalogFile, e);
+        } finally {
+            if (!published) {
+                indexer.cancelRebuild();
+            }
+        }
+    }
+
+    /**
+     * A snapshot that could not be saved only costs the next restart a rebuild, the
+     * rebuild itself succeeded.
+     */
+    private void saveSnapshot(ProductIndex[] rebuilt, SuggestIndex suggestions, Date highWaterMark) {
+        long start = System.currentTimeMillis();
+        try {
+            IndexFileWriter.write(indexSnapshotFile, rebuilt, suggestions, highWaterMark, catalogFile);
+            log.info(String.format("Saved the index to %s (%d KB) in %d ms", indexSnapshotFile,
+                    indexSnapshotFile.length() / 1024, System.currentTimeMillis() - start));
+        } catch (IOException e) {
+            log.warn("Could not save the index to " + indexSnapshotFile, e);
+        }
+    }
+
+    /**
+     * Installs the saved index and replays the products changed since it was saved.
+     *
+     * @return false if the snapshot could not be loaded and the index has to be built
+     */
+    private boolean openSnapshot() {
+        long start = System.currentTimeMillis();
+        IndexFile snapshot;
+        indexer.beginRebuild();
+        try {
+            snapshot = IndexFile.open(indexSnapshotFile, MappedCatalog.open(catalogFile), catalogFile);
+            publish(snapshot.getShards(), snapshot.getSuggestions(), indexSnapshotFile.getPath(), start);
+        } catch (IOException e) {
+            indexer.cancelRebuild();
+            log.warn("Could not load the index snapshot " + indexSnapshotFile + ", rebuilding the index", e);
+            return false;
+        }
+        start = System.currentTimeMillis();
+        Date since = snapshot.getHighWaterMark() == null
+                ? new Date(0) : new Date(snapshot.getHighWaterMark().getTime() - replayOverlapMillis);
+        int read = 0;
+        int replayed = 0;
+        Set<String> changed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        changedDuringReplay = changed;
+        try (Stream<Product> products = productDao.streamUpdatedSince(since, LOAD_FETCH_SIZE)) {
+            Iterator<Product> iterator = products.iterator();
+            while (iterator.hasNext()) {
+                Product product = iterator.next();
+                read++;
+                // rows within the overlap are mostly indexed as they are already
+                if (isIndexed(snapshot.getShards(), product)) {
+                    continue;
+                }
+                synchronized (changed) {
+                    if (!changed.contains(product.getId())) {
+                        indexer.update(product);
+                        replayed++;
+                    }
+                }
+            }
+        } finally {
+            changedDuringReplay = null;
+        }
+        indexer.refresh();
+        log.info(String.format("Replayed %d of %d products changed since %tF %<tT from the database in %d ms",
+                replayed, read, since, System.currentTimeMillis() - start));
+        return true;
+    }
+
+    private static boolean isIndexed(ProductIndex[] shards, Product product) {
+        for (ProductIndex shard : shards) {
+            int doc = shard.docOf(product.getId());
+            if (doc >= 0) {
+                return shard.document(doc).equals(product);
+            }
+        }
+        return false;
+    }
+
+    private void indexCatalog(MappedCatalog catalog) {
+        long start = System.currentTimeMillis();
+        ShardedIndexBuilder indexBuilder = new ShardedIndexBuilder(shards, false);
+        SuggestIndexBuilder suggestBuilder = new SuggestIndexBuilder();
+        for (int doc = 0; doc < catalog.size(); doc++) {
+            Product product = catalog.get(doc);
+            indexBuilder.add(product);
+            suggestBuilder.add(product.getProductName());
+        }
+        publish(indexBuilder.build(catalog), suggestBuilder.build(), catalog.getFile().getPath(), start);
+    }
+
+    private void publish(ProductIndex[] rebuilt, SuggestIndex suggestions, String source, long start) {
+        indexer.install(rebuilt);
+        this.suggestIndex = suggestions;
+        IndexSnapshot built = IndexSnapshot.of(rebuilt);
+        log.info(String.format("Indexed %d products from %s in %d shards, %d terms, %d names (%d KB suggest index)"
+                        + " in %d ms", built.maxDoc(), source, rebuilt.length, built.termCount(),
+                suggestions.size(), suggestions.sizeInBytes() / 1024, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * @return the query's terms separated by single spaces: the searcher only sees the
+     * terms, so queries differing in case, punctuation or spacing share cache entries
+     */
+    private static String normalize(String query) {
+        StringBuilder normalized = new StringBuilder();
+        for (String term : Tokenizer.tokenize(query)) {
+            if (normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            normalized.append(term);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @return the result, or a copy sharing its hits if it was computed for a query
+     * written differently
+     */
+    private static SearchResult withQuery(SearchResult result, String query) {
+        if (query == null ? result.getQuery() == null : query.equals(result.getQuery())) {
+            return result;
+        }
+        return new SearchResult(query, result.getTotalHits(), result.isTotalHitsExact(), result.getProducts(),
+                result.getFacets());
+    }
+
+    private static Product copyOf(Product product) {
+        Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setProductName(product.getProductName());
+        copy.setDescription(product.getDescription());
+        copy.setSeller(product.getSeller());
+        return copy;
+    }
+
+    /**
+     * A normalized query against one generation of the index; once a refresh published a
+     * new snapshot, new callers neither hit the old results nor join searches still
+     * running on the old one.
+     */
+    private static final class SearchKey {
+        /**
+         * The snapshot to search, not part of the key and dropped before caching so the
+         * cache does not keep old snapshots alive.
+         */
+        final IndexSnapshot snapshot;
+        final long generation;
+        final String query;
+        final Set<String> sellerIds;
+        final boolean fuzzy;
+        final int facets;
+        final int offset;
+        final int limit;
+
+        SearchKey(IndexSnapshot snapshot, String query, Set<String> sellerIds, boolean fuzzy, int facets, int offset,
+                  int limit) {
+            this(snapshot, snapshot.generation(), query, sellerIds, fuzzy, facets, offset, limit);
+        }
+
+        private SearchKey(IndexSnapshot snapshot, long generation, String query, Set<String> sellerIds, boolean fuzzy,
+                          int facets, int offset, int limit) {
+            this.snapshot = snapshot;
+            this.generation = generation;
+            this.query = query;
+            this.sellerIds = sellerIds;
+            this.fuzzy = fuzzy;
+            this.facets = facets;
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        SearchKey withoutSnapshot() {
+            return new SearchKey(null, generation, query, sellerIds, fuzzy, facets, offset, limit);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SearchKey)) {
+                return false;
+            }
+            SearchKey other = (SearchKey) o;
+            return generation == other.generation && offset == other.offset && limit == other.limit
+                    && fuzzy == other.fuzzy && facets == other.facets && sellerIds.equals(other.sellerIds)
+                    && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (query.hashCode() * 31 + sellerIds.hashCode()) * 31 + (int) (generation ^ generation >>> 32);
+            return (hash * 31 + offset) * 31 + limit;
+        }
+    }
+
+    /**
+     * Rough retained size of a cached result: the key, the list of hits, and the facet
+     * counts with their strings. Hits are mostly shared with the index, they count as a
+     * reference and a small header.
+     */
+    private static final class SearchResultWeigher implements Weigher<SearchKey, SearchResult> {
+        public int weigh(SearchKey key, SearchResult result) {
+            int weight = 160 + 2 * key.query.length() + 2 * length(result.getQuery());
+            for (String sellerId : key.sellerIds) {
+                weight += 48 + 2 * sellerId.length();
+            }
+            weight += 32 * result.getProducts().size();
+            if (result.getFacets() != null) {
+                for (Map.Entry<String, List<FacetCount>> facet : result.getFacets().entrySet()) {
+                    weight += 64;
+                    for (FacetCount count : facet.getValue()) {
+                        weight += 64 + 2 * (length(count.getValue()) + length(count.getLabel()));
+                    }
+                }
+            }
+            return weight;
+        }
+
+        private static int length(String value) {
+            return value == null ? 0 : value.length();
+        }
+    }
+}
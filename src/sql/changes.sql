@@ -4,4 +4,36 @@
   `phone` varchar(255) DEFAULT NULL,
   `email` varchar(255) DEFAULT NULL,
   PRIMARY KEY (`id`)
-) ENGINE=InnoDB AUTO_INCREMENT=3 DEFAULT CHARSET=latin1
\ No newline at end of file
+) ENGINE=InnoDB AUTO_INCREMENT=3 DEFAULT CHARSET=latin1;
+
+CREATE TABLE `seller` (
+  `seller_id` varchar(64) NOT NULL,
+  `seller_name` varchar(255) DEFAULT NULL,
+  PRIMARY KEY (`seller_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `product` (
+  `id` varchar(64) NOT NULL,
+  `product_name` varchar(255) NOT NULL,
+  `description` varchar(4000) DEFAULT NULL,
+  `seller_id` varchar(64) DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `idx_product_seller` (`seller_id`),
+  CONSTRAINT `fk_product_seller` FOREIGN KEY (`seller_id`) REFERENCES `seller` (`seller_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- keyset pagination of /productSearch/users seeks on (sort column, id); the unique key
+-- on email below serves the email order
+ALTER TABLE `person`
+  ADD KEY `idx_person_name` (`name`);
+
+-- email is Person's natural id, the key of GenericDao.upsert's ON DUPLICATE KEY UPDATE;
+-- persons sharing an email have to be merged before this runs
+ALTER TABLE `person`
+  ADD UNIQUE KEY `uk_person_email` (`email`);
+
+-- the index snapshot of a search node records the latest updated_at it covers and on
+-- startup only replays products changed since, see ProductSearchServiceImpl
+ALTER TABLE `product`
+  ADD COLUMN `updated_at` timestamp(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3),
+  ADD KEY `idx_product_updated_at` (`updated_at`);
@@ -0,0 +1,214 @@
+package com.sam.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fills small caches and checks which entries the segmented LRU policy evicts, and that
+ * a load racing an invalidation never stores a stale value.
+ */
+public class SegmentedLruCacheTest {
+
+    private static final Weigher<String, String> LENGTH = new Weigher<String, String>() {
+        public int weigh(String key, String value) {
+            return value.length();
+        }
+    };
+
+    private final List<String> removed = Collections.synchronizedList(new ArrayList<String>());
+    private final RemovalListener<String, String> listener = new RemovalListener<String, String>() {
+        public void onRemoval(String key, String value) {
+            removed.add(key + "=" + value);
+        }
+    };
+
+    @Test
+    public void anEntryReadAgainOutlivesOneOffEntries() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(10, LENGTH, listener);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, "v");
+        }
+        assertEquals("v", cache.getIfPresent("k0"));
+        assertEquals("v", cache.getIfPresent("k1"));
+        cache.put("a", "v");
+        cache.put("b", "v");
+        // the least recently used entries of probation go, not the older protected ones
+        assertEquals(Arrays.asList("k2=v", "k3=v"), removed);
+        assertEquals("v", cache.getIfPresent("k0"));
+        assertEquals("v", cache.getIfPresent("k1"));
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void theProtectedSegmentDemotesBeyondItsShare() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(10, LENGTH, listener);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, "v");
+        }
+        for (int i = 0; i < 10; i++) {
+            cache.getIfPresent("k" + i);
+        }
+        // 8 of 10 fit in protected: k0 and k1 went back to probation, in the order demoted
+        cache.put("a", "v");
+        cache.put("b", "v");
+        cache.put("c", "v");
+        assertEquals(Arrays.asList("k0=v", "k1=v", "a=v"), removed);
+        for (int i = 2; i < 10; i++) {
+            assertEquals("v", cache.getIfPresent("k" + i));
+        }
+    }
+
+    @Test
+    public void evictsByWeightNotByCount() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(100, LENGTH, listener);
+        cache.put("a", repeat('a', 30));
+        cache.put("b", repeat('b', 30));
+        cache.put("c", repeat('c', 30));
+        assertEquals(90, cache.stats().getWeightedSize());
+        assertTrue(removed.isEmpty());
+
+        cache.put("d", repeat('d', 50));
+        assertEquals(Arrays.asList("a=" + repeat('a', 30), "b=" + repeat('b', 30)), removed);
+        assertEquals(80, cache.stats().getWeightedSize());
+        assertEquals(2, cache.stats().getEvictions());
+        assertEquals(2, cache.size());
+
+        // many light entries push out the heavy one
+        removed.clear();
+        for (int i = 0; i < 12; i++) {
+            cache.put("e" + i, "12345");
+        }
+        assertEquals(Arrays.asList("c=" + repeat('c', 30), "d=" + repeat('d', 50)), removed);
+        assertEquals(60, cache.stats().getWeightedSize());
+    }
+
+    @Test
+    public void replacingAnEntryCountsOnlyTheNewWeight() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(100, LENGTH, listener);
+        cache.put("a", repeat('a', 60));
+        cache.getIfPresent("a");
+        cache.put("a", repeat('b', 70));
+        assertEquals(70, cache.stats().getWeightedSize());
+        assertEquals(Arrays.asList("a=" + repeat('a', 60)), removed);
+        assertEquals(0, cache.stats().getEvictions());
+    }
+
+    @Test
+    public void anEntryHeavierThanTheCacheIsNotStored() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(100, LENGTH, listener);
+        cache.put("a", "small");
+        cache.put("b", "small");
+        cache.put("a", repeat('a', 101));
+        assertNull(cache.getIfPresent("a"));
+        assertEquals("small", cache.getIfPresent("b"));
+        // the old value is dropped rather than left behind to be served
+        assertEquals(Arrays.asList("a=small"), removed);
+        assertEquals(5, cache.stats().getWeightedSize());
+    }
+
+    @Test
+    public void invalidationDuringALoadRefusesTheLoadedValue() throws Exception {
+        final SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(100, LENGTH, listener);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch written = new CountDownLatch(1);
+        final AtomicBoolean stored = new AtomicBoolean(true);
+        Thread loader = new Thread(new Runnable() {
+            public void run() {
+                long generation = cache.generation();
+                String value = "old";
+                loading.countDown();
+                try {
+                    // the slow read of the database, which a write overtakes
+                    written.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                stored.set(cache.putIfCurrent("a", value, generation));
+            }
+        });
+        loader.start();
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        // a key that is not cached yet is still invalidated for the load
+        cache.invalidate("a");
+        written.countDown();
+        loader.join();
+
+        assertFalse(stored.get());
+        assertNull(cache.getIfPresent("a"));
+        long generation = cache.generation();
+        assertTrue(cache.putIfCurrent("a", "new", generation));
+        assertEquals("new", cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void readThroughNeverKeepsAStaleValue() throws InterruptedException {
+        final SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(1000, LENGTH);
+        final ConcurrentHashMap<String, String> database = new ConcurrentHashMap<String, String>();
+        final String[] keys = {"a", "b", "c", "d"};
+        for (String key : keys) {
+            database.put(key, "0");
+        }
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger loads = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; !stop.get(); i++) {
+                        String key = keys[i % keys.length];
+                        if (cache.getIfPresent(key) == null) {
+                            long generation = cache.generation();
+                            String value = database.get(key);
+                            Thread.yield();
+                            cache.putIfCurrent(key, value, generation);
+                            loads.incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+        threads.add(new Thread(new Runnable() {
+            public void run() {
+                for (int version = 1; version <= 2000; version++) {
+                    String key = keys[version % keys.length];
+                    // write, then invalidate, like the DAOs do
+                    database.put(key, String.valueOf(version));
+                    cache.invalidate(key);
+                }
+                stop.set(true);
+            }
+        }));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(loads.get() > 0);
+        for (String key : keys) {
+            String cached = cache.getIfPresent(key);
+            assertTrue(key + " is " + cached + ", not " + database.get(key),
+                    cached == null || cached.equals(database.get(key)));
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
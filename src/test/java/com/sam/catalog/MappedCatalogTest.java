@@ -0,0 +1,268 @@
+package com.sam.catalog;
+
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes products to catalog files and reads them back through the mapping, then damages
+ * the header of a catalog and expects opening it to fail.
+ */
+public class MappedCatalogTest {
+
+    private static final int PRODUCTS = 3000;
+    private static final int REGIONS_AT = 5 * 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        List<Product> products = products();
+        File file = new File(folder.getRoot(), "catalog.psc");
+        MappedCatalog catalog = write(file, products);
+
+        assertEquals(PRODUCTS, catalog.size());
+        Set<String> sellerIds = new HashSet<String>();
+        for (Product product : products) {
+            if (product.getSeller() != null && product.getSeller().getSellerId() != null) {
+                sellerIds.add(product.getSeller().getSellerId());
+            }
+        }
+        assertEquals(sellerIds.size(), catalog.sellerCount());
+        for (int ordinal = 0; ordinal < PRODUCTS; ordinal++) {
+            Product expected = products.get(ordinal);
+            CatalogProduct product = (CatalogProduct) catalog.get(ordinal);
+            assertEquals(ordinal, product.ordinal());
+            assertSameProduct("product " + ordinal, expected, product);
+            assertSameProduct("copy of product " + ordinal, expected, product.toProduct());
+        }
+        // the temporary column files are gone
+        assertEquals(Arrays.asList("catalog.psc"), Arrays.asList(folder.getRoot().list()));
+    }
+
+    @Test
+    public void productsShareTheirSellers() throws IOException {
+        Seller seller = seller("s1", "Seller 1");
+        Seller nameless = seller("s2", null);
+        Seller idless = seller(null, "no id");
+        List<Product> products = Arrays.asList(product("a", seller), product("b", nameless), product("c", seller),
+                product("d", null), product("e", idless), product("f", nameless));
+        MappedCatalog catalog = write(new File(folder.getRoot(), "catalog.psc"), products);
+
+        assertEquals(2, catalog.sellerCount());
+        int[] ordinals = {0, 1, 0, -1, -1, 1};
+        for (int i = 0; i < ordinals.length; i++) {
+            assertEquals("product " + i, ordinals[i], catalog.sellerOrdinal(i));
+        }
+        assertNull(catalog.get(3).getSeller());
+        assertNull(catalog.get(4).getSeller());
+        assertEquals("Seller 1", catalog.get(2).getSeller().getSellerName());
+        assertEquals("s2", catalog.get(5).getSeller().getSellerId());
+        assertNull(catalog.get(5).getSeller().getSellerName());
+    }
+
+    @Test
+    public void emptyCatalog() throws IOException {
+        MappedCatalog catalog = write(new File(folder.getRoot(), "catalog.psc"), new ArrayList<Product>());
+        assertEquals(0, catalog.size());
+        assertEquals(0, catalog.sellerCount());
+        assertEquals(0, MappedCatalog.open(catalog.getFile()).size());
+    }
+
+    @Test
+    public void rewritingLeavesAnOpenCatalogIntact() throws IOException {
+        File file = new File(folder.getRoot(), "catalog.psc");
+        MappedCatalog old = write(file, Arrays.asList(product("a", null), product("b", null)));
+        MappedCatalog rewritten = write(file, Arrays.asList(product("c", null)));
+        assertEquals(1, MappedCatalog.open(file).size());
+        assertEquals("c", rewritten.get(0).getId());
+        assertEquals(2, old.size());
+        assertEquals("b", old.get(1).getId());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsAnOrdinalPastTheEnd() throws IOException {
+        write(new File(folder.getRoot(), "catalog.psc"), Arrays.asList(product("a", null))).get(1);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void catalogProductsAreReadOnly() throws IOException {
+        write(new File(folder.getRoot(), "catalog.psc"), Arrays.asList(product("a", null))).get(0).setId("b");
+    }
+
+    @Test
+    public void rejectsDamagedHeaders() throws IOException {
+        assertCorrupt("Not a product catalog", new Damage() {
+            public void apply(RandomAccessFile file) throws IOException {
+                file.writeInt(0x12345678);
+            }
+        });
+        assertCorrupt("Unsupported catalog version 2", new Damage() {
+            public void apply(RandomAccessFile file) throws IOException {
+                file.seek(4);
+                file.writeInt(2);
+            }
+        });
+        assertCorrupt("Not a product catalog", new Damage() {
+            public void apply(RandomAccessFile file) throws IOException {
+                file.setLength(CatalogFormat.HEADER_SIZE - 1);
+            }
+        });
+        assertCorrupt("region 0 does not match its count", new Damage() {
+            public void apply(RandomAccessFile file) throws IOException {
+                file.seek(8);
+                file.writeInt(PRODUCTS + 1);
+            }
+        });
+        assertCorrupt("region 7 does not match its count", new Damage() {
+            public void apply(RandomAccessFile file) throws IOException {
+                file.seek(12);
+                file.writeInt(0);
+            }
+        });
+        assertCorrupt("12 regions", new Damage() {
+            public void apply(RandomAccessFile file) throws IOException {
+                file.seek(16);
+                file.writeInt(CatalogFormat.REGION_COUNT + 1);
+            }
+        });
+        assertCorrupt("region 10 is out of bounds", new Damage() {
+            public void apply(RandomAccessFile file) throws IOException {
+                // the last region, the seller names' heap, ends with the file
+                file.setLength(file.length() - 1);
+            }
+        });
+        assertCorrupt("region 2 is out of bounds", new Damage() {
+            public void apply(RandomAccessFile file) throws IOException {
+                file.seek(REGIONS_AT + 2 * 16);
+                file.writeLong(CatalogFormat.HEADER_SIZE - 8);
+            }
+        });
+        assertCorrupt("region 3 is out of bounds", new Damage() {
+            public void apply(RandomAccessFile file) throws IOException {
+                file.seek(REGIONS_AT + 3 * 16 + 8);
+                file.writeLong(-1);
+            }
+        });
+        assertCorrupt("seller column does not match the product count", new Damage() {
+            public void apply(RandomAccessFile file) throws IOException {
+                file.seek(REGIONS_AT + CatalogFormat.REGION_SELLER * 16 + 8);
+                file.writeLong(4L * PRODUCTS - 4);
+            }
+        });
+    }
+
+    private void assertCorrupt(String message, Damage damage) throws IOException {
+        File file = folder.newFile();
+        write(file, products());
+        RandomAccessFile damaged = new RandomAccessFile(file, "rw");
+        try {
+            damage.apply(damaged);
+        } finally {
+            damaged.close();
+        }
+        try {
+            MappedCatalog.open(file);
+            fail("opened a catalog with " + message);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private interface Damage {
+        void apply(RandomAccessFile file) throws IOException;
+    }
+
+    private static MappedCatalog write(File file, List<Product> products) throws IOException {
+        CatalogWriter writer = new CatalogWriter(file);
+        try {
+            for (int i = 0; i < products.size(); i++) {
+                assertEquals(i, writer.add(products.get(i)));
+            }
+            assertEquals(products.size(), writer.size());
+            return writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return products with null and empty descriptions, non-ASCII text, and sellers
+     * shared by many products, missing, or without an id
+     */
+    private static List<Product> products() {
+        Random random = new Random(23);
+        Seller[] sellers = new Seller[20];
+        for (int i = 0; i < sellers.length; i++) {
+            sellers[i] = seller("s" + i, i % 7 == 0 ? null : "Seller " + i + " – ñ");
+        }
+        String[] descriptions = {null, "", "plain", "Größe 42, naïve café", "日本製 の 商品"};
+        List<Product> products = new ArrayList<Product>(PRODUCTS);
+        for (int i = 0; i < PRODUCTS; i++) {
+            Product product = new Product();
+            product.setId(i % 500 == 0 ? null : "p" + i);
+            product.setProductName(i % 3 == 0 ? "Lampe Ärmel " + i : "red lamp " + i);
+            String description = descriptions[random.nextInt(descriptions.length)];
+            if (description != null && random.nextInt(20) == 0) {
+                // long values, several per page of the heap
+                StringBuilder text = new StringBuilder();
+                while (text.length() < 5000) {
+                    text.append(description).append(' ').append(i);
+                }
+                description = text.toString();
+            }
+            product.setDescription(description);
+            int seller = random.nextInt(sellers.length + 2);
+            product.setSeller(seller < sellers.length ? sellers[seller]
+                    : seller == sellers.length ? null : seller(null, "idless"));
+            products.add(product);
+        }
+        return products;
+    }
+
+    private static void assertSameProduct(String message, Product expected, Product actual) {
+        assertEquals(message, expected.getId(), actual.getId());
+        assertEquals(message, expected.getProductName(), actual.getProductName());
+        assertEquals(message, expected.getDescription(), actual.getDescription());
+        Seller seller = expected.getSeller();
+        if (seller == null || seller.getSellerId() == null) {
+            assertNull(message, actual.getSeller());
+        } else {
+            assertEquals(message, seller.getSellerId(), actual.getSeller().getSellerId());
+            assertEquals(message, seller.getSellerName(), actual.getSeller().getSellerName());
+        }
+    }
+
+    private static Product product(String id, Seller seller) {
+        Product product = new Product();
+        product.setId(id);
+        product.setProductName("product " + id);
+        product.setSeller(seller);
+        return product;
+    }
+
+    private static Seller seller(String id, String name) {
+        Seller seller = new Seller();
+        seller.setSellerId(id);
+        seller.setSellerName(name);
+        return seller;
+    }
+}
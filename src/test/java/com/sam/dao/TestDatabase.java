@@ -0,0 +1,75 @@
+package com.sam.dao;
+
+import com.sam.model.Person;
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+
+/**
+ * In-memory H2 databases in MySQL compatibility mode, with the schema of the mapped
+ * entities and the batching settings of applicationContext-beans.xml. A database lives
+ * until its session factory is closed.
+ */
+public final class TestDatabase {
+
+    private TestDatabase() {
+    }
+
+    /**
+     * @return the settings every test database shares, for tests that add their own
+     */
+    public static Configuration configuration() {
+        Configuration configuration = new Configuration()
+                .setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+                .setProperty("hibernate.id.new_generator_mappings", "false")
+                .setProperty("hibernate.jdbc.batch_size", "50")
+                .setProperty("hibernate.order_inserts", "true")
+                .setProperty("hibernate.order_updates", "true")
+                .setProperty("hibernate.cache.use_second_level_cache", "false")
+                .setProperty("hibernate.show_sql", "false");
+        configuration.addAnnotatedClass(Person.class);
+        configuration.addAnnotatedClass(Seller.class);
+        configuration.addAnnotatedClass(Product.class);
+        return configuration;
+    }
+
+    public static SessionFactory create(String name) {
+        return create(name, configuration());
+    }
+
+    public static SessionFactory create(String name, Configuration configuration) {
+        return configuration
+                .setProperty("hibernate.connection.driver_class", "org.h2.Driver")
+                .setProperty("hibernate.connection.url", url(name))
+                .setProperty("hibernate.connection.pool_size", "8")
+                .setProperty("hibernate.connection.autocommit", "true")
+                .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+                .buildSessionFactory();
+    }
+
+    public static String url(String name) {
+        return "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * @return the number of rows of the entity, counted on a session of its own
+     */
+    public static long count(SessionFactory sessionFactory, Class<?> entityClass) {
+        Session session = sessionFactory.openSession();
+        try {
+            return (Long) session.createQuery("select count(*) from " + entityClass.getName()).uniqueResult();
+        } finally {
+            session.close();
+        }
+    }
+
+    public static Person person(int i) {
+        Person person = new Person();
+        person.setName("person " + i);
+        person.setEmail("person" + i + "@example.com");
+        person.setPhone("555-" + i);
+        return person;
+    }
+}
@@ -0,0 +1,146 @@
+package com.sam.dao.generic;
+
+import com.sam.dao.PersonDaoImpl;
+import com.sam.dao.TestDatabase;
+import com.sam.model.Person;
+import org.h2.jdbcx.JdbcDataSource;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Inserts persons with the MySQL dialect, under which their ids are identity columns,
+ * and counts the statements that reach the H2 database.
+ */
+public class BatchInsertTest {
+
+    private static final AtomicInteger INSERT_BATCHES = new AtomicInteger();
+    private static final AtomicInteger SINGLE_INSERTS = new AtomicInteger();
+
+    private static SessionFactory sessionFactory;
+    private static PersonDaoImpl personDao;
+    private static int nextPerson;
+
+    @BeforeClass
+    public static void createDatabase() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(TestDatabase.url("batchInsert"));
+        Configuration configuration = TestDatabase.configuration()
+                .setProperty("hibernate.dialect", "org.hibernate.dialect.MySQL5InnoDBDialect")
+                .setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        configuration.getProperties().put("hibernate.connection.datasource", counting(dataSource));
+        sessionFactory = configuration.buildSessionFactory();
+        personDao = new PersonDaoImpl();
+        personDao.setSessionFactory(sessionFactory);
+    }
+
+    @AfterClass
+    public static void closeDatabase() {
+        sessionFactory.close();
+    }
+
+    @Before
+    public void resetCounts() {
+        INSERT_BATCHES.set(0);
+        SINGLE_INSERTS.set(0);
+    }
+
+    @Test
+    public void everyBatchIsOneRoundTrip() {
+        long before = TestDatabase.count(sessionFactory, Person.class);
+        assertEquals(120, personDao.insertAll(newPersons(120)));
+        assertEquals(3, INSERT_BATCHES.get());
+        assertEquals(0, SINGLE_INSERTS.get());
+        assertEquals(before + 120, TestDatabase.count(sessionFactory, Person.class));
+    }
+
+    @Test
+    public void insertedPersonsGetTheirGeneratedIds() {
+        List<Person> persons = newPersons(70);
+        personDao.insertAll(persons);
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Person person : persons) {
+            assertNotNull(person.getEmail(), person.getId());
+            assertEquals(person.getEmail(), personDao.get(person.getId()).getEmail());
+            ids.add(person.getId());
+        }
+        assertEquals(70, ids.size());
+    }
+
+    private static List<Person> newPersons(int count) {
+        List<Person> persons = new ArrayList<Person>();
+        for (int i = 0; i < count; i++) {
+            persons.add(TestDatabase.person(++nextPerson));
+        }
+        return persons;
+    }
+
+    /**
+     * A data source whose prepared inserts count their executions.
+     */
+    private static DataSource counting(final DataSource target) {
+        return (DataSource) proxy(DataSource.class, target, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = invokeOn(target, method, args);
+                return method.getName().equals("getConnection") ? counting((Connection) result) : result;
+            }
+        });
+    }
+
+    private static Connection counting(final Connection target) {
+        return (Connection) proxy(Connection.class, target, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = invokeOn(target, method, args);
+                if (method.getName().equals("prepareStatement")
+                        && ((String) args[0]).trim().toLowerCase().startsWith("insert")) {
+                    return counting((PreparedStatement) result);
+                }
+                return result;
+            }
+        });
+    }
+
+    private static PreparedStatement counting(final PreparedStatement target) {
+        return (PreparedStatement) proxy(PreparedStatement.class, target, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("executeBatch")) {
+                    INSERT_BATCHES.incrementAndGet();
+                } else if (method.getName().startsWith("execute")) {
+                    SINGLE_INSERTS.incrementAndGet();
+                }
+                return invokeOn(target, method, args);
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, Object target, InvocationHandler handler) {
+        return Proxy.newProxyInstance(BatchInsertTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.sam.dao.generic;
+
+import com.sam.dao.PersonDaoImpl;
+import com.sam.dao.TestDatabase;
+import com.sam.model.Person;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.DetachedCriteria;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Pages through persons with every sort property and page size, and expects the pages
+ * to add up to the whole ordered table.
+ */
+public class KeysetPageTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NULL_EMAILS = 13;
+    private static final int PERSONS = 237 + NULL_EMAILS;
+
+    private static SessionFactory sessionFactory;
+    private static PersonDaoImpl personDao;
+    private static List<Person> persons;
+
+    @BeforeClass
+    @SuppressWarnings("unchecked")
+    public static void createDatabase() {
+        sessionFactory = TestDatabase.create("keysetPage");
+        personDao = new PersonDaoImpl();
+        personDao.setSessionFactory(sessionFactory);
+
+        Random random = new Random(7);
+        persons = new ArrayList<Person>();
+        for (int i = 0; i < PERSONS - NULL_EMAILS; i++) {
+            Person person = TestDatabase.person(i);
+            // few distinct names, so that pages end inside runs of equal names
+            person.setName("person " + (char) ('a' + random.nextInt(6)));
+            persons.add(person);
+        }
+        personDao.insertAll(persons);
+
+        // email is mapped NOT NULL, but the person table of changes.sql allows nulls
+        Session session = sessionFactory.openSession();
+        try {
+            session.createSQLQuery("alter table person alter column email set null").executeUpdate();
+            for (int i = 0; i < NULL_EMAILS; i++) {
+                session.createSQLQuery("insert into person (name, email, phone) values ('person n', null, '555')")
+                        .executeUpdate();
+            }
+            persons = session.createQuery("from Person").list();
+        } finally {
+            session.close();
+        }
+    }
+
+    @AfterClass
+    public static void closeDatabase() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void pagesByIdAddUpToTheTable() {
+        assertPagesAddUp("id", new Comparator<Person>() {
+            public int compare(Person a, Person b) {
+                return a.getId().compareTo(b.getId());
+            }
+        });
+    }
+
+    @Test
+    public void pagesByNameAddUpToTheTable() {
+        assertPagesAddUp("name", new Comparator<Person>() {
+            public int compare(Person a, Person b) {
+                int byName = a.getName().compareTo(b.getName());
+                return byName != 0 ? byName : a.getId().compareTo(b.getId());
+            }
+        });
+    }
+
+    @Test
+    public void pagesByEmailAddUpToTheTable() {
+        // persons without an email first, and pages end inside their run
+        assertPagesAddUp("email", new Comparator<Person>() {
+            public int compare(Person a, Person b) {
+                if (a.getEmail() == null || b.getEmail() == null) {
+                    return a.getEmail() != null ? 1 : b.getEmail() != null ? -1 : a.getId().compareTo(b.getId());
+                }
+                return a.getEmail().compareTo(b.getEmail());
+            }
+        });
+    }
+
+    @Test
+    public void leavesTheCriteriaUnchanged() {
+        DetachedCriteria criteria = DetachedCriteria.forClass(Person.class);
+        KeysetPage<Person> first = personDao.findPageByDetachedCriteria(criteria, "name", null, 10);
+        KeysetPage<Person> second = personDao.findPageByDetachedCriteria(criteria, "name", first.getNextCursor(), 10);
+        assertEquals(first.getItems(), personDao.findPageByDetachedCriteria(criteria, "name", null, 10).getItems());
+        assertEquals(10, second.getItems().size());
+        assertEquals(PERSONS, personDao.findByDetachedCriteria(criteria).size());
+    }
+
+    @Test
+    public void lastPageHasNoNextCursor() {
+        KeysetPage<Person> page = personDao.findPageByDetachedCriteria(
+                DetachedCriteria.forClass(Person.class), "name", null, PERSONS);
+        assertEquals(PERSONS, page.getItems().size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAMalformedCursor() {
+        personDao.findPageByDetachedCriteria(DetachedCriteria.forClass(Person.class), "name", "not a cursor!", 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsACursorOfAnUnknownValueType() {
+        // a serialized object where the type tag of a value is expected
+        String cursor = Base64.getUrlEncoder().encodeToString("xrO0AB\u0000i1".getBytes(UTF_8));
+        personDao.findPageByDetachedCriteria(DetachedCriteria.forClass(Person.class), "name", cursor, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsACursorWithAnIdOfTheWrongType() {
+        String cursor = new KeysetCursor("person a", "1").encode();
+        personDao.findPageByDetachedCriteria(DetachedCriteria.forClass(Person.class), "name", cursor, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsACursorWithASortValueOfTheWrongType() {
+        String cursor = new KeysetCursor(5L, 1).encode();
+        personDao.findPageByDetachedCriteria(DetachedCriteria.forClass(Person.class), "email", cursor, 10);
+    }
+
+    private static void assertPagesAddUp(String sortProperty, Comparator<Person> order) {
+        List<Integer> expected = new ArrayList<Integer>();
+        List<Person> sorted = new ArrayList<Person>(persons);
+        Collections.sort(sorted, order);
+        for (Person person : sorted) {
+            expected.add(person.getId());
+        }
+        for (int limit : new int[]{1, 10, 50, PERSONS - 1, PERSONS, PERSONS + 1}) {
+            List<Integer> paged = new ArrayList<Integer>();
+            String cursor = null;
+            int pages = 0;
+            do {
+                KeysetPage<Person> page = personDao.findPageByDetachedCriteria(
+                        DetachedCriteria.forClass(Person.class), sortProperty, cursor, limit);
+                for (Person person : page.getItems()) {
+                    paged.add(person.getId());
+                }
+                cursor = page.getNextCursor();
+                pages++;
+            } while (cursor != null);
+            assertEquals(sortProperty + " by " + limit, expected, paged);
+            assertEquals(sortProperty + " by " + limit, (PERSONS + limit - 1) / limit, pages);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.sam.dao.generic;
+
+import com.sam.dao.PersonDaoImpl;
+import com.sam.dao.TestDatabase;
+import com.sam.model.Person;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.criterion.SimpleExpression;
+import org.hibernate.type.StringType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs criteria queries through a DAO with its query cache on and checks which of them
+ * are answered from the cache.
+ */
+public class QueryCacheKeyTest {
+
+    private static SessionFactory sessionFactory;
+    private static PersonDaoImpl personDao;
+
+    @BeforeClass
+    public static void createDatabase() {
+        sessionFactory = TestDatabase.create("queryCacheKey");
+        personDao = new PersonDaoImpl();
+        personDao.setSessionFactory(sessionFactory);
+        personDao.setQueryCacheMaxWeight(1 << 20);
+        List<Person> persons = new ArrayList<Person>();
+        for (int i = 0; i < 20; i++) {
+            persons.add(TestDatabase.person(i));
+        }
+        personDao.insertAll(persons);
+    }
+
+    @AfterClass
+    public static void closeDatabase() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void equalCriteriaShareAnEntry() {
+        assertHit(byName("person 3"), byName("person 3"));
+        assertHit(DetachedCriteria.forClass(Person.class).addOrder(Order.desc("email")),
+                DetachedCriteria.forClass(Person.class).addOrder(Order.desc("email")));
+    }
+
+    @Test
+    public void boundValuesAreTheirOwnEntries() {
+        assertMiss(byName("person 4"), byName("person 5"), "person 5");
+        assertMiss(bySql("person 6"), bySql("person 7"), "person 7");
+    }
+
+    @Test
+    public void ordersAndProjectionsAreTheirOwnEntries() {
+        assertMiss(DetachedCriteria.forClass(Person.class).addOrder(Order.asc("phone")),
+                DetachedCriteria.forClass(Person.class).addOrder(Order.desc("phone")), null);
+        DetachedCriteria names = DetachedCriteria.forClass(Person.class).setProjection(Projections.property("name"))
+                .add(Restrictions.eq("email", "person8@example.com"));
+        DetachedCriteria phones = DetachedCriteria.forClass(Person.class).setProjection(Projections.property("phone"))
+                .add(Restrictions.eq("email", "person8@example.com"));
+        assertEquals("person 8", personDao.findByDetachedCriteria(names).get(0));
+        assertEquals("555-8", personDao.findByDetachedCriteria(phones).get(0));
+    }
+
+    @Test
+    public void criteriaThatCanNotBeSerializedAreCached() {
+        // an anonymous criterion holds on to this test, which is not serializable
+        assertHit(DetachedCriteria.forClass(Person.class).add(new SimpleExpression("name", "person 9", "=") {
+                }),
+                DetachedCriteria.forClass(Person.class).add(new SimpleExpression("name", "person 9", "=") {
+                }));
+    }
+
+    private static DetachedCriteria byName(String name) {
+        return DetachedCriteria.forClass(Person.class).add(Restrictions.eq("name", name));
+    }
+
+    private static DetachedCriteria bySql(String name) {
+        return DetachedCriteria.forClass(Person.class)
+                .add(Restrictions.sqlRestriction("{alias}.name = ?", name, StringType.INSTANCE));
+    }
+
+    private static void assertHit(DetachedCriteria first, DetachedCriteria second) {
+        List<Person> expected = personDao.findByDetachedCriteria(first);
+        long hits = personDao.getQueryCacheStats().getHits();
+        assertEquals(expected, personDao.findByDetachedCriteria(second));
+        assertEquals(hits + 1, personDao.getQueryCacheStats().getHits());
+    }
+
+    /**
+     * @param name the name of the only person the second criteria finds, null if it finds all
+     */
+    private static void assertMiss(DetachedCriteria first, DetachedCriteria second, String name) {
+        List<?> firstRows = personDao.findByDetachedCriteria(first);
+        long hits = personDao.getQueryCacheStats().getHits();
+        List<?> rows = personDao.findByDetachedCriteria(second);
+        assertEquals(hits, personDao.getQueryCacheStats().getHits());
+        if (name != null) {
+            assertEquals(1, rows.size());
+            assertEquals(name, ((Person) rows.get(0)).getName());
+        } else {
+            assertEquals(firstRows.size(), rows.size());
+            assertEquals(firstRows.get(0), rows.get(rows.size() - 1));
+        }
+    }
+}
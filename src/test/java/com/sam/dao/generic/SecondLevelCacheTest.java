@@ -0,0 +1,176 @@
+package com.sam.dao.generic;
+
+import com.sam.dao.PersonDaoImpl;
+import com.sam.dao.ProductDaoImpl;
+import com.sam.dao.TestDatabase;
+import com.sam.model.Person;
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The second-level entity and query cache configured like applicationContext-beans.xml,
+ * with the regions of ehcache.xml.
+ */
+public class SecondLevelCacheTest {
+
+    private static SessionFactory sessionFactory;
+    private static Statistics statistics;
+    private static PersonDaoImpl personDao;
+    private static ProductDaoImpl productDao;
+    private static Seller seller;
+
+    @BeforeClass
+    public static void createDatabase() {
+        Configuration configuration = TestDatabase.configuration()
+                .setProperty("hibernate.cache.use_second_level_cache", "true")
+                .setProperty("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory")
+                .setProperty("net.sf.ehcache.configurationResourceName", "/ehcache.xml")
+                .setProperty("javax.persistence.sharedCache.mode", "ENABLE_SELECTIVE")
+                .setProperty("hibernate.cache.use_query_cache", "true")
+                .setProperty("hibernate.generate_statistics", "true")
+                .addResource("product-queries.hbm.xml");
+        sessionFactory = TestDatabase.create("secondLevelCache", configuration);
+        statistics = sessionFactory.getStatistics();
+        personDao = new PersonDaoImpl();
+        personDao.setSessionFactory(sessionFactory);
+        productDao = new ProductDaoImpl();
+        productDao.setSessionFactory(sessionFactory);
+        productDao.setQueryCacheRegion("query.Product");
+
+        seller = new Seller();
+        seller.setSellerId("s1");
+        seller.setSellerName("Seller 1");
+        Session session = sessionFactory.openSession();
+        try {
+            session.beginTransaction();
+            session.save(seller);
+            session.getTransaction().commit();
+        } finally {
+            session.close();
+        }
+    }
+
+    @AfterClass
+    public static void closeDatabase() {
+        sessionFactory.close();
+    }
+
+    @Before
+    public void clearCaches() {
+        sessionFactory.getCache().evictAllRegions();
+        statistics.clear();
+    }
+
+    @Test
+    public void bulkInsertsDoNotFillTheCache() {
+        List<Person> persons = insertPersons(100, 10);
+        for (Person person : persons) {
+            assertFalse(sessionFactory.getCache().containsEntity(Person.class, person.getId()));
+        }
+    }
+
+    @Test
+    public void repeatedGetRunsNoSql() {
+        Integer id = insertPersons(200, 1).get(0).getId();
+        personDao.get(id);
+        long statements = statistics.getPrepareStatementCount();
+        assertEquals("person 200", personDao.get(id).getName());
+        assertEquals(statements, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void existsOfACachedEntityRunsNoSql() {
+        List<Person> persons = insertPersons(300, 2);
+        personDao.get(persons.get(0).getId());
+        long statements = statistics.getPrepareStatementCount();
+        assertTrue(personDao.exists(persons.get(0).getId()));
+        assertEquals(statements, statistics.getPrepareStatementCount());
+        assertTrue(personDao.exists(persons.get(1).getId()));
+        assertEquals(statements + 1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void saveEvictsTheEntry() {
+        Integer id = insertPersons(400, 1).get(0).getId();
+        Person person = personDao.get(id);
+        person.setName("renamed");
+        personDao.save(person);
+        assertEquals("renamed", personDao.get(id).getName());
+    }
+
+    @Test
+    public void repeatedNamedQueryIsAQueryCacheHit() {
+        insertProducts("hit", "lamp", 6);
+        Map<String, Object> params = Collections.<String, Object>singletonMap("name", "lamp hit");
+        assertEquals(6, productDao.findByNamedQuery("Product.byName", params).size());
+        long statements = statistics.getPrepareStatementCount();
+        assertEquals(6, productDao.findByNamedQuery("Product.byName", params).size());
+        assertEquals(statements, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getQueryCacheHitCount());
+    }
+
+    @Test
+    public void insertInvalidatesTheCachedQuery() {
+        insertProducts("invalidated", "chair", 4);
+        Map<String, Object> params = Collections.<String, Object>singletonMap("name", "chair invalidated");
+        assertEquals(4, productDao.findByNamedQuery("Product.byName", params).size());
+
+        Product product = new Product();
+        product.setId("a-invalidated");
+        product.setProductName("chair invalidated");
+        product.setSeller(seller);
+        productDao.insert(product);
+        List<Product> products = productDao.findByNamedQuery("Product.byName", params);
+        assertEquals(5, products.size());
+        assertEquals("a-invalidated", products.get(0).getId());
+    }
+
+    @Test
+    public void productAndSellerAreAssembledFromTheCache() {
+        String id = insertProducts("assembled", "desk", 1).get(0).getId();
+        productDao.get(id);
+        long statements = statistics.getPrepareStatementCount();
+        Product product = productDao.get(id);
+        assertEquals(statements, statistics.getPrepareStatementCount());
+        assertEquals("Seller 1", product.getSeller().getSellerName());
+    }
+
+    private static List<Person> insertPersons(int first, int count) {
+        List<Person> persons = new ArrayList<Person>();
+        for (int i = first; i < first + count; i++) {
+            persons.add(TestDatabase.person(i));
+        }
+        personDao.insertAll(persons);
+        return persons;
+    }
+
+    private static List<Product> insertProducts(String test, String name, int count) {
+        List<Product> products = new ArrayList<Product>();
+        for (int i = 0; i < count; i++) {
+            Product product = new Product();
+            product.setId("p-" + test + "-" + i);
+            product.setProductName(name + " " + test);
+            product.setSeller(seller);
+            products.add(product);
+        }
+        productDao.insertAll(products);
+        return products;
+    }
+}
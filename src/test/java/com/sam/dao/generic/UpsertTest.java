@@ -0,0 +1,277 @@
+package com.sam.dao.generic;
+
+import com.sam.dao.PersonDaoImpl;
+import com.sam.dao.ProductDaoImpl;
+import com.sam.dao.TestDatabase;
+import com.sam.model.Person;
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.h2.jdbcx.JdbcDataSource;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upserts new and existing persons, sellers and products into an H2 database in MySQL
+ * mode with the second-level cache on, and checks the rows and the cache regions.
+ */
+public class UpsertTest {
+
+    /**
+     * An entity whose only column is its key, so a duplicate has nothing to update.
+     */
+    @Entity
+    @Table(name = "upsert_tag")
+    public static class Tag {
+        @Id
+        private String name;
+
+        public Tag() {
+        }
+
+        Tag(String name) {
+            this.name = name;
+        }
+    }
+
+    // makes upsert batches report no counts, like the MySQL driver rewriting them
+    private static final AtomicBoolean NO_COUNTS = new AtomicBoolean();
+
+    private static SessionFactory sessionFactory;
+    private static PersonDaoImpl personDao;
+    private static GenericDaoHibernate<Seller, String> sellerDao;
+    private static ProductDaoImpl productDao;
+    private static GenericDaoHibernate<Tag, String> tagDao;
+
+    @BeforeClass
+    public static void createDatabase() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(TestDatabase.url("upsert"));
+        Configuration configuration = TestDatabase.configuration()
+                .setProperty("hibernate.cache.use_second_level_cache", "true")
+                .setProperty("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory")
+                .setProperty("net.sf.ehcache.configurationResourceName", "/ehcache.xml")
+                .setProperty("javax.persistence.sharedCache.mode", "ENABLE_SELECTIVE")
+                .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+                .addAnnotatedClass(Tag.class);
+        configuration.getProperties().put("hibernate.connection.datasource", withoutCounts(dataSource));
+        sessionFactory = configuration.buildSessionFactory();
+        personDao = new PersonDaoImpl();
+        personDao.setSessionFactory(sessionFactory);
+        sellerDao = new GenericDaoHibernate<Seller, String>(Seller.class, sessionFactory);
+        productDao = new ProductDaoImpl();
+        productDao.setSessionFactory(sessionFactory);
+        tagDao = new GenericDaoHibernate<Tag, String>(Tag.class, sessionFactory);
+    }
+
+    @AfterClass
+    public static void closeDatabase() {
+        sessionFactory.close();
+    }
+
+    @Before
+    public void clearCaches() {
+        sessionFactory.getCache().evictAllRegions();
+    }
+
+    @After
+    public void reportCounts() {
+        NO_COUNTS.set(false);
+    }
+
+    @Test
+    public void personsAreUpsertedByTheirNaturalId() {
+        assertEquals(2, personDao.upsertAll(Arrays.asList(TestDatabase.person(1), TestDatabase.person(2))));
+        Integer id = personByEmail(TestDatabase.person(1).getEmail()).getId();
+
+        Person renamed = TestDatabase.person(1);
+        renamed.setName("renamed");
+        renamed.setPhone("555-renamed");
+        assertEquals(2, personDao.upsertAll(Arrays.asList(renamed, TestDatabase.person(3))));
+
+        Person person = personByEmail(renamed.getEmail());
+        assertEquals(id, person.getId());
+        assertEquals("renamed", person.getName());
+        assertEquals("555-renamed", person.getPhone());
+        assertEquals(3, TestDatabase.count(sessionFactory, Person.class) - otherPersons());
+    }
+
+    @Test
+    public void updatingAPersonEvictsItsRegion() {
+        personDao.upsertAll(Arrays.asList(TestDatabase.person(10), TestDatabase.person(11)));
+        Person cached = personDao.get(personByEmail(TestDatabase.person(11).getEmail()).getId());
+        assertTrue(sessionFactory.getCache().containsEntity(Person.class, cached.getId()));
+
+        // inserts only, the cached person stays
+        personDao.upsertAll(Collections.singletonList(TestDatabase.person(12)));
+        assertTrue(sessionFactory.getCache().containsEntity(Person.class, cached.getId()));
+
+        // the updated row could be any cached one, its id is not known
+        Person renamed = TestDatabase.person(10);
+        renamed.setName("renamed");
+        personDao.upsertAll(Collections.singletonList(renamed));
+        assertFalse(sessionFactory.getCache().containsEntity(Person.class, cached.getId()));
+        assertEquals("renamed", personDao.get(personByEmail(renamed.getEmail()).getId()).getName());
+    }
+
+    @Test
+    public void batchWithoutCountsEvictsThePersonRegion() {
+        personDao.upsertAll(Collections.singletonList(TestDatabase.person(20)));
+        Person cached = personDao.get(personByEmail(TestDatabase.person(20).getEmail()).getId());
+
+        NO_COUNTS.set(true);
+        personDao.upsertAll(Collections.singletonList(TestDatabase.person(21)));
+        assertFalse(sessionFactory.getCache().containsEntity(Person.class, cached.getId()));
+    }
+
+    @Test
+    public void sellersAndProductsAreUpsertedByTheirAssignedIds() {
+        sellerDao.upsertAll(Arrays.asList(seller("s1", "Seller 1"), seller("s2", "Seller 2")));
+        productDao.upsertAll(Arrays.asList(product("p1", "Lamp", "s1"), product("p2", "Chair", null)));
+        assertEquals("s1", productDao.get("p1").getSeller().getSellerId());
+        assertNull(productDao.get("p2").getSeller());
+        assertTrue(sessionFactory.getCache().containsEntity(Product.class, "p1"));
+        assertTrue(sessionFactory.getCache().containsEntity(Seller.class, "s1"));
+        Product otherProduct = productDao.get("p2");
+
+        sellerDao.upsertAll(Collections.singletonList(seller("s1", "Seller One")));
+        productDao.upsertAll(Collections.singletonList(product("p1", "Desk lamp", "s2")));
+
+        // only the upserted ids are evicted
+        assertFalse(sessionFactory.getCache().containsEntity(Seller.class, "s1"));
+        assertFalse(sessionFactory.getCache().containsEntity(Product.class, "p1"));
+        assertTrue(sessionFactory.getCache().containsEntity(Product.class, otherProduct.getId()));
+        Product product = productDao.get("p1");
+        assertEquals("Desk lamp", product.getProductName());
+        assertEquals("s2", product.getSeller().getSellerId());
+        assertEquals("Seller One", sellerDao.get("s1").getSellerName());
+        assertEquals(2, TestDatabase.count(sessionFactory, Product.class));
+    }
+
+    @Test
+    public void duplicatesOfAKeyOnlyEntityAreLeftAsTheyAre() {
+        tagDao.upsertAll(Arrays.asList(new Tag("red"), new Tag("green")));
+        tagDao.upsertAll(Arrays.asList(new Tag("red"), new Tag("blue")));
+        tagDao.upsert(new Tag("green"));
+        assertEquals(3, TestDatabase.count(sessionFactory, Tag.class));
+    }
+
+    private static Seller seller(String id, String name) {
+        Seller seller = new Seller();
+        seller.setSellerId(id);
+        seller.setSellerName(name);
+        return seller;
+    }
+
+    /**
+     * @param sellerId the seller, only its id is set like on a record of an import
+     */
+    private static Product product(String id, String name, String sellerId) {
+        Product product = new Product();
+        product.setId(id);
+        product.setProductName(name);
+        if (sellerId != null) {
+            product.setSeller(seller(sellerId, null));
+        }
+        return product;
+    }
+
+    private static Person personByEmail(String email) {
+        Session session = sessionFactory.openSession();
+        try {
+            return (Person) session.createQuery("from Person where email = :email")
+                    .setParameter("email", email).uniqueResult();
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * @return persons of the tests other than {@link #personsAreUpsertedByTheirNaturalId}
+     */
+    private static long otherPersons() {
+        Session session = sessionFactory.openSession();
+        try {
+            return (Long) session.createQuery("select count(*) from Person where email not in (:emails)")
+                    .setParameterList("emails", Arrays.asList(TestDatabase.person(1).getEmail(),
+                            TestDatabase.person(2).getEmail(), TestDatabase.person(3).getEmail()))
+                    .uniqueResult();
+        } finally {
+            session.close();
+        }
+    }
+
+    private static DataSource withoutCounts(final DataSource target) {
+        return (DataSource) proxy(DataSource.class, target, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = invokeOn(target, method, args);
+                return method.getName().equals("getConnection") ? withoutCounts((Connection) result) : result;
+            }
+        });
+    }
+
+    private static Connection withoutCounts(final Connection target) {
+        return (Connection) proxy(Connection.class, target, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = invokeOn(target, method, args);
+                if (method.getName().equals("prepareStatement") && ((String) args[0]).contains("on duplicate key")) {
+                    return withoutCounts((PreparedStatement) result);
+                }
+                return result;
+            }
+        });
+    }
+
+    private static PreparedStatement withoutCounts(final PreparedStatement target) {
+        return (PreparedStatement) proxy(PreparedStatement.class, target, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = invokeOn(target, method, args);
+                if (method.getName().equals("executeBatch") && NO_COUNTS.get()) {
+                    int[] counts = ((int[]) result).clone();
+                    Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+                    return counts;
+                }
+                return result;
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, Object target, InvocationHandler handler) {
+        return Proxy.newProxyInstance(UpsertTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.sam.dao.generic;
+
+import com.sam.concurrent.QueueFullException;
+import com.sam.dao.PersonDaoImpl;
+import com.sam.dao.TestDatabase;
+import com.sam.model.Person;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes persons through a write-behind queue into an H2 database and counts the rows
+ * that arrive.
+ */
+public class WriteBehindQueueTest {
+
+    private static SessionFactory sessionFactory;
+    private static PersonDaoImpl personDao;
+    private static final AtomicInteger NEXT_PERSON = new AtomicInteger();
+
+    private WriteBehindQueue<Person> queue;
+
+    @BeforeClass
+    public static void createDatabase() {
+        sessionFactory = TestDatabase.create("writeBehind");
+        personDao = new PersonDaoImpl();
+        personDao.setSessionFactory(sessionFactory);
+    }
+
+    @AfterClass
+    public static void closeDatabase() {
+        sessionFactory.close();
+    }
+
+    @After
+    public void stopQueue() {
+        if (queue != null) {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void durableWritesAreCommittedWhenAcknowledged() throws InterruptedException {
+        queue = queue(personDao, 50);
+        queue.setDurable(true);
+        queue.start();
+        long before = TestDatabase.count(sessionFactory, Person.class);
+        final AtomicInteger acknowledged = new AtomicInteger();
+        final AtomicInteger missing = new AtomicInteger();
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < 4; p++) {
+            producers.add(new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        Person person = newPerson();
+                        if (queue.write(person)) {
+                            acknowledged.incrementAndGet();
+                            if (!stored(person)) {
+                                missing.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(400, acknowledged.get());
+        assertEquals(0, missing.get());
+        assertEquals(before + 400, TestDatabase.count(sessionFactory, Person.class));
+    }
+
+    @Test
+    public void stopDrainsTheQueuedWrites() {
+        queue = queue(personDao, 50);
+        queue.start();
+        long before = TestDatabase.count(sessionFactory, Person.class);
+        for (int i = 0; i < 3000; i++) {
+            assertFalse(queue.write(newPerson()));
+        }
+        queue.stop();
+        assertEquals(0, queue.size());
+        assertEquals(before + 3000, TestDatabase.count(sessionFactory, Person.class));
+    }
+
+    @Test
+    public void aBadEntityFailsAloneWithoutDuplicatingItsGroup() throws Exception {
+        queue = queue(personDao, 50);
+        // one writer, so that the bad entity shares its group with the ones around it
+        queue.setWriters(1);
+        queue.start();
+        long before = TestDatabase.count(sessionFactory, Person.class);
+        List<CompletableFuture<Void>> goods = new ArrayList<CompletableFuture<Void>>();
+        CompletableFuture<Void> bad = null;
+        for (int i = 0; i < 120; i++) {
+            if (i == 60) {
+                Person person = newPerson();
+                person.setName(null);
+                bad = queue.submit(person);
+            } else {
+                goods.add(queue.submit(newPerson()));
+            }
+        }
+        for (CompletableFuture<Void> good : goods) {
+            good.get(10, TimeUnit.SECONDS);
+        }
+        try {
+            bad.get(10, TimeUnit.SECONDS);
+            fail("a person without a name was saved");
+        } catch (ExecutionException expected) {
+        }
+        // the failed group rolled back before its entities were saved one at a time
+        assertEquals(before + 119, TestDatabase.count(sessionFactory, Person.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGroupsLargerThanOneTransaction() {
+        queue = queue(personDao, personDao.getBatchSize() + 1);
+        queue.start();
+    }
+
+    @Test
+    public void rejectsWritesWhileFull() {
+        queue = queue(slowDao(), 1);
+        queue.setCapacity(4);
+        queue.setWriters(1);
+        queue.setOfferTimeoutMillis(20);
+        queue.start();
+        int accepted = 0;
+        try {
+            for (; accepted < 100; accepted++) {
+                queue.submit(newPerson());
+            }
+            fail("no backpressure");
+        } catch (QueueFullException expected) {
+        }
+        // the buffer, plus the entity the writer is saving
+        assertTrue(String.valueOf(accepted), accepted >= 4 && accepted <= 5);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsWritesAfterStop() {
+        queue = queue(personDao, 50);
+        queue.start();
+        queue.stop();
+        queue.submit(newPerson());
+    }
+
+    private static WriteBehindQueue<Person> queue(GenericDao<Person, ?> dao, int maxBatchSize) {
+        WriteBehindQueue<Person> queue = new WriteBehindQueue<Person>(dao);
+        queue.setName("test");
+        queue.setMaxBatchSize(maxBatchSize);
+        return queue;
+    }
+
+    /**
+     * A DAO that takes 200 ms for every write.
+     */
+    @SuppressWarnings("unchecked")
+    private static GenericDao<Person, Integer> slowDao() {
+        return (GenericDao<Person, Integer>) Proxy.newProxyInstance(WriteBehindQueueTest.class.getClassLoader(),
+                new Class<?>[]{GenericDao.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getBatchSize")) {
+                            return GenericDaoHibernate.DEFAULT_BATCH_SIZE;
+                        }
+                        Thread.sleep(200);
+                        return method.getReturnType() == int.class ? 0 : null;
+                    }
+                });
+    }
+
+    private static boolean stored(Person person) {
+        Session session = sessionFactory.openSession();
+        try {
+            return (Long) session.createQuery("select count(*) from Person where email = :email")
+                    .setParameter("email", person.getEmail()).uniqueResult() == 1;
+        } finally {
+            session.close();
+        }
+    }
+
+    private static Person newPerson() {
+        return TestDatabase.person(NEXT_PERSON.incrementAndGet());
+    }
+}
@@ -0,0 +1,192 @@
+package com.sam.dao.routing;
+
+import com.sam.dao.PersonDao;
+import com.sam.dao.PersonDaoImpl;
+import com.sam.dao.TestDatabase;
+import com.sam.model.Person;
+import org.h2.jdbcx.JdbcDataSource;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Routes a DAO between a primary and a replica H2 database, each holding a person 1 of
+ * its own name, so that every read tells which database answered it.
+ */
+public class ReplicaRoutingTest {
+
+    private static final long STICKY_MILLIS = 300;
+    private static final long RETRY_INTERVAL_MILLIS = 300;
+
+    private static final AtomicBoolean REPLICA_DOWN = new AtomicBoolean();
+    private static final AtomicInteger REPLICA_CONNECTIONS = new AtomicInteger();
+    private static final AtomicInteger NEXT_PERSON = new AtomicInteger(1);
+
+    private static SessionFactory primary;
+    private static SessionFactory replica;
+    private static SessionFactory routed;
+    private static PersonDao persons;
+
+    @BeforeClass
+    public static void createDatabases() {
+        primary = seed("routingPrimary", "primary");
+        replica = seed("routingReplica", "replica");
+
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource();
+        routing.setPrimary(dataSource("routingPrimary"));
+        routing.setReplicas(Collections.singletonList(flaky(dataSource("routingReplica"))));
+        routing.setRetryIntervalMillis(RETRY_INTERVAL_MILLIS);
+        routing.afterPropertiesSet();
+        Configuration configuration = TestDatabase.configuration();
+        configuration.getProperties().put("hibernate.connection.datasource", routing);
+        routed = configuration.buildSessionFactory();
+
+        PersonDaoImpl personDao = new PersonDaoImpl();
+        personDao.setSessionFactory(routed);
+        ReplicaReadPostProcessor postProcessor = new ReplicaReadPostProcessor();
+        postProcessor.setStickyMillis(STICKY_MILLIS);
+        persons = (PersonDao) postProcessor.postProcessAfterInitialization(personDao, "personDao");
+    }
+
+    @AfterClass
+    public static void closeDatabases() {
+        routed.close();
+        replica.close();
+        primary.close();
+    }
+
+    @Before
+    public void waitOutStickiness() throws InterruptedException {
+        // the writes of the seeding, and of other tests in this JVM, pin reads to the primary
+        Thread.sleep(Math.max(STICKY_MILLIS, RETRY_INTERVAL_MILLIS) + 50);
+    }
+
+    @After
+    public void bringTheReplicaUp() {
+        REPLICA_DOWN.set(false);
+    }
+
+    @Test
+    public void readsGoToTheReplica() {
+        assertEquals("replica", persons.get(1).getName());
+        assertTrue(persons.exists(1));
+        Person example = new Person();
+        example.setEmail(TestDatabase.person(1).getEmail());
+        assertEquals("replica", persons.findByExample(example).get(0).getName());
+        assertFalse(ReadRouting.isReplicaRead());
+    }
+
+    @Test
+    public void writesGoToThePrimary() {
+        Person person = newPerson();
+        persons.save(person);
+        assertTrue(stored(primary, person));
+        assertFalse(stored(replica, person));
+    }
+
+    @Test
+    public void readsRightAfterAWriteStickToThePrimary() throws InterruptedException {
+        persons.save(newPerson());
+        assertEquals("primary", persons.get(1).getName());
+
+        // other threads reading the written entity too
+        final String[] otherThread = new String[1];
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                otherThread[0] = persons.get(1).getName();
+            }
+        });
+        reader.start();
+        reader.join();
+        assertEquals("primary", otherThread[0]);
+
+        Thread.sleep(STICKY_MILLIS + 50);
+        assertEquals("replica", persons.get(1).getName());
+    }
+
+    @Test
+    public void readsFailOverWhileTheReplicaIsDown() throws InterruptedException {
+        REPLICA_DOWN.set(true);
+        assertEquals("primary", persons.get(1).getName());
+        int attempts = REPLICA_CONNECTIONS.get();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("primary", persons.get(1).getName());
+        }
+        assertEquals("the failed replica is not retried within the interval", attempts, REPLICA_CONNECTIONS.get());
+
+        REPLICA_DOWN.set(false);
+        Thread.sleep(RETRY_INTERVAL_MILLIS + 50);
+        assertEquals("replica", persons.get(1).getName());
+    }
+
+    private static SessionFactory seed(String name, String personName) {
+        SessionFactory sessionFactory = TestDatabase.create(name);
+        PersonDaoImpl personDao = new PersonDaoImpl();
+        personDao.setSessionFactory(sessionFactory);
+        Person person = TestDatabase.person(1);
+        person.setName(personName);
+        personDao.insertAll(Collections.singletonList(person));
+        return sessionFactory;
+    }
+
+    private static DataSource dataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(TestDatabase.url(name));
+        return dataSource;
+    }
+
+    /**
+     * A data source that refuses connections while {@link #REPLICA_DOWN} is set.
+     */
+    private static DataSource flaky(final DataSource target) {
+        return (DataSource) Proxy.newProxyInstance(ReplicaRoutingTest.class.getClassLoader(),
+                new Class<?>[]{DataSource.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getConnection")) {
+                            REPLICA_CONNECTIONS.incrementAndGet();
+                            if (REPLICA_DOWN.get()) {
+                                throw new SQLException("replica down");
+                            }
+                        }
+                        try {
+                            return method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    }
+                });
+    }
+
+    private static boolean stored(SessionFactory database, Person person) {
+        Session session = database.openSession();
+        try {
+            return (Long) session.createQuery("select count(*) from Person where email = :email")
+                    .setParameter("email", person.getEmail()).uniqueResult() == 1;
+        } finally {
+            session.close();
+        }
+    }
+
+    private static Person newPerson() {
+        return TestDatabase.person(NEXT_PERSON.incrementAndGet());
+    }
+}
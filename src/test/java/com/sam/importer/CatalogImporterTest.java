@@ -0,0 +1,242 @@
+package com.sam.importer;
+
+import com.sam.dao.ProductDao;
+import com.sam.dao.ProductDaoImpl;
+import com.sam.dao.TestDatabase;
+import com.sam.dao.generic.GenericDaoHibernate;
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Imports CSV catalogs into an H2 database through small chunks and several writers,
+ * and checks the rows, the progress and the checkpoint each import leaves.
+ */
+public class CatalogImporterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int RECORDS = 2500;
+    private static final int CHUNK_SIZE = 100;
+    private static final int SELLERS = 10;
+
+    private static SessionFactory sessionFactory;
+    private static ProductDaoImpl productDao;
+    private static GenericDaoHibernate<Seller, String> sellerDao;
+    private static int nextCatalog;
+
+    @Rule
+    public TemporaryFolder checkpoints = new TemporaryFolder();
+
+    private CatalogImporter importer;
+    // product ids of the catalog of the test, which no other test writes
+    private String catalog;
+
+    @BeforeClass
+    public static void createDatabase() {
+        sessionFactory = TestDatabase.create("catalogImport");
+        productDao = new ProductDaoImpl();
+        productDao.setSessionFactory(sessionFactory);
+        sellerDao = new GenericDaoHibernate<Seller, String>(Seller.class, sessionFactory);
+    }
+
+    @AfterClass
+    public static void closeDatabase() {
+        sessionFactory.close();
+    }
+
+    @Before
+    public void createImporter() {
+        catalog = "c" + ++nextCatalog;
+        importer = importer(productDao);
+    }
+
+    @Test
+    public void cleanImportWritesEveryRecordInInputOrder() {
+        // the last records rename products of the first chunks, which other writers are busy with
+        StringBuilder csv = csv(RECORDS - 200, -1);
+        for (int i = 0; i < 200; i++) {
+            csv.append(record(i * 3, "renamed " + i)).append('\n');
+        }
+        ImportProgress progress = importer.importCatalog(catalog, ImportFormat.CSV, input(csv));
+
+        assertEquals(progress.getError(), ImportProgress.State.DONE, progress.getState());
+        assertEquals(RECORDS, progress.getRecordsRead());
+        assertEquals(RECORDS, progress.getRecordsCommitted());
+        assertEquals(RECORDS, progress.getProductsWritten());
+        assertEquals(0, progress.getRecordsFailed());
+        assertEquals(SELLERS, progress.getSellersCreated());
+        assertEquals(RECORDS - 200, products());
+        assertEquals("renamed 10", productDao.get(id(30)).getProductName());
+        assertEquals("product 31", productDao.get(id(31)).getProductName());
+        assertEquals("seller " + catalog + "-1", productDao.get(id(31)).getSeller().getSellerName());
+        assertFalse(checkpoint().exists());
+    }
+
+    @Test
+    public void resumesAfterTheCommittedPrefixOfAFailedImport() throws IOException {
+        importer.setMaxFailedRecords(0);
+        ImportProgress failed = importer.importCatalog(catalog, ImportFormat.CSV, input(csv(RECORDS, 1234)));
+
+        assertEquals(ImportProgress.State.FAILED, failed.getState());
+        // whole chunks before the one of record 1234
+        long committed = failed.getRecordsCommitted();
+        assertTrue(String.valueOf(committed), committed <= 1200 && committed % CHUNK_SIZE == 0);
+        assertEquals(committed, Long.parseLong(checkpointed().getProperty("records")));
+
+        importer = importer(productDao);
+        ImportProgress resumed = importer.importCatalog(catalog, ImportFormat.CSV, input(csv(RECORDS, -1)));
+
+        assertEquals(resumed.getError(), ImportProgress.State.DONE, resumed.getState());
+        assertEquals(committed, resumed.getResumedFrom());
+        assertEquals(RECORDS, resumed.getRecordsCommitted());
+        assertEquals(RECORDS, resumed.getProductsWritten());
+        assertEquals(RECORDS, products());
+        assertEquals(SELLERS, resumed.getSellersCreated());
+        assertFalse(checkpoint().exists());
+    }
+
+    @Test
+    public void skipsBadRecordsUpToTheLimit() {
+        importer.setMaxFailedRecords(3);
+        StringBuilder csv = csv(RECORDS, 7);
+        csv.append(id(RECORDS)).append(",,\n").append(",nameless,\n");
+        ImportProgress progress = importer.importCatalog(catalog, ImportFormat.CSV, input(csv));
+
+        assertEquals(progress.getError(), ImportProgress.State.DONE, progress.getState());
+        assertEquals(3, progress.getRecordsFailed());
+        assertEquals(RECORDS - 1, progress.getProductsWritten());
+        assertEquals(RECORDS - 1, products());
+    }
+
+    @Test
+    public void abortsAfterTooManyBadRecords() {
+        importer.setMaxFailedRecords(5);
+        StringBuilder csv = csv(RECORDS, -1);
+        for (int i = 0; i < 8; i++) {
+            csv.append("no product name ").append(i).append(",\n");
+        }
+        ImportProgress progress = importer.importCatalog(catalog, ImportFormat.CSV, input(csv));
+
+        assertEquals(ImportProgress.State.FAILED, progress.getState());
+        assertTrue(progress.getError(), progress.getError().contains("More than 5 records failed"));
+        assertTrue(progress.getRecordsCommitted() < progress.getRecordsRead());
+        assertTrue(checkpoint().exists());
+    }
+
+    @Test
+    public void abortsWhenEveryProductOfAGroupFails() {
+        importer = importer(failingDao());
+        ImportProgress progress = importer.importCatalog(catalog, ImportFormat.CSV, input(csv(RECORDS, -1)));
+
+        assertEquals(ImportProgress.State.FAILED, progress.getState());
+        assertTrue(progress.getError(), progress.getError().contains("Every product of a group"));
+        assertEquals(0, progress.getProductsWritten());
+        assertEquals(0, progress.getRecordsCommitted());
+        assertEquals(0, products());
+    }
+
+    private CatalogImporter importer(ProductDao dao) {
+        CatalogImporter importer = new CatalogImporter();
+        importer.setProductDao(dao);
+        importer.setSellerDao(sellerDao);
+        importer.setCheckpointDir(checkpoints.getRoot());
+        importer.setCheckpointIntervalMillis(0);
+        importer.setChunkSize(CHUNK_SIZE);
+        importer.setParseThreads(2);
+        importer.setWriters(3);
+        importer.setQueueCapacity(2);
+        return importer;
+    }
+
+    /**
+     * A product DAO whose writes all fail.
+     */
+    private static ProductDao failingDao() {
+        return (ProductDao) Proxy.newProxyInstance(CatalogImporterTest.class.getClassLoader(),
+                new Class<?>[]{ProductDao.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().startsWith("upsert")) {
+                            throw new IllegalStateException("database down");
+                        }
+                        try {
+                            return method.invoke(productDao, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * A catalog of {@code records} products over {@link #SELLERS} sellers, record
+     * {@code bad} (1-based) without a product name.
+     */
+    private StringBuilder csv(int records, int bad) {
+        StringBuilder csv = new StringBuilder("id,productName,description,sellerId,sellerName\n");
+        for (int i = 0; i < records; i++) {
+            csv.append(record(i, i + 1 == bad ? "" : "product " + i)).append('\n');
+        }
+        return csv;
+    }
+
+    private String record(int i, String name) {
+        String seller = catalog + "-" + i % SELLERS;
+        return id(i) + "," + name + ",\"description, of " + i + "\"," + seller + ",seller " + seller;
+    }
+
+    private String id(int i) {
+        return catalog + "-" + i;
+    }
+
+    private static InputStream input(CharSequence csv) {
+        return new ByteArrayInputStream(csv.toString().getBytes(UTF_8));
+    }
+
+    private long products() {
+        Session session = sessionFactory.openSession();
+        try {
+            return (Long) session.createQuery("select count(*) from Product where id like :catalog")
+                    .setParameter("catalog", catalog + "-%").uniqueResult();
+        } finally {
+            session.close();
+        }
+    }
+
+    private File checkpoint() {
+        return new File(checkpoints.getRoot(), catalog + CatalogImporter.CHECKPOINT_SUFFIX);
+    }
+
+    private Properties checkpointed() throws IOException {
+        Properties checkpoint = new Properties();
+        InputStream in = new FileInputStream(checkpoint());
+        try {
+            checkpoint.load(in);
+        } finally {
+            in.close();
+        }
+        return checkpoint;
+    }
+}
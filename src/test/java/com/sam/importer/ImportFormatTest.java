@@ -0,0 +1,134 @@
+package com.sam.importer;
+
+import com.sam.model.Product;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Splits inputs into records and parses them, as {@link CatalogImporter} does.
+ */
+public class ImportFormatTest {
+
+    @Test
+    public void csvColumnsAreFoundByNameInAnyOrderAndCase() throws IOException {
+        List<Product> products = parse(ImportFormat.CSV,
+                "SellerName,extra,ProductName,ID,sellerId,DESCRIPTION\n"
+                        + "Seller 1,x,Lamp,p1,s1,A desk lamp\n");
+        Product lamp = products.get(0);
+        assertEquals("p1", lamp.getId());
+        assertEquals("Lamp", lamp.getProductName());
+        assertEquals("A desk lamp", lamp.getDescription());
+        assertEquals("s1", lamp.getSeller().getSellerId());
+        assertEquals("Seller 1", lamp.getSeller().getSellerName());
+    }
+
+    @Test
+    public void quotedCsvValuesHoldCommasQuotesAndLineBreaks() throws IOException {
+        List<Product> products = parse(ImportFormat.CSV,
+                "id,productName,description\n"
+                        + "p1,\"Lamp, desk\",\"The \"\"bright\"\" one\"\n"
+                        + "p2,Chair,\"first line\n"
+                        + "\n"
+                        + "third line, after an empty one\"\n"
+                        + "p3,Table,\n");
+        assertEquals(3, products.size());
+        assertEquals("Lamp, desk", products.get(0).getProductName());
+        assertEquals("The \"bright\" one", products.get(0).getDescription());
+        assertEquals("first line\n\nthird line, after an empty one", products.get(1).getDescription());
+        assertEquals("Table", products.get(2).getProductName());
+        assertNull(products.get(2).getDescription());
+    }
+
+    @Test
+    public void csvRecordsAreCountedOncePerRecordNotPerLine() throws IOException {
+        BufferedReader in = reader("id,productName\n\np1,\"two\nlines\"\n\n\np2,one line\n");
+        ImportFormat.CSV.open(in);
+        assertEquals("p1,\"two\nlines\"", ImportFormat.CSV.readRecord(in));
+        assertEquals("p2,one line", ImportFormat.CSV.readRecord(in));
+        assertNull(ImportFormat.CSV.readRecord(in));
+    }
+
+    @Test
+    public void emptyCsvValuesAreNull() throws IOException {
+        Product product = parse(ImportFormat.CSV, "id,productName,description,sellerId,sellerName\np1, Lamp ,,  ,\n").get(0);
+        assertEquals("Lamp", product.getProductName());
+        assertNull(product.getDescription());
+        assertNull(product.getSeller());
+    }
+
+    @Test(expected = IOException.class)
+    public void unterminatedQuoteIsAnError() throws IOException {
+        BufferedReader in = reader("id,productName\np1,\"Lamp\n");
+        ImportFormat.CSV.open(in);
+        ImportFormat.CSV.readRecord(in);
+    }
+
+    @Test(expected = IOException.class)
+    public void csvHeaderNeedsAnIdAndAName() throws IOException {
+        ImportFormat.CSV.open(reader("id,description\n"));
+    }
+
+    @Test
+    public void productsNeedAnIdAndAName() throws IOException {
+        ImportFormat.Parser parser = ImportFormat.CSV.open(reader("id,productName\n"));
+        for (String record : Arrays.asList(",Lamp", "p1,", "p1")) {
+            try {
+                parser.parse(record);
+                fail(record);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void ndjsonRecordsAreLines() throws IOException {
+        List<Product> products = parse(ImportFormat.NDJSON,
+                "{\"id\": \"p1\", \"productName\": \"Lamp\", \"seller\": {\"sellerId\": \"s1\", \"sellerName\": \"Seller 1\"}}\n"
+                        + "  \n"
+                        + "{\"id\": \"p2\", \"productName\": \"Chair\", \"seller\": {\"sellerName\": \"no id\"}}\n");
+        assertEquals(2, products.size());
+        assertEquals("s1", products.get(0).getSeller().getSellerId());
+        assertNull(products.get(1).getSeller());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedJsonIsAnInvalidRecord() throws IOException {
+        ImportFormat.NDJSON.open(reader("")).parse("{\"id\": ");
+    }
+
+    @Test
+    public void formatsAreNamedInAnyCase() {
+        assertEquals(ImportFormat.CSV, ImportFormat.of("csv"));
+        assertEquals(ImportFormat.NDJSON, ImportFormat.of("NdJson"));
+        try {
+            ImportFormat.of("xml");
+            fail("xml");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static List<Product> parse(ImportFormat format, String input) throws IOException {
+        BufferedReader in = reader(input);
+        ImportFormat.Parser parser = format.open(in);
+        List<Product> products = new ArrayList<Product>();
+        String record;
+        while ((record = format.readRecord(in)) != null) {
+            products.add(parser.parse(record));
+        }
+        return products;
+    }
+
+    private static BufferedReader reader(String input) {
+        return new BufferedReader(new StringReader(input));
+    }
+}
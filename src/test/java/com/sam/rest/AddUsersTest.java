@@ -0,0 +1,107 @@
+package com.sam.rest;
+
+import com.sam.dao.PersonDao;
+import com.sam.dao.PersonDaoImpl;
+import com.sam.dao.TestDatabase;
+import com.sam.model.Person;
+import com.sam.service.PersonService;
+import org.hibernate.SessionFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Posts NDJSON persons to /addUsers on an H2 database and checks what a client is told
+ * when a record in the middle fails.
+ */
+public class AddUsersTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static SessionFactory sessionFactory;
+    private static ProductSearchImpl resource;
+    private static int nextPerson;
+
+    @BeforeClass
+    public static void createDatabase() {
+        sessionFactory = TestDatabase.create("addUsers");
+        final PersonDaoImpl personDao = new PersonDaoImpl();
+        personDao.setSessionFactory(sessionFactory);
+        resource = new ProductSearchImpl();
+        resource.personServices = new PersonService() {
+            public PersonDao getPersonDao() {
+                return personDao;
+            }
+
+            public boolean addPerson(Person person) {
+                personDao.add(person);
+                return true;
+            }
+        };
+    }
+
+    @AfterClass
+    public static void closeDatabase() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void insertsEveryRecord() {
+        long before = TestDatabase.count(sessionFactory, Person.class);
+        assertEquals("Inserted 120", resource.addUsers(body(120, -1, null)));
+        assertEquals(before + 120, TestDatabase.count(sessionFactory, Person.class));
+    }
+
+    @Test
+    public void malformedRecordIsABadRequestAfterTheCommittedBatches() {
+        long before = TestDatabase.count(sessionFactory, Person.class);
+        try {
+            resource.addUsers(body(120, 75, "{\"name\": "));
+            fail("a malformed record was accepted");
+        } catch (WebApplicationException e) {
+            assertEquals(400, e.getResponse().getStatus());
+            String message = String.valueOf(e.getResponse().getEntity());
+            assertTrue(message, message.startsWith("Inserted 50, then failed at record 75: Malformed JSON records"));
+        }
+        assertEquals(before + 50, TestDatabase.count(sessionFactory, Person.class));
+    }
+
+    @Test
+    public void failedBatchIsReportedWithTheRecordsItHeld() {
+        long before = TestDatabase.count(sessionFactory, Person.class);
+        try {
+            resource.addUsers(body(120, 60, "{\"email\": \"nameless@example.com\", \"phone\": \"555\"}"));
+            fail("a person without a name was inserted");
+        } catch (WebApplicationException e) {
+            assertEquals(500, e.getResponse().getStatus());
+            String message = String.valueOf(e.getResponse().getEntity());
+            assertTrue(message, message.startsWith("Inserted 50, then failed in records 51 to 100: "));
+        }
+        assertEquals(before + 50, TestDatabase.count(sessionFactory, Person.class));
+    }
+
+    /**
+     * NDJSON of {@code records} persons, record {@code bad} (1-based) replaced by {@code badRecord}.
+     */
+    private static ByteArrayInputStream body(int records, int bad, String badRecord) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 1; i <= records; i++) {
+            if (i == bad) {
+                body.append(badRecord).append('\n');
+                continue;
+            }
+            int person = ++nextPerson;
+            body.append(String.format("{\"name\": \"person %d\", \"email\": \"person%d@example.com\", \"phone\": \"555-%d\"}%n",
+                    person, person, person));
+        }
+        return new ByteArrayInputStream(body.toString().getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,239 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scores every product of a query by brute force and expects WAND to return the same
+ * top hits, page by page, and the same totals, with and without a seller filter.
+ */
+public class Bm25OracleTest {
+
+    private static final String[] COMMON = {"red", "blue", "lamp", "chair", "table", "wooden", "steel", "desk"};
+    private static final int PRODUCTS = 6000;
+    private static final int SELLERS = 8;
+    private static final float TOLERANCE = 1e-4f;
+
+    private static List<Product> products;
+    private static String[] rare;
+    private static ForkJoinPool pool;
+    // weighted term frequencies and lengths of every product, and the document frequencies
+    private static List<Map<String, Integer>> freqs;
+    private static int[] lengths;
+    private static Map<String, Integer> docFreqs;
+    private static float avgDocLength;
+
+    @BeforeClass
+    public static void createProducts() {
+        Random random = new Random(11);
+        rare = new String[800];
+        for (int i = 0; i < rare.length; i++) {
+            rare[i] = "r" + Integer.toString(i, 36) + (char) ('a' + random.nextInt(26));
+        }
+        Seller[] sellers = new Seller[SELLERS];
+        for (int i = 0; i < sellers.length; i++) {
+            sellers[i] = new Seller();
+            sellers[i].setSellerId("s" + i);
+            sellers[i].setSellerName("Seller " + i);
+        }
+        products = new ArrayList<Product>(PRODUCTS);
+        for (int i = 0; i < PRODUCTS; i++) {
+            Product product = new Product();
+            product.setId("p" + i);
+            product.setProductName(text(random, 1 + random.nextInt(5)));
+            if (random.nextInt(3) > 0) {
+                product.setDescription(text(random, random.nextInt(20)));
+            }
+            if (random.nextInt(10) > 0) {
+                product.setSeller(sellers[random.nextInt(sellers.length)]);
+            }
+            products.add(product);
+        }
+        pool = new ForkJoinPool(4);
+
+        freqs = new ArrayList<Map<String, Integer>>(PRODUCTS);
+        lengths = new int[PRODUCTS];
+        docFreqs = new HashMap<String, Integer>();
+        long totalLength = 0;
+        for (int doc = 0; doc < PRODUCTS; doc++) {
+            Product product = products.get(doc);
+            Map<String, Integer> docTerms = new HashMap<String, Integer>();
+            List<String> name = Tokenizer.tokenize(product.getProductName());
+            List<String> description = Tokenizer.tokenize(product.getDescription());
+            for (String token : name) {
+                add(docTerms, token, Bm25.NAME_WEIGHT);
+            }
+            for (String token : description) {
+                add(docTerms, token, 1);
+            }
+            for (String term : docTerms.keySet()) {
+                add(docFreqs, term, 1);
+            }
+            freqs.add(docTerms);
+            lengths[doc] = Bm25.NAME_WEIGHT * name.size() + description.size();
+            totalLength += lengths[doc];
+        }
+        avgDocLength = Math.max(1f, (float) totalLength / PRODUCTS);
+    }
+
+    @AfterClass
+    public static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void oneIndexMatchesTheOracle() {
+        ProductIndexBuilder builder = new ProductIndexBuilder();
+        builder.addAll(products);
+        assertMatchesOracle(new ProductSearcher(IndexSnapshot.of(builder.build())));
+    }
+
+    @Test
+    public void shardsMatchTheOracle() {
+        ShardedIndexBuilder builder = new ShardedIndexBuilder(3);
+        for (Product product : products) {
+            builder.add(product);
+        }
+        IndexSnapshot snapshot = IndexSnapshot.of(builder.build());
+        assertMatchesOracle(new ProductSearcher(snapshot));
+        assertMatchesOracle(new ProductSearcher(snapshot, pool));
+    }
+
+    private static void assertMatchesOracle(ProductSearcher searcher) {
+        Random random = new Random(13);
+        int prunedSearches = 0;
+        List<String> queries = new ArrayList<String>(Arrays.asList("lamp", "lamp lamp", "red lamp steel",
+                rare[0] + " table", "nothing", "chair " + rare[1] + " " + rare[2] + " desk blue"));
+        for (int i = 0; i < 40; i++) {
+            queries.add(text(random, 1 + random.nextInt(4)));
+        }
+        List<Collection<String>> filters = new ArrayList<Collection<String>>();
+        filters.add(null);
+        filters.add(Collections.singletonList("s3"));
+        filters.add(Arrays.asList("s0", "s5", "unknown"));
+        for (String query : queries) {
+            for (Collection<String> sellerIds : filters) {
+                List<Scored> expected = oracle(query, sellerIds);
+                for (int[] page : new int[][]{{0, 1}, {0, 10}, {10, 10}, {0, 100}}) {
+                    String message = query + " of " + sellerIds + " from " + page[0] + " by " + page[1];
+                    SearchResult counted = searcher.search(query, sellerIds, false, 3, page[0], page[1]);
+                    assertPage(message, expected, page[0], page[1], counted);
+                    assertEquals(message, expected.size(), counted.getTotalHits());
+                    assertTrue(message, counted.isTotalHitsExact());
+
+                    SearchResult pruned = searcher.search(query, sellerIds, false, 0, page[0], page[1]);
+                    assertPage(message, expected, page[0], page[1], pruned);
+                    if (pruned.isTotalHitsExact()) {
+                        assertEquals(message, expected.size(), pruned.getTotalHits());
+                    } else {
+                        assertTrue(message, pruned.getTotalHits() <= expected.size());
+                        prunedSearches++;
+                    }
+                }
+            }
+        }
+        assertTrue("WAND skipped no documents", prunedSearches > 0);
+    }
+
+    /**
+     * Expects the page to hold products scoring what the oracle's do at the same ranks;
+     * products of equal scores may come in either order, as the oracle sums them differently.
+     */
+    private static void assertPage(String message, List<Scored> expected, int offset, int limit, SearchResult result) {
+        List<Product> page = result.getProducts();
+        assertEquals(message, Math.max(0, Math.min(limit, expected.size() - offset)), page.size());
+        Map<String, Float> scores = new HashMap<String, Float>();
+        for (Scored scored : expected) {
+            scores.put(scored.product.getId(), scored.score);
+        }
+        Set<String> ids = new LinkedHashSet<String>();
+        for (int i = 0; i < page.size(); i++) {
+            String id = page.get(i).getId();
+            assertTrue(message + ": " + id + " is not a hit", scores.containsKey(id));
+            assertTrue(message + ": " + id + " twice", ids.add(id));
+            assertEquals(message + " at " + (offset + i), expected.get(offset + i).score, scores.get(id), TOLERANCE);
+        }
+    }
+
+    /**
+     * @return every product containing a query term, of the sellers if given, best first
+     */
+    private static List<Scored> oracle(String query, Collection<String> sellerIds) {
+        Set<String> terms = new LinkedHashSet<String>(Tokenizer.tokenize(query));
+        List<Scored> hits = new ArrayList<Scored>();
+        for (int doc = 0; doc < products.size(); doc++) {
+            Product product = products.get(doc);
+            if (sellerIds != null && (product.getSeller() == null
+                    || !sellerIds.contains(product.getSeller().getSellerId()))) {
+                continue;
+            }
+            float score = 0f;
+            boolean matches = false;
+            for (String term : terms) {
+                Integer freq = freqs.get(doc).get(term);
+                if (freq != null) {
+                    matches = true;
+                    score += Bm25.idf(docFreqs.get(term), products.size())
+                            * Bm25.tf(freq, Bm25.lengthNorm(lengths[doc], avgDocLength));
+                }
+            }
+            if (matches) {
+                hits.add(new Scored(product, score));
+            }
+        }
+        Collections.sort(hits, new Comparator<Scored>() {
+            public int compare(Scored a, Scored b) {
+                return Float.compare(b.score, a.score);
+            }
+        });
+        return hits;
+    }
+
+    private static void add(Map<String, Integer> counts, String key, int count) {
+        Integer known = counts.get(key);
+        counts.put(key, known == null ? count : known + count);
+    }
+
+    /**
+     * @return words mostly of a few common ones, so WAND has long postings to skip
+     */
+    private static String text(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(random.nextInt(3) > 0 ? COMMON[random.nextInt(COMMON.length)] : rare[random.nextInt(rare.length)]);
+        }
+        return text.toString();
+    }
+
+    private static final class Scored {
+        final Product product;
+        final float score;
+
+        Scored(Product product, float score) {
+            this.product = product;
+            this.score = score;
+        }
+    }
+}
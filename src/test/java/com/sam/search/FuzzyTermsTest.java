@@ -0,0 +1,155 @@
+package com.sam.search;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the terms the Levenshtein automaton finds with a scan computing the edit
+ * distance to every term of the dictionary.
+ */
+public class FuzzyTermsTest {
+
+    // few letters, so that most misspellings have several terms within reach
+    private static final String ALPHABET = "aeioustrnlcdmpbgh";
+
+    private static String[] terms;
+    private static List<String> misspellings;
+
+    @BeforeClass
+    public static void createDictionary() {
+        Random random = new Random(3);
+        TreeSet<String> vocabulary = new TreeSet<String>();
+        while (vocabulary.size() < 8000) {
+            vocabulary.add(randomWord(random, 3 + random.nextInt(8)));
+        }
+        terms = vocabulary.toArray(new String[vocabulary.size()]);
+
+        misspellings = new ArrayList<String>();
+        for (int i = 0; i < 150; i++) {
+            misspellings.add(misspell(random, terms[random.nextInt(terms.length)]));
+        }
+        // words no term is near, and words with two typos
+        misspellings.add("abc");
+        misspellings.add("zzzzzzzzzzzzzz");
+        for (int i = 0; i < 30; i++) {
+            misspellings.add(misspell(random, misspell(random, terms[random.nextInt(terms.length)])));
+        }
+    }
+
+    @Test
+    public void findsTheTermsWithinOneEdit() {
+        for (String misspelling : misspellings) {
+            assertMatchesScan(misspelling, 1, null);
+        }
+    }
+
+    @Test
+    public void findsTheTermsWithinTwoEdits() {
+        for (String misspelling : misspellings) {
+            assertMatchesScan(misspelling, 2, null);
+        }
+    }
+
+    @Test
+    public void findsTheTermsWithinTheQueryTermsEditLimit() {
+        for (String misspelling : misspellings) {
+            assertMatchesScan(misspelling, ProductSearcher.maxEdits(misspelling), null);
+        }
+    }
+
+    @Test
+    public void onlyReturnsAllowedTerms() {
+        BitSet allowed = new BitSet(terms.length);
+        for (int i = 0; i < terms.length; i += 3) {
+            allowed.set(i);
+        }
+        for (String misspelling : misspellings) {
+            assertMatchesScan(misspelling, 2, allowed);
+        }
+    }
+
+    @Test
+    public void keepsTheSmallerDistanceOfAKnownTerm() {
+        String term = terms[terms.length / 2];
+        Map<String, Integer> distances = new HashMap<String, Integer>();
+        distances.put(term, 2);
+        FuzzyTerms.collect(terms, null, term, 2, distances);
+        assertEquals(Integer.valueOf(0), distances.get(term));
+    }
+
+    private static void assertMatchesScan(String query, int maxEdits, BitSet allowed) {
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int i = 0; i < terms.length; i++) {
+            int distance = distance(query, terms[i]);
+            if (distance <= maxEdits && (allowed == null || allowed.get(i))) {
+                expected.put(terms[i], distance);
+            }
+        }
+        Map<String, Integer> found = new HashMap<String, Integer>();
+        FuzzyTerms.collect(terms, allowed, query, maxEdits, found);
+        assertEquals(query + " within " + maxEdits, expected, found);
+    }
+
+    /**
+     * Optimal string alignment distance: insertions, deletions, substitutions and swaps of
+     * two adjacent characters.
+     */
+    private static int distance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + substitution);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return word.toString();
+    }
+
+    /**
+     * Applies one random typo: a swap, a deletion, an insertion or a substitution.
+     */
+    private static String misspell(Random random, String word) {
+        int at = random.nextInt(word.length());
+        switch (random.nextInt(4)) {
+            case 0:
+                if (word.length() < 2) {
+                    return word;
+                }
+                at = Math.min(at, word.length() - 2);
+                return word.substring(0, at) + word.charAt(at + 1) + word.charAt(at) + word.substring(at + 2);
+            case 1:
+                return word.length() > 1 ? word.substring(0, at) + word.substring(at + 1) : word;
+            case 2:
+                return word.substring(0, at) + ALPHABET.charAt(random.nextInt(ALPHABET.length())) + word.substring(at);
+            default:
+                return word.substring(0, at) + 'z' + word.substring(at + 1);
+        }
+    }
+}
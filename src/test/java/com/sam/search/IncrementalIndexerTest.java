@@ -0,0 +1,256 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Changes products of an indexer over a base index of two shards, refreshing by hand, and
+ * checks which versions the snapshots hold and find.
+ */
+public class IncrementalIndexerTest {
+
+    private static final String[] WORDS = {"red", "blue", "green", "lamp", "chair", "table", "wooden", "steel",
+            "desk", "sofa", "leather", "cushion"};
+    private static final int BASE_PRODUCTS = 300;
+    private static final String[] QUERIES = {"red lamp", "leather sofa", "steel", "wooden desk chair", "cushion"};
+
+    private final Random random = new Random(3);
+    private final Seller seller = new Seller();
+    private IncrementalIndexer indexer;
+    // the current version of every product, by id
+    private Map<String, String> names;
+
+    @Before
+    public void installBase() {
+        seller.setSellerId("s1");
+        seller.setSellerName("Seller 1");
+        names = new TreeMap<String, String>();
+        List<Product> base = new ArrayList<Product>();
+        for (int i = 0; i < BASE_PRODUCTS; i++) {
+            base.add(product("p" + i, randomName()));
+        }
+        indexer = new IncrementalIndexer();
+        indexer.install(shards(base));
+    }
+
+    @After
+    public void stopIndexer() {
+        indexer.stop();
+    }
+
+    @Test
+    public void changesDuringARebuildAreReplayedOnTheNewBase() {
+        List<Product> read = new ArrayList<Product>();
+        for (int i = 0; i < BASE_PRODUCTS; i++) {
+            read.add(product("p" + i, names.get("p" + i)));
+        }
+        indexer.beginRebuild();
+        // applied while the rebuild runs, after it read the products
+        indexer.update(product("p5", "zebra"));
+        indexer.delete("p6");
+        names.remove("p6");
+        indexer.refresh();
+        // still queued when the rebuild installs
+        indexer.update(product("p7", "okapi"));
+
+        IndexSnapshot snapshot = indexer.install(shards(read));
+
+        assertEquals(names, liveNames(snapshot));
+        assertEquals(ids(product("p5", "zebra")), ids(search(snapshot, "zebra")));
+        assertEquals(ids(product("p7", "okapi")), ids(search(snapshot, "okapi")));
+        assertEquals(0, indexer.pendingCount());
+    }
+
+    @Test
+    public void changesBeforeARebuildAreNotReplayed() {
+        indexer.update(product("p5", "zebra"));
+        indexer.refresh();
+        List<Product> read = new ArrayList<Product>();
+        for (int i = 0; i < BASE_PRODUCTS; i++) {
+            // the rebuild read p5 after the change, and sees it deleted since
+            if (i != 5) {
+                read.add(product("p" + i, names.get("p" + i)));
+            }
+        }
+        names.remove("p5");
+        indexer.beginRebuild();
+        IndexSnapshot snapshot = indexer.install(shards(read));
+        assertEquals(names, liveNames(snapshot));
+        assertEquals(2, snapshot.segmentCount());
+    }
+
+    @Test
+    public void deletingABaseProductHidesIt() {
+        String name = names.get("p42");
+        assertTrue(ids(search(indexer.snapshot(), name)).contains("p42"));
+        indexer.delete("p42");
+        names.remove("p42");
+        IndexSnapshot snapshot = indexer.refresh();
+
+        assertFalse(ids(search(snapshot, name)).contains("p42"));
+        assertEquals(BASE_PRODUCTS - 1, snapshot.numDocs());
+        assertEquals(BASE_PRODUCTS, snapshot.maxDoc());
+        // the base segments stay, no new segment for a deletion alone
+        assertEquals(2, snapshot.segmentCount());
+        assertEquals(names, liveNames(snapshot));
+    }
+
+    @Test
+    public void updatingABaseProductReplacesIt() {
+        indexer.update(product("p42", "zebra lamp"));
+        IndexSnapshot snapshot = indexer.refresh();
+        assertEquals(3, snapshot.segmentCount());
+        assertEquals(BASE_PRODUCTS, snapshot.numDocs());
+        assertEquals("zebra lamp", snapshot.document(snapshot.maxDoc() - 1).getProductName());
+        assertEquals(names, liveNames(snapshot));
+    }
+
+    @Test
+    public void mergingSegmentsWithoutDeletionsKeepsTheScores() {
+        indexer.setMaxSegments(100);
+        for (int segment = 0; segment < 6; segment++) {
+            for (int i = 0; i < 10; i++) {
+                indexer.update(product("n" + segment + "-" + i, randomName()));
+            }
+            indexer.refresh();
+        }
+        IndexSnapshot before = indexer.snapshot();
+        assertEquals(2 + 6, before.segmentCount());
+
+        indexer.setMaxSegments(2);
+        IndexSnapshot merged = indexer.refresh();
+        assertEquals(2 + 1, merged.segmentCount());
+        assertEquals(before.numDocs(), merged.numDocs());
+        for (String query : QUERIES) {
+            // equal scores keep the order of the doc ids, which the merge keeps as well
+            SearchResult expected = search(before, query);
+            SearchResult actual = search(merged, query);
+            assertEquals(query, ids(expected), ids(actual));
+            assertEquals(query, expected.getTotalHits(), actual.getTotalHits());
+        }
+    }
+
+    @Test
+    public void mergingDropsReplacedAndDeletedProducts() {
+        indexer.setMaxSegments(3);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 5; i++) {
+                String id = (random.nextBoolean() ? "p" : "n") + random.nextInt(40);
+                if (random.nextInt(4) == 0) {
+                    indexer.delete(id);
+                    names.remove(id);
+                } else {
+                    indexer.update(product(id, randomName()));
+                }
+            }
+            IndexSnapshot snapshot = indexer.refresh();
+            assertTrue(snapshot.segmentCount() <= 2 + 3);
+            assertEquals(names, liveNames(snapshot));
+            assertEquals(names.size(), snapshot.numDocs());
+        }
+        IndexSnapshot snapshot = indexer.snapshot();
+        // merged segments hold live products only
+        for (int s = 2; s < snapshot.segmentCount() - 1; s++) {
+            IndexSnapshot.Segment segment = snapshot.segment(s);
+            assertEquals(segment.index.maxDoc(), segment.numDocs() + segment.deleteCount());
+        }
+    }
+
+    @Test
+    public void globalDocIdsSkipEmptySegments() {
+        ProductIndex empty = new ProductIndexBuilder().build();
+        ProductIndex first = new ProductIndexBuilder().add(product("a", "red")).add(product("b", "blue")).build();
+        ProductIndex second = new ProductIndexBuilder().add(product("c", "green")).build();
+        IndexSnapshot snapshot = IndexSnapshot.of(empty, first, empty, empty, second, empty);
+        List<Product> products = Arrays.asList(first.document(0), first.document(1), second.document(0));
+        assertEquals(3, snapshot.maxDoc());
+        for (int doc = 0; doc < snapshot.maxDoc(); doc++) {
+            assertEquals(products.get(doc).getId(), snapshot.document(doc).getId());
+        }
+
+        // a base shard left empty by a small catalog, followed by a segment of changes
+        indexer.install(shards(products.subList(0, 1)));
+        indexer.update(product("d", "steel"));
+        IndexSnapshot changed = indexer.refresh();
+        assertEquals(3, changed.segmentCount());
+        assertEquals("a", changed.document(0).getId());
+        assertEquals("d", changed.document(1).getId());
+        assertEquals(ids(product("d", "steel")), ids(search(changed, "steel")));
+    }
+
+    private Product product(String id, String name) {
+        Product product = new Product();
+        product.setId(id);
+        product.setProductName(name);
+        product.setSeller(seller);
+        names.put(id, name);
+        return product;
+    }
+
+    private String randomName() {
+        StringBuilder name = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+        for (int words = random.nextInt(4); words > 0; words--) {
+            name.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return name.toString();
+    }
+
+    private static ProductIndex[] shards(List<Product> products) {
+        ShardedIndexBuilder builder = new ShardedIndexBuilder(2);
+        for (Product product : products) {
+            builder.add(product);
+        }
+        return builder.build();
+    }
+
+    private static SearchResult search(IndexSnapshot snapshot, String query) {
+        return new ProductSearcher(snapshot).search(query, null, false, 10, 0, 1000);
+    }
+
+    /**
+     * @return the name of every live product, by id, walking the segments' documents
+     */
+    private static Map<String, String> liveNames(IndexSnapshot snapshot) {
+        Map<String, String> names = new TreeMap<String, String>();
+        for (int s = 0; s < snapshot.segmentCount(); s++) {
+            IndexSnapshot.Segment segment = snapshot.segment(s);
+            for (int doc = 0; doc < segment.index.maxDoc(); doc++) {
+                if (segment.isLive(doc)) {
+                    Product product = segment.index.document(doc);
+                    assertEquals(product, snapshot.document(snapshot.docBase(s) + doc));
+                    String previous = names.put(product.getId(), product.getProductName());
+                    assertEquals("live twice: " + product.getId(), null, previous);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static List<String> ids(SearchResult result) {
+        List<String> ids = new ArrayList<String>();
+        for (Product product : result.getProducts()) {
+            ids.add(product.getId());
+        }
+        return ids;
+    }
+
+    private static List<String> ids(Product product) {
+        List<String> ids = new ArrayList<String>();
+        ids.add(product.getId());
+        return ids;
+    }
+}
@@ -0,0 +1,271 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes the shards and suggestions of a catalog to an index file, opens it again, and
+ * expects the same index and search results as the one in memory.
+ */
+public class IndexFileTest {
+
+    private static final String[] WORDS = {"red", "blue", "lamp", "chair", "table", "wooden", "steel", "desk",
+            "café", "crème", "größe", "naïve", "東京", "sofa", "leather", "cushion"};
+    private static final int PRODUCTS = 5000;
+    private static final int SHARDS = 3;
+
+    private static ProductStore documents;
+    private static ProductIndex[] shards;
+    private static SuggestIndex suggestions;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void buildIndex() {
+        Random random = new Random(11);
+        Seller[] sellers = new Seller[20];
+        for (int i = 0; i < sellers.length; i++) {
+            sellers[i] = new Seller();
+            sellers[i].setSellerId("s" + i);
+            sellers[i].setSellerName(i % 5 == 0 ? null : "Seller " + WORDS[i % WORDS.length]);
+        }
+        Product[] products = new Product[PRODUCTS];
+        ShardedIndexBuilder builder = new ShardedIndexBuilder(SHARDS);
+        SuggestIndexBuilder suggestBuilder = new SuggestIndexBuilder();
+        for (int i = 0; i < PRODUCTS; i++) {
+            Product product = new Product();
+            product.setId("p" + i);
+            StringBuilder name = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            for (int words = random.nextInt(4); words > 0; words--) {
+                name.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            product.setProductName(name.append(' ').append(i % 97).toString());
+            product.setDescription(i % 3 == 0 ? null : WORDS[random.nextInt(WORDS.length)]);
+            product.setSeller(i % 10 == 0 ? null : sellers[random.nextInt(sellers.length)]);
+            products[i] = product;
+            builder.add(product);
+            suggestBuilder.add(product.getProductName());
+        }
+        documents = new ArrayProductStore(products);
+        shards = builder.build(documents);
+        suggestions = suggestBuilder.build();
+    }
+
+    @Test
+    public void reopensTheIndexItWrote() throws IOException {
+        File documentsFile = documentsFile();
+        File file = write(documentsFile, new Date(123456789L));
+        IndexFile index = IndexFile.open(file, documents, documentsFile);
+        assertEquals(new Date(123456789L), index.getHighWaterMark());
+        assertSameIndex(index);
+    }
+
+    @Test
+    public void readsValuesAcrossTheEdgesOfSmallWindows() throws IOException {
+        File documentsFile = documentsFile();
+        File file = write(documentsFile, null);
+        // odd sizes, so that ints, longs, floats and strings all straddle window edges; not
+        // much smaller, every window is a mapping until it is collected
+        for (int windowSize : new int[]{1021, 4099}) {
+            IndexFile index = IndexFile.open(file, documents, documentsFile, windowSize);
+            assertNull(index.getHighWaterMark());
+            assertSameIndex(index);
+        }
+    }
+
+    @Test
+    public void rejectsACorruptByte() throws IOException {
+        File documentsFile = documentsFile();
+        File file = write(documentsFile, null);
+        long[] positions = {3, 10, IndexFileFormat.HEADER_SIZE + 1000, file.length() - 1};
+        String[] messages = {"not an index file", "header checksum mismatch", "body checksum mismatch",
+                "body checksum mismatch"};
+        for (int i = 0; i < positions.length; i++) {
+            long position = positions[i];
+            File corrupt = folder.newFile();
+            copy(file, corrupt);
+            RandomAccessFile bytes = new RandomAccessFile(corrupt, "rw");
+            try {
+                bytes.seek(position);
+                int b = bytes.read();
+                bytes.seek(position);
+                bytes.write(b ^ 0x10);
+            } finally {
+                bytes.close();
+            }
+            assertRejected(corrupt, documents, documentsFile, messages[i]);
+        }
+    }
+
+    @Test
+    public void rejectsATruncatedFile() throws IOException {
+        File documentsFile = documentsFile();
+        File file = write(documentsFile, null);
+        RandomAccessFile bytes = new RandomAccessFile(file, "rw");
+        try {
+            bytes.setLength(file.length() - 4);
+        } finally {
+            bytes.close();
+        }
+        assertRejected(file, documents, documentsFile, "body bytes");
+    }
+
+    @Test
+    public void rejectsOtherDocuments() throws IOException {
+        File documentsFile = documentsFile();
+        File file = write(documentsFile, null);
+
+        Product[] fewer = new Product[PRODUCTS - 1];
+        for (int i = 0; i < fewer.length; i++) {
+            fewer[i] = documents.get(i);
+        }
+        assertRejected(file, new ArrayProductStore(fewer), documentsFile, "was not written for");
+
+        assertTrue(documentsFile.setLastModified(documentsFile.lastModified() - 60000));
+        assertRejected(file, documents, documentsFile, "was not written for");
+
+        File longer = documentsFile();
+        FileOutputStream out = new FileOutputStream(longer, true);
+        try {
+            out.write(0);
+        } finally {
+            out.close();
+        }
+        assertRejected(file, documents, longer, "was not written for");
+    }
+
+    private void assertSameIndex(IndexFile index) {
+        ProductIndex[] opened = index.getShards();
+        assertEquals(SHARDS, opened.length);
+        for (int i = 0; i < SHARDS; i++) {
+            assertSameShard("shard " + i, shards[i], opened[i]);
+        }
+
+        ProductSearcher expected = new ProductSearcher(IndexSnapshot.of(shards));
+        ProductSearcher actual = new ProductSearcher(IndexSnapshot.of(opened));
+        List<Collection<String>> sellerFilters = Arrays.<Collection<String>>asList(null, Arrays.asList("s1", "s4"));
+        for (String query : new String[]{"red lamp", "café crème", "größe", "東京", "naive", "stel desk", "7"}) {
+            for (Collection<String> sellers : sellerFilters) {
+                for (boolean fuzzy : new boolean[]{false, true}) {
+                    String search = query + ", sellers=" + sellers + ", fuzzy=" + fuzzy;
+                    SearchResult a = expected.search(query, sellers, fuzzy, 10, 0, 50);
+                    SearchResult b = actual.search(query, sellers, fuzzy, 10, 0, 50);
+                    assertEquals(search, ids(a), ids(b));
+                    assertEquals(search, a.getTotalHits(), b.getTotalHits());
+                    assertEquals(search, facets(a), facets(b));
+                }
+            }
+        }
+
+        for (String prefix : new String[]{"r", "caf", "café c", "grö", "東", "z", "wooden steel"}) {
+            assertEquals(prefix, suggestions.suggest(prefix, 10), index.getSuggestions().suggest(prefix, 10));
+        }
+        assertEquals(suggestions.size(), index.getSuggestions().size());
+    }
+
+    private static void assertSameShard(String shard, ProductIndex expected, ProductIndex actual) {
+        assertEquals(shard, expected.maxDoc(), actual.maxDoc());
+        assertEquals(shard, expected.avgDocLength(), actual.avgDocLength(), 0f);
+        assertEquals(shard, expected.termCount(), actual.termCount());
+        for (int i = 0; i < expected.termCount(); i++) {
+            assertEquals(shard, expected.term(i), actual.term(i));
+            assertArrayEquals(shard + " " + expected.term(i), expected.postings(i), actual.postings(i));
+            assertArrayEquals(shard + " " + expected.term(i), expected.frequencies(i), actual.frequencies(i));
+            assertEquals(shard, expected.maxTermScore(i), actual.maxTermScore(i), 0f);
+        }
+        assertEquals(shard, expected.nameTerms(), actual.nameTerms());
+        for (int doc = 0; doc < expected.maxDoc(); doc++) {
+            assertEquals(shard, expected.lengthNorm(doc), actual.lengthNorm(doc), 0f);
+            assertEquals(shard, expected.document(doc).getId(), actual.document(doc).getId());
+        }
+        assertArrayEquals(shard, expected.docsById(), actual.docsById());
+        assertEquals(shard, expected.sellerCount(), actual.sellerCount());
+        for (int i = 0; i < expected.sellerCount(); i++) {
+            assertEquals(shard, expected.sellerId(i), actual.sellerId(i));
+            assertEquals(shard, expected.sellerName(i), actual.sellerName(i));
+            assertEquals(shard, docs(expected.sellerDocs(i)), docs(actual.sellerDocs(i)));
+        }
+    }
+
+    private static List<Integer> docs(RoaringDocSet set) {
+        List<Integer> docs = new ArrayList<Integer>();
+        for (int doc = set.nextDoc(0); doc != RoaringDocSet.NO_MORE_DOCS; doc = set.nextDoc(doc + 1)) {
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    private static List<String> ids(SearchResult result) {
+        List<String> ids = new ArrayList<String>();
+        for (Product product : result.getProducts()) {
+            ids.add(product.getId());
+        }
+        return ids;
+    }
+
+    private static List<String> facets(SearchResult result) {
+        List<String> facets = new ArrayList<String>();
+        for (FacetCount facet : result.getFacets().get(ProductSearcher.SELLER_FACET)) {
+            facets.add(facet.getValue() + " " + facet.getLabel() + "=" + facet.getCount());
+        }
+        return facets;
+    }
+
+    private static void assertRejected(File file, ProductStore store, File documentsFile, String message) {
+        try {
+            IndexFile.open(file, store, documentsFile);
+            fail("opened " + file);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private File write(File documentsFile, Date highWaterMark) throws IOException {
+        File file = new File(folder.getRoot(), "index/products.idx");
+        IndexFileWriter.write(file, shards, suggestions, highWaterMark, documentsFile);
+        return file;
+    }
+
+    /**
+     * Stands in for the catalog the documents were mapped from, only its length and
+     * modification time are compared.
+     */
+    private File documentsFile() throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[1000]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,145 @@
+package com.sam.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Builds doc sets of random and hand-picked ids and checks every operation against a
+ * {@link BitSet} holding the same ids.
+ */
+public class RoaringDocSetTest {
+
+    private static final int CHUNK = 1 << 16;
+
+    private final Random random = new Random(17);
+
+    @Test
+    public void aChunkBecomesABitmapPastTheArrayMaximum() {
+        for (int size : new int[]{1, RoaringDocSet.ARRAY_MAX - 1, RoaringDocSet.ARRAY_MAX, RoaringDocSet.ARRAY_MAX + 1,
+                2 * RoaringDocSet.ARRAY_MAX}) {
+            BitSet expected = new BitSet();
+            // in the second chunk, spread over it
+            while (expected.cardinality() < size) {
+                expected.set(CHUNK + random.nextInt(CHUNK));
+            }
+            RoaringDocSet set = of(expected);
+            long chunkBytes = size <= RoaringDocSet.ARRAY_MAX ? 2L * size : 8192L;
+            assertEquals("size " + size, 2 + chunkBytes, set.sizeInBytes());
+            assertSame("size " + size, expected, set, 3 * CHUNK);
+        }
+    }
+
+    @Test
+    public void nextDocCrossesChunkEdges() {
+        BitSet expected = new BitSet();
+        for (int doc : new int[]{0, CHUNK - 1, CHUNK, 2 * CHUNK - 1, 4 * CHUNK, 4 * CHUNK + 63, 4 * CHUNK + 64}) {
+            expected.set(doc);
+        }
+        // a bitmap chunk whose ids all sit in its first words, so a later target scans to the next chunk
+        expected.set(6 * CHUNK, 6 * CHUNK + RoaringDocSet.ARRAY_MAX + 1);
+        expected.set(8 * CHUNK - 1);
+        expected.set(9 * CHUNK);
+        RoaringDocSet set = of(expected);
+        assertEquals(expected.cardinality(), set.cardinality());
+
+        for (int chunk = 0; chunk <= 10; chunk++) {
+            int edge = chunk * CHUNK;
+            for (int target = Math.max(0, edge - 70); target < edge + RoaringDocSet.ARRAY_MAX + 70; target++) {
+                assertEquals("target " + target, oracleNext(expected, target), set.nextDoc(target));
+            }
+        }
+        assertEquals(RoaringDocSet.NO_MORE_DOCS, set.nextDoc(9 * CHUNK + 1));
+        assertEquals(RoaringDocSet.NO_MORE_DOCS, set.nextDoc(Integer.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void randomSetsMatchTheBitSet() {
+        for (int round = 0; round < 30; round++) {
+            BitSet expected = new BitSet();
+            int chunks = 1 + random.nextInt(4);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                // empty, sparse, around the array maximum, dense
+                int[] sizes = {0, 1 + random.nextInt(100), RoaringDocSet.ARRAY_MAX - 2 + random.nextInt(5),
+                        20000 + random.nextInt(40000)};
+                int size = sizes[random.nextInt(sizes.length)];
+                BitSet ids = new BitSet();
+                while (ids.cardinality() < size) {
+                    ids.set(random.nextInt(CHUNK));
+                }
+                for (int low = ids.nextSetBit(0); low >= 0; low = ids.nextSetBit(low + 1)) {
+                    expected.set(chunk * CHUNK + low);
+                }
+            }
+            assertSame("round " + round, expected, of(expected), chunks * CHUNK);
+        }
+    }
+
+    @Test
+    public void andCardinalityTakesBitsShorterOrLongerThanTheSet() {
+        BitSet expected = new BitSet();
+        for (int doc = 0; doc < 3 * CHUNK; doc += 1 + random.nextInt(3)) {
+            expected.set(doc);
+        }
+        for (int doc = 5 * CHUNK; doc < 5 * CHUNK + 500; doc += 7) {
+            expected.set(doc);
+        }
+        RoaringDocSet set = of(expected);
+        for (int length : new int[]{0, 1, 1023, 1024, 1025, 3 * 1024 + 17, 5 * 1024 + 3, 6 * 1024, 20 * 1024}) {
+            BitSet hits = new BitSet();
+            for (int doc = 0; doc < 64 * length; doc++) {
+                if (random.nextInt(3) == 0) {
+                    hits.set(doc);
+                }
+            }
+            long[] bits = Arrays.copyOf(hits.toLongArray(), length);
+            BitSet and = (BitSet) expected.clone();
+            and.and(hits);
+            assertEquals("length " + length, and.cardinality(), set.andCardinality(bits));
+        }
+    }
+
+    @Test
+    public void takesOnlyTheGivenLength() {
+        RoaringDocSet set = RoaringDocSet.of(new int[]{3, 70000, 140000, 0}, 2);
+        assertEquals(2, set.cardinality());
+        assertEquals(70000, set.nextDoc(4));
+        assertEquals(RoaringDocSet.NO_MORE_DOCS, set.nextDoc(70001));
+        assertEquals(RoaringDocSet.NO_MORE_DOCS, RoaringDocSet.of(new int[0], 0).nextDoc(0));
+    }
+
+    private static RoaringDocSet of(BitSet ids) {
+        int[] docs = ids.stream().toArray();
+        return RoaringDocSet.of(docs, docs.length);
+    }
+
+    /**
+     * Compares cardinality, membership and the next member of every doc id below {@code end},
+     * and the intersection with a random bit set.
+     */
+    private void assertSame(String message, BitSet expected, RoaringDocSet set, int end) {
+        assertEquals(message, expected.cardinality(), set.cardinality());
+        for (int doc = 0; doc < end; doc++) {
+            assertEquals(message + ", contains " + doc, expected.get(doc), set.contains(doc));
+            assertEquals(message + ", next of " + doc, oracleNext(expected, doc), set.nextDoc(doc));
+        }
+        BitSet hits = new BitSet();
+        for (int doc = 0; doc < end; doc++) {
+            if (random.nextBoolean()) {
+                hits.set(doc);
+            }
+        }
+        BitSet and = (BitSet) expected.clone();
+        and.and(hits);
+        assertEquals(message, and.cardinality(), set.andCardinality(hits.toLongArray()));
+    }
+
+    private static int oracleNext(BitSet expected, int target) {
+        int next = expected.nextSetBit(target);
+        return next < 0 ? RoaringDocSet.NO_MORE_DOCS : next;
+    }
+}
@@ -0,0 +1,167 @@
+package com.sam.search;
+
+import com.sam.model.Product;
+import com.sam.model.Seller;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Searches the same products split into shards, in parallel and in the calling thread,
+ * and in one index, and expects the same pages, totals and seller facets.
+ */
+public class ShardedSearchTest {
+
+    private static final String[] WORDS = {"red", "blue", "green", "lamp", "chair", "table", "wooden", "steel",
+            "desk", "sofa", "leather", "cushion", "bookshelf", "wardrobe"};
+    private static final int PRODUCTS = 20000;
+
+    private static List<Product> products;
+    private static String[] vocabulary;
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void createProducts() {
+        Random random = new Random(5);
+        vocabulary = new String[3000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int length = 4 + random.nextInt(6); word.length() < length; ) {
+                word.append((char) ('a' + random.nextInt(12)));
+            }
+            vocabulary[i] = word.toString();
+        }
+        Seller[] sellers = new Seller[50];
+        for (int i = 0; i < sellers.length; i++) {
+            sellers[i] = new Seller();
+            sellers[i].setSellerId("s" + i);
+            sellers[i].setSellerName("Seller " + i);
+        }
+        products = new ArrayList<Product>(PRODUCTS);
+        for (int i = 0; i < PRODUCTS; i++) {
+            Product product = new Product();
+            product.setId("p" + i);
+            // names of different lengths, which BM25 normalizes by the shards' common average
+            StringBuilder name = new StringBuilder(vocabulary[random.nextInt(vocabulary.length)]);
+            for (int words = 1 + random.nextInt(5); words > 0; words--) {
+                name.append(' ').append(word(random));
+            }
+            product.setProductName(name.toString());
+            product.setDescription(vocabulary[random.nextInt(vocabulary.length)] + " " + word(random));
+            // skewed, so that facets are not all tied
+            product.setSeller(sellers[(int) Math.abs(random.nextGaussian() * 10) % sellers.length]);
+            products.add(product);
+        }
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void shutDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void twoShardsMatchOneIndex() {
+        assertShardsMatchOneIndex(2);
+    }
+
+    @Test
+    public void threeShardsMatchOneIndex() {
+        assertShardsMatchOneIndex(3);
+    }
+
+    @Test
+    public void eightShardsMatchOneIndex() {
+        assertShardsMatchOneIndex(8);
+    }
+
+    private static void assertShardsMatchOneIndex(int shards) {
+        ShardedIndexBuilder shardedBuilder = new ShardedIndexBuilder(shards);
+        for (Product product : products) {
+            shardedBuilder.add(product);
+        }
+        ProductIndex[] indexes = shardedBuilder.build();
+        // one index of the products in the order the shards' documents are numbered, so
+        // that hits with equal scores are ordered alike
+        ProductIndexBuilder builder = new ProductIndexBuilder();
+        for (int shard = 0; shard < shards; shard++) {
+            for (int i = shard; i < products.size(); i += shards) {
+                builder.add(products.get(i));
+            }
+        }
+        ProductSearcher single = new ProductSearcher(builder.build());
+        ProductSearcher parallel = new ProductSearcher(IndexSnapshot.of(indexes), pool);
+        ProductSearcher sequential = new ProductSearcher(IndexSnapshot.of(indexes));
+
+        String[] queries = {"red lamp", "leather", "wooden steel desk", "bookshelf wardrobe chair", "zyzzyva",
+                "lether cushon", vocabulary[7], vocabulary[1000] + " red", vocabulary[2000] + " " + vocabulary[2001]};
+        List<Collection<String>> sellerFilters = Arrays.<Collection<String>>asList(null, Arrays.asList("s3", "s7"));
+        int[][] windows = {{0, 20}, {40, 20}, {0, 1000}};
+        for (String query : queries) {
+            for (boolean fuzzy : new boolean[]{false, true}) {
+                for (Collection<String> sellers : sellerFilters) {
+                    for (int[] window : windows) {
+                        for (int facets : new int[]{0, 10}) {
+                            String search = String.format("%d shards, q=%s, fuzzy=%s, sellers=%s, offset=%d, limit=%d, "
+                                    + "facets=%d", shards, query, fuzzy, sellers, window[0], window[1], facets);
+                            SearchResult expected = single.search(query, sellers, fuzzy, facets, window[0], window[1]);
+                            assertSameResult(search + ", parallel", expected,
+                                    parallel.search(query, sellers, fuzzy, facets, window[0], window[1]));
+                            assertSameResult(search + ", sequential", expected,
+                                    sequential.search(query, sellers, fuzzy, facets, window[0], window[1]));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertSameResult(String search, SearchResult expected, SearchResult actual) {
+        assertEquals(search, ids(expected), ids(actual));
+        assertEquals(search, facets(expected), facets(actual));
+        if (expected.isTotalHitsExact() && actual.isTotalHitsExact()) {
+            assertEquals(search, expected.getTotalHits(), actual.getTotalHits());
+        } else {
+            // WAND skipped hits, which still counts at least the returned ones
+            assertTrue(search, actual.getTotalHits() >= actual.getProducts().size());
+        }
+        if (expected.getFacets() != null) {
+            // counting facets visits every hit
+            assertTrue(search, expected.isTotalHitsExact() && actual.isTotalHitsExact());
+        }
+    }
+
+    private static List<String> ids(SearchResult result) {
+        List<String> ids = new ArrayList<String>();
+        for (Product product : result.getProducts()) {
+            ids.add(product.getId());
+        }
+        return ids;
+    }
+
+    private static List<String> facets(SearchResult result) {
+        List<String> facets = new ArrayList<String>();
+        Map<String, List<FacetCount>> all = result.getFacets();
+        if (all != null) {
+            for (FacetCount facet : all.get(ProductSearcher.SELLER_FACET)) {
+                facets.add(facet.getValue() + " " + facet.getLabel() + "=" + facet.getCount());
+            }
+        }
+        return facets;
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
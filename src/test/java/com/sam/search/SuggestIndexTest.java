@@ -0,0 +1,138 @@
+package com.sam.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds suggest indexes of hand-picked and random names and checks completions against
+ * a scan of every name.
+ */
+public class SuggestIndexTest {
+
+    @Test
+    public void completesPrefixesCaseAndSpaceInsensitively() {
+        SuggestIndex index = new SuggestIndexBuilder().add("Red Lamp").add("red  chair").add("Redwood table")
+                .add("blue lamp").build();
+        assertEquals(4, index.size());
+        assertEquals(Arrays.asList("red chair", "Red Lamp", "Redwood table"), index.suggest("re", 10));
+        assertEquals(Arrays.asList("red chair", "Red Lamp"), index.suggest("RED   ", 10));
+        assertEquals(Arrays.asList("Red Lamp"), index.suggest("red l", 10));
+        assertEquals(Arrays.asList("Red Lamp"), index.suggest("  red lamp", 10));
+        assertEquals(Arrays.asList("blue lamp"), index.suggest("b", 10));
+    }
+
+    @Test
+    public void ranksNamesAddedMoreOftenFirst() {
+        SuggestIndexBuilder builder = new SuggestIndexBuilder();
+        builder.add("red chair");
+        for (int i = 0; i < 3; i++) {
+            builder.add("red lamp");
+        }
+        // the same name of another seller, cased differently, counts for the first one
+        builder.add("Red  Lamp ").add("red desk").add("red desk");
+        SuggestIndex index = builder.build();
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("red lamp", "red desk", "red chair"), index.suggest("red", 10));
+        assertEquals(Arrays.asList("red lamp", "red desk"), index.suggest("red", 2));
+        assertEquals(Collections.<String>emptyList(), index.suggest("red", 0));
+    }
+
+    @Test
+    public void completesNonAsciiNames() {
+        SuggestIndex index = new SuggestIndexBuilder().add("Ärmelschoner").add("Café crème").add("cafe latte")
+                .add("日本茶 セット").add("日本酒").add("Ελληνικό λάδι").build();
+        assertEquals(Arrays.asList("Ärmelschoner"), index.suggest("äR", 10));
+        // equal ranks in UTF-8 byte order, which puts plain e before é
+        assertEquals(Arrays.asList("cafe latte", "Café crème"), index.suggest("caf", 10));
+        assertEquals(Arrays.asList("Café crème"), index.suggest("CAFÉ C", 10));
+        assertEquals(Arrays.asList("日本茶 セット", "日本酒"), index.suggest("日本", 10));
+        assertEquals(Arrays.asList("日本茶 セット"), index.suggest("日本茶 ", 10));
+        assertEquals(Arrays.asList("Ελληνικό λάδι"), index.suggest("ελλ", 10));
+        assertEquals(Collections.<String>emptyList(), index.suggest("é", 10));
+    }
+
+    @Test
+    public void absentPrefixesHaveNoCompletions() {
+        SuggestIndex index = new SuggestIndexBuilder().add("red lamp").add("red chair").add("blue lamp").build();
+        for (String prefix : new String[]{"x", "lamp", "red lamps", "red lamp shade", "reed", "red x", "blue  lamp ",
+                "", "   ", null}) {
+            assertEquals(String.valueOf(prefix), Collections.<String>emptyList(), index.suggest(prefix, 10));
+        }
+        assertEquals(Collections.<String>emptyList(), SuggestIndex.EMPTY.suggest("red", 10));
+        assertEquals(0, new SuggestIndexBuilder().add("  ").add("").build().size());
+    }
+
+    @Test
+    public void randomNamesMatchAScan() {
+        Random random = new Random(19);
+        String[] words = {"red", "reed", "redwood", "lamp", "lampshade", "chair", "chaise", "café", "ñandú", "日本"};
+        SuggestIndexBuilder builder = new SuggestIndexBuilder();
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder name = new StringBuilder(words[random.nextInt(words.length)]);
+            for (int w = random.nextInt(3); w > 0; w--) {
+                name.append(' ').append(words[random.nextInt(words.length)]);
+            }
+            // skewed, so that weights differ
+            int copies = random.nextInt(10) == 0 ? 5 : 1;
+            for (int c = 0; c < copies; c++) {
+                builder.add(name.toString());
+                Integer weight = weights.get(name.toString());
+                weights.put(name.toString(), weight == null ? 1 : weight + 1);
+            }
+        }
+        SuggestIndex index = builder.build();
+        assertEquals(weights.size(), index.size());
+
+        for (String name : weights.keySet()) {
+            for (int length = 1; length <= name.length(); length++) {
+                String prefix = name.substring(0, length);
+                assertEquals(prefix, scan(weights, prefix, SuggestIndexBuilder.TOP_N), index.suggest(prefix, 100));
+                assertEquals(prefix, scan(weights, prefix, 3), index.suggest(prefix, 3));
+            }
+        }
+        assertTrue(index.suggest("lamp ", 10).size() > 0);
+    }
+
+    /**
+     * @return the names starting with the prefix, most often added first, then in UTF-8 byte order
+     */
+    private static List<String> scan(final Map<String, Integer> weights, String prefix, int limit) {
+        List<String> names = new ArrayList<String>();
+        for (String name : weights.keySet()) {
+            if (name.startsWith(prefix)) {
+                names.add(name);
+            }
+        }
+        Collections.sort(names, new Comparator<String>() {
+            public int compare(String a, String b) {
+                int cmp = weights.get(b).compareTo(weights.get(a));
+                return cmp != 0 ? cmp : compareUtf8(a, b);
+            }
+        });
+        return names.subList(0, Math.min(limit, names.size()));
+    }
+
+    private static int compareUtf8(String a, String b) {
+        byte[] x = a.getBytes(SuggestIndex.UTF_8);
+        byte[] y = b.getBytes(SuggestIndex.UTF_8);
+        for (int i = 0; i < Math.min(x.length, y.length); i++) {
+            int diff = (x[i] & 0xFF) - (y[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return x.length - y.length;
+    }
+}